@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Utilidades comunes de los benchmarks. */
+final class Benchmarks {
+
+    private Benchmarks() {}
+
+    /** Directorio temporal para historial, buzones y grupos de un ChatServer de prueba. */
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("chat-bench-" + prefix).toFile();
+    }
+
+    static void deleteRecursively(File dir) {
+        if (dir == null || !dir.exists()) return;
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {}
+    }
+
+    static int freeTcpPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static int freeUdpPort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
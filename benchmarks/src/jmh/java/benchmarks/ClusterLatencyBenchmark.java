@@ -0,0 +1,83 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import server.ChatServer;
+import server.cluster.ClusterNode;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de un mensaje privado entre dos nodos del clúster en la misma JVM
+ * (enlace por loopback): desde {@code sendPrivateMessage} en el nodo 1 hasta que
+ * la sesión del destinatario en el nodo 2 lo recibe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClusterLatencyBenchmark {
+
+    private File dir1;
+    private File dir2;
+    private ChatServer server1;
+    private ChatServer server2;
+    private ClusterNode node1;
+    private ClusterNode node2;
+    private NullSession sender;
+    private NullSession receiver;
+
+    @Setup
+    public void setup() throws Exception {
+        dir1 = Benchmarks.tempDir("node1");
+        dir2 = Benchmarks.tempDir("node2");
+        int port1 = Benchmarks.freeTcpPort();
+        int port2 = Benchmarks.freeTcpPort();
+        server1 = new ChatServer(0, 0, 1, dir1);
+        server2 = new ChatServer(0, 0, 1, dir2);
+        node1 = new ClusterNode(1, port1, Map.of(2, new InetSocketAddress("127.0.0.1", port2)), server1);
+        node2 = new ClusterNode(2, port2, Map.of(1, new InetSocketAddress("127.0.0.1", port1)), server2);
+        node1.start();
+        node2.start();
+        while (node1.connectedPeers() == 0 || node2.connectedPeers() == 0) Thread.sleep(10);
+
+        sender = new NullSession(server1.nextClientId());
+        receiver = new NullSession(server2.nextClientId());
+        server1.register(sender);
+        server2.register(receiver);
+        // Espera a que el nodo 1 sepa dónde está el destinatario
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (receiver.received.get() == 0) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("El clúster no se formó");
+            server1.sendPrivateMessage(sender.getId(), receiver.getId(), "hola");
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        node1.close();
+        node2.close();
+        server1.close();
+        server2.close();
+        Benchmarks.deleteRecursively(dir1);
+        Benchmarks.deleteRecursively(dir2);
+    }
+
+    @Benchmark
+    public long privateMessageRoundTrip() {
+        long before = receiver.received.get();
+        server1.sendPrivateMessage(sender.getId(), receiver.getId(), "mensaje entre nodos");
+        long now;
+        while ((now = receiver.received.get()) == before) Thread.onSpinWait();
+        return now;
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import server.ChatServer;
+import server.CommandDispatcher;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpretación de una línea de comando tal como la hace ClientHandler (y el
+ * gateway web) a través de CommandDispatcher. Las líneas elegidas no escriben en
+ * el historial, así que se mide el parseo y la búsqueda en ChatServer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandParsingBenchmark {
+
+    @Param({
+            "/msg 999999 hola, ¿alguien ahí?",
+            "/msgGroup noexiste hola a todos",
+            "/joinGroup bench",
+            "/listGroups",
+            "texto libre sin comando"
+    })
+    public String line;
+
+    private File dir;
+    private ChatServer server;
+    private CommandDispatcher dispatcher;
+    private NullSession session;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Benchmarks.tempDir("parse");
+        server = new ChatServer(0, 0, 1, dir);
+        dispatcher = new CommandDispatcher(server);
+        session = new NullSession(server.nextClientId());
+        server.register(session);
+        server.createGroup("bench", session);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+        Benchmarks.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public boolean dispatch() {
+        return dispatcher.dispatch(session, line);
+    }
+}
@@ -0,0 +1,145 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import server.WireCompression;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Coste de la compresión de la conexión TCP frente a sus alternativas, para una
+ * conversación de mensajes parecidos (prefijo de secuencia y grupo, palabras repetidas):
+ * <ul>
+ *   <li>{@code stream}: WireCompression, un Deflater por conexión con SYNC_FLUSH;</li>
+ *   <li>{@code perMessage}: un deflate independiente por mensaje (sin diccionario);</li>
+ *   <li>{@code none}: solo codificar a UTF-8, lo que se hace sin compresión.</li>
+ * </ul>
+ * Los bytes en la red salen como contadores auxiliares ({@code rawBytes}, {@code wireBytes}):
+ * su cociente es la ganancia y el tiempo por operación el coste de CPU. Las pruebas
+ * {@code voice*} miden una nota PCM de 10 s, y con ruido la decisión de enviarla tal cual.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    @Param({"300", "2000"})
+    public int messageBytes;
+
+    @Param({"stream", "perMessage", "none"})
+    public String mode;
+
+    private static final String[] WORDS = {
+            "hola", "qué", "tal", "mañana", "reunión", "grupo", "proyecto", "enviar", "archivo",
+            "llamada", "ahora", "luego", "gracias", "vale", "nota", "voz", "servidor", "cliente"};
+    private static final int MESSAGES = 256;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Wire {
+        public long rawBytes;
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rawBytes = 0;
+            wireBytes = 0;
+        }
+    }
+
+    private String[] messages;
+    private int next;
+    private WireCompression stream;
+    private Deflater perMessage;
+    private byte[] out;
+    private ByteBuffer speech;
+    private ByteBuffer noise;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        messages = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            StringBuilder sb = new StringBuilder("#" + (1000 + i) + " [Grupo equipo] " + random.nextInt(50) + ":");
+            while (sb.length() < messageBytes) sb.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            messages[i] = sb.append('\n').toString();
+        }
+        stream = new WireCompression();
+        perMessage = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        out = new byte[messageBytes * 2 + 64];
+        // 10 s a 16 kHz/16 bits: tono con ruido (voz) y ruido puro (no compensa)
+        byte[] pcm = new byte[10 * 16000 * 2];
+        for (int i = 0; i < pcm.length; i += 2) {
+            short v = (short) (Math.sin(i / 40.0) * 3000 + random.nextGaussian() * 200);
+            pcm[i] = (byte) v;
+            pcm[i + 1] = (byte) (v >> 8);
+        }
+        speech = ByteBuffer.wrap(pcm);
+        byte[] random16 = new byte[pcm.length];
+        random.nextBytes(random16);
+        noise = ByteBuffer.wrap(random16);
+    }
+
+    @TearDown
+    public void tearDown() {
+        stream.close();
+        perMessage.end();
+    }
+
+    @Benchmark
+    public int text(Wire wire) {
+        byte[] raw = messages[next++ & (MESSAGES - 1)].getBytes(StandardCharsets.UTF_8);
+        int sent;
+        switch (mode) {
+            case "stream":
+                sent = stream.deflateText(raw).length;
+                break;
+            case "perMessage":
+                perMessage.reset();
+                perMessage.setInput(raw);
+                perMessage.finish();
+                sent = 0;
+                while (!perMessage.finished()) {
+                    sent += perMessage.deflate(out);
+                }
+                break;
+            default:
+                sent = raw.length;
+        }
+        wire.rawBytes += raw.length;
+        wire.wireBytes += sent;
+        return sent;
+    }
+
+    // Las notas no dependen de mode: siempre pasan por WireCompression.deflateVoice
+
+    @Benchmark
+    public byte[] voiceSpeech(Wire wire) {
+        return voice(wire, speech);
+    }
+
+    @Benchmark
+    public byte[] voiceNoise(Wire wire) {
+        return voice(wire, noise);
+    }
+
+    private byte[] voice(Wire wire, ByteBuffer note) {
+        byte[] sent = stream.deflateVoice("nota.wav", note);
+        wire.rawBytes += note.remaining();
+        wire.wireBytes += sent != null ? sent.length : note.remaining();
+        return sent;
+    }
+}
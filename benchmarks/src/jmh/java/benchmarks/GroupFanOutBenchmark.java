@@ -0,0 +1,74 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import server.ChatServer;
+import server.ClientHandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code ChatServer.sendGroupMessage} con miembros que son ClientHandler reales
+ * sobre sockets en memoria: incluye el historial, el lock del servidor y el
+ * formateo y flush por destinatario.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GroupFanOutBenchmark {
+
+    private static final String GROUP = "bench";
+
+    @Param({"10", "100", "1000"})
+    public int members;
+
+    private File dir;
+    private ChatServer server;
+    private final List<MemorySocket> sockets = new ArrayList<>();
+    private int senderId;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Benchmarks.tempDir("fanout");
+        server = new ChatServer(0, 0, 1, dir);
+        for (int i = 0; i < members; i++) {
+            MemorySocket socket = new MemorySocket();
+            ClientHandler handler = new ClientHandler(server.nextClientId(), socket, server);
+            Thread t = new Thread(handler, "bench-client-" + i);
+            t.setDaemon(true);
+            t.start();
+            // El handler ya abrió su writer cuando envía el saludo
+            while (socket.written() == 0) Thread.onSpinWait();
+            server.register(handler);
+            sockets.add(socket);
+            if (i == 0) {
+                senderId = handler.getId();
+                server.createGroup(GROUP, handler);
+            } else {
+                server.addUserToGroup(GROUP, handler);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (MemorySocket socket : sockets) socket.close();
+        server.close();
+        Benchmarks.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void sendGroupMessage() {
+        server.sendGroupMessage(GROUP, senderId, "hola a todos, ¿quién se conecta esta noche?");
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import server.HistoryService;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/** Mensajes por segundo que acepta HistoryService al anexar texto al historial. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HistoryAppendBenchmark {
+
+    private File dir;
+    private HistoryService history;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Benchmarks.tempDir("history");
+        history = new HistoryService(dir);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Benchmarks.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void groupText() {
+        history.logGroupText("bench", 1, "mensaje de prueba para el historial del grupo");
+    }
+
+    @Benchmark
+    public void privateText() {
+        history.logPrivateText(1, 2, "mensaje de prueba para el historial privado");
+    }
+
+    /** Varios hilos escribiendo a la vez, como hacen los handlers TCP y Ice. */
+    @Benchmark
+    @Threads(4)
+    public void groupTextContended() {
+        history.logGroupText("bench", 1, "mensaje de prueba para el historial del grupo");
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import server.OfflineMailbox;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capacidad del buzón offline: mensajes guardados por segundo repartidos entre
+ * {@code users} destinatarios desconectados. Cada iteración empieza con un buzón
+ * vacío y al terminar informa cuántos mensajes guardó y cuánta memoria ocupan;
+ * lo que no cabe en memoria va a disco, que es lo que limita la tasa.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MailboxCapacityBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private File dir;
+    private OfflineMailbox mailbox;
+    private String[] names;
+    private int next;
+    private long stored;
+
+    @Setup(Level.Trial)
+    public void names() {
+        names = new String[users];
+        for (int i = 0; i < users; i++) names[i] = String.valueOf(i + 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        dir = Benchmarks.tempDir("mailbox");
+        mailbox = new OfflineMailbox(dir, null);
+        stored = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        System.out.printf("%n[Buzón] %d mensajes para %d usuarios, %.1f MB en memoria%n",
+                stored, mailbox.size(), mailbox.memoryBytes() / (1024.0 * 1024.0));
+        for (String name : names) mailbox.discard(name);
+        Benchmarks.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void storeText() {
+        String user = names[next];
+        if (++next == users) next = 0;
+        mailbox.storeText(user, "[Privado] de 42: mensaje pendiente de entrega");
+        stored++;
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Socket en memoria para ejecutar un ClientHandler real sin red: la lectura se
+ * bloquea hasta cerrar el socket (un cliente que no escribe nada) y la escritura
+ * solo cuenta los bytes. Así el coste medido es el del servidor (formateo, lock,
+ * flush) y no el del kernel.
+ */
+final class MemorySocket extends Socket {
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final AtomicLong written = new AtomicLong();
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return -1;
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) {
+            written.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written.addAndGet(len);
+        }
+    };
+
+    long written() {
+        return written.get();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+        // Sin conexión real no hay nada que configurar
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.getCount() == 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed.countDown();
+    }
+}
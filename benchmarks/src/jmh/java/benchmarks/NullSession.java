@@ -0,0 +1,46 @@
+package benchmarks;
+
+import server.ChatSession;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sesión que descarta lo que recibe. Solo cuenta los mensajes: evita que el JIT
+ * elimine el trabajo y permite esperar una entrega desde otro hilo.
+ */
+final class NullSession implements ChatSession {
+
+    private final int id;
+    final AtomicLong received = new AtomicLong();
+
+    NullSession(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public void send(String msg) {
+        received.incrementAndGet();
+    }
+
+    @Override
+    public void sendAll(List<String> msgs) {
+        received.addAndGet(msgs.size());
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, byte[] data, String fromId) {
+        received.incrementAndGet();
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, Path file, String fromId) {
+        received.incrementAndGet();
+    }
+}
@@ -0,0 +1,167 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import server.ChatSession;
+import server.ConcurrentIntMap;
+import server.EndpointTable;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tablas de las rutas calientes: la de sesiones de ChatServer (búsqueda por id en cada
+ * mensaje privado) y la de endpoints de UDPRelay (búsqueda del emisor y recorrido en
+ * cada datagrama), frente a los ConcurrentHashMap que usaban antes.
+ *
+ * <p>Además del tiempo, cada prueba cuenta los bytes que reserva el hilo
+ * ({@code allocatedBytes} entre {@code operations}): con ConcurrentIntMap y
+ * EndpointTable tienen que ser 0. Los ids empiezan por encima de la caché de
+ * {@code Integer} (-128..127), como los de un nodo de un clúster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionTableBenchmark {
+
+    private static final int BATCH = 1024;
+    private static final int FIRST_ID = 1_000_001;
+
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    @Param({"2", "16"})
+    public int endpoints;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Allocation {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        public long allocatedBytes;
+        public long operations;
+        private long start;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            allocatedBytes = 0;
+            operations = 0;
+        }
+
+        void begin() {
+            start = THREADS.getCurrentThreadAllocatedBytes();
+        }
+
+        void end(int ops) {
+            allocatedBytes += THREADS.getCurrentThreadAllocatedBytes() - start;
+            operations += ops;
+        }
+    }
+
+    private ConcurrentIntMap<ChatSession> intMap;
+    private Map<Integer, ChatSession> boxedMap;
+    private int[] lookups;
+
+    private EndpointTable table;
+    private Map<SocketAddress, Object> endpointMap;
+    private InetAddress sourceAddress;
+    private int sourcePort;
+
+    @Setup
+    public void setup() throws Exception {
+        intMap = new ConcurrentIntMap<>();
+        boxedMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < sessions; i++) {
+            NullSession session = new NullSession(FIRST_ID + i);
+            intMap.put(FIRST_ID + i, session);
+            boxedMap.put(FIRST_ID + i, session);
+        }
+        lookups = new int[BATCH];
+        Random random = new Random(42);
+        for (int i = 0; i < BATCH; i++) lookups[i] = FIRST_ID + random.nextInt(sessions);
+
+        table = new EndpointTable();
+        endpointMap = new ConcurrentHashMap<>();
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        for (int i = 0; i < endpoints; i++) {
+            table.add(loopback, 40_000 + i);
+            endpointMap.put(new InetSocketAddress(loopback, 40_000 + i), new Object());
+        }
+        // El emisor es el último: la búsqueda recorre toda la tabla
+        sourceAddress = loopback;
+        sourcePort = 40_000 + endpoints - 1;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int intMapGet(Allocation allocation) {
+        allocation.begin();
+        int found = 0;
+        for (int id : lookups) {
+            if (intMap.get(id) != null) found++;
+        }
+        allocation.end(BATCH);
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int boxedMapGet(Allocation allocation) {
+        allocation.begin();
+        int found = 0;
+        for (int id : lookups) {
+            if (boxedMap.get(id) != null) found++;
+        }
+        allocation.end(BATCH);
+        return found;
+    }
+
+    /** Lo que hace UDPRelay por datagrama: buscar el emisor y recorrer los demás. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int endpointTableRoute(Allocation allocation) {
+        allocation.begin();
+        int targets = 0;
+        for (int i = 0; i < BATCH; i++) {
+            EndpointTable.Endpoint src = table.find(sourceAddress, sourcePort);
+            for (EndpointTable.Endpoint dst : table.snapshot()) {
+                if (dst != src) targets += dst.socketAddress().getPort() & 1;
+            }
+        }
+        allocation.end(BATCH);
+        return targets;
+    }
+
+    /** La versión anterior: getSocketAddress() del paquete, get en el mapa y keySet(). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int endpointMapRoute(Allocation allocation) {
+        allocation.begin();
+        int targets = 0;
+        for (int i = 0; i < BATCH; i++) {
+            SocketAddress src = new InetSocketAddress(sourceAddress, sourcePort);
+            if (endpointMap.get(src) == null) continue;
+            for (SocketAddress dst : endpointMap.keySet()) {
+                if (!dst.equals(src)) targets += ((InetSocketAddress) dst).getPort() & 1;
+            }
+        }
+        allocation.end(BATCH);
+        return targets;
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import server.TimerWheel;
+import server.UDPRelay;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de reenviar un paquete de audio por UDPRelay: un cliente envía por
+ * loopback y se mide hasta que el otro lo recibe. Incluye dos viajes por el
+ * kernel, así que sirve para comparar cambios en el relay, no como coste absoluto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UdpRelayBenchmark {
+
+    // 20 ms de audio a 8 kHz y a 16 kHz, 16 bits mono
+    @Param({"320", "640"})
+    public int payload;
+
+    private TimerWheel timers;
+    private UDPRelay relay;
+    private DatagramSocket sender;
+    private DatagramSocket receiver;
+    private DatagramPacket outgoing;
+    private DatagramPacket incoming;
+
+    @Setup
+    public void setup() throws Exception {
+        timers = new TimerWheel("bench-timers", 100, 64, Runnable::run);
+        int port = Benchmarks.freeUdpPort();
+        relay = new UDPRelay(port, timers);
+        relay.start();
+        InetSocketAddress relayAddress = new InetSocketAddress("127.0.0.1", port);
+
+        sender = new DatagramSocket();
+        receiver = new DatagramSocket();
+        receiver.setSoTimeout(1000);
+        // El relay aprende los endpoints por el primer paquete de cada uno
+        receiver.send(new DatagramPacket(new byte[1], 1, relayAddress));
+        Thread.sleep(50);
+        sender.send(new DatagramPacket(new byte[1], 1, relayAddress));
+        incoming = new DatagramPacket(new byte[payload + 64], payload + 64);
+        drain();
+
+        outgoing = new DatagramPacket(new byte[payload], payload, relayAddress);
+    }
+
+    private void drain() throws Exception {
+        receiver.setSoTimeout(200);
+        try {
+            while (true) receiver.receive(incoming);
+        } catch (SocketTimeoutException done) {
+            receiver.setSoTimeout(1000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.close();
+        receiver.close();
+        relay.close();
+        timers.close();
+    }
+
+    @Benchmark
+    public int forward() throws Exception {
+        sender.send(outgoing);
+        incoming.setLength(incoming.getData().length);
+        receiver.receive(incoming);
+        return incoming.getLength();
+    }
+}
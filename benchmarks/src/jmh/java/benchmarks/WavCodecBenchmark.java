@@ -0,0 +1,62 @@
+package benchmarks;
+
+import client.util.AudioConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codificación y decodificación WAV del cliente: {@code AudioSystem.write} como en
+ * AudioIO.recordToFile y {@code AudioSystem.getAudioInputStream} como en
+ * PlaybackQueue. No necesita dispositivos de audio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WavCodecBenchmark {
+
+    @Param({"1", "10", "60"})
+    public int seconds;
+
+    private AudioFormat format;
+    private byte[] pcm;
+    private byte[] wav;
+
+    @Setup
+    public void setup() throws Exception {
+        format = AudioConstants.getAudioFormat();
+        pcm = new byte[seconds * (int) format.getSampleRate() * format.getFrameSize()];
+        new Random(42).nextBytes(pcm);
+        wav = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), format,
+                pcm.length / format.getFrameSize());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pcm.length + 44);
+        AudioSystem.write(in, AudioFileFormat.Type.WAVE, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] decode() throws Exception {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wav))) {
+            return in.readAllBytes();
+        }
+    }
+}
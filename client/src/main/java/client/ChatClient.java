@@ -1,12 +1,18 @@
 package client;
 
 import client.util.AudioConstants;
+import client.util.WireCompression;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.sound.sampled.*;
 
 import static java.lang.System.out;
@@ -17,10 +23,29 @@ public class ChatClient implements Closeable {
     private final int tcpPort;
     private final int udpPort;
     private Socket socket;
-    private BufferedReader reader;
+    private InputStream in;
     private BufferedWriter writer;
+    private volatile boolean closing = false;
+
+    private static final long RECONNECT_MIN_DELAY_MS = 500;
+    private static final long RECONNECT_MAX_DELAY_MS = 30_000;
+    // Sesión reanudable: token del servidor y secuencia del último mensaje recibido
+    private volatile String sessionToken;
+    private volatile long lastSeq;
+    // Compresión pedida al conectar (-Dchat.compress=false para no pedirla)
+    private static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("chat.compress", "true"));
+    // Activa desde que el servidor la acepta; una por conexión
+    private volatile WireCompression compression;
+    // Líneas de la última trama comprimida aún sin procesar (solo el hilo lector)
+    private final ArrayDeque<String> inflatedLines = new ArrayDeque<>();
     private final ExecutorService exec = Executors.newSingleThreadExecutor();
-    private boolean recording = false;
+    // Guardado de notas recibidas fuera del hilo de lectura
+    private final ExecutorService fileExec = Executors.newSingleThreadExecutor();
+    private final PlaybackQueue playback = new PlaybackQueue();
+    // ~1 s de audio a 16 kHz/16 bits; por debajo de VoiceUploadStore.MAX_CHUNK_SIZE
+    private static final int VOICE_CHUNK_SIZE = 32 * 1024;
+
+    private volatile boolean recording = false;
 
     private volatile boolean callActive = false;
     private Thread callSendThread;
@@ -35,6 +60,16 @@ public class ChatClient implements Closeable {
     }
 
     public void connect() throws IOException {
+        openConnection();
+        exec.submit(this::readLoop);
+        out.println("Conexión TCP establecida.");
+    }
+
+    /**
+     * Abre el socket y pide una sesión reanudable, o reanuda la anterior indicando
+     * el último mensaje recibido para que el servidor reenvíe solo los que faltan.
+     */
+    private synchronized void openConnection() throws IOException {
         out.println("Conectando a " + host + ":" + tcpPort + " ...");
         Socket s = new Socket();
         try {
@@ -45,88 +80,188 @@ public class ChatClient implements Closeable {
             throw new IOException("No se pudo establecer conexión con " + host + ":" + tcpPort + " (" + e.getMessage() + "). Asegúrate de usar la IP correcta y que el servidor esté ejecutándose.", e);
         }
         this.socket = s;
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        // Un único flujo con buffer para líneas y bytes de notas de voz
+        this.in = new BufferedInputStream(socket.getInputStream());
         this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        exec.submit(this::readLoop);
-        out.println("Conexión TCP establecida.");
+        // El contexto de compresión no sobrevive al socket anterior
+        if (compression != null) {
+            compression.close();
+            compression = null;
+        }
+        inflatedLines.clear();
+        // Antes de /resume: así los mensajes reenviados ya pueden llegar comprimidos
+        if (COMPRESS) sendLine(WireCompression.NEGOTIATE);
+        if (sessionToken == null) {
+            sendLine("/session");
+        } else {
+            sendLine("/resume " + sessionToken + " " + lastSeq);
+        }
     }
 
     private void readLoop() {
-        try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("INCOMING_VOICENOTE:")) {
-                    String[] parts = line.split(":", 3);
-                    String from = parts.length > 1 ? parts[1] : "?";
-                    String filename = parts.length > 2 ? parts[2] : ("voice_" + System.currentTimeMillis() + ".wav");
-                    String lenLine = reader.readLine();
-                    int length = Integer.parseInt(lenLine);
-                    byte[] data = readBytesFromSocket(length);
-                    File downloads = new File("downloads");
-                    downloads.mkdirs();
-                    File file = new File(downloads, filename);
-                    try (FileOutputStream fos = new FileOutputStream(file)) { fos.write(data); }
-                    out.println("[Nota de voz de " + from + "] Guardada en: " + file.getAbsolutePath());
-                    playReceivedVoiceNote(data);
-                    continue;
+        while (!closing) {
+            try {
+                readMessages();
+            } catch (IOException | RuntimeException ignored) {}
+            if (closing) return;
+            out.println("[Conexión] Se perdió la conexión con el servidor. Reintentando...");
+            if (!reconnect()) return;
+        }
+    }
+
+    /** Reintenta con espera exponencial (0,5 s a 30 s, con algo de azar) hasta conectar. */
+    private boolean reconnect() {
+        long delay = RECONNECT_MIN_DELAY_MS;
+        while (!closing) {
+            try {
+                Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 4 + 1));
+                openConnection();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (IOException e) {
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+                out.println("[Conexión] Sin respuesta del servidor, nuevo intento en " + (delay / 1000.0) + " s.");
+            }
+        }
+        return false;
+    }
+
+    private void readMessages() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            if (line.startsWith("SESSION:")) {
+                String[] parts = line.split(":", 3);
+                if (!parts[1].equals(sessionToken)) {
+                    sessionToken = parts[1];
+                    lastSeq = Long.parseLong(parts[2]);
                 }
+                continue;
+            }
+            if (line.equals("PING")) { // heartbeat del servidor
+                try {
+                    sendLine("PONG");
+                } catch (IOException ignored) {}
+                continue;
+            }
+            if (line.startsWith(WireCompression.ACCEPTED)) {
+                compression = new WireCompression(Integer.parseInt(line.substring(WireCompression.ACCEPTED.length())));
+                continue;
+            }
+            if (line.equals("RESUME_FAILED")) {
+                out.println("[Conexión] La sesión anterior expiró; se inicia una nueva.");
+                // El servidor puede devolver el mismo token (conserva sus grupos), pero la numeración empieza de cero
+                sessionToken = null;
+                continue;
+            }
+
+            // En sesiones reanudables cada mensaje llega como "#<secuencia> <texto>"
+            long seq = -1;
+            if (line.startsWith("#")) {
+                int space = line.indexOf(' ');
+                if (space > 1) {
+                    seq = Long.parseLong(line.substring(1, space));
+                    line = line.substring(space + 1);
+                }
+            }
+
+            if (line.startsWith("INCOMING_VOICENOTE:")) {
+                String[] parts = line.split(":", 3);
+                String from = parts.length > 1 ? parts[1] : "?";
+                String filename = parts.length > 2 ? parts[2] : ("voice_" + System.currentTimeMillis() + ".wav");
+                byte[] data = readVoicePayload(readLine());
+                fileExec.submit(() -> saveVoiceNote(from, filename, data));
+                playback.enqueue(data);
+            } else {
                 if (listener != null) listener.onMessage(line);
                 out.println(line); // mostrar mensajes recibidos
             }
-        } catch (IOException ignored) {}
+            // Solo cuenta como recibido una vez procesado completo
+            if (seq > lastSeq) lastSeq = seq;
+        }
+    }
+
+    /** Siguiente línea del servidor; las tramas {@code #Z} se descomprimen y se devuelven línea a línea. */
+    private String readLine() throws IOException {
+        while (true) {
+            String queued = inflatedLines.poll();
+            if (queued != null) return queued;
+            String line = readRawLine();
+            WireCompression z = compression;
+            if (line == null || z == null || !line.startsWith(WireCompression.TEXT_FRAME)) return line;
+            int[] lengths = WireCompression.parseLengths(line, WireCompression.TEXT_FRAME.length());
+            String text = z.inflateText(readBytesFromSocket(lengths[1]), lengths[0]);
+            int from = 0;
+            for (int nl = text.indexOf('\n'); nl >= 0; nl = text.indexOf('\n', from)) {
+                String l = text.substring(from, nl);
+                inflatedLines.add(l.endsWith("\r") ? l.substring(0, l.length() - 1) : l);
+                from = nl + 1;
+            }
+        }
+    }
+
+    /** Cuerpo de una nota recibida; la línea de longitud es {@code <n>} o {@code z<originales>:<comprimidos>}. */
+    private byte[] readVoicePayload(String lenLine) throws IOException {
+        if (lenLine == null) throw new EOFException("Conexión cerrada durante una nota de voz");
+        WireCompression z = compression;
+        if (z == null || !lenLine.startsWith(WireCompression.VOICE_LENGTH)) {
+            return readBytesFromSocket(Integer.parseInt(lenLine));
+        }
+        int[] lengths = WireCompression.parseLengths(lenLine, WireCompression.VOICE_LENGTH.length());
+        return z.inflateVoice(readBytesFromSocket(lengths[1]), lengths[0]);
+    }
+
+    private String readRawLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        String s = line.toString(StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private void saveVoiceNote(String from, String filename, byte[] data) {
+        File downloads = new File("downloads");
+        downloads.mkdirs();
+        File file = new File(downloads, filename);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(data);
+            out.println("[Nota de voz de " + from + "] Guardada en: " + file.getAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("[Error] No se pudo guardar la nota de voz: " + e.getMessage());
+        }
     }
 
     private byte[] readBytesFromSocket(int length) throws IOException {
-        InputStream in = socket.getInputStream();
         byte[] data = new byte[length];
         int bytesRead = 0;
         while (bytesRead < length) {
             int r = in.read(data, bytesRead, length - bytesRead);
-            if (r == -1) break;
+            if (r == -1) throw new EOFException("Conexión cerrada durante una nota de voz");
             bytesRead += r;
         }
         return data;
     }
 
-    private void playReceivedVoiceNote(byte[] wavData) {
-        try {
-            System.out.println("Intentando reproducir nota de voz recibida...");
-
-            try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wavData))) {
-
-                AudioFormat format = audioInputStream.getFormat();
-                DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-
-                if (!AudioSystem.isLineSupported(info)) {
-                    System.err.println("[Error] El sistema no soporta la reproducción de este formato de audio: " + format);
-                    return;
-                }
-
-                try (SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info)) {
-                    line.open(format);
-                    line.start();
-
-                    byte[] buffer = new byte[4096];
-                    int bytesRead;
-
-                    while ((bytesRead = audioInputStream.read(buffer)) != -1) {
-                        line.write(buffer, 0, bytesRead);
-                    }
-
-                    line.drain();
-                    System.out.println(" Reproducción finalizada.");
-                }
-            }
-        } catch (UnsupportedAudioFileException e) {
-            System.err.println("[Error] El archivo de audio recibido no es un formato soportado: " + e.getMessage());
-        } catch (LineUnavailableException e) {
-            System.err.println("[Error] La línea de audio (altavoz) no está disponible: " + e.getMessage());
-        } catch (IOException e) {
-            System.err.println("[Error] Ocurrió un error de E/S al reproducir el audio: " + e.getMessage());
-        }
-    }
-
     private synchronized void sendLine(String line) throws IOException {
+        if (socket == null || socket.isClosed()) {
+            throw new IOException("Sin conexión con el servidor, reintentando en segundo plano.");
+        }
+        WireCompression z = compression;
+        if (z != null && z.worthCompressing(line.length() + 1)) {
+            byte[] raw = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            byte[] wire = z.deflateText(raw);
+            writer.write(WireCompression.TEXT_FRAME + raw.length + ":" + wire.length);
+            writer.newLine();
+            writer.flush();
+            OutputStream out = socket.getOutputStream();
+            out.write(wire);
+            out.flush();
+            return;
+        }
         writer.write(line);
         writer.newLine();
         writer.flush();
@@ -134,8 +269,13 @@ public class ChatClient implements Closeable {
 
     @Override
     public void close() throws IOException {
+        closing = true;
         try { if (socket != null) socket.close(); }
-        finally { exec.shutdownNow(); }
+        finally {
+            exec.shutdownNow();
+            fileExec.shutdown();
+            playback.close();
+        }
     }
 
     public void runMenu() throws IOException {
@@ -155,6 +295,7 @@ public class ChatClient implements Closeable {
             out.print("Seleccione una opcion: ");
             String option = sc.nextLine().trim();
 
+            try {
             switch (option) {
                 case "1": // mensaje a usuario
                     out.print("ID del usuario: ");
@@ -207,13 +348,17 @@ public class ChatClient implements Closeable {
                     break;
 
                 case "8":
-                    sendLine("BYE");
                     running = false;
+                    closing = true;
+                    sendLine("BYE");
                     break;
 
                 default:
                     out.println("Opción inválida.");
             }
+            } catch (IOException e) {
+                if (running) out.println("[Conexión] " + e.getMessage());
+            }
         }
     }
 
@@ -264,19 +409,43 @@ public class ChatClient implements Closeable {
             microphone.open(format);
             microphone.start();
 
+            String filename = "voice_" + System.currentTimeMillis() + ".wav";
+            // La nota se sube por bloques mientras se graba; el servidor corrige la
+            // cabecera WAV al recibir voiceEnd, así que solo queda en memoria un bloque
+            sendLine((type.equals("user") ? "voiceStreamUser:" : "voiceStreamGroup:") + target + ":" + filename);
+
             out.println("🎙️ Grabando... presiona ENTER para detener.");
 
-            final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
             recording = true;
-            final byte[] buffer = new byte[4096];
             final TargetDataLine micRef = microphone;
+            final byte[] chunk = new byte[VOICE_CHUNK_SIZE];
+            final byte[] header = wavHeader(format);
+            System.arraycopy(header, 0, chunk, 0, header.length);
+            final int[] filled = {header.length};
+            final IOException[] sendError = {null};
 
             Thread captureThread = new Thread(() -> {
-                while (recording) {
-                    int bytesRead = micRef.read(buffer, 0, buffer.length);
-                    if (bytesRead > 0) {
-                        byteOut.write(buffer, 0, bytesRead);
+                try {
+                    while (recording) {
+                        int bytesRead = micRef.read(chunk, filled[0], chunk.length - filled[0]);
+                        if (bytesRead > 0) filled[0] += bytesRead;
+                        if (filled[0] == chunk.length) {
+                            sendVoiceChunk(chunk, filled[0]);
+                            filled[0] = 0;
+                        }
+                    }
+                    // Lo que quedó en el buffer de la línea tras detenerla
+                    int frameSize = micRef.getFormat().getFrameSize();
+                    int bytesRead;
+                    while (filled[0] < chunk.length
+                            && (bytesRead = micRef.read(chunk, filled[0],
+                                    Math.min(micRef.available(), chunk.length - filled[0]) / frameSize * frameSize)) > 0) {
+                        filled[0] += bytesRead;
                     }
+                    if (filled[0] > 0) sendVoiceChunk(chunk, filled[0]);
+                } catch (IOException e) {
+                    recording = false;
+                    sendError[0] = e;
                 }
             }, "voice-capture");
             captureThread.start();
@@ -286,25 +455,12 @@ public class ChatClient implements Closeable {
             recording = false;
             microphone.stop();
             captureThread.join();
+            if (sendError[0] != null) throw sendError[0];
 
-            // Convertir a formato WAV (PCM LE)
-            byte[] audioData = byteOut.toByteArray();
-            ByteArrayInputStream bais = new ByteArrayInputStream(audioData);
-            AudioInputStream ais = new AudioInputStream(bais, format, audioData.length / format.getFrameSize());
-
-            ByteArrayOutputStream wavOut = new ByteArrayOutputStream();
-            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, wavOut);
-            byte[] wavData = wavOut.toByteArray();
-
-            String filename = "voice_" + System.currentTimeMillis() + ".wav";
-
-            out.println("Grabación detenida. Enviando nota de voz...");
-
+            sendLine("voiceEnd");
             if (type.equals("user")) {
-                sendVoiceNoteToUser(Integer.parseInt(target), filename, wavData);
                 out.println("Nota de voz enviada a usuario " + target);
             } else {
-                sendVoiceNoteToGroup(target, filename, wavData);
                 out.println("Nota de voz enviada al grupo " + target);
             }
 
@@ -317,19 +473,52 @@ public class ChatClient implements Closeable {
         }
     }
 
-    public synchronized void sendVoiceNoteToUser(int userId, String filename, byte[] data) throws IOException {
-        sendLine("voicenoteUser:" + userId + ":" + filename);
-        sendLine(String.valueOf(data.length));
+    private synchronized void sendVoiceChunk(byte[] data, int length) throws IOException {
+        sendLine("voiceChunk:" + length);
         OutputStream out = socket.getOutputStream();
-        out.write(data);
+        out.write(data, 0, length);
         out.flush();
     }
 
+    /**
+     * Cabecera WAV (PCM) con los tamaños a cero: todavía no se sabe cuánto durará
+     * la grabación. El servidor los rellena al cerrar la nota.
+     */
+    private static byte[] wavHeader(AudioFormat format) {
+        int channels = format.getChannels();
+        int sampleRate = (int) format.getSampleRate();
+        int bits = format.getSampleSizeInBits();
+        ByteBuffer h = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        h.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(0);
+        h.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        h.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16);
+        h.putShort((short) 1).putShort((short) channels).putInt(sampleRate);
+        h.putInt(sampleRate * channels * bits / 8).putShort((short) (channels * bits / 8)).putShort((short) bits);
+        h.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(0);
+        return h.array();
+    }
+
+    public synchronized void sendVoiceNoteToUser(int userId, String filename, byte[] data) throws IOException {
+        sendLine("voicenoteUser:" + userId + ":" + filename);
+        sendVoicePayload(filename, data);
+    }
+
     private synchronized void sendVoiceNoteToGroup(String groupName, String filename, byte[] data) throws IOException {
         sendLine("voicenoteGroup:" + groupName + ":" + filename);
-        sendLine(String.valueOf(data.length));
+        sendVoicePayload(filename, data);
+    }
+
+    // Longitud y bytes de la nota; comprimidos si la conexión lo negoció y compensa
+    private void sendVoicePayload(String filename, byte[] data) throws IOException {
+        WireCompression z = compression;
+        byte[] wire = z != null ? z.deflateVoice(filename, data) : null;
+        if (wire != null) {
+            sendLine(WireCompression.VOICE_LENGTH + data.length + ":" + wire.length);
+        } else {
+            sendLine(String.valueOf(data.length));
+        }
         OutputStream out = socket.getOutputStream();
-        out.write(data);
+        out.write(wire != null ? wire : data);
         out.flush();
     }
 
@@ -0,0 +1,91 @@
+package client;
+
+import javax.sound.sampled.*;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Cola acotada de notas de voz pendientes de reproducir, atendida por un hilo de
+ * audio propio. El hilo de lectura del socket solo encola y sigue leyendo, así que
+ * los mensajes de chat se muestran mientras suena una nota.
+ */
+public class PlaybackQueue implements Closeable {
+
+    private static final int CAPACITY = 8;
+
+    private final BlockingQueue<byte[]> pending = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread audioThread;
+
+    public PlaybackQueue() {
+        audioThread = new Thread(this::playLoop, "voice-playback");
+        audioThread.setDaemon(true);
+        audioThread.start();
+    }
+
+    /**
+     * Encola la nota sin bloquear. Si la cola está llena se descarta (la nota
+     * sigue guardada en downloads/).
+     */
+    public void enqueue(byte[] wavData) {
+        if (!pending.offer(wavData)) {
+            System.err.println("[Audio] Cola de reproducción llena, nota de voz no reproducida.");
+        }
+    }
+
+    private void playLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                play(pending.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void play(byte[] wavData) {
+        try {
+            System.out.println("Intentando reproducir nota de voz recibida...");
+
+            try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wavData))) {
+
+                AudioFormat format = audioInputStream.getFormat();
+                DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+
+                if (!AudioSystem.isLineSupported(info)) {
+                    System.err.println("[Error] El sistema no soporta la reproducción de este formato de audio: " + format);
+                    return;
+                }
+
+                try (SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info)) {
+                    line.open(format);
+                    line.start();
+
+                    byte[] buffer = new byte[4096];
+                    int bytesRead;
+
+                    while ((bytesRead = audioInputStream.read(buffer)) != -1) {
+                        line.write(buffer, 0, bytesRead);
+                    }
+
+                    line.drain();
+                    System.out.println(" Reproducción finalizada.");
+                }
+            }
+        } catch (UnsupportedAudioFileException e) {
+            System.err.println("[Error] El archivo de audio recibido no es un formato soportado: " + e.getMessage());
+        } catch (LineUnavailableException e) {
+            System.err.println("[Error] La línea de audio (altavoz) no está disponible: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("[Error] Ocurrió un error de E/S al reproducir el audio: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        audioThread.interrupt();
+        pending.clear();
+    }
+}
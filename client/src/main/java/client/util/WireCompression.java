@@ -0,0 +1,145 @@
+package client.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lado cliente de la compresión de la conexión TCP (la misma trama que
+ * {@code server.WireCompression}). Se pide con {@code /compress deflate} al conectar y
+ * se usa desde que llega {@code COMPRESS:deflate:<umbral>}:
+ * <ul>
+ *   <li>texto de al menos el umbral: {@code #Z<originales>:<comprimidos>} y el deflate
+ *       de las líneas, con un contexto que dura toda la conexión;</li>
+ *   <li>notas de voz: línea de longitud {@code z<originales>:<comprimidos>}, con un
+ *       Deflater aparte reiniciado en cada nota.</li>
+ * </ul>
+ * Cada conexión nueva necesita una instancia nueva: el diccionario del otro lado se
+ * pierde con el socket.
+ */
+public final class WireCompression implements AutoCloseable {
+
+    public static final String NEGOTIATE = "/compress deflate";
+    public static final String ACCEPTED = "COMPRESS:deflate:";
+    public static final String TEXT_FRAME = "#Z";
+    public static final String VOICE_LENGTH = "z";
+
+    private static final int MAX_TEXT_FRAME = 4 * 1024 * 1024;
+    private static final int MAX_VOICE = 50 * 1024 * 1024;
+    // Si la nota no baja de esta proporción se envía tal cual
+    private static final double VOICE_RATIO = 0.9;
+    private static final Set<String> COMPRESSED_FORMATS = Set.of(
+            "webm", "ogg", "opus", "mp3", "m4a", "aac", "flac", "zip", "gz");
+
+    private final int minBytes;
+    private final Deflater textOut = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater textIn = new Inflater(true);
+    private final Deflater voiceOut = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater voiceIn = new Inflater(true);
+    private byte[] textBuf = new byte[1024];
+
+    /** @param minBytes umbral anunciado por el servidor; por debajo el texto va sin comprimir */
+    public WireCompression(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    public boolean worthCompressing(int length) {
+        return length >= minBytes;
+    }
+
+    /** Comprime con el contexto de la conexión; lo devuelto se tiene que enviar sí o sí. */
+    public byte[] deflateText(byte[] raw) {
+        textOut.setInput(raw);
+        int n = 0;
+        while (true) {
+            n += textOut.deflate(textBuf, n, textBuf.length - n, Deflater.SYNC_FLUSH);
+            if (n < textBuf.length) break;
+            textBuf = Arrays.copyOf(textBuf, textBuf.length * 2);
+        }
+        return Arrays.copyOf(textBuf, n);
+    }
+
+    public String inflateText(byte[] wire, int rawLength) throws IOException {
+        if (rawLength < 0 || rawLength > MAX_TEXT_FRAME) {
+            throw new IOException("Trama comprimida fuera de límites: " + rawLength);
+        }
+        return new String(inflate(textIn, wire, rawLength), StandardCharsets.UTF_8);
+    }
+
+    /** @return la nota comprimida, o null si conviene enviarla tal cual */
+    public byte[] deflateVoice(String filename, byte[] data) {
+        if (data.length < minBytes || alreadyCompressed(filename)) return null;
+        int limit = (int) (data.length * VOICE_RATIO);
+        voiceOut.reset();
+        voiceOut.setInput(data);
+        voiceOut.finish();
+        byte[] out = new byte[limit + 1];
+        int n = 0;
+        while (!voiceOut.finished() && n < out.length) {
+            n += voiceOut.deflate(out, n, out.length - n);
+        }
+        return n > limit ? null : Arrays.copyOf(out, n);
+    }
+
+    public byte[] inflateVoice(byte[] wire, int rawLength) throws IOException {
+        if (rawLength < 0 || rawLength > MAX_VOICE) {
+            throw new IOException("Tamaño de nota de voz fuera de límites: " + rawLength);
+        }
+        voiceIn.reset();
+        return inflate(voiceIn, wire, rawLength);
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] wire, int rawLength) throws IOException {
+        byte[] raw = new byte[rawLength];
+        inflater.setInput(wire);
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                int r = inflater.inflate(raw, n, rawLength - n);
+                if (r == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) break;
+                n += r;
+            }
+            // Tras los datos solo puede quedar el bloque vacío del SYNC_FLUSH
+            if (n == rawLength && !inflater.needsInput() && !inflater.finished()) {
+                n += inflater.inflate(new byte[1]);
+            }
+            if (n != rawLength || inflater.getRemaining() > 0) {
+                throw new IOException("Trama comprimida inválida: se esperaban " + rawLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Trama comprimida inválida: " + e.getMessage(), e);
+        }
+        return raw;
+    }
+
+    private static boolean alreadyCompressed(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_FORMATS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /** @return {originales, comprimidos} de {@code #Z<a>:<b>} o {@code z<a>:<b>} */
+    public static int[] parseLengths(String header, int prefixLength) throws IOException {
+        int colon = header.indexOf(':', prefixLength);
+        try {
+            int raw = Integer.parseInt(header.substring(prefixLength, colon));
+            int wire = Integer.parseInt(header.substring(colon + 1).trim());
+            if (raw < 0 || wire < 0) throw new NumberFormatException();
+            return new int[] {raw, wire};
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IOException("Cabecera de compresión inválida: " + header);
+        }
+    }
+
+    @Override
+    public void close() {
+        textOut.end();
+        textIn.end();
+        voiceOut.end();
+        voiceIn.end();
+    }
+}
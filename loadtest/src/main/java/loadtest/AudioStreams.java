@@ -0,0 +1,95 @@
+package loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Flujos de audio sintéticos contra UDPRelay: cada flujo envía una trama cada
+ * 20 ms (como una llamada real) con su instante de envío en la cabecera, y recibe
+ * lo que el relay le reenvía de los demás flujos para medir la latencia y las
+ * pérdidas. Un hilo envía por todos; cada flujo tiene su hilo de recepción.
+ */
+final class AudioStreams implements Closeable {
+
+    private static final int MAGIC = 0x4C544155; // "LTAU"
+    private static final long FRAME_NANOS = 20_000_000L;
+
+    private final Stats stats;
+    private final List<DatagramSocket> sockets = new ArrayList<>();
+    private final InetSocketAddress relay;
+    private final int frameBytes;
+    private volatile boolean running = true;
+
+    AudioStreams(Stats stats, String host, int port, int streams, int frameBytes) throws IOException {
+        this.stats = stats;
+        this.relay = new InetSocketAddress(host, port);
+        this.frameBytes = Math.max(frameBytes, 24);
+        for (int i = 0; i < streams; i++) {
+            DatagramSocket socket = new DatagramSocket();
+            sockets.add(socket);
+            Thread receiver = new Thread(null, () -> receive(socket), "audio-rx-" + i, 128 * 1024);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    void start() {
+        Thread sender = new Thread(this::sendLoop, "audio-tx");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    private void sendLoop() {
+        byte[] frame = new byte[frameBytes];
+        ByteBuffer header = ByteBuffer.wrap(frame);
+        DatagramPacket packet = new DatagramPacket(frame, frame.length, relay);
+        long next = System.nanoTime();
+        long seq = 0;
+        while (running) {
+            for (DatagramSocket socket : sockets) {
+                header.clear();
+                header.putInt(MAGIC).putLong(seq).putLong(next);
+                try {
+                    socket.send(packet);
+                    stats.udpSent.incrementAndGet();
+                } catch (IOException e) {
+                    if (running) stats.errors.incrementAndGet();
+                }
+            }
+            seq++;
+            next += FRAME_NANOS;
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void receive(DatagramSocket socket) {
+        byte[] buf = new byte[64 * 1024];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        ByteBuffer data = ByteBuffer.wrap(buf);
+        while (running) {
+            try {
+                packet.setLength(buf.length);
+                socket.receive(packet);
+                if (packet.getLength() >= 20 && data.getInt(0) == MAGIC) {
+                    stats.recordUdp(data.getLong(12));
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (DatagramSocket socket : sockets) socket.close();
+    }
+}
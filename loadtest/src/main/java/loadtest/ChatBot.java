@@ -0,0 +1,209 @@
+package loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cliente del protocolo TCP sin interfaz ni audio. Cada mensaje que envía lleva
+ * {@code LT <nanos>} con el instante previsto de envío; al recibir uno de otro bot
+ * se registra la latencia de entrega (todos comparten el mismo reloj del proceso).
+ * Las notas de voz llevan el instante en el nombre del archivo.
+ */
+final class ChatBot {
+
+    static final String MARK = "LT ";
+    private static final String REJECTED = "[Servidor] Demasiados mensajes";
+    private static final String WELCOME = "Conectado al servidor. Tu id es ";
+
+    private final Stats stats;
+    private final Socket socket = new Socket();
+    private final CountDownLatch welcomed = new CountDownLatch(1);
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+    private InputStream in;
+    private OutputStream out;
+    private volatile int id = -1;
+    private volatile boolean closing;
+    // Grupos a los que pertenece; solo lo toca el hilo que conduce a este bot
+    final List<String> groups = new ArrayList<>();
+
+    ChatBot(Stats stats) {
+        this.stats = stats;
+    }
+
+    /** Conecta y espera el saludo con el id asignado. */
+    boolean connect(String host, int port) {
+        try {
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            out = socket.getOutputStream();
+            Thread reader = new Thread(null, this::readLoop, "bot-reader", 128 * 1024);
+            reader.setDaemon(true);
+            reader.start();
+            return welcomed.await(10, TimeUnit.SECONDS) && id > 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    boolean isConnected() {
+        return !socket.isClosed();
+    }
+
+    // === Acciones ===
+
+    void privateMessage(int toId, long sentAt) {
+        line("/msg " + toId + " " + MARK + sentAt + " hola desde " + id);
+    }
+
+    void groupMessage(String group, long sentAt) {
+        line("/msgGroup " + group + " " + MARK + sentAt + " hola grupo desde " + id);
+    }
+
+    void createGroup(String group) {
+        if (!groups.contains(group)) groups.add(group);
+        line("/createGroup " + group);
+    }
+
+    void joinGroup(String group) {
+        if (!groups.contains(group)) groups.add(group);
+        line("/joinGroup " + group);
+    }
+
+    void voiceNote(int toId, byte[] wav, long sentAt) {
+        voice("voicenoteUser:" + toId + ":lt-" + sentAt + "-" + id + ".wav", wav);
+    }
+
+    void groupVoiceNote(String group, byte[] wav, long sentAt) {
+        voice("voicenoteGroup:" + group + ":lt-" + sentAt + "-" + id + ".wav", wav);
+    }
+
+    private synchronized void line(String line) {
+        try {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            failed();
+        }
+    }
+
+    private synchronized void voice(String header, byte[] wav) {
+        try {
+            out.write((header + "\n" + wav.length + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(wav);
+            out.flush();
+        } catch (IOException e) {
+            failed();
+        }
+    }
+
+    private void failed() {
+        if (!closing) stats.errors.incrementAndGet();
+        close();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    void shutdown() {
+        closing = true;
+        close();
+    }
+
+    // === Lectura ===
+
+    private void readLoop() {
+        try {
+            String line;
+            while ((line = readLine()) != null) {
+                handle(line);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            welcomed.countDown();
+            if (!closing) stats.disconnects.incrementAndGet();
+            close();
+        }
+    }
+
+    private void handle(String line) throws IOException {
+        if (id < 0 && line.startsWith(WELCOME)) {
+            id = Integer.parseInt(line.substring(WELCOME.length(), line.length() - 1).trim());
+            welcomed.countDown();
+            return;
+        }
+        if (line.equals("PING")) {
+            line("PONG");
+            return;
+        }
+        if (line.startsWith("INCOMING_VOICENOTE:")) {
+            String length = readLine();
+            if (length == null) throw new IOException("Conexión cerrada en mitad de una nota");
+            skip(Long.parseLong(length.trim()));
+            int mark = line.indexOf(":lt-");
+            if (mark >= 0) {
+                int end = line.indexOf('-', mark + 4);
+                stats.recordDelivery(Long.parseLong(line.substring(mark + 4, end)));
+            }
+            return;
+        }
+        int mark = line.indexOf(MARK);
+        // "[Privado] de X: LT ..." o "[grupo] Usuario X: LT ..."
+        if (mark >= 0 && line.startsWith("[")) {
+            int start = mark + MARK.length();
+            int end = line.indexOf(' ', start);
+            try {
+                stats.recordDelivery(Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end)));
+            } catch (NumberFormatException ignored) {}
+            return;
+        }
+        if (line.startsWith(REJECTED) || line.startsWith("Servidor lleno")) {
+            stats.rejected.incrementAndGet();
+        } else if (line.contains("not found") || line.contains("does not exist") || line.contains("no existe")
+                || line.startsWith("Error") || line.startsWith("Formato inválido")) {
+            stats.errors.incrementAndGet();
+        }
+    }
+
+    private String readLine() throws IOException {
+        lineBuffer.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            if (b != '\r') lineBuffer.write(b);
+        }
+        if (b == -1 && lineBuffer.size() == 0) return null;
+        return lineBuffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) throw new IOException("Conexión cerrada en mitad de una nota");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
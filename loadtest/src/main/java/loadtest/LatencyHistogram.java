@@ -0,0 +1,75 @@
+package loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias en microsegundos con buckets log-lineales (estilo HDR):
+ * exacto por debajo de 128 µs y con un error relativo menor al 1,6 % por encima,
+ * hasta unas 19 horas. Registrar es un incremento atómico, sin locks ni objetos.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int MAX_SHIFT = 30;
+    private static final int SIZE = LINEAR + MAX_SHIFT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+
+    void record(long micros) {
+        counts.incrementAndGet(index(Math.max(0, micros)));
+    }
+
+    static int index(long v) {
+        if (v < LINEAR) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - 6;
+        if (shift > MAX_SHIFT) return SIZE - 1;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((v >> shift) - SUB_BUCKETS);
+    }
+
+    /** Valor más alto que cae en el bucket. */
+    static long valueAt(int index) {
+        if (index < LINEAR) return index;
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** Copia el contenido a {@code target} y deja este histograma a cero. */
+    void drainTo(LatencyHistogram target) {
+        for (int i = 0; i < SIZE; i++) {
+            long c = counts.getAndSet(i, 0);
+            if (c != 0) target.counts.addAndGet(i, c);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < SIZE; i++) counts.set(i, 0);
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) total += counts.get(i);
+        return total;
+    }
+
+    /** @param quantile entre 0 y 1, p. ej. 0.999 */
+    long percentile(double quantile) {
+        long total = count();
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts.get(i);
+            if (seen >= rank && seen > 0) return valueAt(i);
+        }
+        return valueAt(SIZE - 1);
+    }
+
+    long max() {
+        for (int i = SIZE - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) return valueAt(i);
+        }
+        return 0;
+    }
+}
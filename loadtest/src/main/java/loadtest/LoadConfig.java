@@ -0,0 +1,111 @@
+package loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Opciones de la prueba en formato {@code clave=valor}. Sin argumentos se usa
+ * una carga pequeña contra el servidor local por defecto.
+ */
+final class LoadConfig {
+
+    String host = "127.0.0.1";
+    int tcpPort = 5000;
+    int udpPort = 6000;
+    /** tcp (ChatBot), gateway (WebSocket del servidor) o proxy (API REST del proxy Node.js). */
+    String target = "tcp";
+    int webPort = 8080;
+    int proxyPort = 3000;
+    /** Intervalo de consulta de mensajes contra el proxy; el cliente web usa 2 s. */
+    int pollMs = 2000;
+    /** Levanta un ChatServer en este mismo proceso con límites holgados. */
+    boolean embedded;
+    int clients = 100;
+    /** Conexiones nuevas por segundo durante el arranque. */
+    int connectRate = 500;
+    /** Acciones por segundo y cliente. */
+    double rate = 1.0;
+    int durationSeconds = 30;
+    int groups = 0; // 0: uno por cada 50 clientes
+    int groupsPerClient = 2;
+    /** Pesos de cada acción del guion. */
+    final Map<String, Integer> mix = new LinkedHashMap<>();
+    int voiceBytes = 32_000; // 1 s de audio a 16 kHz, 16 bits
+    int audioStreams = 0;
+    int audioFrameBytes = 640; // 20 ms a 16 kHz, 16 bits
+    int driverThreads = 4;
+    String csv;
+
+    LoadConfig() {
+        mix.put("msg", 60);
+        mix.put("group", 30);
+        mix.put("join", 5);
+        mix.put("voice", 5);
+    }
+
+    static LoadConfig parse(String[] args) {
+        LoadConfig c = new LoadConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Se esperaba clave=valor: " + arg);
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "host": c.host = value; break;
+                case "tcpPort": c.tcpPort = Integer.parseInt(value); break;
+                case "udpPort": c.udpPort = Integer.parseInt(value); break;
+                case "target": c.target = value; break;
+                case "webPort": c.webPort = Integer.parseInt(value); break;
+                case "proxyPort": c.proxyPort = Integer.parseInt(value); break;
+                case "pollMs": c.pollMs = Integer.parseInt(value); break;
+                case "embedded": c.embedded = Boolean.parseBoolean(value); break;
+                case "clients": c.clients = Integer.parseInt(value); break;
+                case "connectRate": c.connectRate = Integer.parseInt(value); break;
+                case "rate": c.rate = Double.parseDouble(value); break;
+                case "duration": c.durationSeconds = Integer.parseInt(value); break;
+                case "groups": c.groups = Integer.parseInt(value); break;
+                case "groupsPerClient": c.groupsPerClient = Integer.parseInt(value); break;
+                case "mix": c.parseMix(value); break;
+                case "voiceBytes": c.voiceBytes = Integer.parseInt(value); break;
+                case "audio": c.audioStreams = Integer.parseInt(value); break;
+                case "audioFrameBytes": c.audioFrameBytes = Integer.parseInt(value); break;
+                case "threads": c.driverThreads = Integer.parseInt(value); break;
+                case "out": c.csv = value; break;
+                default: throw new IllegalArgumentException("Opción desconocida: " + key);
+            }
+        }
+        if (!c.target.equals("tcp") && !c.target.equals("gateway") && !c.target.equals("proxy")) {
+            throw new IllegalArgumentException("target debe ser tcp, gateway o proxy: " + c.target);
+        }
+        if (c.groups <= 0) c.groups = Math.max(1, c.clients / 50);
+        return c;
+    }
+
+    /** {@code msg:60,group:30,join:5,voice:5} */
+    private void parseMix(String spec) {
+        mix.clear();
+        for (String part : spec.split(",")) {
+            String[] kv = part.split(":", 2);
+            String action = kv[0].trim();
+            if (!action.equals("msg") && !action.equals("group") && !action.equals("join") && !action.equals("voice")) {
+                throw new IllegalArgumentException("Acción desconocida en mix: " + action);
+            }
+            mix.put(action, Integer.parseInt(kv[1].trim()));
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (target.equals("gateway")) {
+            return "gateway=ws://" + host + ":" + webPort + "/chat" + (embedded ? " (embebido)" : "")
+                    + ", clientes=" + clients + ", " + rate + " mensajes/s por cliente, " + durationSeconds + " s";
+        }
+        if (target.equals("proxy")) {
+            return "proxy=http://" + host + ":" + proxyPort + " (consulta cada " + pollMs + " ms)"
+                    + ", clientes=" + clients + ", " + rate + " mensajes/s por cliente, " + durationSeconds + " s";
+        }
+        return "servidor=" + host + ":" + tcpPort + (embedded ? " (embebido)" : "")
+                + ", clientes=" + clients + ", " + rate + " acciones/s por cliente, " + durationSeconds + " s"
+                + ", grupos=" + groups + ", mezcla=" + mix + ", audio=" + audioStreams + " flujos";
+    }
+}
@@ -0,0 +1,376 @@
+package loadtest;
+
+import server.ChatServer;
+import server.web.WebGateway;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga: conecta {@code clients} bots del protocolo TCP, los reparte
+ * en grupos y durante {@code duration} segundos ejecuta la mezcla de acciones
+ * configurada a un ritmo fijo. La latencia se mide desde el instante en que cada
+ * acción debía enviarse, así un servidor lento no esconde sus esperas retrasando
+ * al propio generador. Cada segundo se imprime lo ocurrido y al final un resumen.
+ *
+ * <p>Contra un servidor externo hay que subir sus límites, p. ej.
+ * {@code -Dchat.poolSize=4096 -Dchat.maxConnections=5000 -Dchat.maxConnectionsPerIp=5000
+ * -Dchat.rate.messagesPerSecond=1000}; con {@code embedded=true} se hace solo.
+ *
+ * <p>Con {@code target=gateway} o {@code target=proxy} los clientes son navegadores
+ * simulados ({@link WebBot}) que solo envían mensajes privados, para comparar el
+ * gateway WebSocket del servidor con el proxy Node.js a la misma carga.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.parse(args);
+        System.out.println("[Carga] " + config);
+        Stats stats = new Stats();
+        if (config.csv != null) stats.openCsv(config.csv);
+
+        ChatServer embedded = config.embedded ? startEmbedded(config) : null;
+        if (!config.target.equals("tcp")) {
+            runWeb(config, stats, embedded);
+            return;
+        }
+
+        List<ChatBot> bots = connect(config, stats);
+        if (bots.size() < 2) {
+            System.err.println("[Carga] Se necesitan al menos 2 clientes conectados; se conectaron " + bots.size());
+            System.exit(1);
+        }
+        String groupPrefix = setupGroups(config, bots);
+
+        AudioStreams audio = null;
+        if (config.audioStreams > 0) {
+            audio = new AudioStreams(stats, config.host, config.udpPort, config.audioStreams, config.audioFrameBytes);
+            audio.start();
+        }
+
+        byte[] wav = wav(config.voiceBytes);
+        List<Thread> drivers = new ArrayList<>();
+        long start = System.nanoTime();
+        stats.begin();
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        int threads = Math.min(config.driverThreads, bots.size());
+        for (int t = 0; t < threads; t++) {
+            List<ChatBot> own = new ArrayList<>();
+            for (int i = t; i < bots.size(); i += threads) own.add(bots.get(i));
+            Thread driver = new Thread(() -> drive(config, stats, own, bots, groupPrefix, wav, end), "driver-" + t);
+            driver.setDaemon(true);
+            driver.start();
+            drivers.add(driver);
+        }
+
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            stats.report();
+        }
+        for (Thread driver : drivers) driver.join(5000);
+        // Margen para las entregas en vuelo
+        Thread.sleep(2000);
+        stats.report();
+        stats.summary((System.nanoTime() - start) / 1e9);
+
+        if (audio != null) audio.close();
+        for (ChatBot bot : bots) bot.shutdown();
+        if (embedded != null) embedded.close();
+        System.exit(0);
+    }
+
+    private static ChatServer startEmbedded(LoadConfig config) throws Exception {
+        // Antes de cargar las clases del servidor, que leen sus límites al iniciarse
+        int connections = config.clients + 64;
+        setDefault("chat.maxConnections", String.valueOf(connections));
+        setDefault("chat.maxConnectionsPerIp", String.valueOf(connections));
+        setDefault("chat.rate.messagesPerSecond", "100000");
+        setDefault("chat.rate.messageBurst", "100000");
+        File dataDir = Files.createTempDirectory("chat-loadtest").toFile();
+        ChatServer server = new ChatServer(config.tcpPort, config.udpPort, connections, dataDir);
+        Thread t = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("[Carga] El servidor embebido se detuvo: " + e.getMessage());
+            }
+        }, "embedded-server");
+        t.setDaemon(true);
+        t.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try (Socket probe = new Socket(config.host, config.tcpPort)) {
+                break;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+        if (config.target.equals("gateway")) {
+            new WebGateway(server, config.webPort).start();
+        }
+        System.out.println("[Carga] Servidor embebido en " + config.tcpPort + ", datos en " + dataDir);
+        return server;
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    private static List<ChatBot> connect(LoadConfig config, Stats stats) {
+        List<ChatBot> bots = new ArrayList<>(config.clients);
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.connectRate);
+        long next = System.nanoTime();
+        int failed = 0;
+        for (int i = 0; i < config.clients; i++) {
+            ChatBot bot = new ChatBot(stats);
+            if (bot.connect(config.host, config.tcpPort)) {
+                bots.add(bot);
+            } else {
+                failed++;
+                stats.errors.incrementAndGet();
+                bot.shutdown();
+            }
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+        }
+        System.out.println("[Carga] " + bots.size() + " clientes conectados, " + failed + " fallidos");
+        return bots;
+    }
+
+    /**
+     * Carga de mensajes privados a través del gateway o del proxy. Con el proxy la
+     * latencia incluye la espera hasta la siguiente consulta (de media {@code pollMs / 2}),
+     * que es lo que ve el cliente web; {@code pollMs} bajo mide solo el trayecto.
+     */
+    private static void runWeb(LoadConfig config, Stats stats, ChatServer embedded) throws Exception {
+        HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(config.driverThreads, r -> {
+                    Thread t = new Thread(r, "web-client");
+                    t.setDaemon(true);
+                    return t;
+                }))
+                .build();
+        List<WebBot> bots = new ArrayList<>(config.clients);
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.connectRate);
+        long next = System.nanoTime();
+        int failed = 0;
+        for (int i = 0; i < config.clients; i++) {
+            WebBot bot = config.target.equals("gateway")
+                    ? new WebBot.Gateway(stats, http, config.host, config.webPort)
+                    : new WebBot.Proxy(stats, http, config.host, config.proxyPort);
+            if (bot.connect()) {
+                bots.add(bot);
+            } else {
+                failed++;
+                stats.errors.incrementAndGet();
+                bot.shutdown();
+            }
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+        }
+        System.out.println("[Carga] " + bots.size() + " clientes conectados por " + config.target + ", " + failed + " fallidos");
+        if (bots.size() < 2) {
+            System.err.println("[Carga] Se necesitan al menos 2 clientes conectados; se conectaron " + bots.size());
+            System.exit(1);
+        }
+
+        ScheduledExecutorService poller = null;
+        if (config.target.equals("proxy")) {
+            poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "proxy-poll");
+                t.setDaemon(true);
+                return t;
+            });
+            poller.scheduleAtFixedRate(() -> {
+                for (WebBot bot : bots) ((WebBot.Proxy) bot).poll();
+            }, config.pollMs, config.pollMs, TimeUnit.MILLISECONDS);
+        }
+
+        List<Thread> drivers = new ArrayList<>();
+        long start = System.nanoTime();
+        stats.begin();
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        int threads = Math.min(config.driverThreads, bots.size());
+        for (int t = 0; t < threads; t++) {
+            List<WebBot> own = new ArrayList<>();
+            for (int i = t; i < bots.size(); i += threads) own.add(bots.get(i));
+            Thread driver = new Thread(() -> driveWeb(config, stats, own, bots, end), "driver-" + t);
+            driver.setDaemon(true);
+            driver.start();
+            drivers.add(driver);
+        }
+
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            stats.report();
+        }
+        for (Thread driver : drivers) driver.join(5000);
+        // Margen para las entregas en vuelo (y al menos una consulta más al proxy)
+        Thread.sleep(Math.max(2000, 2L * config.pollMs));
+        stats.report();
+        stats.summary((System.nanoTime() - start) / 1e9);
+
+        if (poller != null) poller.shutdownNow();
+        for (WebBot bot : bots) bot.shutdown();
+        Thread.sleep(500);
+        if (embedded != null) embedded.close();
+        System.exit(0);
+    }
+
+    private static void driveWeb(LoadConfig config, Stats stats, List<WebBot> own, List<WebBot> all, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double perSecond = config.rate * own.size();
+        if (perSecond <= 0) return;
+        long interval = (long) (1e9 / perSecond);
+        long next = System.nanoTime();
+        while (next < end) {
+            long now = System.nanoTime();
+            if (next > now) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            WebBot bot = own.get(random.nextInt(own.size()));
+            WebBot peer;
+            do {
+                peer = all.get(random.nextInt(all.size()));
+            } while (peer == bot);
+            if (bot.isConnected()) {
+                bot.privateMessage(peer.getId(), next);
+                stats.sent.incrementAndGet();
+            } else {
+                stats.errors.incrementAndGet();
+            }
+            next += interval;
+        }
+    }
+
+    /** @return prefijo de los nombres de grupo de esta ejecución */
+    private static String setupGroups(LoadConfig config, List<ChatBot> bots) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String prefix = "lt" + Long.toString(System.currentTimeMillis() % 100_000, 36) + "_";
+        for (int g = 0; g < config.groups; g++) {
+            bots.get(g % bots.size()).createGroup(prefix + g);
+        }
+        Thread.sleep(500);
+        int perClient = Math.min(config.groupsPerClient, config.groups);
+        for (ChatBot bot : bots) {
+            while (bot.groups.size() < perClient) {
+                bot.joinGroup(prefix + random.nextInt(config.groups));
+            }
+        }
+        Thread.sleep(1000);
+        System.out.println("[Carga] " + config.groups + " grupos, " + perClient + " por cliente");
+        return prefix;
+    }
+
+    /** Ejecuta acciones a ritmo constante con los bots de este hilo hasta {@code end}. */
+    private static void drive(LoadConfig config, Stats stats, List<ChatBot> own, List<ChatBot> all,
+                              String groupPrefix, byte[] wav, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String[] actions = config.mix.keySet().toArray(new String[0]);
+        int[] cumulative = new int[actions.length];
+        int totalWeight = 0;
+        int k = 0;
+        for (Map.Entry<String, Integer> entry : config.mix.entrySet()) {
+            totalWeight += entry.getValue();
+            cumulative[k++] = totalWeight;
+        }
+        double perSecond = config.rate * own.size();
+        if (perSecond <= 0 || totalWeight <= 0) return;
+        long interval = (long) (1e9 / perSecond);
+        long next = System.nanoTime();
+        while (next < end) {
+            long now = System.nanoTime();
+            if (next > now) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            int pick = random.nextInt(totalWeight);
+            String action = actions[0];
+            for (int i = 0; i < cumulative.length; i++) {
+                if (pick < cumulative[i]) {
+                    action = actions[i];
+                    break;
+                }
+            }
+            ChatBot bot = own.get(random.nextInt(own.size()));
+            if (bot.isConnected()) {
+                act(action, bot, all, config, groupPrefix, wav, next, random);
+                stats.sent.incrementAndGet();
+            } else {
+                stats.errors.incrementAndGet();
+            }
+            next += interval;
+        }
+    }
+
+    private static void act(String action, ChatBot bot, List<ChatBot> all, LoadConfig config, String groupPrefix,
+                            byte[] wav, long sentAt, ThreadLocalRandom random) {
+        switch (action) {
+            case "join":
+                if (bot.groups.size() < config.groups) {
+                    String group;
+                    do {
+                        group = groupPrefix + random.nextInt(config.groups);
+                    } while (bot.groups.contains(group));
+                    bot.joinGroup(group);
+                    return;
+                }
+                // Ya está en todos: cuenta como mensaje de grupo
+            case "group":
+                if (!bot.groups.isEmpty()) {
+                    bot.groupMessage(bot.groups.get(random.nextInt(bot.groups.size())), sentAt);
+                    return;
+                }
+                // fall through
+            case "msg":
+                bot.privateMessage(peer(bot, all, random).getId(), sentAt);
+                return;
+            case "voice":
+                if (random.nextBoolean() && !bot.groups.isEmpty()) {
+                    bot.groupVoiceNote(bot.groups.get(random.nextInt(bot.groups.size())), wav, sentAt);
+                } else {
+                    bot.voiceNote(peer(bot, all, random).getId(), wav, sentAt);
+                }
+                return;
+            default:
+                throw new IllegalStateException(action);
+        }
+    }
+
+    private static ChatBot peer(ChatBot bot, List<ChatBot> all, ThreadLocalRandom random) {
+        ChatBot other;
+        do {
+            other = all.get(random.nextInt(all.size()));
+        } while (other == bot);
+        return other;
+    }
+
+    /** WAV PCM 16 kHz mono de {@code dataBytes} bytes de silencio. */
+    static byte[] wav(int dataBytes) {
+        ByteBuffer b = ByteBuffer.allocate(44 + dataBytes).order(ByteOrder.LITTLE_ENDIAN);
+        b.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + dataBytes);
+        b.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        b.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16);
+        b.putShort((short) 1).putShort((short) 1).putInt(16000).putInt(32000).putShort((short) 2).putShort((short) 16);
+        b.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(dataBytes);
+        return b.array();
+    }
+}
@@ -0,0 +1,112 @@
+package loadtest;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contadores de la prueba. Cada segundo {@link #report} imprime (y opcionalmente
+ * escribe en CSV) lo ocurrido en ese intervalo; al final {@link #summary} da los
+ * totales y los percentiles de toda la prueba.
+ */
+final class Stats {
+
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+    final AtomicLong udpSent = new AtomicLong();
+    final AtomicLong udpReceived = new AtomicLong();
+
+    // Latencia de entrega (desde el momento previsto de envío) y de audio UDP
+    private final LatencyHistogram window = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram udpWindow = new LatencyHistogram();
+    private final LatencyHistogram udpTotal = new LatencyHistogram();
+    private final LatencyHistogram scratch = new LatencyHistogram();
+    private final LatencyHistogram udpScratch = new LatencyHistogram();
+
+    private long start = System.nanoTime();
+    private long lastSent, lastDelivered, lastErrors, lastRejected, lastUdpSent, lastUdpReceived;
+    private PrintWriter csv;
+
+    void openCsv(String path) throws IOException {
+        csv = new PrintWriter(new FileWriter(path));
+        csv.println("segundo,enviados,entregados,errores,rechazados,p50_ms,p99_ms,p999_ms,max_ms,udp_enviados,udp_recibidos,udp_p99_ms");
+    }
+
+    /** Marca el inicio de la carga: los segundos del informe cuentan desde aquí. */
+    void begin() {
+        start = System.nanoTime();
+    }
+
+    void recordDelivery(long sentAtNanos) {
+        delivered.incrementAndGet();
+        window.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAtNanos));
+    }
+
+    void recordUdp(long sentAtNanos) {
+        udpReceived.incrementAndGet();
+        udpWindow.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAtNanos));
+    }
+
+    /** Lo llama un solo hilo, una vez por segundo. */
+    void report() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+        scratch.clear();
+        window.drainTo(scratch);
+        long p50 = scratch.percentile(0.50), p99 = scratch.percentile(0.99);
+        long p999 = scratch.percentile(0.999), max = scratch.max();
+        udpScratch.clear();
+        udpWindow.drainTo(udpScratch);
+        long udpP99 = udpScratch.percentile(0.99);
+        scratch.drainTo(total);
+        udpScratch.drainTo(udpTotal);
+
+        long s = sent.get(), d = delivered.get(), e = errors.get(), r = rejected.get();
+        long us = udpSent.get(), ur = udpReceived.get();
+        System.out.printf("[%3ds] enviados %6d/s  entregados %7d/s  errores %4d  rechazados %4d  "
+                        + "latencia p50 %s  p99 %s  p999 %s  máx %s%s%n",
+                second, s - lastSent, d - lastDelivered, e - lastErrors, r - lastRejected,
+                ms(p50), ms(p99), ms(p999), ms(max),
+                us > 0 ? String.format("  | UDP %d/s enviados, %d/s recibidos, p99 %s", us - lastUdpSent, ur - lastUdpReceived, ms(udpP99)) : "");
+        if (csv != null) {
+            csv.printf("%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%.3f%n", second, s - lastSent, d - lastDelivered,
+                    e - lastErrors, r - lastRejected, p50 / 1000.0, p99 / 1000.0, p999 / 1000.0, max / 1000.0,
+                    us - lastUdpSent, ur - lastUdpReceived, udpP99 / 1000.0);
+            csv.flush();
+        }
+        lastSent = s;
+        lastDelivered = d;
+        lastErrors = e;
+        lastRejected = r;
+        lastUdpSent = us;
+        lastUdpReceived = ur;
+    }
+
+    void summary(double seconds) {
+        System.out.println();
+        System.out.println("=== Resumen ===");
+        System.out.printf("Acciones enviadas: %d (%.0f/s)%n", sent.get(), sent.get() / seconds);
+        System.out.printf("Mensajes entregados: %d (%.0f/s)%n", delivered.get(), delivered.get() / seconds);
+        System.out.printf("Errores: %d, rechazados por el servidor: %d, desconexiones: %d (%.3f %% de las acciones)%n",
+                errors.get(), rejected.get(), disconnects.get(),
+                sent.get() == 0 ? 0.0 : 100.0 * (errors.get() + rejected.get()) / sent.get());
+        System.out.printf("Latencia de entrega: p50 %s  p99 %s  p999 %s  máx %s (%d muestras)%n",
+                ms(total.percentile(0.50)), ms(total.percentile(0.99)), ms(total.percentile(0.999)),
+                ms(total.max()), total.count());
+        if (udpSent.get() > 0) {
+            System.out.printf("Audio UDP: %d paquetes enviados, %d recibidos, latencia p50 %s  p99 %s  p999 %s%n",
+                    udpSent.get(), udpReceived.get(), ms(udpTotal.percentile(0.50)),
+                    ms(udpTotal.percentile(0.99)), ms(udpTotal.percentile(0.999)));
+        }
+        if (csv != null) csv.close();
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.2f ms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,253 @@
+package loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cliente de los dos caminos que tiene un navegador hasta el servidor, para comparar
+ * su latencia y rendimiento con los mismos mensajes privados que envía {@link ChatBot}
+ * ({@code LT <nanos>} con el instante previsto de envío):
+ * <ul>
+ *   <li>{@link Gateway}: WebSocket directo al gateway del servidor ({@code ws://host:webPort/chat}),
+ *       con el protocolo de líneas y las entregas empujadas por el servidor;</li>
+ *   <li>{@link Proxy}: la API REST del proxy Node.js, que abre una conexión TCP por cliente;
+ *       se envía con {@code POST /api/messages/user} y se recibe consultando
+ *       {@code GET /api/messages/<id>} cada {@code pollMs}, como hace el cliente web.</li>
+ * </ul>
+ */
+abstract class WebBot {
+
+    private static final String WELCOME = "Conectado al servidor. Tu id es ";
+    private static final Pattern DELIVERY = Pattern.compile("\\[Privado\\] de \\d+: LT (\\d+)");
+    private static final Pattern CLIENT_ID = Pattern.compile("\"clientId\"\\s*:\\s*(\\d+)");
+
+    final Stats stats;
+    final HttpClient http;
+    volatile int id = -1;
+    volatile boolean closing;
+
+    WebBot(Stats stats, HttpClient http) {
+        this.stats = stats;
+        this.http = http;
+    }
+
+    /** Conecta y espera a conocer el id asignado. */
+    abstract boolean connect();
+
+    abstract void privateMessage(int toId, long sentAt);
+
+    abstract boolean isConnected();
+
+    abstract void shutdown();
+
+    int getId() {
+        return id;
+    }
+
+    /** Registra las entregas a este bot que aparezcan en el texto (una línea o un JSON). */
+    void deliveries(CharSequence text) {
+        Matcher m = DELIVERY.matcher(text);
+        while (m.find()) {
+            stats.recordDelivery(Long.parseLong(m.group(1)));
+        }
+    }
+
+    static String message(int fromId, long sentAt) {
+        return ChatBot.MARK + sentAt + " hola desde " + fromId;
+    }
+
+    /** WebSocket al gateway del servidor. */
+    static final class Gateway extends WebBot implements WebSocket.Listener {
+
+        private final URI uri;
+        private final CountDownLatch welcomed = new CountDownLatch(1);
+        private final StringBuilder partial = new StringBuilder();
+        private volatile WebSocket socket;
+        // Los envíos del cliente de java.net.http no se pueden solapar
+        private CompletableFuture<WebSocket> lastSend = CompletableFuture.completedFuture(null);
+
+        Gateway(Stats stats, HttpClient http, String host, int port) {
+            super(stats, http);
+            this.uri = URI.create("ws://" + host + ":" + port + "/chat");
+        }
+
+        @Override
+        boolean connect() {
+            try {
+                socket = http.newWebSocketBuilder()
+                        .connectTimeout(Duration.ofSeconds(5))
+                        .buildAsync(uri, this)
+                        .get(10, TimeUnit.SECONDS);
+                return welcomed.await(10, TimeUnit.SECONDS) && id > 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        void privateMessage(int toId, long sentAt) {
+            send("/msg " + toId + " " + message(id, sentAt));
+        }
+
+        private synchronized void send(String line) {
+            WebSocket ws = socket;
+            if (ws == null) return;
+            lastSend = lastSend.thenCompose(ignored -> ws.sendText(line, true));
+            lastSend.whenComplete((ignored, error) -> {
+                if (error != null) failed();
+            });
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                String line = partial.toString();
+                partial.setLength(0);
+                handle(line);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        private void handle(String line) {
+            if (id < 0 && line.startsWith(WELCOME)) {
+                id = Integer.parseInt(line.substring(WELCOME.length(), line.length() - 1).trim());
+                welcomed.countDown();
+            } else if (line.startsWith("[Servidor] Demasiados mensajes")) {
+                stats.rejected.incrementAndGet();
+            } else {
+                deliveries(line);
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closed();
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            closed();
+        }
+
+        private void closed() {
+            welcomed.countDown();
+            if (!closing) stats.disconnects.incrementAndGet();
+            socket = null;
+        }
+
+        private void failed() {
+            if (!closing) stats.errors.incrementAndGet();
+            WebSocket ws = socket;
+            if (ws != null) ws.abort();
+        }
+
+        @Override
+        boolean isConnected() {
+            return socket != null;
+        }
+
+        @Override
+        void shutdown() {
+            closing = true;
+            WebSocket ws = socket;
+            if (ws != null) ws.abort();
+        }
+    }
+
+    /** API REST del proxy Node.js, con sondeo de los mensajes recibidos. */
+    static final class Proxy extends WebBot {
+
+        private final String base;
+        private volatile boolean connected;
+        // Evita acumular consultas si el proxy tarda más que el intervalo en contestar
+        private volatile boolean polling;
+
+        Proxy(Stats stats, HttpClient http, String host, int port) {
+            super(stats, http);
+            this.base = "http://" + host + ":" + port;
+        }
+
+        @Override
+        boolean connect() {
+            try {
+                HttpResponse<String> response = http.send(post("/api/connect", "{}"), HttpResponse.BodyHandlers.ofString());
+                Matcher m = CLIENT_ID.matcher(response.body());
+                if (response.statusCode() != 200 || !m.find()) return false;
+                id = Integer.parseInt(m.group(1));
+                connected = true;
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        void privateMessage(int toId, long sentAt) {
+            String body = "{\"clientId\":" + id + ",\"targetId\":" + toId
+                    + ",\"message\":\"" + message(id, sentAt) + "\"}";
+            http.sendAsync(post("/api/messages/user", body), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error != null || response.statusCode() != 200) stats.errors.incrementAndGet();
+                    });
+        }
+
+        /** Una consulta de {@code GET /api/messages/<id>}; la lanza el hilo de sondeo. */
+        void poll() {
+            if (!connected || polling) return;
+            polling = true;
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/api/messages/" + id))
+                    .timeout(Duration.ofSeconds(10))
+                    .GET()
+                    .build();
+            http.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        polling = false;
+                        if (error != null || response.statusCode() != 200) {
+                            if (!closing) stats.errors.incrementAndGet();
+                        } else {
+                            deliveries(response.body());
+                        }
+                    });
+        }
+
+        private HttpRequest post(String path, String json) {
+            return HttpRequest.newBuilder(URI.create(base + path))
+                    .timeout(Duration.ofSeconds(10))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json))
+                    .build();
+        }
+
+        @Override
+        boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        void shutdown() {
+            closing = true;
+            if (!connected) return;
+            connected = false;
+            http.sendAsync(post("/api/disconnect", "{\"clientId\":" + id + "}"), HttpResponse.BodyHandlers.discarding());
+        }
+    }
+}
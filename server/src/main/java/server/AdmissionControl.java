@@ -0,0 +1,68 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Control de admisión compartido por todos los transportes: número máximo de
+ * conexiones en total y por IP, y los límites de tasa que recibe cada conexión.
+ * Se configura con propiedades del sistema {@code chat.*}.
+ */
+public class AdmissionControl {
+
+    private final int maxConnections = Integer.getInteger("chat.maxConnections", 1024);
+    private final int maxConnectionsPerIp = Integer.getInteger("chat.maxConnectionsPerIp", 32);
+    private final long messagesPerSecond = Long.getLong("chat.rate.messagesPerSecond", 20);
+    private final long messageBurst = Long.getLong("chat.rate.messageBurst", 40);
+    private final long bytesPerSecond = Long.getLong("chat.rate.bytesPerSecond", 2L * 1024 * 1024);
+    private final long byteBurst = Long.getLong("chat.rate.byteBurst", 8L * 1024 * 1024);
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final Map<InetAddress, Integer> perIp = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+
+    /**
+     * Reserva una plaza para una conexión entrante.
+     * @return false si se alcanzó el máximo global o el de esa IP
+     */
+    public boolean tryAdmit(InetAddress address) {
+        if (active.incrementAndGet() > maxConnections) {
+            active.decrementAndGet();
+            rejectedConnections.incrementAndGet();
+            return false;
+        }
+        boolean[] admitted = {false};
+        perIp.compute(address, (ip, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxConnectionsPerIp) return count;
+            admitted[0] = true;
+            return current + 1;
+        });
+        if (!admitted[0]) {
+            active.decrementAndGet();
+            rejectedConnections.incrementAndGet();
+        }
+        return admitted[0];
+    }
+
+    /** Libera la plaza reservada con {@link #tryAdmit}. */
+    public void release(InetAddress address) {
+        active.decrementAndGet();
+        perIp.computeIfPresent(address, (ip, count) -> count <= 1 ? null : count - 1);
+    }
+
+    public RateLimiter newRateLimiter() {
+        return new RateLimiter(messagesPerSecond, messageBurst, bytesPerSecond, byteBurst);
+    }
+
+    public int activeConnections() {
+        return active.get();
+    }
+
+    public long rejectedConnections() {
+        return rejectedConnections.get();
+    }
+}
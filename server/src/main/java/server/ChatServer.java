@@ -1,33 +1,95 @@
 package server;
 
+import server.cluster.ClusterNode;
+import server.log.Log;
+import server.metrics.ChatMetrics;
+import server.trace.MessageRoutedEvent;
+import server.trace.MessageTrace;
+
 import java.io.IOException;
 import java.net.*;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatServer implements AutoCloseable {
 
-    private final Map<Integer, ClientHandler> clients = new ConcurrentHashMap<>();
-    private final Map<String, List<ClientHandler>> groups = new HashMap<>();
+    // Se consulta en cada mensaje privado y nota de voz: búsqueda por int sin crear objetos
+    private final ConcurrentIntMap<ChatSession> clients = new ConcurrentIntMap<>();
+    private final Map<String, List<ChatSession>> groups = new HashMap<>();
     private final int tcpPort;
     private final int udpPort;
+    private final int poolSize;
     private final ExecutorService pool;
+    private final AtomicInteger tcpHandlers = new AtomicInteger();
+    private final AdmissionControl admission = new AdmissionControl();
+    private static final byte[] SERVER_FULL =
+            "Servidor lleno, intenta más tarde.\n".getBytes(java.nio.charset.StandardCharsets.UTF_8);
     private final Semaphore messageSemaphore;
     private ServerSocket serverSocket;
+    // Compartido por todos los transportes (TCP, gateway web) para que los ids no choquen
+    private final AtomicInteger nextId = new AtomicInteger(1);
 
-    private final HistoryService history = new HistoryService(new java.io.File("history"));
+    private final HistoryService history;
+    private final VoiceUploadStore voiceUploads;
+    // Tareas vencidas del temporizador: cortas, pero algunas escriben en sockets. El pool
+    // es fijo: si muchas vencen a la vez (heartbeats de miles de conexiones) esperan en
+    // la cola en lugar de crear un hilo por cada escritura bloqueada
+    private static final int TIMER_THREADS = Integer.getInteger("chat.timerThreads", 4);
+    private final ExecutorService timerTasks = Executors.newFixedThreadPool(TIMER_THREADS, r -> {
+        Thread t = new Thread(r, "chat-timer-task");
+        t.setDaemon(true);
+        return t;
+    });
+    private final TimerWheel timers = new TimerWheel("chat-timers", 100, 512, timerTasks);
+    private final OfflineMailbox mailbox;
+    private final SessionRegistry sessions;
+    // Grupos y miembros persistidos entre reinicios (los de otros nodos no: llegan por el clúster)
+    private final GroupRegistry groupRegistry;
+    private final PresenceService presence;
 
     private final UDPRelay udpRelay;
+    // Federación con otros nodos; null si el servidor funciona solo
+    private volatile ClusterNode cluster;
 
     public ChatServer(int tcpPort, int udpPort, int poolSize) {
+        this(tcpPort, udpPort, poolSize, new java.io.File("history"));
+    }
+
+    /** @param dataDir historial, buzones y registro de grupos (varios servidores en un proceso, benchmarks) */
+    public ChatServer(int tcpPort, int udpPort, int poolSize, java.io.File dataDir) {
+        this.history = new HistoryService(dataDir);
+        this.voiceUploads = new VoiceUploadStore(new java.io.File(dataDir, "uploads"), timers,
+                VoiceUploadStore.STALE_AFTER_MS);
+        this.mailbox = new OfflineMailbox(new java.io.File(dataDir, "mailbox"), timers);
+        this.sessions = new SessionRegistry(this, mailbox, timers);
+        this.groupRegistry = new GroupRegistry(new java.io.File(dataDir, "groups"), timers);
+        this.presence = new PresenceService(timers);
         this.tcpPort = tcpPort;
         this.udpPort = udpPort;
+        this.poolSize = poolSize;
         this.pool = Executors.newFixedThreadPool(poolSize);
         this.messageSemaphore = new Semaphore(1, true); // fair semaphore
-        this.udpRelay = new UDPRelay(udpPort);
+        this.udpRelay = new UDPRelay(udpPort, timers);
+        // Los grupos vuelven vacíos de conexiones: cada miembro vuelve a ellos al registrarse
+        // con su identidad estable (ver reattachGroups)
+        for (String groupName : groupRegistry.getGroups().keySet()) {
+            groups.put(groupName, new ArrayList<>());
+        }
+        registerGauges();
+    }
+
+    // Con varios servidores en un proceso (benchmarks) se queda el primero que se registró
+    private void registerGauges() {
+        ChatMetrics.gauge("chat_connected_clients", "Sesiones conectadas a este nodo", clients::size);
+        ChatMetrics.gauge("chat_tcp_handlers", "Hilos del pool ocupados por conexiones TCP", tcpHandlers::get);
+        ChatMetrics.gauge("chat_group_memberships", "Pertenencias a grupos registradas", groupRegistry::memberships);
+        ChatMetrics.gauge("chat_mailbox_memory_bytes", "Bytes de buzones offline en memoria", mailbox::memoryBytes);
+        ChatMetrics.gauge("chat_timers_pending", "Temporizadores pendientes en la rueda", timers::pending);
+        ChatMetrics.registerJmx();
     }
 
     public void start() throws IOException {
@@ -49,34 +111,53 @@ public class ChatServer implements AutoCloseable {
                 }
             }
             if (!ips.isEmpty()) {
-                System.out.println("[Servidor] IPs locales: " + String.join(", ", ips) + " (usa una desde otro PC)");
+                Log.info("Servidor", "IPs locales: {} (usa una desde otro PC)", String.join(", ", ips));
             }
         } catch (Exception ignored) {}
 
-        System.out.println("[Servidor] TCP escuchando en el puerto " + tcpPort + ", UDP escuchando en el puerto " + udpPort);
-        System.out.println("[Servidor] Si otro equipo no conecta: verifica el firewall y abre TCP " + tcpPort + " y UDP " + udpPort + ".");
-
-        int nextId = 1;
+        Log.info("Servidor", "TCP escuchando en el puerto {}, UDP escuchando en el puerto {}", tcpPort, udpPort);
+        Log.info("Servidor", "Si otro equipo no conecta: verifica el firewall y abre TCP {} y UDP {}.", tcpPort, udpPort);
 
         while (!serverSocket.isClosed()) {
             Socket socket = serverSocket.accept();
-            final int clientId = nextId++;
+            InetAddress address = socket.getInetAddress();
+            // Cada conexión ocupa un hilo del pool: si no queda ninguno se rechaza en vez de dejarla en cola
+            if (tcpHandlers.get() >= poolSize || !admission.tryAdmit(address)) {
+                reject(socket);
+                continue;
+            }
+            tcpHandlers.incrementAndGet();
+            final int clientId = nextClientId();
             ClientHandler handler = new ClientHandler(clientId, socket, this);
-            clients.put(clientId, handler);
-            pool.submit(handler);
-            System.out.println("[Servidor] Cliente " + clientId + " conectado: " + socket.getRemoteSocketAddress());
+            register(handler);
+            pool.submit(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    tcpHandlers.decrementAndGet();
+                    admission.release(address);
+                }
+            });
+            Log.info("Servidor", "Cliente {} conectado: {}", clientId, socket.getRemoteSocketAddress());
         }
     }
 
+    private void reject(Socket socket) {
+        Log.info("Servidor", "Conexión rechazada (límite alcanzado): {}", socket.getRemoteSocketAddress());
+        try (socket) {
+            socket.getOutputStream().write(SERVER_FULL);
+        } catch (IOException ignored) {}
+    }
+
     void onClientMessage(int fromId, String message) {
         try {
             messageSemaphore.acquire();
             int toId = fromId == 1 ? 2 : 1;
-            ClientHandler other = clients.get(toId);
+            ChatSession other = clients.get(toId);
             if (other != null) {
                 other.send("[Usuario " + fromId + "]: " + message);
             } else {
-                ClientHandler self = clients.get(fromId);
+                ChatSession self = clients.get(fromId);
                 if (self != null) self.send("[Servidor]: El otro usuario no está conectado aún.");
             }
         } catch (InterruptedException e) {
@@ -86,127 +167,467 @@ public class ChatServer implements AutoCloseable {
         }
     }
 
-    void onClientClose(int clientId) {
+    public int nextClientId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Une el servidor a un clúster. Los ids de este nodo pasan a empezar en
+     * {@code nodeId * ClusterNode.ID_STRIDE + 1} para no chocar con los de otros nodos.
+     */
+    public void attachCluster(ClusterNode node) {
+        this.cluster = node;
+        nextId.set(node.getNodeId() * ClusterNode.ID_STRIDE + 1);
+    }
+
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
+    /** Hace visible una sesión para el enrutamiento (mensajes privados y grupos). */
+    public void register(ChatSession session) {
+        clients.put(session.getId(), session);
+        reattachGroups(session);
+        presence.online(session.getId());
+        ClusterNode node = cluster;
+        if (node != null) node.userUp(session.getId());
+    }
+
+    /** Libera un id sin anunciar desconexión (la conexión pasó a otra sesión). */
+    void unregister(int clientId) {
         clients.remove(clientId);
-        System.out.println("[Servidor] Cliente " + clientId + " desconectado.");
+        presence.offline(clientId);
+        presence.unsubscribe(clientId);
+        ClusterNode node = cluster;
+        if (node != null) node.userDown(clientId);
+    }
+
+    public void onClientClose(int clientId) {
+        clients.remove(clientId);
+        presence.offline(clientId);
+        presence.unsubscribe(clientId);
+        ClusterNode node = cluster;
+        if (node != null) node.userDown(clientId);
+        Log.info("Servidor", "Cliente {} desconectado.", clientId);
     }
 
     public UDPRelay getUdpRelay() {
         return udpRelay;
     }
 
+    public HistoryService getHistory() {
+        return history;
+    }
+
+    public VoiceUploadStore getVoiceUploads() {
+        return voiceUploads;
+    }
+
+    public OfflineMailbox getMailbox() {
+        return mailbox;
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public GroupRegistry getGroupRegistry() {
+        return groupRegistry;
+    }
+
+    public TimerWheel getTimers() {
+        return timers;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    public PresenceService getPresence() {
+        return presence;
+    }
+
     @Override
     public void close() throws IOException {
         try {
             if (serverSocket != null) serverSocket.close();
         } finally {
             pool.shutdownNow();
+            presence.close();
+            timers.close();
+            timerTasks.shutdownNow();
             udpRelay.close();
+            // Así el próximo arranque no tiene que reproducir el log
+            groupRegistry.snapshotNow();
+            groupRegistry.close();
         }
     }
 
 
-    public void createGroup(String groupName, ClientHandler creator) {
-        if (groups.containsKey(groupName)) {
+    public synchronized void createGroup(String groupName, ChatSession creator) {
+        ClusterNode node = cluster;
+        if (groups.containsKey(groupName) || (node != null && node.knowsGroup(groupName))) {
             creator.send("El grupo '" + groupName + "' ya existe.");
         } else {
-            List<ClientHandler> members = new ArrayList<>();
+            List<ChatSession> members = new ArrayList<>();
             members.add(creator);
             groups.put(groupName, members);
+            groupRegistry.create(groupName, creator.memberKey());
+            if (node != null) node.groupCreated(groupName, creator.getId());
             creator.send("Grupo '" + groupName + "' creado exitosamente.");
             creator.send("Otros usuarios pueden unirse: " + groupName);
-            System.out.println("[Servidor] Grupo creado: " + groupName + " por usuario " + creator.getId());
+            Log.info("Servidor", "Grupo creado: {} por usuario {}", groupName, creator.getId());
         }
     }
 
-    public synchronized void sendPrivateMessage(int fromId, int toId, String message) {
-        ClientHandler target = clients.get(toId);
+    /**
+     * Con el monitor solo se busca al destinatario; la entrega y el historial van fuera,
+     * como en {@link #sendGroupMessage}, para que un destinatario lento no bloquee al resto.
+     * @return false si el destinatario no está en este nodo ni en el clúster
+     */
+    public boolean sendPrivateMessage(int fromId, int toId, String message) {
+        long monitorWait;
+        MessageRoutedEvent routed = new MessageRoutedEvent();
+        ChatSession target;
+        ClusterNode node;
+        synchronized (this) {
+            monitorWait = MessageTrace.sinceHandoff();
+            routed.begin();
+            target = clients.get(toId);
+            node = cluster;
+        }
         if (target != null) {
-            target.send("[Privado] de " + fromId + ": " + message);
+            target.deliverPrivate(fromId, message);
             history.logPrivateText(fromId, toId, message);
+            routed.finish(toId, 1, false, monitorWait);
+        } else if (node != null && node.forwardPrivate(fromId, toId, message)) {
+            // El nodo dueño del destinatario lo entrega y lo guarda en su historial
+            routed.finish(toId, 0, true, monitorWait);
         } else {
-            ClientHandler from = clients.get(fromId);
-            if (from != null) from.send("User with ID " + toId + " not found.");
+            notifySender(fromId, "User with ID " + toId + " not found.");
+            return false;
         }
+        return true;
     }
 
-    public synchronized void sendGroupMessage(String groupName, int fromId, String message) {
-        List<ClientHandler> members = groups.get(groupName);
-        if (members == null) {
-            clients.get(fromId).send("Group '" + groupName + "' does not exist.");
-            return;
-        }
-        if (members.isEmpty()) {
-            clients.get(fromId).send("Group '" + groupName + "' has no members.");
-            return;
+    /**
+     * Con el monitor solo se comprueba el grupo, se guarda en el historial (así conserva
+     * el orden de llegada) y se copian los miembros; las escrituras a cada uno se hacen
+     * fuera, para que un destinatario lento no bloquee al resto del servidor.
+     * @return false si el grupo no existe o no tiene miembros
+     */
+    public boolean sendGroupMessage(String groupName, int fromId, String message) {
+        long monitorWait;
+        MessageRoutedEvent routed = new MessageRoutedEvent();
+        ChatSession[] members;
+        ClusterNode node;
+        synchronized (this) {
+            monitorWait = MessageTrace.sinceHandoff();
+            routed.begin();
+            members = membersOf(groupName);
+            if (members == null) {
+                notifySender(fromId, "Group '" + groupName + "' does not exist.");
+                return false;
+            }
+            node = cluster;
+            if (members.length == 0 && (node == null || !node.hasRemoteMembers(groupName))) {
+                notifySender(fromId, "Group '" + groupName + "' has no members.");
+                return false;
+            }
+            history.logGroupText(groupName, fromId, message);
         }
 
-        history.logGroupText(groupName, fromId, message);
-        for (ClientHandler member : members) {
+        int recipients = deliverToLocalMembers(members, groupName, fromId, message);
+        if (node != null) node.forwardGroup(groupName, fromId, message);
+        routed.finish(groupName, recipients, node != null, monitorWait);
+        return true;
+    }
+
+    // El remitente puede haberse desconectado mientras su mensaje esperaba el monitor
+    private void notifySender(int fromId, String notice) {
+        ChatSession from = clients.get(fromId);
+        if (from != null) from.send(notice);
+    }
+
+    /** @return destinatarios a los que se escribió */
+    private static int deliverToLocalMembers(ChatSession[] members, String groupName, int fromId, String message) {
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ChatSession member : members) {
             if (member.getId() != fromId) {
-                member.send("[" + groupName + "] Usuario " + fromId + ": " + message);
+                member.deliverGroup(groupName, fromId, message);
+                recipients++;
             }
         }
+        recordFanOut(start, recipients);
+        return recipients;
     }
 
-    public synchronized void addUserToGroup(String groupName, ClientHandler user) {
-        List<ClientHandler> members = groups.get(groupName);
+    /** Copia de los miembros locales del grupo, para recorrerla sin el monitor; null si no existe. */
+    private synchronized ChatSession[] membersOf(String groupName) {
+        List<ChatSession> members = groups.get(groupName);
+        return members == null ? null : members.toArray(new ChatSession[0]);
+    }
+
+    private static void recordFanOut(long start, int recipients) {
+        ChatMetrics.FANOUT.recordSince(start);
+        ChatMetrics.FANOUT_RECIPIENTS.record(recipients);
+    }
+
+    // === Entrada desde otros nodos del clúster ===
+
+    /** Mensaje privado reenviado por el nodo del remitente; aquí se entrega y se guarda. */
+    public void deliverRemotePrivate(int fromId, int toId, String message) {
+        ChatSession target;
+        synchronized (this) {
+            target = clients.get(toId);
+        }
+        if (target == null) {
+            Log.info("Cluster", "Destinatario {} ya no está en este nodo; mensaje de {} descartado.", toId, fromId);
+            return;
+        }
+        target.deliverPrivate(fromId, message);
+        history.logPrivateText(fromId, toId, message);
+    }
+
+    /** Mensaje de grupo de otro nodo; el historial lo guardó el nodo de origen. */
+    public void deliverRemoteGroup(String groupName, int fromId, String message) {
+        ChatSession[] members = membersOf(groupName);
+        if (members != null) deliverToLocalMembers(members, groupName, fromId, message);
+    }
+
+    public synchronized void onRemoteGroupCreated(String groupName) {
+        groups.putIfAbsent(groupName, new ArrayList<>());
+    }
+
+    public synchronized void onRemoteGroupJoin(String groupName, int userId) {
+        List<ChatSession> members = groups.computeIfAbsent(groupName, g -> new ArrayList<>());
+        for (ChatSession member : members) {
+            member.userJoined(userId, groupName);
+        }
+    }
+
+    /** @return false si el grupo no existe */
+    public synchronized boolean addUserToGroup(String groupName, ChatSession user) {
+        List<ChatSession> members = groups.get(groupName);
         if (members == null) {
             user.send(" El grupo '" + groupName + "' no existe.");
-            return;
+            return false;
         }
         if (!members.contains(user)) {
             members.add(user);
+            String key = user.memberKey();
+            if (key != null) groupRegistry.join(groupName, key);
+            ClusterNode node = cluster;
+            if (node != null) node.groupJoined(groupName, user.getId());
             user.send(" Te has unido al grupo '" + groupName + "'.");
 
             // Notificar a otros miembros
-            for (ClientHandler member : members) {
+            for (ChatSession member : members) {
                 if (member != user) {
-                    member.send("[Sistema] El usuario " + user.getId() + " se ha unido al grupo");
+                    member.userJoined(user.getId(), groupName);
                 }
             }
-            System.out.println("[Servidor] Usuario " + user.getId() + " se unió al grupo " + groupName);
+            Log.info("Servidor", "Usuario {} se unió al grupo {}", user.getId(), groupName);
         } else {
             user.send("ℹ Ya estás en el grupo '" + groupName + "'.");
         }
+        return true;
+    }
+
+    /**
+     * Saca a la sesión del grupo, también del registro persistente.
+     * @return false si el grupo no existe
+     */
+    public synchronized boolean removeUserFromGroup(String groupName, ChatSession user) {
+        List<ChatSession> members = groups.get(groupName);
+        if (members == null) return false;
+        boolean removed = members.remove(user);
+        String key = user.memberKey();
+        if (key != null) removed |= groupRegistry.leave(groupName, key);
+        if (removed) {
+            ClusterNode node = cluster;
+            if (node != null) node.groupLeft(groupName, user.getId());
+            Log.info("Servidor", "Usuario {} dejó el grupo {}", user.getId(), groupName);
+        }
+        return true;
+    }
+
+    /**
+     * Pone a la sesión en los grupos en los que su identidad estable figura en el
+     * registro persistente. Si ya había otra sesión con esa identidad (un login Ice
+     * anterior del mismo usuario) la sustituye, para no entregar dos veces.
+     */
+    synchronized void reattachGroups(ChatSession session) {
+        String key = session.memberKey();
+        if (key == null) return;
+        ClusterNode node = cluster;
+        for (String groupName : groupRegistry.groupsOf(key)) {
+            List<ChatSession> members = groups.computeIfAbsent(groupName, g -> new ArrayList<>());
+            int previousId = -1;
+            for (int i = 0; i < members.size() && previousId < 0; i++) {
+                ChatSession member = members.get(i);
+                if (member == session || key.equals(member.memberKey())) {
+                    previousId = member.getId();
+                    members.set(i, session);
+                }
+            }
+            if (previousId < 0) members.add(session);
+            if (node != null && previousId != session.getId()) node.groupJoined(groupName, session.getId());
+        }
+    }
+
+    /**
+     * La sesión reanudable sustituye a la conexión {@code from} en los grupos a los que
+     * esta se unió antes de pedirla, y esas pertenencias se guardan con su identidad.
+     */
+    synchronized void handOverGroups(ChatSession from, ChatSession to) {
+        String key = to.memberKey();
+        for (Map.Entry<String, List<ChatSession>> group : groups.entrySet()) {
+            List<ChatSession> members = group.getValue();
+            int i = members.indexOf(from);
+            if (i < 0) continue;
+            members.set(i, to);
+            if (key != null) groupRegistry.join(group.getKey(), key);
+        }
     }
 
-    public void sendVoiceNoteToUser(String targetId, byte[] data, String filename, String fromId) {
+    /** Saca a la sesión de todos sus grupos: el cliente se despidió con BYE. */
+    public synchronized void leaveAllGroups(ChatSession user) {
+        String key = user.memberKey();
+        ClusterNode node = cluster;
+        for (Map.Entry<String, List<ChatSession>> group : groups.entrySet()) {
+            boolean removed = group.getValue().remove(user);
+            if (key != null) removed |= groupRegistry.leave(group.getKey(), key);
+            if (removed) {
+                if (node != null) node.groupLeft(group.getKey(), user.getId());
+                Log.info("Servidor", "Usuario {} dejó el grupo {}", user.getId(), group.getKey());
+            }
+        }
+    }
+
+    public synchronized Set<String> groupNames() {
+        return new TreeSet<>(groups.keySet());
+    }
+
+    /** Ids de los miembros conectados a este nodo; null si el grupo no existe. */
+    public synchronized int[] localGroupMembers(String groupName) {
+        List<ChatSession> members = groups.get(groupName);
+        if (members == null) return null;
+        int[] ids = new int[members.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = members.get(i).getId();
+        return ids;
+    }
+
+    /** @return false si el id no es válido o el destinatario no está conectado */
+    public boolean sendVoiceNoteToUser(String targetId, byte[] data, String filename, String fromId) {
         try {
             int target = Integer.parseInt(targetId);
             int from = Integer.parseInt(fromId);
-            ClientHandler targetHandler = clients.get(target);
+            MessageRoutedEvent routed = new MessageRoutedEvent();
+            routed.begin();
+            ChatSession targetHandler = clients.get(target);
             if (targetHandler != null) {
-                targetHandler.sendVoiceNote(filename, data, fromId);
-                history.logPrivateVoice(from, target, filename, data);
-                System.out.println("Nota de voz enviada de " + fromId + " a usuario " + targetId);
-            } else {
-                System.out.println("Usuario destino no encontrado: " + targetId);
+                // Se guarda antes de entregar: el destinatario (y su sesión reanudable o su
+                // buzón) recibe la ruta y el audio sale de la caché, no de este byte[]
+                Path stored = history.logPrivateVoice(from, target, filename, data);
+                if (stored != null) {
+                    targetHandler.sendVoiceNote(filename, stored, fromId);
+                } else {
+                    targetHandler.sendVoiceNote(filename, data, fromId);
+                }
+                routed.finish(target, 1, false, 0);
+                Log.debug("Servidor", "Nota de voz enviada de {} a usuario {}", fromId, targetId);
+                return true;
             }
+            Log.debug("Servidor", "Usuario destino no encontrado: {}", targetId);
         } catch (NumberFormatException e) {
-            System.out.println("ID de usuario inválido: " + targetId);
+            Log.debug("Servidor", "ID de usuario inválido: {}", targetId);
         }
+        return false;
     }
 
-    public void sendVoiceNoteToGroup(int fromId, String groupName, String filename, byte[] data) {
-        List<ClientHandler> groupList = groups.get(groupName);
+    /** @return false si el grupo no existe o está vacío */
+    public boolean sendVoiceNoteToGroup(int fromId, String groupName, String filename, byte[] data) {
+        MessageRoutedEvent routed = new MessageRoutedEvent();
+        routed.begin();
+        ChatSession[] groupList = membersOf(groupName);
 
-        if (groupList == null || groupList.isEmpty()) {
-            System.out.println(" Grupo no encontrado o vacío: " + groupName);
-            return;
+        if (groupList == null || groupList.length == 0) {
+            Log.debug("Servidor", "Grupo no encontrado o vacío: {}", groupName);
+            return false;
         }
 
-        history.logGroupVoice(groupName, fromId, filename, data);
-        for (ClientHandler member : groupList) {
+        Path stored = history.logGroupVoice(groupName, fromId, filename, data);
+        long start = System.nanoTime();
+        int recipients = 0;
+        String from = "Grupo:" + groupName + " de " + fromId;
+        for (ChatSession member : groupList) {
             if (member.getId() != fromId) { // no se reenvía al emisor
-                member.sendVoiceNote(filename, data, "Grupo:" + groupName + " de " + fromId);
+                if (stored != null) {
+                    member.sendVoiceNote(filename, stored, from);
+                } else {
+                    member.sendVoiceNote(filename, data, from);
+                }
+                recipients++;
             }
         }
+        recordFanOut(start, recipients);
+        routed.finish(groupName, recipients, false, 0);
 
-        System.out.println("Nota de voz enviada al grupo " + groupName + " por usuario " + fromId);
+        Log.debug("Servidor", "Nota de voz enviada al grupo {} por usuario {}", groupName, fromId);
+        return true;
+    }
+
+    /**
+     * Entrega una nota de voz subida por bloques. El archivo se mueve al historial y
+     * se transmite desde disco a cada destinatario, sin cargarlo completo en memoria.
+     * @return false si el usuario destino no está conectado
+     */
+    public boolean sendVoiceFileToUser(int fromId, int toId, String filename, Path file) throws IOException {
+        ChatSession targetHandler = clients.get(toId);
+        if (targetHandler == null) {
+            Log.debug("Servidor", "Usuario destino no encontrado: {}", toId);
+            return false;
+        }
+        Path stored = history.storePrivateVoice(fromId, toId, filename, file);
+        targetHandler.sendVoiceNote(filename, stored, String.valueOf(fromId));
+        Log.debug("Servidor", "Nota de voz enviada de {} a usuario {}", fromId, toId);
+        return true;
+    }
+
+    /** @return false si el grupo no existe o está vacío */
+    public boolean sendVoiceFileToGroup(int fromId, String groupName, String filename, Path file) throws IOException {
+        ChatSession[] groupList = membersOf(groupName);
+        if (groupList == null || groupList.length == 0) {
+            Log.debug("Servidor", "Grupo no encontrado o vacío: {}", groupName);
+            return false;
+        }
+
+        Path stored = history.storeGroupVoice(groupName, fromId, filename, file);
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ChatSession member : groupList) {
+            if (member.getId() != fromId) {
+                member.sendVoiceNote(filename, stored, "Grupo:" + groupName + " de " + fromId);
+                recipients++;
+            }
+        }
+        recordFanOut(start, recipients);
+        Log.debug("Servidor", "Nota de voz enviada al grupo {} por usuario {}", groupName, fromId);
+        return true;
+    }
+
+    // Una sesión cerrada (logout Ice, sesión expirada descartada) puede seguir en la lista
+    private int liveMembers(List<ChatSession> members) {
+        int live = 0;
+        for (ChatSession member : members) {
+            if (clients.get(member.getId()) == member) live++;
+        }
+        return live;
     }
 
-    public synchronized void listGroups(ClientHandler client) {
+    public synchronized void listGroups(ChatSession client) {
         if (groups.isEmpty()) {
             client.send("No hay grupos existentes. Crea uno con /createGroup <nombre>");
             return;
@@ -214,9 +635,10 @@ public class ChatServer implements AutoCloseable {
 
         StringBuilder sb = new StringBuilder("--- GRUPOS DISPONIBLES ---\n");
         for (String groupName : groups.keySet()) {
-            List<ClientHandler> members = groups.get(groupName);
+            // Solo los miembros con sesión viva: los que no han vuelto tras un reinicio no cuentan
+            int count = cluster != null ? cluster.memberCount(groupName) : liveMembers(groups.get(groupName));
             sb.append("- ").append(groupName)
-                    .append(" (").append(members.size()).append(" miembros)\n");
+                    .append(" (").append(count).append(" miembros)\n");
         }
         sb.append("Únete con: /joinGroup <nombre>");
         client.send(sb.toString());
@@ -0,0 +1,59 @@
+package server;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Destino de entrega de un usuario conectado, independiente del transporte
+ * (socket TCP, WebSocket del gateway web, callback Ice...). ChatServer guarda
+ * todas las sesiones en un único directorio y enruta siempre a través de esta
+ * interfaz, así cada mensaje se reparte y se guarda una sola vez venga de donde venga.
+ */
+public interface ChatSession {
+
+    int getId();
+
+    /**
+     * Identidad que sobrevive a reconexiones y reinicios, con la que el
+     * {@link GroupRegistry} guarda sus grupos. null si la sesión no tiene: sus grupos
+     * duran lo que la conexión.
+     */
+    default String memberKey() {
+        return null;
+    }
+
+    void send(String msg);
+
+    /** Envía varios mensajes seguidos; los transportes pueden agruparlos en una sola escritura. */
+    default void sendAll(List<String> msgs) {
+        for (String msg : msgs) send(msg);
+    }
+
+    /**
+     * Mensaje privado de otro usuario. Los transportes de líneas lo reciben como texto;
+     * los que tienen mensajes estructurados (Ice) conservan remitente y contenido.
+     */
+    default void deliverPrivate(int fromId, String message) {
+        send("[Privado] de " + fromId + ": " + message);
+    }
+
+    /** Mensaje de un miembro del grupo {@code groupName}. */
+    default void deliverGroup(String groupName, int fromId, String message) {
+        send("[" + groupName + "] Usuario " + fromId + ": " + message);
+    }
+
+    /** Otro usuario entró en un grupo del que esta sesión es miembro. */
+    default void userJoined(int userId, String groupName) {
+        send("[Sistema] El usuario " + userId + " se ha unido al grupo");
+    }
+
+    /** Delta de presencia: {@code "<id>:<estado> <id>:<estado> ..."} (ver PresenceService). */
+    default void sendPresence(String delta) {
+        send("PRESENCE " + delta);
+    }
+
+    void sendVoiceNote(String filename, byte[] data, String fromId);
+
+    /** Envía una nota de voz que ya está en disco, sin cargarla completa en memoria. */
+    void sendVoiceNote(String filename, Path file, String fromId);
+}
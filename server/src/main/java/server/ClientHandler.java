@@ -1,83 +1,141 @@
 package server;
 
+import server.log.Log;
+import server.metrics.ChatMetrics;
+import server.metrics.CountingOutputStream;
+import server.trace.MessageReceivedEvent;
+import server.trace.MessageTrace;
+import server.trace.MessageWrittenEvent;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements ChatSession, Runnable {
 
     private final int id;
     private final Socket socket;
     private final ChatServer server;
-    private BufferedReader reader;
+    private final CommandDispatcher dispatcher;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    // Sesiones reanudables: PING tras este tiempo sin recibir nada, y corte tras tres sin respuesta
+    private static final long HEARTBEAT_MS = Long.getLong("chat.heartbeatMs", 30_000);
+    // Clientes sin sesión (no responden a PING): corte tras este tiempo de inactividad
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("chat.idleTimeoutMs", 15 * 60_000);
+
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+    private InputStream in;
+    // Salida del socket contando bytes; el writer de texto y las notas de voz escriben aquí
+    private OutputStream out;
     private BufferedWriter writer;
+    // Nota de voz en streaming en curso (como mucho una por conexión)
+    private VoiceUploadStore.Upload voiceStream;
+    // Sesión reanudable (si el cliente la pidió con /session o /resume)
+    private volatile ResumableSession session;
+    private final RateLimiter limiter;
+    private int lastLineBytes;
+    private volatile long lastRead = System.currentTimeMillis();
+    private volatile TimerWheel.Timeout idleTimer;
+    // El cliente se despidió con BYE y ya se dio de baja
+    private boolean ended;
+    // Compresión negociada con /compress; se cambia con el monitor tomado
+    private WireCompression compression;
+    // Líneas de la última trama comprimida recibida que aún no se han procesado
+    private final ArrayDeque<String> inflatedLines = new ArrayDeque<>();
 
     public ClientHandler(int id, Socket socket, ChatServer server) {
         this.id = id;
         this.socket = socket;
         this.server = server;
+        this.dispatcher = new CommandDispatcher(server);
+        this.limiter = server.getAdmission().newRateLimiter();
     }
 
     @Override
     public void run() {
         try {
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            // Un único flujo con buffer para líneas y bytes de audio: un BufferedReader
+            // aparte se quedaría con bytes de la nota que luego faltan al leer el socket
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new CountingOutputStream(socket.getOutputStream(), ChatMetrics.OUTBOUND_TCP);
+            writer = new BufferedWriter(new OutputStreamWriter(out));
+            socket.setKeepAlive(true);
+            scheduleIdleCheck(Math.min(HEARTBEAT_MS, IDLE_TIMEOUT_MS));
 
             send("Conectado al servidor. Tu id es " + id + ".");
             send("Audio UDP puerto servidor: " + server.getUdpRelay().getPort());
 
             String line;
 
-            while ((line = reader.readLine()) != null) {
+            while ((line = readLine()) != null) {
+                limiter.throttleBytes(lastLineBytes);
                 if (line.trim().isEmpty()) continue;
 
-                if (line.startsWith("/createGroup ")) {
-                    String groupName = line.substring(13).trim();
-                    if (!groupName.isEmpty()) {
-                        server.createGroup(groupName, this);
-                    } else {
-                        send("Usage: /createGroup <groupName>");
+                if (line.equals("PONG")) continue; // respuesta al heartbeat
+
+                if (line.equals("BYE")) {
+                    endSession();
+                    break;
+                }
+
+                // Los bloques de voz ya se limitan por bytes y su voiceEnd no se puede rechazar
+                // sin dejar la subida abierta; el resto cuenta como mensaje
+                boolean voiceStreamLine = line.startsWith("voiceChunk:") || line.equals("voiceEnd");
+                if (!voiceStreamLine && !limiter.admitMessage()) {
+                    if (limiter.shouldNotify()) send(RateLimiter.REJECTED_NOTICE);
+                    // Un voicenote rechazado trae detrás su longitud y sus bytes: hay que consumirlos
+                    if (line.startsWith("voicenoteUser:") || line.startsWith("voicenoteGroup:")) {
+                        String header = readLine();
+                        if (header == null || skipBytes(wireLength(header)) < 0) break;
                     }
                     continue;
                 }
 
+                if (line.equals(WireCompression.NEGOTIATE)) {
+                    enableCompression();
+                    continue;
+                }
 
-                if (line.startsWith("/joinGroup ")) {
-                    String groupName = line.substring(11).trim();
-                    server.addUserToGroup(groupName, this);
+                if (line.equals("/session")) {
+                    openSession();
                     continue;
                 }
 
-                if (line.startsWith("/msg ")) {
-                    String[] parts = line.split(" ", 3);
-                    if (parts.length < 3) {
-                        send("Usage: /msg <userId> <message>");
-                    } else {
-                        try {
-                            int targetId = Integer.parseInt(parts[1]);
-                            String msg = parts[2];
-                            server.sendPrivateMessage(id, targetId, msg);
-                        } catch (NumberFormatException e) {
-                            send("Invalid user ID format.");
-                        }
-                    }
+                if (line.startsWith("/resume ")) {
+                    resumeSession(line);
                     continue;
                 }
 
-                // --- Group message ---
-                if (line.startsWith("/msgGroup ")) {
-                    String[] parts = line.split(" ", 3);
-                    if (parts.length < 3) {
-                        send("Usage: /msgGroup <groupName> <message>");
-                    } else {
-                        String groupName = parts[1];
-                        String msg = parts[2];
-                        server.sendGroupMessage(groupName, id, msg);
-                    }
+                if (dispatcher.dispatch(current(), line)) continue;
+
+                if (line.startsWith("voiceStreamUser:") || line.startsWith("voiceStreamGroup:")) {
+                    long start = System.nanoTime();
+                    beginVoiceStream(line);
+                    ChatMetrics.CMD_VOICE_STREAM.recordSince(start);
+                    continue;
+                }
+
+                if (line.startsWith("voiceChunk:")) {
+                    appendVoiceChunk(line.substring("voiceChunk:".length()).trim());
+                    continue;
+                }
+
+                if (line.equals("voiceEnd")) {
+                    long start = System.nanoTime();
+                    finishVoiceStream();
+                    ChatMetrics.CMD_VOICE_STREAM.recordSince(start);
                     continue;
                 }
 
                 if (line.startsWith("voicenoteUser:")) {
+                    MessageReceivedEvent received = new MessageReceivedEvent();
+                    received.begin();
                     String[] parts = line.split(":", 3);
                     if (parts.length < 3) {
                         send("Formato inválido. Usa: voicenoteUser:<userId>:<filename>");
@@ -87,25 +145,28 @@ public class ClientHandler implements Runnable {
                     String filename = parts[2];
 
                     // Leer el tamaño del archivo
-                    String header = reader.readLine();
+                    String header = readLine();
                     if (header == null) continue;
-                    int length = Integer.parseInt(header);
 
                     // Leer los bytes del audio
-                    byte[] data = new byte[length];
-                    InputStream in = socket.getInputStream();
-                    int bytesRead = 0;
-                    while (bytesRead < length) {
-                        int read = in.read(data, bytesRead, length - bytesRead);
-                        if (read == -1) break;
-                        bytesRead += read;
-                    }
+                    byte[] data = readVoicePayload(header);
+                    if (data == null) break;
 
-                    server.sendVoiceNoteToUser(targetId, data, filename, String.valueOf(id));
+                    received.finish("tcp", "voicenoteUser", current().getId(), targetId, data.length);
+                    // Se mide la entrega, no la lectura de los bytes, que depende del cliente
+                    long start = System.nanoTime();
+                    try {
+                        server.sendVoiceNoteToUser(targetId, data, filename, String.valueOf(current().getId()));
+                    } finally {
+                        MessageTrace.end();
+                    }
+                    ChatMetrics.CMD_VOICENOTE.recordSince(start);
                     continue;
                 }
 
                 if (line.startsWith("voicenoteGroup:")) {
+                    MessageReceivedEvent received = new MessageReceivedEvent();
+                    received.begin();
                     String[] parts = line.split(":", 3);
                     if (parts.length < 3) {
                         send("Formato inválido. Usa: voicenoteGroup:<groupName>:<filename>");
@@ -115,64 +176,543 @@ public class ClientHandler implements Runnable {
                     String groupName = parts[1];
                     String filename = parts[2];
 
-                    String header = reader.readLine();
+                    String header = readLine();
                     if (header == null) continue;
-                    int length = Integer.parseInt(header);
-
-                    byte[] data = new byte[length];
-                    InputStream in = socket.getInputStream();
-                    int bytesRead = 0;
-                    while (bytesRead < length) {
-                        int read = in.read(data, bytesRead, length - bytesRead);
-                        if (read == -1) break;
-                        bytesRead += read;
-                    }
 
-                    server.sendVoiceNoteToGroup(id, groupName, filename, data);
-                    continue;
-                }
+                    byte[] data = readVoicePayload(header);
+                    if (data == null) break;
 
-                if (line.equals("/listGroups")) {
-                    server.listGroups(this);
+                    received.finish("tcp", "voicenoteGroup", current().getId(), groupName, data.length);
+                    long start = System.nanoTime();
+                    try {
+                        server.sendVoiceNoteToGroup(current().getId(), groupName, filename, data);
+                    } finally {
+                        MessageTrace.end();
+                    }
+                    ChatMetrics.CMD_VOICENOTE.recordSince(start);
                     continue;
                 }
-
             }
 
-        } catch (IOException e) {
+        } catch (IOException | NumberFormatException e) {
             // Client disconnected
         } finally {
+            TimerWheel.Timeout timer = idleTimer;
+            if (timer != null) timer.cancel();
+            if (voiceStream != null) {
+                server.getVoiceUploads().abort(voiceStream.id);
+                voiceStream = null;
+            }
             try {
                 socket.close();
             } catch (IOException ignored) {}
-            server.onClientClose(id);
+            synchronized (this) {
+                if (compression != null) {
+                    compression.close();
+                    compression = null;
+                }
+            }
+            if (ended) {
+                // endSession ya lo dio de baja
+            } else if (session != null) {
+                server.getSessions().detach(session, this);
+            } else {
+                server.onClientClose(id);
+            }
         }
     }
 
-    public synchronized void send(String msg) {
+    private void scheduleIdleCheck(long delayMs) {
+        idleTimer = server.getTimers().schedule(this::checkIdle, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Detecta sockets medio abiertos: a las sesiones se les envía PING y se cortan si
+     * no contestan; a los clientes sin sesión solo se les aplica el timeout de inactividad.
+     * Al cortar, la sesión queda desenganchada y se puede reanudar.
+     */
+    private void checkIdle() {
+        if (socket.isClosed()) return;
+        long idle = System.currentTimeMillis() - lastRead;
+        if (session != null) {
+            if (idle >= 3 * HEARTBEAT_MS) {
+                Log.info("Servidor", "Cliente {} no responde al heartbeat, cerrando conexión.", session.getId());
+                closeQuietly();
+                return;
+            }
+            if (idle >= HEARTBEAT_MS) writeLine("PING");
+            scheduleIdleCheck(HEARTBEAT_MS);
+        } else {
+            if (idle >= IDLE_TIMEOUT_MS) {
+                Log.info("Servidor", "Cliente {} inactivo, cerrando conexión.", id);
+                closeQuietly();
+                return;
+            }
+            scheduleIdleCheck(Math.min(HEARTBEAT_MS, IDLE_TIMEOUT_MS - idle));
+        }
+    }
+
+    /** Cierra el socket; el hilo lector termina solo. También la usa la sesión al sustituir esta conexión. */
+    void closeQuietly() {
         try {
-            writer.write(msg);
-            writer.newLine();
-            writer.flush();
+            socket.close();
         } catch (IOException ignored) {}
     }
 
+    /** Sesión a la que se enrutan los mensajes de esta conexión. */
+    private ChatSession current() {
+        ResumableSession s = session;
+        return s != null ? s : this;
+    }
+
+    /**
+     * {@code /session}: el cliente pide una sesión reanudable. A partir de aquí cada
+     * línea enviada lleva el prefijo {@code #<secuencia> } para que el cliente sepa
+     * qué fue lo último que recibió.
+     */
+    private void openSession() {
+        openSession(null);
+    }
+
+    /** @param previousToken token que no se pudo reanudar; se conserva si aún tiene grupos */
+    private void openSession(String previousToken) {
+        if (session == null) {
+            session = server.getSessions().open(id, this, previousToken);
+        } else {
+            announceSession(session.getToken(), session.lastSeq());
+        }
+    }
+
+    /**
+     * {@code BYE}: el cliente sale del chat, no es un corte de red. Deja sus grupos y,
+     * si tenía sesión reanudable, esta se cierra y su buzón offline se descarta.
+     */
+    private void endSession() {
+        server.leaveAllGroups(current());
+        ResumableSession s = session;
+        if (s != null) {
+            server.getSessions().end(s, this);
+        } else {
+            server.onClientClose(id);
+        }
+        ended = true;
+    }
+
+    /** {@code /resume <token> <última secuencia recibida>} tras reconectar. */
+    private void resumeSession(String line) {
+        String[] parts = line.split(" ");
+        ResumableSession previous = null;
+        long lastSeen = 0;
+        if (parts.length == 3 && session == null) {
+            try {
+                lastSeen = Long.parseLong(parts[2]);
+                previous = server.getSessions().find(parts[1]);
+            } catch (NumberFormatException ignored) {}
+        }
+        int replayed = previous != null ? previous.attach(this, lastSeen) : -1;
+        if (replayed < 0) {
+            writeLine("RESUME_FAILED");
+            // Sin sesión previa (p. ej. tras reiniciar el servidor) se intenta conservar el token
+            openSession(previous == null && parts.length == 3 ? parts[1] : null);
+            return;
+        }
+        // El id provisional de esta conexión ya no se usa
+        server.unregister(id);
+        server.getSessions().resumed(previous);
+        session = previous;
+        writeLine("Sesión reanudada. Tu id es " + previous.getId() + ".");
+        Log.info("Servidor", "Cliente {} reanudó su sesión ({} mensajes reenviados).", previous.getId(), replayed);
+    }
+
+    /**
+     * Nota de voz en streaming: {@code voiceStreamUser:<id>:<archivo>} (o Group), luego
+     * bloques {@code voiceChunk:<n>} seguidos de n bytes y por último {@code voiceEnd}.
+     * Los bloques van directo a disco con VoiceUploadStore mientras el usuario graba.
+     */
+    private void beginVoiceStream(String line) {
+        String[] parts = line.split(":", 3);
+        if (parts.length < 3) {
+            send("Formato inválido. Usa: voiceStreamUser:<userId>:<filename> o voiceStreamGroup:<groupName>:<filename>");
+            return;
+        }
+        if (voiceStream != null) {
+            server.getVoiceUploads().abort(voiceStream.id);
+        }
+        String targetType = line.startsWith("voiceStreamGroup:") ? "group" : "user";
+        try {
+            // Tamaño 0: desconocido hasta que termine la grabación
+            voiceStream = server.getVoiceUploads().begin(String.valueOf(current().getId()), targetType, parts[1], parts[2], 0);
+        } catch (IOException | RuntimeException e) {
+            voiceStream = null;
+            send("No se pudo iniciar la nota de voz: " + e.getMessage());
+        }
+    }
+
+    private void appendVoiceChunk(String lengthText) throws IOException {
+        long length;
+        try {
+            length = Long.parseLong(lengthText);
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        if (length < 0 || length > VoiceUploadStore.MAX_CHUNK_SIZE) {
+            // Con una longitud creíble se descartan sus bytes para seguir leyendo líneas
+            if (length > 0 && length <= VoiceUploadStore.MAX_NOTE_SIZE && skipBytes(length) < 0) {
+                throw new EOFException();
+            }
+            if (voiceStream != null) {
+                server.getVoiceUploads().abort(voiceStream.id);
+                voiceStream = null;
+            }
+            send("Bloque de voz inválido: " + lengthText + ". Usa: voiceChunk:<bytes> (máximo "
+                    + VoiceUploadStore.MAX_CHUNK_SIZE + ")");
+            return;
+        }
+        byte[] chunk = readBytes((int) length);
+        if (chunk == null) throw new EOFException();
+        if (voiceStream == null) return; // la subida ya falló: se descartan los bloques restantes
+        try {
+            server.getVoiceUploads().append(voiceStream.id, voiceStream.size(), chunk);
+        } catch (RuntimeException e) {
+            server.getVoiceUploads().abort(voiceStream.id);
+            voiceStream = null;
+            send("Nota de voz cancelada: " + e.getMessage());
+        }
+    }
+
+    private void finishVoiceStream() {
+        VoiceUploadStore.Upload upload = voiceStream;
+        voiceStream = null;
+        if (upload == null) return;
+        try {
+            server.getVoiceUploads().complete(upload.id);
+            VoiceUploadStore.finishWavHeader(upload.file());
+            boolean delivered;
+            if ("group".equals(upload.targetType)) {
+                delivered = server.sendVoiceFileToGroup(current().getId(), upload.target, upload.filename, upload.file());
+            } else {
+                delivered = server.sendVoiceFileToUser(current().getId(), Integer.parseInt(upload.target), upload.filename, upload.file());
+            }
+            if (!delivered) {
+                Files.deleteIfExists(upload.file());
+                send("Destino no encontrado: " + upload.target);
+            }
+        } catch (IOException | RuntimeException e) {
+            server.getVoiceUploads().abort(upload.id);
+            try {
+                Files.deleteIfExists(upload.file());
+            } catch (IOException ignored) {}
+            send("No se pudo enviar la nota de voz: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compresión pedida por el cliente. La respuesta sale todavía sin comprimir y,
+     * como se activa con el monitor tomado, ninguna escritura se cuela entre ambas.
+     */
+    private void enableCompression() {
+        synchronized (this) {
+            if (compression == null) {
+                try {
+                    writer.write(WireCompression.ACCEPTED + WireCompression.MIN_BYTES);
+                    writer.newLine();
+                    writer.flush();
+                } catch (IOException ignored) {}
+                compression = new WireCompression();
+            }
+        }
+        Log.debug("Servidor", "Cliente {} activó la compresión.", id);
+    }
+
+    /**
+     * Siguiente línea del cliente; las tramas {@code #Z} se descomprimen aquí y sus
+     * líneas se devuelven una a una, así que el resto del handler no las distingue.
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            String queued = inflatedLines.poll();
+            if (queued != null) return queued;
+            String line = readRawLine();
+            WireCompression z = compression;
+            if (line == null || z == null || !line.startsWith(WireCompression.TEXT_FRAME)) return line;
+            int[] lengths = WireCompression.parseLengths(line, WireCompression.TEXT_FRAME.length());
+            if (lengths[1] > WireCompression.MAX_TEXT_FRAME) throw new IOException("Trama comprimida demasiado grande");
+            byte[] wire = readBytes(lengths[1]);
+            if (wire == null) return null;
+            String text = z.inflateText(wire, lengths[0]);
+            int from = 0;
+            for (int nl = text.indexOf('\n'); nl >= 0; nl = text.indexOf('\n', from)) {
+                String l = text.substring(from, nl);
+                if (l.length() > MAX_LINE_LENGTH) throw new IOException("Línea demasiado larga");
+                inflatedLines.add(l.endsWith("\r") ? l.substring(0, l.length() - 1) : l);
+                from = nl + 1;
+            }
+        }
+    }
+
+    /** Lee una línea terminada en \n (UTF-8), o null al cerrarse la conexión. */
+    private String readRawLine() throws IOException {
+        lineBuffer.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            if (lineBuffer.size() >= MAX_LINE_LENGTH) throw new IOException("Línea demasiado larga");
+            lineBuffer.write(b);
+        }
+        if (b == -1 && lineBuffer.size() == 0) return null;
+        lastLineBytes = lineBuffer.size() + 1;
+        lastRead = System.currentTimeMillis();
+        String line = lineBuffer.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    /** Longitud de una nota de voz legacy; una fuera de rango corta la conexión. */
+    private static int parseLength(String header) throws IOException {
+        long length = Long.parseLong(header.trim());
+        if (length < 0 || length > VoiceUploadStore.MAX_NOTE_SIZE) {
+            throw new IOException("Tamaño de nota de voz fuera de límites: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Cuerpo de una nota de voz legacy tras su línea de longitud, que con compresión
+     * puede ser {@code z<originales>:<comprimidos>}.
+     * @return los bytes de audio, o null si la conexión se cerró antes
+     */
+    private byte[] readVoicePayload(String header) throws IOException {
+        WireCompression z = compression;
+        if (z == null || !header.startsWith(WireCompression.VOICE_LENGTH)) {
+            return readBytes(parseLength(header));
+        }
+        int[] lengths = WireCompression.parseLengths(header, WireCompression.VOICE_LENGTH.length());
+        byte[] wire = readBytes(parseLength(String.valueOf(lengths[1])));
+        return wire != null ? z.inflateVoice(wire, lengths[0]) : null;
+    }
+
+    /** Bytes que siguen a la línea de longitud de una nota, comprimida o no. */
+    private int wireLength(String header) throws IOException {
+        if (compression != null && header.startsWith(WireCompression.VOICE_LENGTH)) {
+            return parseLength(String.valueOf(WireCompression.parseLengths(header, WireCompression.VOICE_LENGTH.length())[1]));
+        }
+        return parseLength(header);
+    }
+
+    /** Descarta {@code length} bytes de la entrada; -1 si la conexión se cerró antes. */
+    private long skipBytes(long length) throws IOException {
+        limiter.throttleBytes(length);
+        long skipped = 0;
+        while (skipped < length) {
+            if (in.read() == -1) return -1;
+            skipped += 1 + in.skip(length - skipped - 1);
+        }
+        return skipped;
+    }
+
+    /** @return los bytes leídos, o null si la conexión se cerró antes */
+    private byte[] readBytes(int length) throws IOException {
+        // Dosificar antes de leer: el emisor queda frenado por control de flujo TCP
+        limiter.throttleBytes(length);
+        byte[] data = new byte[length];
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int read = in.read(data, bytesRead, length - bytesRead);
+            if (read == -1) return null;
+            bytesRead += read;
+        }
+        lastRead = System.currentTimeMillis();
+        return data;
+    }
+
+    @Override
+    public void send(String msg) {
+        ResumableSession s = session;
+        if (s != null) {
+            s.send(msg);
+        } else {
+            writeLine(msg);
+        }
+    }
+
+    @Override
     public int getId() {
         return id;
     }
 
-    public synchronized void sendVoiceNote(String filename, byte[] data, String fromId) {
+    @Override
+    public void sendVoiceNote(String filename, byte[] data, String fromId) {
+        ResumableSession s = session;
+        if (s != null) {
+            s.sendVoiceNote(filename, data, fromId);
+        } else {
+            writeVoiceNote("", filename, data, fromId);
+        }
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, Path file, String fromId) {
+        ResumableSession s = session;
+        if (s != null) {
+            s.sendVoiceNote(filename, file, fromId);
+        } else {
+            writeVoiceNote("", filename, file, fromId);
+        }
+    }
+
+    @Override
+    public void sendAll(List<String> msgs) {
+        ResumableSession s = session;
+        if (s != null) {
+            s.sendAll(msgs);
+        } else {
+            writeLines(null, msgs);
+        }
+    }
+
+    void announceSession(String token, long seq) {
+        writeLine("SESSION:" + token + ":" + seq);
+    }
+
+    /** Línea de la sesión reanudable que no se reenvía al reanudar, así que no lleva secuencia. */
+    void deliverUnnumbered(String msg) {
+        writeLine(msg);
+    }
+
+    /** Entrega numerada desde la sesión reanudable; cada línea lleva su secuencia. */
+    void deliver(long seq, String msg) {
+        String prefix = "#" + seq + " ";
+        writeLine(prefix + msg.replace("\n", "\n" + prefix));
+    }
+
+    /** Entrega numerada de un lote (secuencias consecutivas desde {@code firstSeq}) con un solo flush. */
+    void deliverAll(long firstSeq, List<String> msgs) {
+        writeLines(firstSeq, msgs);
+    }
+
+    private synchronized void writeLines(Long firstSeq, List<String> msgs) {
         try {
-            writer.write("INCOMING_VOICENOTE:" + fromId + ":" + filename);
+            long seq = firstSeq != null ? firstSeq : 0;
+            // Con compresión el lote sale en una sola trama: comparte diccionario entre mensajes
+            StringBuilder batch = compression != null ? new StringBuilder() : null;
+            for (String msg : msgs) {
+                if (firstSeq != null) {
+                    String prefix = "#" + seq++ + " ";
+                    msg = prefix + msg.replace("\n", "\n" + prefix);
+                }
+                if (batch != null) {
+                    batch.append(msg).append('\n');
+                } else {
+                    writer.write(msg);
+                    writer.newLine();
+                }
+            }
+            if (batch != null) writeTextLocked(batch);
+            writer.flush();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Escribe líneas ya terminadas en {@code \n}: comprimidas en una trama si la
+     * conexión negoció compresión y superan el umbral, tal cual si no.
+     */
+    private void writeTextLocked(CharSequence lines) throws IOException {
+        WireCompression z = compression;
+        if (z == null || lines.length() < WireCompression.MIN_BYTES) {
+            writer.append(lines);
+            return;
+        }
+        byte[] raw = lines.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] wire = z.deflateText(raw);
+        writer.write(WireCompression.textHeader(raw.length, wire.length));
+        writer.newLine();
+        writer.flush();
+        out.write(wire);
+    }
+
+    void deliverVoice(long seq, String filename, byte[] data, String fromId) {
+        writeVoiceNote("#" + seq + " ", filename, data, fromId);
+    }
+
+    void deliverVoice(long seq, String filename, Path file, String fromId) {
+        writeVoiceNote("#" + seq + " ", filename, file, fromId);
+    }
+
+    private void writeLine(String msg) {
+        // El evento empieza antes del monitor: la espera por otra escritura cuenta
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        synchronized (this) {
+            try {
+                if (compression != null) {
+                    writeTextLocked(msg + "\n");
+                } else {
+                    writer.write(msg);
+                    writer.newLine();
+                }
+                writer.flush();
+            } catch (IOException ignored) {}
+        }
+        written.finish(id, "tcp", msg.length() + 1);
+    }
+
+    private void writeVoiceNote(String prefix, String filename, byte[] data, String fromId) {
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        synchronized (this) {
+            writeVoiceNoteLocked(prefix, filename, data, fromId);
+        }
+        written.finish(id, "tcp", data.length);
+    }
+
+    private void writeVoiceNoteLocked(String prefix, String filename, byte[] data, String fromId) {
+        try {
+            byte[] wire = compression != null ? compression.deflateVoice(filename, ByteBuffer.wrap(data)) : null;
+            writer.write(prefix + "INCOMING_VOICENOTE:" + fromId + ":" + filename);
+            writer.newLine();
+            writer.write(wire != null ? WireCompression.voiceHeader(data.length, wire.length) : String.valueOf(data.length));
+            writer.newLine();
+            writer.flush();
+            out.write(wire != null ? wire : data);
+            out.flush();
+        } catch (IOException e) {
+            Log.error("Servidor", "Error sending voice note to client {}: {}", id, e.getMessage());
+        }
+    }
+
+    private void writeVoiceNote(String prefix, String filename, Path file, String fromId) {
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        long bytes;
+        synchronized (this) {
+            bytes = writeVoiceNoteLocked(prefix, filename, file, fromId);
+        }
+        written.finish(id, "tcp", bytes);
+    }
+
+    /** @return bytes de audio escritos */
+    private long writeVoiceNoteLocked(String prefix, String filename, Path file, String fromId) {
+        try (VoiceCache.Lease lease = server.getHistory().getVoiceCache().load(file)) {
+            ByteBuffer cached = lease != null ? lease.buffer() : null;
+            long size = cached != null ? cached.remaining() : Files.size(file);
+            // Solo se comprime lo que está en la caché; las notas grandes van desde disco tal cual
+            byte[] wire = compression != null && cached != null ? compression.deflateVoice(filename, cached) : null;
+            writer.write(prefix + "INCOMING_VOICENOTE:" + fromId + ":" + filename);
             writer.newLine();
-            writer.write(String.valueOf(data.length));
+            writer.write(wire != null ? WireCompression.voiceHeader((int) size, wire.length) : String.valueOf(size));
             writer.newLine();
             writer.flush();
-            OutputStream out = socket.getOutputStream();
-            out.write(data);
+            if (wire != null) {
+                out.write(wire);
+            } else if (cached != null) {
+                VoiceCache.writeTo(cached, out);
+            } else {
+                Files.copy(file, out);
+            }
             out.flush();
+            return size;
         } catch (IOException e) {
-            System.err.println("Error sending voice note to client " + id + ": " + e.getMessage());
+            Log.error("Servidor", "Error sending voice note to client {}: {}", id, e.getMessage());
+            return 0;
         }
     }
 
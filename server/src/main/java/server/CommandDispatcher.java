@@ -0,0 +1,119 @@
+package server;
+
+import server.metrics.ChatMetrics;
+import server.trace.MessageReceivedEvent;
+import server.trace.MessageTrace;
+
+import java.util.Set;
+
+/**
+ * Interpreta los comandos de texto del protocolo de chat (/msg, /msgGroup, ...)
+ * y los envía a ChatServer. Lo comparten todos los transportes; las notas de voz
+ * no pasan por aquí porque cada transporte lee los bytes a su manera.
+ */
+public class CommandDispatcher {
+
+    private final ChatServer server;
+    // Para los eventos JFR: "tcp" o "ws"
+    private final String transport;
+
+    public CommandDispatcher(ChatServer server) {
+        this(server, "tcp");
+    }
+
+    public CommandDispatcher(ChatServer server, String transport) {
+        this.server = server;
+        this.transport = transport;
+    }
+
+    /**
+     * @return true si la línea era un comando de texto conocido
+     */
+    public boolean dispatch(ChatSession session, String line) {
+        long start = System.nanoTime();
+        MessageReceivedEvent received = new MessageReceivedEvent();
+        received.begin();
+        server.getPresence().touch(session.getId());
+        if (line.startsWith("/createGroup ")) {
+            String groupName = line.substring(13).trim();
+            if (!groupName.isEmpty()) {
+                server.createGroup(groupName, session);
+            } else {
+                session.send("Usage: /createGroup <groupName>");
+            }
+            ChatMetrics.CMD_CREATE_GROUP.recordSince(start);
+            return true;
+        }
+
+        if (line.startsWith("/joinGroup ")) {
+            String groupName = line.substring(11).trim();
+            server.addUserToGroup(groupName, session);
+            ChatMetrics.CMD_JOIN_GROUP.recordSince(start);
+            return true;
+        }
+
+        if (line.startsWith("/msg ")) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length < 3) {
+                session.send("Usage: /msg <userId> <message>");
+            } else {
+                try {
+                    int targetId = Integer.parseInt(parts[1]);
+                    String msg = parts[2];
+                    received.finish(transport, "msg", session.getId(), parts[1], msg.length());
+                    try {
+                        server.sendPrivateMessage(session.getId(), targetId, msg);
+                    } finally {
+                        MessageTrace.end();
+                    }
+                } catch (NumberFormatException e) {
+                    session.send("Invalid user ID format.");
+                }
+            }
+            ChatMetrics.CMD_MSG.recordSince(start);
+            return true;
+        }
+
+        // --- Group message ---
+        if (line.startsWith("/msgGroup ")) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length < 3) {
+                session.send("Usage: /msgGroup <groupName> <message>");
+            } else {
+                String groupName = parts[1];
+                String msg = parts[2];
+                received.finish(transport, "msgGroup", session.getId(), groupName, msg.length());
+                try {
+                    server.sendGroupMessage(groupName, session.getId(), msg);
+                } finally {
+                    MessageTrace.end();
+                }
+            }
+            ChatMetrics.CMD_MSG_GROUP.recordSince(start);
+            return true;
+        }
+
+        // /presence: todos; /presence 3 5 7: solo esos; /presence off: dejar de recibir
+        if (line.equals("/presence") || line.startsWith("/presence ")) {
+            String[] parts = line.trim().split("\\s+");
+            PresenceService presence = server.getPresence();
+            Set<Integer> interest = PresenceService.parseInterest(parts, 1);
+            if (parts.length == 2 && parts[1].equals("off")) {
+                presence.unsubscribe(session.getId());
+            } else if (interest != null && interest.isEmpty()) {
+                session.send("Usage: /presence [off | <userId> ...]");
+            } else {
+                presence.subscribe(session, interest);
+            }
+            return true;
+        }
+
+        if (line.equals("/listGroups")) {
+            server.listGroups(session);
+            ChatMetrics.CMD_LIST_GROUPS.recordSince(start);
+            return true;
+        }
+
+        return false;
+    }
+}
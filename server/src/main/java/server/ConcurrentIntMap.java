@@ -0,0 +1,143 @@
+package server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Mapa concurrente de claves {@code int} con direccionamiento abierto (sondeo lineal),
+ * para las tablas que se consultan en cada mensaje: {@link #get} no crea objetos (ni
+ * {@code Integer} ni nodos) y no toma ningún cerrojo.
+ *
+ * <p>Las escrituras se serializan con el monitor del mapa; son raras comparadas con
+ * las lecturas (conexiones, llamadas). Una escritura publica el valor antes que la
+ * clave, así que quien ve la clave ve su valor. Al borrar, la clave se queda con valor
+ * null para no cortar el sondeo de las demás; esos huecos se limpian al redimensionar.
+ * Como en ConcurrentHashMap, un lector concurrente con una escritura puede ver el
+ * estado de antes o el de después.
+ *
+ * <p>{@code Integer.MIN_VALUE} marca las posiciones vacías y no se admite como clave;
+ * los valores no pueden ser null.
+ */
+public final class ConcurrentIntMap<V> {
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int mask;
+        // Posiciones con clave, vivas o borradas; solo con el monitor del mapa
+        int used;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private volatile int size;
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return el valor de la clave, o null si no está */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Table t = table;
+        int[] keys = t.keys;
+        // La tabla nunca pasa de la mitad llena: el sondeo siempre llega a un hueco
+        for (int i = hash(key) & t.mask; ; i = (i + 1) & t.mask) {
+            int k = (int) KEYS.getAcquire(keys, i);
+            if (k == key) return (V) VALUES.getAcquire(t.values, i);
+            if (k == EMPTY) return null;
+        }
+    }
+
+    /** @return el valor anterior, o null si no había */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(int key, V value) {
+        if (key == EMPTY) throw new IllegalArgumentException("Clave no admitida: " + key);
+        Objects.requireNonNull(value, "value");
+        Table t = table;
+        int i = slot(t, key);
+        if (t.keys[i] == key) {
+            V previous = (V) t.values[i];
+            VALUES.setRelease(t.values, i, value);
+            if (previous == null) size++;
+            return previous;
+        }
+        if ((t.used + 1) * 2 > t.keys.length) {
+            t = rehash(size + 1);
+            i = slot(t, key);
+        }
+        VALUES.setRelease(t.values, i, value);
+        KEYS.setRelease(t.keys, i, key);
+        t.used++;
+        size++;
+        return null;
+    }
+
+    /** @return el valor quitado, o null si no estaba */
+    public synchronized V remove(int key) {
+        return removeIf(key, null);
+    }
+
+    /** Quita la clave solo si sigue asociada a {@code value} (como {@code Map.remove(k, v)}). */
+    public synchronized boolean remove(int key, V value) {
+        return value != null && removeIf(key, value) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeIf(int key, V expected) {
+        Table t = table;
+        int i = slot(t, key);
+        if (t.keys[i] != key) return null;
+        V current = (V) t.values[i];
+        if (current == null || (expected != null && !expected.equals(current))) return null;
+        VALUES.setRelease(t.values, i, null);
+        size--;
+        return current;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Posición de la clave, o el primer hueco de su sondeo si no está; con el monitor tomado
+    private static int slot(Table t, int key) {
+        int i = hash(key) & t.mask;
+        while (t.keys[i] != key && t.keys[i] != EMPTY) i = (i + 1) & t.mask;
+        return i;
+    }
+
+    /**
+     * Copia las entradas vivas a una tabla nueva (sin los borrados) y la publica.
+     * Los lectores que aún recorren la anterior la ven tal como quedó.
+     */
+    private Table rehash(int live) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < live * 4) capacity <<= 1;
+        Table old = table;
+        Table fresh = new Table(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            Object value = old.values[i];
+            if (value == null) continue;
+            int j = slot(fresh, old.keys[i]);
+            fresh.keys[j] = old.keys[i];
+            fresh.values[j] = value;
+            fresh.used++;
+        }
+        table = fresh;
+        return fresh;
+    }
+}
@@ -0,0 +1,86 @@
+package server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * Endpoints de audio que conoce {@link UDPRelay}. Se leen en cada datagrama (buscar el
+ * emisor y reenviar a los demás) y cambian cada varios segundos, así que viven en un
+ * array que se reemplaza entero al aprender o expirar uno: recorrerlo no toma cerrojos
+ * ni crea iteradores, y el emisor se busca por dirección y puerto del paquete sin
+ * construir un {@code InetSocketAddress} por datagrama.
+ */
+public final class EndpointTable {
+
+    public static final class Endpoint {
+        private final InetAddress address;
+        private final int port;
+        private final InetSocketAddress socketAddress;
+        volatile long lastSeen = System.currentTimeMillis();
+
+        Endpoint(InetAddress address, int port) {
+            this.address = address;
+            this.port = port;
+            this.socketAddress = new InetSocketAddress(address, port);
+        }
+
+        public InetSocketAddress socketAddress() {
+            return socketAddress;
+        }
+
+        boolean matches(InetAddress address, int port) {
+            return this.port == port && this.address.equals(address);
+        }
+    }
+
+    private static final Endpoint[] NONE = new Endpoint[0];
+
+    private volatile Endpoint[] endpoints = NONE;
+
+    /** @return el endpoint de esa dirección, o null si no se conoce */
+    public Endpoint find(InetAddress address, int port) {
+        for (Endpoint e : endpoints) {
+            if (e.matches(address, port)) return e;
+        }
+        return null;
+    }
+
+    /** Añade el endpoint si no estaba; devuelve el que queda en la tabla. */
+    public synchronized Endpoint add(InetAddress address, int port) {
+        Endpoint existing = find(address, port);
+        if (existing != null) return existing;
+        Endpoint[] current = endpoints;
+        Endpoint[] next = Arrays.copyOf(current, current.length + 1);
+        Endpoint added = new Endpoint(address, port);
+        next[current.length] = added;
+        endpoints = next;
+        return added;
+    }
+
+    /** Quita ese endpoint (la misma instancia); false si ya no estaba. */
+    public synchronized boolean remove(Endpoint endpoint) {
+        Endpoint[] current = endpoints;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != endpoint) continue;
+            Endpoint[] next = new Endpoint[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+            endpoints = current.length == 1 ? NONE : next;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Los endpoints en este momento. El array no se modifica nunca (los cambios crean
+     * otro), así que se puede recorrer sin copiarlo; quien lo recibe no debe escribir en él.
+     */
+    public Endpoint[] snapshot() {
+        return endpoints;
+    }
+
+    public int size() {
+        return endpoints.length;
+    }
+}
@@ -0,0 +1,466 @@
+package server;
+
+import server.log.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Registro persistente de grupos y miembros. Los miembros se guardan por su
+ * identidad estable ({@link ChatSession#memberKey()}: el token de la sesión
+ * reanudable o el usuario Ice), no por id de conexión, que no se reutiliza
+ * tras reiniciar. Cada cambio se
+ * anexa a un log binario (WAL) y cada cierto tiempo o número de cambios se escribe
+ * una instantánea completa; al arrancar se carga la última instantánea y solo se
+ * reproduce el log posterior, sin tocar los {@code group-*.log} del historial.
+ *
+ * <p>Archivos en {@code dir}: {@code groups.snap} y {@code groups-<generación>.wal}.
+ * Al hacer una instantánea se pasa a un WAL de la generación siguiente; la
+ * instantánea dice desde qué generación hay que reproducir y los WAL anteriores se
+ * borran cuando ya está escrita. Cada registro del WAL lleva longitud y CRC, así
+ * que un final cortado por una caída se detecta y se descarta.
+ */
+public class GroupRegistry implements AutoCloseable {
+
+    private static final int SNAPSHOT_MAGIC = 0x47525053; // "GRPS"
+    private static final int SNAPSHOT_VERSION = 2;
+    // Registros de la versión 1, con ids de conexión: al reproducirlos se conservan
+    // los grupos, pero sus miembros eran conexiones que ya no existen
+    private static final byte OP_CREATE_V1 = 1;
+    private static final byte OP_JOIN_V1 = 2;
+    private static final byte OP_CREATE = 3;
+    private static final byte OP_JOIN = 4;
+    private static final byte OP_LEAVE = 5;
+    private static final long DEFAULT_SNAPSHOT_MS = Long.getLong("chat.groups.snapshotMs", 5 * 60_000);
+    private static final int DEFAULT_SNAPSHOT_EVERY = Integer.getInteger("chat.groups.snapshotEvery", 100_000);
+    // Con fsync cada cambio llega al disco antes de confirmarse; sin él basta con que llegue al SO
+    private static final boolean FSYNC = Boolean.getBoolean("chat.groups.fsync");
+
+    private final File dir;
+    private final int snapshotEvery;
+    private final long snapshotMs;
+    private final TimerWheel timers;
+    // Estado completo: grupo -> identidades de sus miembros, en orden de creación
+    private final Map<String, Set<String>> groups = new LinkedHashMap<>();
+    // Índice inverso: identidad -> grupos en los que figura
+    private final Map<String, Set<String>> groupsByMember = new HashMap<>();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream walFile;
+    private DataOutputStream wal;
+    private long generation;
+    private int changesSinceSnapshot;
+    private boolean snapshotRunning;
+    private volatile boolean closed;
+
+    public GroupRegistry(File dir, TimerWheel timers) {
+        this(dir, timers, DEFAULT_SNAPSHOT_EVERY, DEFAULT_SNAPSHOT_MS);
+    }
+
+    /** @param snapshotMs 0 para hacer instantáneas solo por número de cambios */
+    public GroupRegistry(File dir, TimerWheel timers, int snapshotEvery, long snapshotMs) {
+        this.dir = dir;
+        this.timers = timers;
+        this.snapshotEvery = snapshotEvery;
+        this.snapshotMs = snapshotMs;
+        if (!dir.exists()) dir.mkdirs();
+        long start = System.nanoTime();
+        int replayed;
+        try {
+            generation = loadSnapshot();
+            replayed = replayWal();
+            openWal(generation);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo cargar el registro de grupos de " + dir, e);
+        }
+        Log.info("Grupos", "{} grupos y {} membresías cargados en {} ms.", groups.size(), memberships(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (replayed > 0) Log.info("Grupos", "{} cambios reproducidos del log.", replayed);
+        scheduleSnapshot();
+    }
+
+    // === Consultas ===
+
+    public synchronized Map<String, Set<String>> getGroups() {
+        Map<String, Set<String>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    public synchronized boolean exists(String group) {
+        return groups.containsKey(group);
+    }
+
+    /** Miembros registrados, estén o no conectados. */
+    public synchronized int memberCount(String group) {
+        Set<String> members = groups.get(group);
+        return members == null ? 0 : members.size();
+    }
+
+    public synchronized long memberships() {
+        long total = 0;
+        for (Set<String> members : groups.values()) total += members.size();
+        return total;
+    }
+
+    /** Grupos en los que figura la identidad {@code member}. */
+    public synchronized List<String> groupsOf(String member) {
+        Set<String> result = groupsByMember.get(member);
+        return result == null ? List.of() : new ArrayList<>(result);
+    }
+
+    /** @return true si la identidad figura en algún grupo */
+    public synchronized boolean hasMember(String member) {
+        return groupsByMember.containsKey(member);
+    }
+
+    // === Cambios ===
+
+    /**
+     * @param creator identidad del creador, que queda como primer miembro; null si no tiene
+     * @return false si el grupo ya existía
+     */
+    public synchronized boolean create(String group, String creator) {
+        if (groups.containsKey(group)) return false;
+        String member = creator != null ? creator : "";
+        append(OP_CREATE, group, member);
+        apply(OP_CREATE, group, member);
+        return true;
+    }
+
+    /** @return false si el grupo no existe o ya era miembro */
+    public synchronized boolean join(String group, String member) {
+        Set<String> members = groups.get(group);
+        if (members == null || members.contains(member)) return false;
+        append(OP_JOIN, group, member);
+        apply(OP_JOIN, group, member);
+        return true;
+    }
+
+    /** @return false si no era miembro del grupo */
+    public synchronized boolean leave(String group, String member) {
+        Set<String> members = groups.get(group);
+        if (members == null || !members.contains(member)) return false;
+        append(OP_LEAVE, group, member);
+        apply(OP_LEAVE, group, member);
+        return true;
+    }
+
+    private void apply(byte op, String group, String member) {
+        if (op == OP_CREATE) {
+            groups.computeIfAbsent(group, g -> new HashSet<>());
+            if (!member.isEmpty()) addMember(group, member);
+        } else if (op == OP_JOIN) {
+            addMember(group, member);
+        } else if (op == OP_LEAVE) {
+            removeMember(group, member);
+        }
+    }
+
+    private void addMember(String group, String member) {
+        Set<String> members = groups.get(group);
+        if (members == null) return; // unión a un grupo que no llegó al log: se ignora
+        if (members.add(member)) groupsByMember.computeIfAbsent(member, m -> new HashSet<>(4)).add(group);
+    }
+
+    private void removeMember(String group, String member) {
+        Set<String> members = groups.get(group);
+        if (members == null || !members.remove(member)) return;
+        Set<String> memberGroups = groupsByMember.get(member);
+        memberGroups.remove(group);
+        if (memberGroups.isEmpty()) groupsByMember.remove(member);
+    }
+
+    // === WAL ===
+
+    private File walFile(long gen) {
+        return new File(dir, "groups-" + gen + ".wal");
+    }
+
+    private void openWal(long gen) throws IOException {
+        walFile = new FileOutputStream(walFile(gen), true);
+        wal = new DataOutputStream(new BufferedOutputStream(walFile, 8192));
+    }
+
+    private void append(byte op, String group, String member) {
+        if (closed) throw new IllegalStateException("El registro de grupos está cerrado");
+        try {
+            record.reset();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(op);
+            out.writeUTF(group);
+            out.writeUTF(member);
+            crc.reset();
+            crc.update(record.toByteArray());
+            wal.writeInt(record.size());
+            wal.writeInt((int) crc.getValue());
+            record.writeTo(wal);
+            wal.flush();
+            if (FSYNC) walFile.getFD().sync();
+        } catch (IOException e) {
+            // El cambio sigue en memoria; se recupera en la próxima instantánea
+            Log.error("Grupos", "Error escribiendo el log: {}", e.getMessage());
+        }
+        if (++changesSinceSnapshot >= snapshotEvery) startSnapshot();
+    }
+
+    /** Reproduce los WAL de la generación cargada en adelante. */
+    private int replayWal() throws IOException {
+        List<Long> gens = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.startsWith("groups-") && name.endsWith(".wal"));
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                try {
+                    long gen = Long.parseLong(name.substring(7, name.length() - 4));
+                    if (gen >= generation) gens.add(gen);
+                    else f.delete(); // ya incluido en la instantánea
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        gens.sort(null);
+        int replayed = 0;
+        for (long gen : gens) {
+            replayed += replay(walFile(gen));
+            generation = gen;
+        }
+        return replayed;
+    }
+
+    private int replay(File file) throws IOException {
+        int count = 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 65536))) {
+            byte[] buf = new byte[256];
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int expected = in.readInt();
+                if (len <= 0 || len > 65536 + 8) break;
+                if (buf.length < len) buf = new byte[len];
+                in.readFully(buf, 0, len);
+                crc.reset();
+                crc.update(buf, 0, len);
+                if ((int) crc.getValue() != expected) break;
+                DataInputStream rec = new DataInputStream(new ByteArrayInputStream(buf, 0, len));
+                byte op = rec.readByte();
+                String group = rec.readUTF();
+                if (op == OP_CREATE_V1 || op == OP_JOIN_V1) {
+                    rec.readInt();
+                    if (op == OP_CREATE_V1) apply(OP_CREATE, group, "");
+                } else {
+                    apply(op, group, rec.readUTF());
+                }
+                valid += 8 + len;
+                count++;
+            }
+        } catch (EOFException e) {
+            // Registro a medio escribir al final: se descarta
+        }
+        if (valid < file.length()) {
+            Log.warn("Grupos", "Final dañado en {}, se descartan {} bytes.", file.getName(), (file.length() - valid));
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(valid);
+            }
+        }
+        return count;
+    }
+
+    // === Instantáneas ===
+
+    private File snapshotFile() {
+        return new File(dir, "groups.snap");
+    }
+
+    /** @return generación de WAL desde la que hay que reproducir */
+    private long loadSnapshot() throws IOException {
+        File file = snapshotFile();
+        if (!file.exists()) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16))) {
+            int version = in.readInt() == SNAPSHOT_MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != SNAPSHOT_VERSION) {
+                throw new IOException("Formato de instantánea desconocido: " + file);
+            }
+            long gen = in.readLong();
+            if (version == 1) in.readInt(); // mayor id de la versión 1
+            int groupCount = in.readInt();
+            for (int g = 0; g < groupCount; g++) {
+                String name = in.readUTF();
+                int count = in.readInt();
+                groups.put(name, new HashSet<>(Math.max(16, (int) (count / 0.75f) + 1)));
+                for (int i = 0; i < count; i++) {
+                    // La versión 1 guardaba ids de conexión: el grupo se conserva sin ellos
+                    if (version == 1) in.readInt();
+                    else addMember(name, in.readUTF());
+                }
+            }
+            return gen;
+        }
+    }
+
+    private void scheduleSnapshot() {
+        if (snapshotMs <= 0 || timers == null || closed) return;
+        timers.schedule(() -> {
+            synchronized (this) {
+                if (changesSinceSnapshot > 0) startSnapshot();
+            }
+            scheduleSnapshot();
+        }, snapshotMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Instantánea en segundo plano para no frenar a quien cambia grupos. */
+    private void startSnapshot() {
+        Snapshot snapshot = rotate();
+        if (snapshot == null) return;
+        Thread writer = new Thread(() -> write(snapshot), "group-snapshot");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Fuerza una instantánea y espera a que esté escrita (cierre ordenado, mediciones). */
+    public void snapshotNow() {
+        Snapshot snapshot;
+        synchronized (this) {
+            while (snapshotRunning) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            snapshot = rotate();
+        }
+        if (snapshot != null) write(snapshot);
+    }
+
+    private static final class Snapshot {
+        final Map<String, String[]> state;
+        final long generation;
+
+        Snapshot(Map<String, String[]> state, long generation) {
+            this.state = state;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Pasa a un WAL de la generación siguiente y copia el estado, todo bajo el lock,
+     * de modo que la instantánea corresponde exactamente al final del WAL anterior.
+     * Solo puede haber una instantánea en curso.
+     */
+    private Snapshot rotate() {
+        if (snapshotRunning || closed) return null;
+        long nextGen = generation + 1;
+        try {
+            wal.close();
+            openWal(nextGen);
+        } catch (IOException e) {
+            Log.warn("Grupos", "No se pudo rotar el log: {}", e.getMessage());
+            return null;
+        }
+        generation = nextGen;
+        changesSinceSnapshot = 0;
+        snapshotRunning = true;
+        return new Snapshot(copyState(), nextGen);
+    }
+
+    private void write(Snapshot snapshot) {
+        try {
+            writeSnapshot(snapshot.state, snapshot.generation);
+        } finally {
+            synchronized (this) {
+                snapshotRunning = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private Map<String, String[]> copyState() {
+        Map<String, String[]> copy = new LinkedHashMap<>(groups.size() * 2);
+        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+        }
+        return copy;
+    }
+
+    /** Escribe a un temporal y lo renombra, así nunca queda una instantánea a medias. */
+    private void writeSnapshot(Map<String, String[]> state, long gen) {
+        File tmp = new File(dir, "groups.snap.tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(gen);
+            out.writeInt(state.size());
+            for (Map.Entry<String, String[]> entry : state.entrySet()) {
+                out.writeUTF(entry.getKey());
+                String[] members = entry.getValue();
+                Arrays.sort(members); // archivo reproducible
+                out.writeInt(members.length);
+                for (String member : members) out.writeUTF(member);
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            Log.error("Grupos", "Error escribiendo la instantánea: {}", e.getMessage());
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), snapshotFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Grupos", "No se pudo instalar la instantánea: {}", e.getMessage());
+            return;
+        }
+        // Los logs anteriores ya están en la instantánea
+        File[] old = dir.listFiles((d, name) -> name.startsWith("groups-") && name.endsWith(".wal"));
+        if (old != null) {
+            for (File f : old) {
+                String name = f.getName();
+                try {
+                    if (Long.parseLong(name.substring(7, name.length() - 4)) < gen) f.delete();
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            wal.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -1,5 +1,8 @@
 package server;
 
+import server.metrics.ChatMetrics;
+import server.trace.MessagePersistedEvent;
+
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -7,19 +10,31 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 
 public class HistoryService {
 
     private final File baseDir;
-    private final SimpleDateFormat ts = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // Inmutable: los historiales se escriben desde varios hilos sin el monitor de ChatServer
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Notas recientes fuera del heap, por ruta dentro de baseDir
+    private final VoiceCache voiceCache = new VoiceCache();
 
     public HistoryService(File baseDir) {
         this.baseDir = baseDir;
         if (!baseDir.exists()) baseDir.mkdirs();
     }
 
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public VoiceCache getVoiceCache() {
+        return voiceCache;
+    }
+
     public void logPrivateText(int fromId, int toId, String message) {
         String conv = "user-" + Math.min(fromId, toId) + "_" + Math.max(fromId, toId);
         File f = new File(baseDir, conv + ".log");
@@ -31,41 +46,77 @@ public class HistoryService {
         appendLine(f, fmt(fromId) + " @" + groupName + " | " + message);
     }
 
-    public void logPrivateVoice(int fromId, int toId, String filename, byte[] data) {
+    /** @return la nota guardada (ya en la caché), o null si no se pudo escribir */
+    public Path logPrivateVoice(int fromId, int toId, String filename, byte[] data) {
         String conv = "user-" + Math.min(fromId, toId) + "_" + Math.max(fromId, toId);
         File dir = new File(baseDir, conv + "_voice");
         dir.mkdirs();
-        saveVoice(dir, fromId, toId, filename, data);
+        Path stored = saveVoice(dir, filename, data);
         File f = new File(baseDir, conv + ".log");
         appendLine(f, fmt(fromId) + " -> " + fmt(toId) + " | [voice] " + filename);
+        return stored;
     }
 
-    public void logGroupVoice(String groupName, int fromId, String filename, byte[] data) {
+    /** @return la nota guardada (ya en la caché), o null si no se pudo escribir */
+    public Path logGroupVoice(String groupName, int fromId, String filename, byte[] data) {
         File dir = new File(baseDir, "group-" + groupName + "_voice");
         dir.mkdirs();
-        saveVoice(dir, fromId, -1, filename, data);
+        Path stored = saveVoice(dir, filename, data);
         File f = new File(baseDir, "group-" + groupName + ".log");
         appendLine(f, fmt(fromId) + " @" + groupName + " | [voice] " + filename);
+        return stored;
+    }
+
+    /** Mueve al historial una nota de voz ya escrita en disco y devuelve su ubicación final. */
+    public Path storePrivateVoice(int fromId, int toId, String filename, Path source) throws IOException {
+        String conv = "user-" + Math.min(fromId, toId) + "_" + Math.max(fromId, toId);
+        Path stored = moveVoice(new File(baseDir, conv + "_voice"), filename, source);
+        appendLine(new File(baseDir, conv + ".log"), fmt(fromId) + " -> " + fmt(toId) + " | [voice] " + filename);
+        return stored;
+    }
+
+    public Path storeGroupVoice(String groupName, int fromId, String filename, Path source) throws IOException {
+        Path stored = moveVoice(new File(baseDir, "group-" + groupName + "_voice"), filename, source);
+        appendLine(new File(baseDir, "group-" + groupName + ".log"), fmt(fromId) + " @" + groupName + " | [voice] " + filename);
+        return stored;
     }
 
-    private void saveVoice(File dir, int fromId, int toId, String filename, byte[] data) {
+    private Path moveVoice(File dir, String filename, Path source) throws IOException {
+        dir.mkdirs();
+        Path target = new File(dir, filename).toPath();
+        // Reemplaza una nota del mismo nombre: la versión en caché ya no vale
+        voiceCache.invalidate(target);
+        return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path saveVoice(File dir, String filename, byte[] data) {
         File out = new File(dir, filename);
         try (FileOutputStream fos = new FileOutputStream(out)) {
             fos.write(data);
-        } catch (IOException ignored) {}
+        } catch (IOException e) {
+            voiceCache.invalidate(out.toPath());
+            return null;
+        }
+        voiceCache.put(out.toPath(), data);
+        return out.toPath();
     }
 
     private void appendLine(File file, String line) {
+        long start = System.nanoTime();
+        MessagePersistedEvent persisted = new MessagePersistedEvent();
+        persisted.begin();
         try {
             Path path = file.toPath();
             try (BufferedWriter bw = Files.newBufferedWriter(path,
                     StandardCharsets.UTF_8,
                     java.nio.file.StandardOpenOption.CREATE,
                     java.nio.file.StandardOpenOption.APPEND)) {
-                bw.write("[" + ts.format(new Date()) + "] " + line);
+                bw.write("[" + TS.format(LocalDateTime.now()) + "] " + line);
                 bw.newLine();
             }
         } catch (IOException ignored) {}
+        ChatMetrics.HISTORY_WRITE.recordSince(start);
+        persisted.finish(file, line.length());
     }
 
     private String fmt(int id) { return "user-" + id; }
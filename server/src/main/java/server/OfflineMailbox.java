@@ -0,0 +1,302 @@
+package server;
+
+import server.log.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Buzón de mensajes para usuarios desconectados. Cada usuario guarda en memoria
+ * hasta {@code perUserBytes}; si se supera ese límite o el global, el resto va a
+ * un archivo de solo-anexar en {@code history/mailbox/<usuario>.mbox}. Las notas de
+ * voz se guardan siempre en disco y en el buzón solo queda la ruta; las que no estaban
+ * en el historial se copian a {@code <usuario>_voice/} y se borran al entregarlas.
+ * Al volver el usuario se entrega todo en orden, por lotes.
+ * Con {@code chat.mailboxTtlMs} > 0 el buzón se descarta si nadie lo recoge en ese
+ * tiempo, contado desde su primer mensaje.
+ */
+public class OfflineMailbox {
+
+    public static final long DEFAULT_PER_USER_BYTES = 64 * 1024;
+    public static final long DEFAULT_GLOBAL_BYTES = 64L * 1024 * 1024;
+    private static final long MAX_SPILL_BYTES = 32L * 1024 * 1024;
+    private static final int DRAIN_BATCH = 256;
+    private static final long DEFAULT_TTL_MS = Long.getLong("chat.mailboxTtlMs", 0);
+    // Coste aproximado de una entrada en memoria además de sus caracteres
+    private static final int ENTRY_OVERHEAD = 56;
+
+    private static final class Box {
+        final ArrayDeque<String> memory = new ArrayDeque<>();
+        long memoryBytes;
+        boolean spilled;
+        long spillBytes;
+        boolean removed;
+    }
+
+    private final File dir;
+    private final long perUserBytes;
+    private final long globalBytes;
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final Map<String, Box> boxes = new ConcurrentHashMap<>();
+    private final TimerWheel timers;
+    private final long ttlMs;
+
+    public OfflineMailbox(File dir, TimerWheel timers) {
+        this(dir, DEFAULT_PER_USER_BYTES, DEFAULT_GLOBAL_BYTES, timers, DEFAULT_TTL_MS);
+    }
+
+    /** @param ttlMs 0 para conservar los mensajes hasta que el usuario vuelva */
+    public OfflineMailbox(File dir, long perUserBytes, long globalBytes, TimerWheel timers, long ttlMs) {
+        this.dir = dir;
+        this.perUserBytes = perUserBytes;
+        this.globalBytes = globalBytes;
+        this.timers = timers;
+        this.ttlMs = ttlMs;
+        if (!dir.exists()) dir.mkdirs();
+    }
+
+    private Box newBox(String user) {
+        Box box = new Box();
+        if (ttlMs > 0 && timers != null) {
+            timers.schedule(() -> expire(user, box), ttlMs, TimeUnit.MILLISECONDS);
+        }
+        return box;
+    }
+
+    private void expire(String user, Box box) {
+        if (!boxes.remove(user, box)) return; // ya se entregó
+        release(user, box);
+        Log.info("Buzón", "Mensajes pendientes de {} expirados.", user);
+    }
+
+    public void storeText(String user, String text) {
+        store(user, "T" + escape(text));
+    }
+
+    /** Guarda la referencia a una nota que ya está en el historial. */
+    public void storeVoice(String user, String filename, Path file, String fromId) {
+        store(user, "V" + escape(fromId) + '\t' + escape(filename) + '\t' + escape(file.toAbsolutePath().toString()));
+    }
+
+    public void storeVoice(String user, String filename, byte[] data, String fromId) {
+        File voiceDir = voiceDir(user);
+        voiceDir.mkdirs();
+        Path file = new File(voiceDir, UUID.randomUUID() + "_" + new File(filename).getName()).toPath();
+        try {
+            Files.write(file, data);
+        } catch (IOException e) {
+            Log.warn("Buzón", "No se pudo guardar la nota de voz para {}: {}", user, e.getMessage());
+            return;
+        }
+        storeVoice(user, filename, file, fromId);
+    }
+
+    private void store(String user, String entry) {
+        long cost = ENTRY_OVERHEAD + 2L * entry.length();
+        while (true) {
+            Box box = boxes.computeIfAbsent(user, this::newBox);
+            synchronized (box) {
+                if (box.removed) continue; // se vació mientras tanto: usar uno nuevo
+                // Una vez que hay mensajes en disco, los siguientes también van allí para mantener el orden
+                if (!box.spilled && box.memoryBytes + cost <= perUserBytes && reserve(cost)) {
+                    box.memory.addLast(entry);
+                    box.memoryBytes += cost;
+                    return;
+                }
+                spill(user, box, entry);
+                return;
+            }
+        }
+    }
+
+    private boolean reserve(long cost) {
+        long current;
+        do {
+            current = memoryBytes.get();
+            if (current + cost > globalBytes) return false;
+        } while (!memoryBytes.compareAndSet(current, current + cost));
+        return true;
+    }
+
+    private void spill(String user, Box box, String entry) {
+        byte[] line = (entry + "\n").getBytes(StandardCharsets.UTF_8);
+        if (box.spillBytes + line.length > MAX_SPILL_BYTES) {
+            Log.warn("Buzón", "Buzón de {} lleno, mensaje descartado.", user);
+            return;
+        }
+        try {
+            Files.write(spillFile(user), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            box.spilled = true;
+            box.spillBytes += line.length;
+        } catch (IOException e) {
+            Log.error("Buzón", "Error escribiendo en disco para {}: {}", user, e.getMessage());
+        }
+    }
+
+    public boolean hasMail(String user) {
+        return boxes.containsKey(user);
+    }
+
+    /**
+     * Entrega a {@code session} todo lo pendiente del usuario, primero lo que está en
+     * memoria y luego lo volcado a disco, en lotes de {@value #DRAIN_BATCH} mensajes.
+     * @return número de mensajes entregados
+     */
+    public int drain(String user, ChatSession session) {
+        Box box = boxes.get(user);
+        if (box == null) return 0;
+        synchronized (box) {
+            box.removed = true;
+            boxes.remove(user, box);
+            memoryBytes.addAndGet(-box.memoryBytes);
+            int delivered = 0;
+            List<String> batch = new ArrayList<>(Math.min(DRAIN_BATCH, box.memory.size()));
+            for (String entry : box.memory) {
+                delivered += deliver(user, entry, session, batch);
+            }
+            box.memory.clear();
+            if (box.spilled) {
+                Path file = spillFile(user);
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String entry;
+                    while ((entry = reader.readLine()) != null) {
+                        delivered += deliver(user, entry, session, batch);
+                    }
+                } catch (IOException e) {
+                    Log.error("Buzón", "Error leyendo el buzón de {}: {}", user, e.getMessage());
+                }
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {}
+            }
+            flush(session, batch);
+            return delivered;
+        }
+    }
+
+    private int deliver(String user, String entry, ChatSession session, List<String> batch) {
+        if (entry.startsWith("T")) {
+            batch.add(unescape(entry.substring(1)));
+            if (batch.size() >= DRAIN_BATCH) flush(session, batch);
+            return 1;
+        }
+        // Una nota de voz va sola: antes se envía el texto acumulado para respetar el orden
+        flush(session, batch);
+        String[] parts = entry.substring(1).split("\t", 3);
+        if (parts.length < 3) return 0;
+        Path file = Path.of(unescape(parts[2]));
+        if (!Files.exists(file)) return 0;
+        if (!file.startsWith(voiceDir(user).toPath().toAbsolutePath())) {
+            // Está en el historial: la sesión puede volver a leerla si tiene que reenviarla
+            session.sendVoiceNote(unescape(parts[1]), file, unescape(parts[0]));
+            return 1;
+        }
+        // Copia propia del buzón: la sesión se queda con los bytes y el archivo sobra
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+            Files.delete(file);
+        } catch (IOException e) {
+            Log.warn("Buzón", "No se pudo leer la nota de voz de {}: {}", user, e.getMessage());
+            return 0;
+        }
+        session.sendVoiceNote(unescape(parts[1]), data, unescape(parts[0]));
+        return 1;
+    }
+
+    private static void flush(ChatSession session, List<String> batch) {
+        if (batch.isEmpty()) return;
+        session.sendAll(batch);
+        batch.clear();
+    }
+
+    /** Descarta el buzón de un usuario que ya no puede volver. */
+    public void discard(String user) {
+        Box box = boxes.remove(user);
+        if (box != null) release(user, box);
+    }
+
+    private void release(String user, Box box) {
+        synchronized (box) {
+            box.removed = true;
+            memoryBytes.addAndGet(-box.memoryBytes);
+            box.memory.clear();
+        }
+        try {
+            Files.deleteIfExists(spillFile(user));
+            File voiceDir = voiceDir(user);
+            if (voiceDir.isDirectory()) {
+                try (Stream<Path> files = Files.walk(voiceDir.toPath())) {
+                    files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        } catch (IOException ignored) {}
+    }
+
+    /** Bytes (estimados) ocupados en memoria por todos los buzones. */
+    public long memoryBytes() {
+        return memoryBytes.get();
+    }
+
+    public int size() {
+        return boxes.size();
+    }
+
+    private Path spillFile(String user) {
+        return new File(dir, safe(user) + ".mbox").toPath();
+    }
+
+    private File voiceDir(String user) {
+        return new File(dir, safe(user) + "_voice");
+    }
+
+    private static String safe(String user) {
+        return user.replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
+    private static String escape(String s) {
+        if (s.indexOf('\\') < 0 && s.indexOf('\n') < 0 && s.indexOf('\t') < 0 && s.indexOf('\r') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 'n' ? '\n' : n == 'r' ? '\r' : n == 't' ? '\t' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,327 @@
+package server;
+
+import server.metrics.ChatMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presencia de los usuarios de este nodo (conectado, inactivo, en llamada) para
+ * todos los transportes. Los cambios no se envían al producirse: solo se marca el
+ * usuario y cada {@code chat.presence.flushMs} se compara su estado con el último
+ * publicado. Así una ráfaga (miles de reconexiones tras un corte, un usuario que
+ * entra y sale) se reduce a un delta por intervalo con el estado final de cada
+ * usuario, y cada suscriptor recibe como mucho unas pocas líneas por intervalo.
+ *
+ * <p>Los suscriptores reciben el delta por {@link ChatSession#sendPresence(String)}
+ * en líneas de {@code "<id>:<estado> <id>:<estado> ..."}; pueden interesarse por
+ * todos los usuarios o solo por algunos (sus contactos).
+ *
+ * <p>La tarea de vaciado no escribe en ningún socket: deja los estados en la cola de
+ * cada suscriptor y un pool propio los envía. Un suscriptor lento solo retrasa lo
+ * suyo, y mientras no termina de escribir sus estados pendientes se siguen fundiendo
+ * (el último de cada usuario gana), así su cola no crece más que el número de usuarios.
+ */
+public final class PresenceService implements AutoCloseable {
+
+    public enum State {
+        ONLINE, IDLE, IN_CALL, OFFLINE;
+
+        final String wire = name().toLowerCase();
+    }
+
+    private static final long FLUSH_MS = Long.getLong("chat.presence.flushMs", 1000);
+    private static final long IDLE_MS = Long.getLong("chat.presence.idleMs", 5 * 60_000);
+    // Usuarios por línea: acota el tamaño de cada mensaje en una ráfaga grande
+    private static final int MAX_PER_LINE = 256;
+    private static final int DELIVERY_THREADS = Integer.getInteger("chat.presence.threads", 4);
+
+    private static final class Entry {
+        volatile long lastActive = System.currentTimeMillis();
+        volatile boolean idle;
+        volatile boolean inCall;
+
+        State state() {
+            return inCall ? State.IN_CALL : idle ? State.IDLE : State.ONLINE;
+        }
+    }
+
+    private static final class Subscriber {
+        final ChatSession session;
+        // null: todos los usuarios
+        final Set<Integer> interest;
+        // Estados aún no enviados, en orden de llegada; con el monitor del suscriptor
+        final Map<Integer, State> pending = new LinkedHashMap<>();
+        // Hay una tarea del pool enviando (o a punto de enviar) su cola
+        boolean sending;
+
+        Subscriber(ChatSession session, Set<Integer> interest) {
+            this.session = session;
+            this.interest = interest;
+        }
+    }
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Subscriber> subscribers = new ConcurrentHashMap<>();
+    // Último estado enviado; solo lo toca la tarea de vaciado (una a la vez)
+    private final Map<Integer, State> published = new HashMap<>();
+    private final TimerWheel timers;
+    private final ExecutorService delivery = Executors.newFixedThreadPool(DELIVERY_THREADS, r -> {
+        Thread t = new Thread(r, "presence-delivery");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean closed;
+
+    public PresenceService(TimerWheel timers) {
+        this.timers = timers;
+        ChatMetrics.gauge("chat_presence_subscribers", "Sesiones suscritas a la presencia", subscribers::size);
+        scheduleFlush();
+    }
+
+    // === Cambios de estado (baratos: solo marcan al usuario) ===
+
+    public void online(int userId) {
+        entries.putIfAbsent(userId, new Entry());
+        changed(userId);
+    }
+
+    /** No toca su suscripción: una sesión TCP reanudable vuelve a estar en línea al reanudar. */
+    public void offline(int userId) {
+        if (entries.remove(userId) != null) changed(userId);
+    }
+
+    /** Actividad del usuario: lo saca de inactivo. */
+    public void touch(int userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) return;
+        entry.lastActive = System.currentTimeMillis();
+        if (entry.idle) {
+            entry.idle = false;
+            changed(userId);
+        }
+    }
+
+    public void setInCall(int userId, boolean inCall) {
+        Entry entry = entries.get(userId);
+        if (entry == null || entry.inCall == inCall) return;
+        entry.inCall = inCall;
+        entry.lastActive = System.currentTimeMillis();
+        entry.idle = false;
+        changed(userId);
+    }
+
+    public State state(int userId) {
+        Entry entry = entries.get(userId);
+        return entry != null ? entry.state() : State.OFFLINE;
+    }
+
+    private void changed(int userId) {
+        dirty.add(userId);
+        ChatMetrics.PRESENCE_CHANGES.increment();
+    }
+
+    // === Suscripciones ===
+
+    /**
+     * Suscribe la sesión (reemplaza su suscripción anterior) y le envía el estado actual
+     * de los usuarios que le interesan, por la misma cola que los deltas para que un
+     * delta posterior no se adelante a la foto inicial.
+     * @param interest ids que le interesan; null para todos
+     */
+    public void subscribe(ChatSession session, Set<Integer> interest) {
+        Subscriber subscriber = new Subscriber(session, interest);
+        boolean start;
+        synchronized (subscriber) {
+            queueSnapshot(subscriber);
+            subscribers.put(session.getId(), subscriber);
+            start = startSending(subscriber);
+        }
+        if (start) schedule(subscriber);
+    }
+
+    /**
+     * Vuelve a enviar el estado actual al suscriptor {@code sessionId}, si lo es: una
+     * sesión reanudada no recibió los deltas del corte. La foto se funde con lo que
+     * tuviera pendiente en su cola.
+     */
+    public void resync(int sessionId) {
+        Subscriber subscriber = subscribers.get(sessionId);
+        if (subscriber == null) return;
+        boolean start;
+        synchronized (subscriber) {
+            queueSnapshot(subscriber);
+            start = startSending(subscriber);
+        }
+        if (start) schedule(subscriber);
+    }
+
+    public void unsubscribe(int sessionId) {
+        subscribers.remove(sessionId);
+    }
+
+    // Con el monitor del suscriptor
+    private void queueSnapshot(Subscriber subscriber) {
+        if (subscriber.interest == null) {
+            for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+                subscriber.pending.put(e.getKey(), e.getValue().state());
+            }
+        } else {
+            for (int userId : subscriber.interest) subscriber.pending.put(userId, state(userId));
+        }
+    }
+
+    // Con el monitor del suscriptor: true si hay que lanzar la tarea que vacía su cola
+    private static boolean startSending(Subscriber subscriber) {
+        if (subscriber.sending || subscriber.pending.isEmpty()) return false;
+        subscriber.sending = true;
+        return true;
+    }
+
+    private void schedule(Subscriber subscriber) {
+        try {
+            delivery.execute(() -> send(subscriber));
+        } catch (RejectedExecutionException e) {
+            // Servicio cerrado
+        }
+    }
+
+    /** Envía la cola del suscriptor hasta dejarla vacía; lo que llega mientras escribe va en la siguiente vuelta. */
+    private static void send(Subscriber subscriber) {
+        while (true) {
+            List<Integer> ids;
+            List<State> states;
+            synchronized (subscriber) {
+                if (subscriber.pending.isEmpty()) {
+                    subscriber.sending = false;
+                    return;
+                }
+                ids = new ArrayList<>(subscriber.pending.keySet());
+                states = new ArrayList<>(subscriber.pending.values());
+                subscriber.pending.clear();
+            }
+            try {
+                for (String line : lines(ids, states)) subscriber.session.sendPresence(line);
+            } catch (RuntimeException e) {
+                synchronized (subscriber) {
+                    subscriber.pending.clear();
+                    subscriber.sending = false;
+                }
+                return;
+            }
+        }
+    }
+
+    // === Vaciado periódico ===
+
+    private void scheduleFlush() {
+        if (closed) return;
+        try {
+            timers.schedule(this::flush, FLUSH_MS, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // El temporizador se cerró con el servidor
+        }
+    }
+
+    private void flush() {
+        try {
+            markIdle();
+            List<Integer> ids = new ArrayList<>();
+            List<State> states = new ArrayList<>();
+            for (Iterator<Integer> it = dirty.iterator(); it.hasNext(); ) {
+                int userId = it.next();
+                it.remove();
+                State now = state(userId);
+                State before = published.getOrDefault(userId, State.OFFLINE);
+                if (now == before) continue; // se fue y volvió dentro del intervalo
+                if (now == State.OFFLINE) published.remove(userId); else published.put(userId, now);
+                ids.add(userId);
+                states.add(now);
+            }
+            if (!ids.isEmpty()) publish(ids, states);
+        } finally {
+            scheduleFlush();
+        }
+    }
+
+    private void markIdle() {
+        long limit = System.currentTimeMillis() - IDLE_MS;
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (!entry.idle && !entry.inCall && entry.lastActive < limit) {
+                entry.idle = true;
+                changed(e.getKey());
+            }
+        }
+    }
+
+    /** Solo encola: las escrituras las hace el pool, fuera de la tarea de vaciado. */
+    private void publish(List<Integer> ids, List<State> states) {
+        ChatMetrics.PRESENCE_PUBLISHED.add(ids.size());
+        for (Subscriber subscriber : subscribers.values()) {
+            boolean start;
+            synchronized (subscriber) {
+                for (int i = 0; i < ids.size(); i++) {
+                    int userId = ids.get(i);
+                    if (subscriber.interest != null && !subscriber.interest.contains(userId)) continue;
+                    // Se quita antes para que quede al final, en el orden del cambio más reciente
+                    subscriber.pending.remove(userId);
+                    subscriber.pending.put(userId, states.get(i));
+                }
+                start = startSending(subscriber);
+            }
+            if (start) schedule(subscriber);
+        }
+    }
+
+    private static List<String> lines(List<Integer> ids, List<State> states) {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        int count = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (count == MAX_PER_LINE) {
+                lines.add(line.toString());
+                line.setLength(0);
+                count = 0;
+            }
+            if (count > 0) line.append(' ');
+            line.append(ids.get(i)).append(':').append(states.get(i).wire);
+            count++;
+        }
+        if (count > 0) lines.add(line.toString());
+        return lines;
+    }
+
+    /**
+     * Interpreta {@code "3 5 7"} como conjunto de ids. Sin argumentos devuelve null
+     * (todos los usuarios); si ninguno es un id válido, un conjunto vacío.
+     */
+    static Set<Integer> parseInterest(String[] parts, int from) {
+        if (from >= parts.length) return null;
+        Set<Integer> interest = new HashSet<>();
+        for (int i = from; i < parts.length; i++) {
+            try {
+                interest.add(Integer.parseInt(parts[i]));
+            } catch (NumberFormatException ignored) {}
+        }
+        return interest;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        delivery.shutdownNow();
+    }
+}
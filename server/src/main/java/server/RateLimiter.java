@@ -0,0 +1,72 @@
+package server;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Límites de una conexión: mensajes por segundo y bytes por segundo. Se comprueba
+ * en la etapa de decodificación (ClientHandler, WebSocketSession), antes de que el
+ * comando llegue al enrutamiento. Un mensaje que excede la tasa se retrasa si la
+ * espera es corta y se descarta si no; los bytes siempre se dosifican, lo que
+ * frena al emisor por control de flujo TCP.
+ */
+public final class RateLimiter {
+
+    public static final String REJECTED_NOTICE = "[Servidor] Demasiados mensajes: comando descartado, espera un momento.";
+
+    private static final long MAX_DELAY_NANOS = 250_000_000L;
+    private static final long NOTICE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    private long lastNotice;
+    private long rejected;
+
+    RateLimiter(long messagesPerSecond, long messageBurst, long bytesPerSecond, long byteBurst) {
+        this.messages = new TokenBucket(messagesPerSecond, messageBurst);
+        this.bytes = new TokenBucket(bytesPerSecond, byteBurst);
+        this.lastNotice = System.nanoTime() - NOTICE_INTERVAL_NANOS;
+    }
+
+    /**
+     * @return false si el mensaje debe descartarse
+     */
+    public boolean admitMessage() throws InterruptedIOException {
+        if (messages.tryAcquire(1)) return true;
+        long wait = messages.nanosUntil(1);
+        if (wait <= MAX_DELAY_NANOS) {
+            park(wait);
+            if (messages.tryAcquire(1)) return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /** Cuenta {@code n} bytes recibidos y espera lo necesario para respetar la tasa. */
+    public void throttleBytes(long n) throws InterruptedIOException {
+        long wait = bytes.acquireWithDebt(n);
+        if (wait > 0) park(wait);
+    }
+
+    /** Limita los avisos al cliente a uno por segundo para no amplificar la ráfaga. */
+    public boolean shouldNotify() {
+        long now = System.nanoTime();
+        if (now - lastNotice < NOTICE_INTERVAL_NANOS) return false;
+        lastNotice = now;
+        return true;
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    private static void park(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) throw new InterruptedIOException("Conexión cerrada durante la espera");
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
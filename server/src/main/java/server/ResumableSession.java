@@ -0,0 +1,231 @@
+package server;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Sesión TCP que sobrevive a cortes de red. ChatServer enruta a esta sesión (y es
+ * la que queda en los grupos); la conexión concreta se engancha y desengancha.
+ * Cada mensaje recibe un número de secuencia y se guardan los últimos en un buzón
+ * acotado, así al reconectar solo se reenvía lo que el cliente no llegó a recibir.
+ * Si el cliente tarda demasiado la sesión expira: sigue en ChatServer y en sus
+ * grupos, pero lo que llega desde entonces va al {@link OfflineMailbox}.
+ */
+public final class ResumableSession implements ChatSession {
+
+    private static final int MAX_RETAINED = 256;
+    private static final long MAX_RETAINED_BYTES = 8L * 1024 * 1024;
+
+    private static final class Entry {
+        final long seq;
+        final String text;
+        final String filename;
+        final byte[] data;
+        final Path file;
+        final String fromId;
+
+        Entry(long seq, String text, String filename, byte[] data, Path file, String fromId) {
+            this.seq = seq;
+            this.text = text;
+            this.filename = filename;
+            this.data = data;
+            this.file = file;
+            this.fromId = fromId;
+        }
+
+        long bytes() {
+            return (text != null ? text.length() : 0) + (data != null ? data.length : 0);
+        }
+    }
+
+    private final int id;
+    private final String token;
+    private final OfflineMailbox mailbox;
+    private final Deque<Entry> recent = new ArrayDeque<>();
+    private long retainedBytes;
+    private long seq;
+    private ClientHandler transport;
+    private long detachedAt;
+    // Último mensaje escrito en un socket antes del corte
+    private long seqAtDetach;
+    private boolean expired;
+
+    ResumableSession(int id, String token, ClientHandler transport, OfflineMailbox mailbox) {
+        this.id = id;
+        this.token = token;
+        this.transport = transport;
+        this.mailbox = mailbox;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /** Los grupos quedan guardados con el token: al reanudar con él se recuperan. */
+    @Override
+    public String memberKey() {
+        return memberKey(token);
+    }
+
+    static String memberKey(String token) {
+        return "s:" + token;
+    }
+
+    /** Número del último mensaje enviado (o encolado) a esta sesión. */
+    synchronized long lastSeq() {
+        return seq;
+    }
+
+    private String mailboxKey() {
+        return String.valueOf(id);
+    }
+
+    @Override
+    public synchronized void send(String msg) {
+        if (expired) {
+            mailbox.storeText(mailboxKey(), msg);
+            return;
+        }
+        Entry e = retain(new Entry(++seq, msg, null, null, null, null));
+        if (transport != null) transport.deliver(e.seq, msg);
+    }
+
+    @Override
+    public synchronized void sendAll(List<String> msgs) {
+        if (expired || transport == null) {
+            for (String msg : msgs) send(msg);
+            return;
+        }
+        long first = seq + 1;
+        for (String msg : msgs) retain(new Entry(++seq, msg, null, null, null, null));
+        transport.deliverAll(first, msgs);
+    }
+
+    @Override
+    public synchronized void sendVoiceNote(String filename, byte[] data, String fromId) {
+        if (expired) {
+            mailbox.storeVoice(mailboxKey(), filename, data, fromId);
+            return;
+        }
+        Entry e = retain(new Entry(++seq, null, filename, data, null, fromId));
+        if (transport != null) transport.deliverVoice(e.seq, filename, data, fromId);
+    }
+
+    @Override
+    public synchronized void sendVoiceNote(String filename, Path file, String fromId) {
+        if (expired) {
+            mailbox.storeVoice(mailboxKey(), filename, file, fromId);
+            return;
+        }
+        Entry e = retain(new Entry(++seq, null, filename, null, file, fromId));
+        if (transport != null) transport.deliverVoice(e.seq, filename, file, fromId);
+    }
+
+    /**
+     * La presencia no se numera ni se guarda: sin conexión los deltas se descartan y
+     * al reanudar se recibe la foto completa (ver {@link PresenceService#resync(int)}).
+     */
+    @Override
+    public synchronized void sendPresence(String delta) {
+        if (!expired && transport != null) transport.deliverUnnumbered("PRESENCE " + delta);
+    }
+
+    private Entry retain(Entry e) {
+        recent.addLast(e);
+        retainedBytes += e.bytes();
+        while (recent.size() > MAX_RETAINED || (retainedBytes > MAX_RETAINED_BYTES && recent.size() > 1)) {
+            retainedBytes -= recent.removeFirst().bytes();
+        }
+        return e;
+    }
+
+    /**
+     * Engancha una nueva conexión y le reenvía los mensajes con secuencia mayor que
+     * {@code lastSeen}. Se hace bajo el mismo cerrojo que los envíos para que ningún
+     * mensaje nuevo se cuele entre los reenviados.
+     * Si la sesión había expirado se reactiva y se vacía su buzón offline.
+     *
+     * <p>Si la sesión aún tiene conexión es que el servidor no ha notado que la anterior
+     * murió (el caso normal tras un corte de red): la nueva la sustituye y la vieja se
+     * cierra, sin que llegue a escribirse nada más en ella.
+     * @return cuántos mensajes se reenviaron, o -1 si {@code lastSeen} no es válido
+     */
+    synchronized int attach(ClientHandler handler, long lastSeen) {
+        if (lastSeen < 0 || lastSeen > seq) return -1;
+        ClientHandler stale = transport;
+        if (stale != null && stale != handler) {
+            transport = null;
+            stale.closeQuietly();
+        }
+        transport = handler;
+        handler.announceSession(token, lastSeen);
+        if (expired) {
+            expired = false;
+            if (lastSeen < seqAtDetach) {
+                handler.deliver(seqAtDetach, "[Servidor] Se perdieron " + (seqAtDetach - lastSeen)
+                        + " mensajes durante la desconexión.");
+            }
+            // Numerados a partir de aquí como mensajes nuevos
+            return mailbox.drain(mailboxKey(), this);
+        }
+        Entry oldest = recent.peekFirst();
+        if (oldest != null && oldest.seq > lastSeen + 1) {
+            handler.deliver(oldest.seq - 1, "[Servidor] Se perdieron " + (oldest.seq - 1 - lastSeen)
+                    + " mensajes durante la desconexión.");
+        }
+        int replayed = 0;
+        for (Entry e : recent) {
+            if (e.seq <= lastSeen) continue;
+            if (e.text != null) {
+                handler.deliver(e.seq, e.text);
+            } else if (e.data != null) {
+                handler.deliverVoice(e.seq, e.filename, e.data, e.fromId);
+            } else {
+                handler.deliverVoice(e.seq, e.filename, e.file, e.fromId);
+            }
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * La conexión se cayó: los mensajes siguen numerándose y guardándose en el buzón.
+     * @return false si esa conexión ya no era la de la sesión (otra la sustituyó)
+     */
+    synchronized boolean detach(ClientHandler handler) {
+        if (transport != handler) return false;
+        transport = null;
+        detachedAt = System.currentTimeMillis();
+        seqAtDetach = seq;
+        return true;
+    }
+
+    /**
+     * Expira la sesión si está desconectada desde antes de {@code limit}. Lo que
+     * llegó durante el corte pasa al buzón offline y se libera el buzón en memoria.
+     */
+    synchronized boolean expireIfDetachedBefore(long limit) {
+        if (transport != null || expired || detachedAt > limit) return false;
+        expired = true;
+        for (Entry e : recent) {
+            if (e.seq <= seqAtDetach) continue;
+            if (e.text != null) {
+                mailbox.storeText(mailboxKey(), e.text);
+            } else if (e.data != null) {
+                mailbox.storeVoice(mailboxKey(), e.filename, e.data, e.fromId);
+            } else {
+                mailbox.storeVoice(mailboxKey(), e.filename, e.file, e.fromId);
+            }
+        }
+        recent.clear();
+        retainedBytes = 0;
+        return true;
+    }
+}
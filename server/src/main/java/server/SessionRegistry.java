@@ -0,0 +1,147 @@
+package server;
+
+import server.log.Log;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sesiones reanudables por token. Una sesión desconectada conserva su id, sus
+ * grupos y su buzón durante {@code ttlMs}; si el cliente no vuelve en ese tiempo
+ * expira y sus mensajes pasan al {@link OfflineMailbox} hasta que reanude con el
+ * mismo token. Se guardan como mucho {@value #MAX_EXPIRED} sesiones expiradas; al
+ * superarlo la más antigua se da por cerrada como una desconexión normal.
+ */
+public class SessionRegistry {
+
+    private static final long DEFAULT_TTL_MS = Long.getLong("chat.sessionTtlMs", 60_000);
+    private static final int MAX_EXPIRED = 100_000;
+
+    private final ChatServer server;
+    private final long ttlMs;
+    private final SecureRandom random = new SecureRandom();
+    private final OfflineMailbox mailbox;
+    private final Map<String, ResumableSession> sessions = new ConcurrentHashMap<>();
+    // Tokens de sesiones expiradas, de la más antigua a la más reciente
+    private final Set<String> expired = new LinkedHashSet<>();
+    private final TimerWheel timers;
+    // Expiración pendiente de cada sesión desconectada, por token
+    private final Map<String, TimerWheel.Timeout> expiryTimers = new ConcurrentHashMap<>();
+
+    public SessionRegistry(ChatServer server, OfflineMailbox mailbox, TimerWheel timers) {
+        this(server, mailbox, timers, DEFAULT_TTL_MS);
+    }
+
+    public SessionRegistry(ChatServer server, OfflineMailbox mailbox, TimerWheel timers, long ttlMs) {
+        this.server = server;
+        this.mailbox = mailbox;
+        this.timers = timers;
+        this.ttlMs = ttlMs;
+    }
+
+    /** Crea una sesión reanudable para la conexión con el id que ya tiene asignado. */
+    ResumableSession open(int clientId, ClientHandler handler) {
+        return open(clientId, handler, null);
+    }
+
+    /**
+     * Como {@link #open(int, ClientHandler)}, pero si {@code previousToken} ya no tiene
+     * sesión (el servidor se reinició) y aún figura en algún grupo, la nueva sesión se
+     * queda con ese token y así recupera sus grupos.
+     */
+    ResumableSession open(int clientId, ClientHandler handler, String previousToken) {
+        ResumableSession session = null;
+        if (previousToken != null
+                && server.getGroupRegistry().hasMember(ResumableSession.memberKey(previousToken))) {
+            session = new ResumableSession(clientId, previousToken, handler, mailbox);
+            // Otra conexión pudo adoptarlo a la vez
+            if (sessions.putIfAbsent(previousToken, session) != null) session = null;
+        }
+        if (session == null) {
+            session = new ResumableSession(clientId, newToken(), handler, mailbox);
+            sessions.put(session.getToken(), session);
+        }
+        // Antes de registrarla: ningún mensaje numerado puede adelantarse al token
+        handler.announceSession(session.getToken(), 0);
+        server.handOverGroups(handler, session);
+        server.register(session);
+        return session;
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    ResumableSession find(String token) {
+        return sessions.get(token);
+    }
+
+    /** La sesión volvió a engancharse (si había expirado deja de contar como tal). */
+    void resumed(ResumableSession session) {
+        TimerWheel.Timeout timeout = expiryTimers.remove(session.getToken());
+        if (timeout != null) timeout.cancel();
+        synchronized (expired) {
+            expired.remove(session.getToken());
+        }
+        server.reattachGroups(session);
+        server.getPresence().online(session.getId());
+        // Los deltas del corte se descartaron: se envía el estado actual
+        server.getPresence().resync(session.getId());
+    }
+
+    /** El cliente se despidió: la sesión no se podrá reanudar y su buzón se descarta. */
+    void end(ResumableSession session, ClientHandler handler) {
+        session.detach(handler);
+        TimerWheel.Timeout timeout = expiryTimers.remove(session.getToken());
+        if (timeout != null) timeout.cancel();
+        synchronized (expired) {
+            expired.remove(session.getToken());
+        }
+        close(session.getToken());
+    }
+
+    void detach(ResumableSession session, ClientHandler handler) {
+        // Una conexión sustituida al reanudar no desconecta la sesión
+        if (!session.detach(handler)) return;
+        // Sigue en el directorio (y suscrito hasta expirar), pero ya no está en línea
+        server.getPresence().offline(session.getId());
+        TimerWheel.Timeout previous = expiryTimers.put(session.getToken(),
+                timers.schedule(() -> expire(session), ttlMs, TimeUnit.MILLISECONDS));
+        if (previous != null) previous.cancel();
+        Log.info("Servidor", "Cliente {} desconectado, sesión reanudable durante {} s.", session.getId(), (ttlMs / 1000));
+    }
+
+    private void expire(ResumableSession session) {
+        expiryTimers.remove(session.getToken());
+        // Margen de un tick de la rueda; si volvió a conectarse no expira
+        long limit = System.currentTimeMillis() - ttlMs + 1000;
+        if (!session.expireIfDetachedBefore(limit)) return;
+        // Sin conexión no recibe presencia; al reanudar tendrá que volver a suscribirse
+        server.getPresence().unsubscribe(session.getId());
+        Log.info("Servidor", "Sesión del cliente {} expirada; sus mensajes van al buzón offline.", session.getId());
+        synchronized (expired) {
+            expired.add(session.getToken());
+            if (expired.size() > MAX_EXPIRED) {
+                Iterator<String> oldest = expired.iterator();
+                String token = oldest.next();
+                oldest.remove();
+                close(token);
+            }
+        }
+    }
+
+    private void close(String token) {
+        ResumableSession session = sessions.remove(token);
+        if (session == null) return;
+        mailbox.discard(String.valueOf(session.getId()));
+        server.onClientClose(session.getId());
+    }
+}
@@ -0,0 +1,211 @@
+package server;
+
+import server.log.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Temporizador de rueda (hashed wheel) compartido por todo el servidor: timeouts de
+ * conexiones inactivas, heartbeats, expiración de endpoints UDP y de mensajes.
+ * Programar y cancelar es O(1) y no crea una tarea de ScheduledExecutorService por
+ * conexión. La precisión es la de un tick ({@code tickMs}); las tareas vencidas se
+ * ejecutan en {@code taskExecutor} para que una tarea lenta no retrase la rueda.
+ */
+public final class TimerWheel implements AutoCloseable {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /** Tarea programada; {@link #cancel()} la descarta si aún no venció. */
+    public static final class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile int state = PENDING;
+        // Lista doblemente enlazada del bucket: solo la toca el hilo de la rueda
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /** @return false si ya había vencido o estaba cancelada */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+
+    private static final class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) t.prev.next = next;
+            if (t.next != null) t.next.prev = t.prev;
+            if (t == head) head = next;
+            if (t == tail) tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+            return next;
+        }
+    }
+
+    // Máximo de altas que se pasan a la rueda por tick, para no bloquear el tick con ráfagas enormes
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor taskExecutor;
+    private final Queue<Timeout> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param tickMs    resolución de la rueda
+     * @param wheelSize número de buckets (se redondea a potencia de 2)
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize, Executor taskExecutor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.taskExecutor = taskExecutor;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) throw new IllegalStateException("El temporizador está cerrado");
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        Timeout t = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        pendingAdds.add(t);
+        return t;
+    }
+
+    /** Timeouts programados que aún no vencieron ni se cancelaron. */
+    public int pending() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) break;
+            processCancelled();
+            transferPending();
+            expire(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepMs = (deadline - now + 999_999) / 1_000_000;
+            if (sleepMs <= 0) return now;
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                if (!running) return -1;
+            }
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout t = pendingAdds.poll();
+            if (t == null) return;
+            if (t.state == CANCELLED) continue; // ya descontada al procesar la cancelación
+            long ticks = t.deadline / tickNanos;
+            t.remainingRounds = (ticks - tick) / wheel.length;
+            // Lo que ya venció cae en el bucket actual
+            long target = Math.max(ticks, tick);
+            wheel[(int) (target & mask)].add(t);
+        }
+    }
+
+    private void processCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            pending.decrementAndGet();
+            if (t.bucket != null) t.bucket.remove(t);
+        }
+    }
+
+    private void expire(Bucket bucket, long now) {
+        Timeout t = bucket.head;
+        while (t != null) {
+            if (t.remainingRounds <= 0 && t.deadline <= now) {
+                Timeout next = bucket.remove(t);
+                if (Timeout.STATE.compareAndSet(t, PENDING, EXPIRED)) {
+                    pending.decrementAndGet();
+                    run(t);
+                }
+                t = next;
+            } else {
+                if (t.remainingRounds > 0) t.remainingRounds--;
+                t = t.next;
+            }
+        }
+    }
+
+    private void run(Timeout t) {
+        try {
+            taskExecutor.execute(t.task);
+        } catch (RuntimeException e) {
+            Log.error("Timer", "Error ejecutando tarea: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+}
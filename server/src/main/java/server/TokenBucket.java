@@ -0,0 +1,60 @@
+package server;
+
+/**
+ * Cubeta de tokens para limitar la tasa de una conexión. La usa un solo hilo (el
+ * lector de la conexión), así que no necesita sincronización, y no crea objetos:
+ * se puede consultar en cada línea o trama recibida.
+ */
+public final class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final double ratePerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond tokens que se recuperan por segundo
+     * @param capacity      ráfaga máxima; la cubeta empieza llena
+     */
+    public TokenBucket(long ratePerSecond, long capacity) {
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) return;
+        tokens = Math.min(capacity, tokens + elapsed * ratePerSecond / NANOS_PER_SECOND);
+        lastRefill = now;
+    }
+
+    /** Consume {@code n} tokens si los hay. */
+    public boolean tryAcquire(long n) {
+        refill(System.nanoTime());
+        if (tokens < n) return false;
+        tokens -= n;
+        return true;
+    }
+
+    /** Nanosegundos hasta que haya {@code n} tokens (0 si ya los hay). */
+    public long nanosUntil(long n) {
+        refill(System.nanoTime());
+        double missing = n - tokens;
+        return missing <= 0 ? 0 : (long) (missing * NANOS_PER_SECOND / ratePerSecond);
+    }
+
+    /**
+     * Consume {@code n} tokens aunque la cubeta quede en negativo y devuelve los
+     * nanosegundos que hay que esperar para saldar la deuda. Sirve para dosificar
+     * cargas grandes (una nota de voz) en lugar de rechazarlas.
+     */
+    public long acquireWithDebt(long n) {
+        refill(System.nanoTime());
+        tokens -= n;
+        return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / ratePerSecond);
+    }
+}
@@ -1,16 +1,19 @@
 package server;
 
+import server.log.Log;
+import server.metrics.ChatMetrics;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.*;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * UDPRelay listens for incoming audio datagrams from either client and forwards
- * them to the other client. It learns endpoints from the packet sources.
+ * them to the other client. It learns endpoints from the packet sources and
+ * forgets them after {@code chat.udpEndpointTtlMs} (30 s by default) without traffic.
  */
 public class UDPRelay implements Closeable {
 
@@ -18,10 +21,16 @@ public class UDPRelay implements Closeable {
     private DatagramSocket socket;
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
-    private final Set<SocketAddress> endpoints = ConcurrentHashMap.newKeySet();
+    private static final long ENDPOINT_TTL_MS = Long.getLong("chat.udpEndpointTtlMs", 30_000);
+    // Los errores de recepción llegan por paquete: como mucho uno por segundo en el log
+    private static final Log.Sampled RECEIVE_ERRORS = Log.sampled(Log.Level.WARN, "UDPRelay", 1000);
+
+    private final EndpointTable endpoints = new EndpointTable();
+    private final TimerWheel timers;
 
-    public UDPRelay(int port) {
+    public UDPRelay(int port, TimerWheel timers) {
         this.port = port;
+        this.timers = timers;
     }
 
     public int getPort() { return port; }
@@ -29,37 +38,69 @@ public class UDPRelay implements Closeable {
     public void start() throws SocketException {
         socket = new DatagramSocket(port);
         executor.submit(this::loop);
-        System.out.println("[Server] UDP relay listening on port " + port);
+        Log.info("Server", "UDP relay listening on port {}", port);
     }
 
     private void loop() {
         byte[] buf = new byte[10240];
+        // Los dos paquetes se reutilizan: el bucle no crea objetos por datagrama
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        DatagramPacket out = new DatagramPacket(buf, buf.length);
         while (!socket.isClosed()) {
             try {
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                packet.setLength(buf.length);
                 socket.receive(packet);
+                ChatMetrics.UDP_IN.increment();
 
-                SocketAddress src = packet.getSocketAddress();
-                if (endpoints.add(src)) {
-                    System.out.println("[UDPRelay] Learned endpoint " + src);
+                EndpointTable.Endpoint src = endpoints.find(packet.getAddress(), packet.getPort());
+                if (src != null) {
+                    src.lastSeen = System.currentTimeMillis();
+                } else {
+                    src = endpoints.add(packet.getAddress(), packet.getPort());
+                    scheduleExpiry(src, ENDPOINT_TTL_MS);
+                    Log.info("UDPRelay", "Learned endpoint {}", src.socketAddress());
                 }
 
                 // broadcast to all other endpoints
-                for (SocketAddress dst : endpoints) {
-                    if (!dst.equals(src)) {
-                        DatagramPacket out = new DatagramPacket(packet.getData(), packet.getLength());
-                        out.setSocketAddress(dst);
-                        socket.send(out);
+                out.setLength(packet.getLength());
+                int forwarded = 0;
+                for (EndpointTable.Endpoint dst : endpoints.snapshot()) {
+                    if (dst != src) {
+                        out.setSocketAddress(dst.socketAddress());
+                        try {
+                            socket.send(out);
+                            forwarded++;
+                        } catch (IOException e) {
+                            ChatMetrics.UDP_DROPS.increment();
+                            if (socket.isClosed()) throw e;
+                        }
                     }
                 }
+                if (forwarded == 0) {
+                    ChatMetrics.UDP_DROPS.increment(); // nadie a quien reenviarlo
+                } else {
+                    ChatMetrics.UDP_OUT.add(forwarded);
+                }
             } catch (IOException e) {
                 if (!socket.isClosed()) {
-                    System.err.println("[UDPRelay] Error: " + e.getMessage());
+                    RECEIVE_ERRORS.log("Error: {}", e.getMessage());
                 }
             }
         }
     }
 
+    // A single timeout per endpoint: when it fires it re-arms itself for the remaining time
+    private void scheduleExpiry(EndpointTable.Endpoint endpoint, long delayMs) {
+        timers.schedule(() -> {
+            long idle = System.currentTimeMillis() - endpoint.lastSeen;
+            if (idle < ENDPOINT_TTL_MS) {
+                scheduleExpiry(endpoint, ENDPOINT_TTL_MS - idle);
+            } else if (endpoints.remove(endpoint)) {
+                Log.info("UDPRelay", "Expired endpoint {}", endpoint.socketAddress());
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void close() {
         if (socket != null && !socket.isClosed()) socket.close();
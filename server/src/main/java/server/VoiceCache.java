@@ -0,0 +1,261 @@
+package server;
+
+import server.metrics.ChatMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caché LRU fuera del heap de las notas de voz recientes, por ruta en el historial.
+ * El reparto a grupos, las reentregas al reanudar sesión, el vaciado del buzón
+ * offline y {@code GET /api/voice/...} leen de aquí en vez de releer el disco o
+ * retener {@code byte[]} en el heap.
+ *
+ * <p>Todas las notas viven en un único buffer directo de {@code chat.voiceCache.bytes}
+ * reservado al crear la caché, así la memoria nativa no pasa nunca de ese tamaño por
+ * muchas notas que entren y salgan. Cada nota ocupa una zona contigua; si no hay
+ * hueco se expulsan las menos usadas hasta que lo haya. Quien lee una nota la recibe
+ * como {@link Lease} y mientras no la cierre su zona no se reutiliza, aunque la nota
+ * se expulse; si todo el espacio está prestado, la nota nueva simplemente no se guarda.
+ */
+public final class VoiceCache {
+
+    private static final long DEFAULT_CAPACITY = Long.getLong("chat.voiceCache.bytes", 64L * 1024 * 1024);
+    // Notas mayores se sirven desde disco: una sola no debe vaciar la caché
+    private static final int MAX_ENTRY_BYTES = Integer.getInteger("chat.voiceCache.maxEntryBytes", 4 * 1024 * 1024);
+    private static final int COPY_CHUNK = 16 * 1024;
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[COPY_CHUNK]);
+
+    /** Zona del arena que ocupa una nota. */
+    private static final class Entry {
+        final int offset;
+        final int length;
+        // Lecturas en curso; con el monitor de la caché
+        int leases;
+        // Ya no está en la caché: su zona se libera al cerrar la última lectura
+        boolean retired;
+
+        Entry(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** Nota prestada por la caché. Hay que cerrarla al terminar de leerla. */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final ByteBuffer buffer;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+            this.buffer = slice(entry).asReadOnlyBuffer();
+        }
+
+        /** La nota en solo lectura; no debe usarse después de {@link #close()}. */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            synchronized (VoiceCache.this) {
+                if (closed) return;
+                closed = true;
+                if (--entry.leases == 0 && entry.retired) release(entry.offset, entry.length);
+            }
+        }
+    }
+
+    private final int capacity;
+    private final ByteBuffer arena;
+    // Huecos libres del arena: inicio -> longitud, sin huecos contiguos
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+    // accessOrder: la iteración empieza por la menos usada
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    public VoiceCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public VoiceCache(long capacity) {
+        this.capacity = (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+        this.arena = ByteBuffer.allocateDirect(this.capacity);
+        if (this.capacity > 0) free.put(0, this.capacity);
+        ChatMetrics.gauge("chat_voice_cache_bytes", "Bytes de notas de voz en la caché fuera del heap", this::bytes);
+        ChatMetrics.gauge("chat_voice_cache_entries", "Notas de voz en la caché", this::size);
+    }
+
+    /** Guarda una nota recién escrita en el historial (reemplaza la anterior de esa ruta). */
+    public void put(Path file, byte[] data) {
+        Path key = key(file);
+        Entry entry = data.length <= MAX_ENTRY_BYTES ? reserve(key, data.length) : null;
+        if (entry == null) {
+            invalidate(file);
+            return;
+        }
+        // La copia va fuera del monitor: la zona reservada aún no la ve nadie
+        slice(entry).put(data);
+        insert(key, entry);
+    }
+
+    /** @return la nota, o null si no está en la caché */
+    public Lease get(Path file) {
+        Lease lease;
+        synchronized (this) {
+            Entry entry = entries.get(key(file));
+            lease = entry != null ? lease(entry) : null;
+        }
+        if (lease == null) {
+            ChatMetrics.VOICE_CACHE_MISSES.increment();
+            return null;
+        }
+        ChatMetrics.VOICE_CACHE_HITS.increment();
+        return lease;
+    }
+
+    /**
+     * Como {@link #get}, pero si no está la lee de disco y la deja en la caché.
+     * @return null si la nota no cabe en la caché (hay que servirla desde disco)
+     * @throws NoSuchFileException si la nota no existe
+     */
+    public Lease load(Path file) throws IOException {
+        Lease cached = get(file);
+        if (cached != null) return cached;
+        // La lectura va fuera del monitor: dos lectores simultáneos de la misma nota leen ambos
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = fc.size();
+            if (size > MAX_ENTRY_BYTES) return null;
+            Path key = key(file);
+            Entry entry = reserve(key, (int) size);
+            if (entry == null) return null;
+            try {
+                ByteBuffer target = slice(entry);
+                while (target.hasRemaining() && fc.read(target) >= 0) {
+                    // FileChannel.read puede devolver menos de lo pedido
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    release(entry.offset, entry.length);
+                }
+                throw e;
+            }
+            synchronized (this) {
+                insert(key, entry);
+                return lease(entry);
+            }
+        }
+    }
+
+    public synchronized void invalidate(Path file) {
+        Entry removed = entries.remove(key(file));
+        if (removed != null) retire(removed);
+    }
+
+    /**
+     * Reserva una zona de {@code length} bytes, expulsando las notas menos usadas hasta
+     * que haya un hueco contiguo. La de {@code key} no se expulsa: la va a reemplazar.
+     * @return null si no cabe ni vaciando la caché (el resto está prestado)
+     */
+    private synchronized Entry reserve(Path key, int length) {
+        if (length > capacity) return null;
+        Integer offset = allocate(length);
+        Iterator<Map.Entry<Path, Entry>> oldest = entries.entrySet().iterator();
+        while (offset == null && oldest.hasNext()) {
+            Map.Entry<Path, Entry> e = oldest.next();
+            if (e.getKey().equals(key)) continue;
+            oldest.remove();
+            retire(e.getValue());
+            ChatMetrics.VOICE_CACHE_EVICTIONS.increment();
+            offset = allocate(length);
+        }
+        return offset != null ? new Entry(offset, length) : null;
+    }
+
+    private synchronized void insert(Path key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) retire(previous);
+        bytes += entry.length;
+    }
+
+    // Con el monitor
+    private Lease lease(Entry entry) {
+        entry.leases++;
+        return new Lease(entry);
+    }
+
+    // Con el monitor: la nota sale de la caché
+    private void retire(Entry entry) {
+        entry.retired = true;
+        bytes -= entry.length;
+        if (entry.leases == 0) release(entry.offset, entry.length);
+    }
+
+    // Con el monitor: primer hueco donde cabe
+    private Integer allocate(int length) {
+        if (length == 0) return 0;
+        for (Map.Entry<Integer, Integer> hole : free.entrySet()) {
+            if (hole.getValue() < length) continue;
+            int offset = hole.getKey();
+            free.remove(offset);
+            if (hole.getValue() > length) free.put(offset + length, hole.getValue() - length);
+            return offset;
+        }
+        return null;
+    }
+
+    // Con el monitor: devuelve la zona a los huecos, uniéndola con los vecinos
+    private void release(int offset, int length) {
+        if (length == 0) return;
+        Map.Entry<Integer, Integer> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Integer after = free.remove(offset + length);
+        if (after != null) length += after;
+        free.put(offset, length);
+    }
+
+    // Vista de la zona con su propia posición: varios hilos leen el arena a la vez
+    private ByteBuffer slice(Entry entry) {
+        return arena.duplicate().position(entry.offset).limit(entry.offset + entry.length).slice();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    private static Path key(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Copia el buffer a un stream por bloques de un array reutilizado por hilo, para
+     * que escribir una nota en un socket TCP no cree un {@code byte[]} de su tamaño.
+     */
+    public static void writeTo(ByteBuffer buffer, OutputStream out) throws IOException {
+        byte[] chunk = CHUNK.get();
+        ByteBuffer src = buffer.duplicate();
+        while (src.hasRemaining()) {
+            int n = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package server;
+
+import server.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recibe notas de voz por bloques y las escribe directamente en disco.
+ * En memoria solo se guarda el estado de cada subida (destino y offset), así que
+ * el consumo del servidor no depende del tamaño de la nota. Una subida
+ * interrumpida se puede reanudar consultando {@link #offset(String)}. Las que nadie
+ * termina se descartan (archivo y canal) tras {@code chat.uploadStaleMs} (10 min) sin bloques.
+ */
+public class VoiceUploadStore {
+
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+    public static final long MAX_NOTE_SIZE = 50L * 1024 * 1024;
+    private static final int MAX_ACTIVE_UPLOADS = 256;
+    public static final long STALE_AFTER_MS = Long.getLong("chat.uploadStaleMs", 10 * 60 * 1000);
+    private static final int WAV_HEADER_SIZE = 44;
+
+    public static final class Upload {
+        public final String id;
+        public final String from;
+        public final String targetType;
+        public final String target;
+        public final String filename;
+        private final long declaredSize;
+        private final Path file;
+        private FileChannel channel;
+        private long size;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private Upload(String id, String from, String targetType, String target, String filename,
+                       long declaredSize, Path file) throws IOException {
+            this.id = id;
+            this.from = from;
+            this.targetType = targetType;
+            this.target = target;
+            this.filename = filename;
+            this.declaredSize = declaredSize;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        /** Archivo con los bytes recibidos; válido hasta que se mueva al historial. */
+        public Path file() {
+            return file;
+        }
+
+        public synchronized long size() {
+            return size;
+        }
+
+        private synchronized long append(long offset, byte[] chunk) throws IOException {
+            if (channel == null) throw new IllegalStateException("La subida " + id + " ya fue cerrada");
+            lastActivity = System.currentTimeMillis();
+            // Un reintento puede reenviar bytes ya confirmados: se descarta lo que se solapa
+            if (offset > size) {
+                throw new IllegalArgumentException("Offset " + offset + " inesperado, se esperaba " + size);
+            }
+            int skip = (int) Math.min(size - offset, chunk.length);
+            if (size + chunk.length - skip > MAX_NOTE_SIZE) {
+                throw new IllegalArgumentException("La nota de voz supera el tamaño máximo");
+            }
+            ByteBuffer buf = ByteBuffer.wrap(chunk, skip, chunk.length - skip);
+            while (buf.hasRemaining()) {
+                size += channel.write(buf, size);
+            }
+            return size;
+        }
+
+        private synchronized void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private final File dir;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final TimerWheel timers;
+    private final long staleAfterMs;
+
+    public VoiceUploadStore(File dir) {
+        this(dir, null, STALE_AFTER_MS);
+    }
+
+    /**
+     * @param timers       purga periódica de las subidas abandonadas; sin él solo se
+     *                     purgan al empezar otra, y en un servidor sin actividad nunca
+     * @param staleAfterMs inactividad tras la que una subida se da por abandonada
+     */
+    public VoiceUploadStore(File dir, TimerWheel timers, long staleAfterMs) {
+        this.dir = dir;
+        this.timers = timers;
+        this.staleAfterMs = staleAfterMs;
+        if (!dir.exists()) dir.mkdirs();
+        schedulePurge();
+    }
+
+    private void schedulePurge() {
+        if (timers == null) return;
+        timers.schedule(() -> {
+            purgeStale();
+            schedulePurge();
+        }, Math.max(1, staleAfterMs / 2), TimeUnit.MILLISECONDS);
+    }
+
+    public Upload begin(String from, String targetType, String target, String filename, long declaredSize)
+            throws IOException {
+        if (declaredSize < 0 || declaredSize > MAX_NOTE_SIZE) {
+            throw new IllegalArgumentException("Tamaño de nota de voz inválido: " + declaredSize);
+        }
+        purgeStale();
+        if (uploads.size() >= MAX_ACTIVE_UPLOADS) {
+            throw new IllegalStateException("Demasiadas subidas activas, intenta más tarde");
+        }
+        String id = UUID.randomUUID().toString();
+        // Solo el nombre: el cliente no decide en qué carpeta se escribe
+        String safeName = new File(filename).getName();
+        Upload upload = new Upload(id, from, targetType, target, safeName, declaredSize,
+                new File(dir, id + ".part").toPath());
+        uploads.put(id, upload);
+        return upload;
+    }
+
+    /** Añade un bloque en {@code offset} y devuelve el total de bytes confirmados. */
+    public long append(String id, long offset, byte[] chunk) throws IOException {
+        if (chunk.length > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Bloque demasiado grande (máximo " + MAX_CHUNK_SIZE + " bytes)");
+        }
+        return require(id).append(offset, chunk);
+    }
+
+    /** Usuario que empezó la subida: solo él puede añadir bloques, confirmarla o descartarla. */
+    public String owner(String id) {
+        return require(id).from;
+    }
+
+    /** Bytes ya confirmados; el cliente reanuda la subida desde aquí tras una reconexión. */
+    public long offset(String id) {
+        return require(id).size();
+    }
+
+    /**
+     * Cierra la subida y la retira del registro. El archivo queda en disco para
+     * que el llamador lo mueva al historial.
+     */
+    public Upload complete(String id) throws IOException {
+        Upload upload = require(id);
+        synchronized (upload) {
+            if (upload.declaredSize > 0 && upload.size != upload.declaredSize) {
+                throw new IllegalStateException("Subida incompleta: " + upload.size + "/" + upload.declaredSize + " bytes");
+            }
+            upload.close();
+        }
+        uploads.remove(id);
+        return upload;
+    }
+
+    /**
+     * Corrige los tamaños de la cabecera WAV de una nota grabada en streaming: el
+     * cliente envía la cabecera antes de saber cuánto durará la grabación.
+     */
+    public static void finishWavHeader(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = fc.size();
+            if (size < WAV_HEADER_SIZE) return;
+            ByteBuffer riff = ByteBuffer.allocate(4);
+            fc.read(riff, 0);
+            if (riff.get(0) != 'R' || riff.get(1) != 'I' || riff.get(2) != 'F' || riff.get(3) != 'F') return;
+            ByteBuffer len = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            len.putInt(0, (int) (size - 8));
+            fc.write(len, 4);
+            len.clear();
+            len.putInt(0, (int) (size - WAV_HEADER_SIZE));
+            fc.write(len, 40);
+        }
+    }
+
+    public void abort(String id) {
+        Upload upload = uploads.remove(id);
+        if (upload != null) discard(upload);
+    }
+
+    private Upload require(String id) {
+        Upload upload = uploads.get(id);
+        if (upload == null) throw new IllegalArgumentException("Subida desconocida: " + id);
+        return upload;
+    }
+
+    private void purgeStale() {
+        long limit = System.currentTimeMillis() - staleAfterMs;
+        for (Upload upload : uploads.values()) {
+            if (upload.lastActivity < limit && uploads.remove(upload.id, upload)) {
+                Log.info("Servidor", "Subida de voz abandonada: {}", upload.id);
+                discard(upload);
+            }
+        }
+    }
+
+    public int size() {
+        return uploads.size();
+    }
+
+    private void discard(Upload upload) {
+        try {
+            upload.close();
+            Files.deleteIfExists(upload.file);
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,215 @@
+package server;
+
+import server.metrics.ChatMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión de una conexión TCP, opcional y negociada por el cliente con
+ * {@code /compress deflate} (el servidor contesta {@code COMPRESS:deflate:<umbral>}).
+ *
+ * <p>Texto: un envío de al menos {@code chat.compress.minBytes} bytes viaja como la
+ * línea {@code #Z<bytes originales>:<bytes comprimidos>} seguida del deflate de sus
+ * líneas (con los {@code \n}). El Deflater dura toda la conexión y se vacía con
+ * SYNC_FLUSH, así que cada mensaje aprovecha el diccionario de los anteriores:
+ * prefijos como {@code "#123 [Grupo x] 5: "} y las palabras repetidas salen casi gratis.
+ * Los envíos pequeños van como líneas normales.
+ *
+ * <p>Voz: la línea de longitud de la nota pasa a ser {@code z<originales>:<comprimidos>}.
+ * El audio usa otro Deflater, reiniciado en cada nota, para no ensuciar el diccionario
+ * del texto. Los formatos ya comprimidos (webm, ogg, mp3...) y las notas cuya muestra
+ * central no baja de {@code chat.compress.voiceRatio} se envían tal cual.
+ *
+ * <p>Cada Deflater reserva unos 256 KB nativos: por eso la compresión la pide el
+ * cliente y no se activa en todas las conexiones. No es segura entre hilos: la parte
+ * de escritura se usa con el monitor de la conexión y la de lectura desde su hilo lector.
+ */
+public final class WireCompression implements AutoCloseable {
+
+    public static final String NEGOTIATE = "/compress deflate";
+    public static final String ACCEPTED = "COMPRESS:deflate:";
+    public static final String TEXT_FRAME = "#Z";
+    public static final String VOICE_LENGTH = "z";
+
+    public static final int MIN_BYTES = Integer.getInteger("chat.compress.minBytes", 256);
+    private static final int LEVEL = Integer.getInteger("chat.compress.level", Deflater.DEFAULT_COMPRESSION);
+    private static final double VOICE_RATIO = Double.parseDouble(System.getProperty("chat.compress.voiceRatio", "0.9"));
+    // Trozo del centro de la nota que se prueba antes de comprimirla entera
+    private static final int VOICE_SAMPLE = 4096;
+    // Un envío de texto es una línea o un lote de reenvíos; más que esto es un error o un ataque
+    public static final int MAX_TEXT_FRAME = 4 * 1024 * 1024;
+    private static final Set<String> COMPRESSED_FORMATS = Set.of(
+            "webm", "ogg", "opus", "mp3", "m4a", "aac", "flac", "zip", "gz");
+
+    private final Deflater textOut = new Deflater(LEVEL, true);
+    private final Inflater textIn = new Inflater(true);
+    private final Deflater voiceOut = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater voiceIn = new Inflater(true);
+    // Salida del Deflater de texto; crece hasta el mayor envío y se reutiliza
+    private byte[] textBuf = new byte[4096];
+
+    /** Cabecera de la trama de texto. */
+    public static String textHeader(int rawLength, int wireLength) {
+        return TEXT_FRAME + rawLength + ":" + wireLength;
+    }
+
+    /** Línea de longitud de una nota de voz comprimida. */
+    public static String voiceHeader(int rawLength, int wireLength) {
+        return VOICE_LENGTH + rawLength + ":" + wireLength;
+    }
+
+    /**
+     * Comprime un envío de texto con el contexto de la conexión. Lo devuelto se tiene
+     * que enviar: el diccionario del otro lado avanza solo con lo que recibe.
+     * @param raw las líneas en UTF-8, cada una terminada en {@code \n}
+     */
+    public byte[] deflateText(byte[] raw) {
+        long start = System.nanoTime();
+        textOut.setInput(raw);
+        int n = 0;
+        while (true) {
+            n += textOut.deflate(textBuf, n, textBuf.length - n, Deflater.SYNC_FLUSH);
+            // Si llenó el buffer puede quedar salida pendiente
+            if (n < textBuf.length) break;
+            textBuf = Arrays.copyOf(textBuf, textBuf.length * 2);
+        }
+        byte[] wire = Arrays.copyOf(textBuf, n);
+        ChatMetrics.COMPRESS_TEXT.recordSince(start);
+        ChatMetrics.COMPRESS_TEXT_RAW.add(raw.length);
+        ChatMetrics.COMPRESS_TEXT_WIRE.add(wire.length);
+        return wire;
+    }
+
+    /** @return las líneas del envío, separadas por {@code \n} y con el último incluido */
+    public String inflateText(byte[] wire, int rawLength) throws IOException {
+        if (rawLength < 0 || rawLength > MAX_TEXT_FRAME) {
+            throw new IOException("Trama comprimida fuera de límites: " + rawLength);
+        }
+        return new String(inflate(textIn, wire, rawLength), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Comprime una nota de voz por separado del texto.
+     * @return los bytes comprimidos, o null si la nota debe ir sin comprimir
+     */
+    public byte[] deflateVoice(String filename, ByteBuffer data) {
+        int raw = data.remaining();
+        if (raw < MIN_BYTES || alreadyCompressed(filename)) {
+            ChatMetrics.COMPRESS_PASSTHROUGH.increment();
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            if (raw > 4 * VOICE_SAMPLE) {
+                // Muestra del centro: la cabecera del archivo no dice nada del audio
+                ByteBuffer sample = data.duplicate();
+                sample.position(data.position() + raw / 2).limit(data.position() + raw / 2 + VOICE_SAMPLE);
+                byte[] trial = deflateOnce(sample, VOICE_SAMPLE);
+                if (trial == null || trial.length > VOICE_SAMPLE * VOICE_RATIO) {
+                    ChatMetrics.COMPRESS_PASSTHROUGH.increment();
+                    return null;
+                }
+            }
+            byte[] wire = deflateOnce(data.duplicate(), (int) (raw * VOICE_RATIO));
+            if (wire == null) {
+                ChatMetrics.COMPRESS_PASSTHROUGH.increment();
+                return null;
+            }
+            ChatMetrics.COMPRESS_VOICE_RAW.add(raw);
+            ChatMetrics.COMPRESS_VOICE_WIRE.add(wire.length);
+            return wire;
+        } finally {
+            ChatMetrics.COMPRESS_VOICE.recordSince(start);
+        }
+    }
+
+    // Deflate completo de data; null si la salida pasaría de limit (no compensa)
+    private byte[] deflateOnce(ByteBuffer data, int limit) {
+        voiceOut.reset();
+        voiceOut.setInput(data);
+        voiceOut.finish();
+        byte[] out = new byte[Math.min(limit + 1, 64 * 1024)];
+        int n = 0;
+        while (!voiceOut.finished()) {
+            if (n == out.length) {
+                if (n > limit) return null;
+                out = Arrays.copyOf(out, Math.min(limit + 1, out.length * 2));
+            }
+            n += voiceOut.deflate(out, n, out.length - n);
+        }
+        return n > limit ? null : Arrays.copyOf(out, n);
+    }
+
+    public byte[] inflateVoice(byte[] wire, int rawLength) throws IOException {
+        if (rawLength < 0 || rawLength > VoiceUploadStore.MAX_NOTE_SIZE) {
+            throw new IOException("Tamaño de nota de voz fuera de límites: " + rawLength);
+        }
+        voiceIn.reset();
+        return inflate(voiceIn, wire, rawLength);
+    }
+
+    // Descomprime exactamente rawLength bytes; cualquier otra cantidad es una trama corrupta
+    private static byte[] inflate(Inflater inflater, byte[] wire, int rawLength) throws IOException {
+        long start = System.nanoTime();
+        byte[] raw = new byte[rawLength];
+        inflater.setInput(wire);
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                int r = inflater.inflate(raw, n, rawLength - n);
+                if (r == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) break;
+                n += r;
+            }
+            // Lo que queda tras los datos es el bloque vacío del SYNC_FLUSH: no debe producir nada
+            if (n == rawLength && !inflater.needsInput() && !inflater.finished()) {
+                n += inflater.inflate(new byte[1]);
+            }
+            if (n != rawLength || inflater.getRemaining() > 0) {
+                throw new IOException("Trama comprimida inválida: se esperaban " + rawLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Trama comprimida inválida: " + e.getMessage(), e);
+        }
+        ChatMetrics.INFLATE.recordSince(start);
+        return raw;
+    }
+
+    /** Formatos de audio que ya vienen comprimidos: deflate no ganaría nada. */
+    static boolean alreadyCompressed(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_FORMATS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Lee los números de {@code #Z<a>:<b>} o {@code z<a>:<b>}.
+     * @return {originales, comprimidos}
+     */
+    public static int[] parseLengths(String header, int prefixLength) throws IOException {
+        int colon = header.indexOf(':', prefixLength);
+        try {
+            int raw = Integer.parseInt(header.substring(prefixLength, colon));
+            int wire = Integer.parseInt(header.substring(colon + 1).trim());
+            if (raw < 0 || wire < 0) throw new NumberFormatException();
+            return new int[] {raw, wire};
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IOException("Cabecera de compresión inválida: " + header);
+        }
+    }
+
+    /** Libera la memoria nativa de los Deflater/Inflater; se llama al cerrar la conexión. */
+    @Override
+    public void close() {
+        textOut.end();
+        textIn.end();
+        voiceOut.end();
+        voiceIn.end();
+    }
+}
@@ -0,0 +1,331 @@
+package server.cluster;
+
+import server.ChatServer;
+import server.log.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Federación de varios ChatServer. Cada nodo mantiene una réplica del directorio
+ * de ubicación (usuario -> nodo) y de la pertenencia a grupos de todo el clúster;
+ * los cambios se difunden a los demás nodos y, al conectarse dos nodos, cada uno
+ * envía su estado local completo. Un mensaje privado se reenvía al nodo dueño del
+ * destinatario y un mensaje de grupo se envía una sola vez a cada nodo con
+ * miembros, que lo reparte entre sus clientes locales.
+ *
+ * <p>Los ids de cliente se reparten por nodo ({@code nodeId * ID_STRIDE + n}) para
+ * que no choquen. Cada nodo se conecta a los pares de id menor y acepta a los de id
+ * mayor, así hay un único enlace por par. Funciona igual con varios nodos en la misma
+ * JVM o en puertos de loopback.
+ *
+ * <p>Protocolo entre nodos (una línea por evento):
+ * <ul>
+ *   <li>{@code UP <user>} / {@code DOWN <user>} - directorio de ubicación</li>
+ *   <li>{@code GCREATE <grupo> <user>} / {@code GJOIN <grupo> <user>} / {@code GLEAVE <grupo> <user>} - grupos</li>
+ *   <li>{@code PM <de> <para> <texto>} - mensaje privado para un usuario del nodo</li>
+ *   <li>{@code GM <grupo> <de> <texto>} - mensaje de grupo para los miembros del nodo</li>
+ * </ul>
+ */
+public class ClusterNode implements Closeable {
+
+    public static final int ID_STRIDE = 1_000_000;
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final int nodeId;
+    private final int port;
+    private final Map<Integer, InetSocketAddress> peers;
+    private final ChatServer server;
+    private final Map<Integer, PeerLink> links = new ConcurrentHashMap<>();
+    // Directorio de ubicación replicado: userId -> nodo
+    private final Map<Integer, Integer> directory = new ConcurrentHashMap<>();
+    // Pertenencia replicada de todo el clúster: grupo -> userIds
+    private final Map<String, Set<Integer>> groupMembers = new ConcurrentHashMap<>();
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "cluster-link");
+        t.setDaemon(true);
+        return t;
+    });
+    private ServerSocket listener;
+    private volatile boolean running;
+
+    /**
+     * Debe crearse antes de {@code server.start()}: fija el rango de ids del nodo.
+     * @param peers resto de nodos, id -> dirección de su puerto de clúster
+     */
+    public ClusterNode(int nodeId, int port, Map<Integer, InetSocketAddress> peers, ChatServer server) {
+        if (nodeId < 0 || nodeId >= Integer.MAX_VALUE / ID_STRIDE) {
+            throw new IllegalArgumentException("Id de nodo fuera de rango: " + nodeId);
+        }
+        this.nodeId = nodeId;
+        this.port = port;
+        this.peers = peers;
+        this.server = server;
+        server.attachCluster(this);
+    }
+
+    /** Lee {@code 1@host:7001,2@host:7002}. */
+    public static Map<Integer, InetSocketAddress> parsePeers(String spec) {
+        Map<Integer, InetSocketAddress> result = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) return result;
+        for (String entry : spec.split(",")) {
+            String[] idAndAddress = entry.trim().split("@", 2);
+            String[] hostAndPort = idAndAddress[1].split(":", 2);
+            result.put(Integer.parseInt(idAndAddress[0]),
+                    new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+        }
+        return result;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public void start() throws IOException {
+        running = true;
+        listener = new ServerSocket(port);
+        threads.submit(this::acceptLoop);
+        for (Map.Entry<Integer, InetSocketAddress> peer : peers.entrySet()) {
+            if (peer.getKey() < nodeId) {
+                threads.submit(() -> connectLoop(peer.getKey(), peer.getValue()));
+            }
+        }
+        Log.info("Cluster", "Nodo {} escuchando en el puerto {}, pares: {}", nodeId, port, peers.keySet());
+    }
+
+    /** Número de nodos conectados ahora mismo. */
+    public int connectedPeers() {
+        return links.size();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = listener.accept();
+                threads.submit(() -> {
+                    try {
+                        PeerLink link = new PeerLink(socket);
+                        link.handshake(nodeId);
+                        serve(link);
+                    } catch (IOException | RuntimeException e) {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {}
+                    }
+                });
+            } catch (IOException e) {
+                if (running) Log.error("Cluster", "Error aceptando nodo: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void connectLoop(int peerId, InetSocketAddress address) {
+        while (running) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(address, 2000);
+                PeerLink link = new PeerLink(socket);
+                link.handshake(nodeId);
+                if (link.peerId() != peerId) {
+                    Log.warn("Cluster", "{} dice ser el nodo {}, se esperaba {}", address, link.peerId(), peerId);
+                }
+                serve(link);
+            } catch (IOException | RuntimeException e) {
+                // El otro nodo aún no arrancó o se cayó: se reintenta
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Atiende un enlace ya saludado hasta que se corta. */
+    private void serve(PeerLink link) throws IOException {
+        int peerId = link.peerId();
+        PeerLink previous = links.put(peerId, link);
+        if (previous != null) previous.close();
+        Log.info("Cluster", "Nodo {} conectado", peerId);
+        sendSnapshot(link);
+        try {
+            String line;
+            while ((line = link.readLine()) != null) {
+                handle(peerId, line);
+            }
+        } finally {
+            link.close();
+            if (links.remove(peerId, link)) {
+                // Sus usuarios dejan de ser alcanzables hasta que vuelva y reenvíe su estado
+                directory.values().removeIf(node -> node == peerId);
+                Log.info("Cluster", "Nodo {} desconectado", peerId);
+            }
+        }
+    }
+
+    /** Estado local completo para un nodo recién conectado. */
+    private void sendSnapshot(PeerLink link) {
+        for (Map.Entry<Integer, Integer> entry : directory.entrySet()) {
+            if (entry.getValue() == nodeId) link.send("UP " + entry.getKey());
+        }
+        for (Map.Entry<String, Set<Integer>> group : groupMembers.entrySet()) {
+            link.send("GCREATE " + group.getKey() + " 0");
+            for (int member : group.getValue()) {
+                if (isLocal(member)) link.send("GJOIN " + group.getKey() + " " + member);
+            }
+        }
+    }
+
+    private void handle(int peerId, String line) {
+        String[] parts = line.split(" ", 4);
+        switch (parts[0]) {
+            case "UP":
+                directory.put(Integer.parseInt(parts[1]), peerId);
+                break;
+            case "DOWN":
+                directory.remove(Integer.parseInt(parts[1]), peerId);
+                break;
+            case "GCREATE": {
+                int creator = Integer.parseInt(parts[2]);
+                Set<Integer> members = members(parts[1]);
+                if (creator != 0) members.add(creator);
+                server.onRemoteGroupCreated(parts[1]);
+                break;
+            }
+            case "GJOIN": {
+                int user = Integer.parseInt(parts[2]);
+                if (members(parts[1]).add(user)) {
+                    server.onRemoteGroupJoin(parts[1], user);
+                }
+                break;
+            }
+            case "GLEAVE": {
+                Set<Integer> members = groupMembers.get(parts[1]);
+                if (members != null) members.remove(Integer.parseInt(parts[2]));
+                break;
+            }
+            case "PM":
+                server.deliverRemotePrivate(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), parts[3]);
+                break;
+            case "GM":
+                server.deliverRemoteGroup(parts[1], Integer.parseInt(parts[2]), parts[3]);
+                break;
+            default:
+                Log.warn("Cluster", "Mensaje desconocido del nodo {}: {}", peerId, line);
+        }
+    }
+
+    private Set<Integer> members(String group) {
+        return groupMembers.computeIfAbsent(group, g -> ConcurrentHashMap.newKeySet());
+    }
+
+    private boolean isLocal(int userId) {
+        Integer node = directory.get(userId);
+        return node != null && node == nodeId;
+    }
+
+    private void broadcast(String line) {
+        for (PeerLink link : links.values()) {
+            link.send(line);
+        }
+    }
+
+    // === Eventos locales que se replican ===
+
+    public void userUp(int userId) {
+        directory.put(userId, nodeId);
+        broadcast("UP " + userId);
+    }
+
+    public void userDown(int userId) {
+        if (directory.remove(userId, nodeId)) broadcast("DOWN " + userId);
+    }
+
+    public void groupCreated(String group, int creatorId) {
+        members(group).add(creatorId);
+        broadcast("GCREATE " + group + " " + creatorId);
+    }
+
+    public void groupJoined(String group, int userId) {
+        members(group).add(userId);
+        broadcast("GJOIN " + group + " " + userId);
+    }
+
+    public void groupLeft(String group, int userId) {
+        Set<Integer> members = groupMembers.get(group);
+        if (members != null) members.remove(userId);
+        broadcast("GLEAVE " + group + " " + userId);
+    }
+
+    public boolean knowsGroup(String group) {
+        return groupMembers.containsKey(group);
+    }
+
+    public boolean hasRemoteMembers(String group) {
+        Set<Integer> members = groupMembers.get(group);
+        if (members == null) return false;
+        for (int member : members) {
+            Integer node = directory.get(member);
+            if (node != null && node != nodeId) return true;
+        }
+        return false;
+    }
+
+    /** Miembros que siguen en el directorio: los ids de sesiones cerradas no cuentan. */
+    public int memberCount(String group) {
+        Set<Integer> members = groupMembers.get(group);
+        if (members == null) return 0;
+        int count = 0;
+        for (int member : members) {
+            if (directory.containsKey(member)) count++;
+        }
+        return count;
+    }
+
+    // === Reenvío ===
+
+    /** @return false si el destinatario no está en ningún otro nodo conectado */
+    public boolean forwardPrivate(int fromId, int toId, String message) {
+        Integer node = directory.get(toId);
+        if (node == null || node == nodeId) return false;
+        PeerLink link = links.get(node);
+        return link != null && link.send("PM " + fromId + " " + toId + " " + message);
+    }
+
+    /** Envía el mensaje una vez a cada nodo que tenga miembros del grupo. */
+    public void forwardGroup(String group, int fromId, String message) {
+        Set<Integer> members = groupMembers.get(group);
+        if (members == null) return;
+        Set<Integer> nodes = new HashSet<>();
+        for (int member : members) {
+            Integer node = directory.get(member);
+            if (node != null && node != nodeId) nodes.add(node);
+        }
+        if (nodes.isEmpty()) return;
+        String line = "GM " + group + " " + fromId + " " + message;
+        for (int node : nodes) {
+            PeerLink link = links.get(node);
+            if (link != null) link.send(line);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (listener != null) listener.close();
+        } catch (IOException ignored) {}
+        for (PeerLink link : links.values()) link.close();
+        threads.shutdownNow();
+    }
+}
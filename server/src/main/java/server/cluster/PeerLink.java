@@ -0,0 +1,103 @@
+package server.cluster;
+
+import server.log.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Conexión TCP con otro nodo del clúster. Protocolo de líneas como el de los
+ * clientes; la primera línea de cada lado es {@code HELLO <nodeId>}.
+ * Los envíos se encolan y los escribe un hilo propio, así quien reenvía (que puede
+ * tener tomado el lock del ChatServer) nunca se bloquea en el socket. Si el otro
+ * nodo deja de leer y la cola se llena, el enlace se cierra y se vuelve a conectar.
+ */
+final class PeerLink implements Closeable {
+
+    private static final int MAX_QUEUED = 100_000;
+
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final BufferedWriter writer;
+    private final BlockingQueue<String> outbound = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private volatile boolean closed;
+    private int peerId = -1;
+
+    PeerLink(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    int peerId() {
+        return peerId;
+    }
+
+    /** Intercambia los ids de nodo y arranca el hilo de escritura. */
+    void handshake(int localId) throws IOException {
+        writer.write("HELLO " + localId);
+        writer.newLine();
+        writer.flush();
+        String hello = reader.readLine();
+        if (hello == null || !hello.startsWith("HELLO ")) {
+            throw new IOException("Saludo de nodo inválido: " + hello);
+        }
+        peerId = Integer.parseInt(hello.substring(6).trim());
+        Thread t = new Thread(this::writeLoop, "cluster-writer-" + peerId);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    String readLine() throws IOException {
+        return reader.readLine();
+    }
+
+    /** @return false si la conexión ya no sirve */
+    boolean send(String line) {
+        if (closed) return false;
+        if (!outbound.offer(line)) {
+            Log.warn("Cluster", "El nodo {} no lee; se cierra el enlace.", peerId);
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                String line = outbound.take();
+                writer.write(line);
+                writer.newLine();
+                // Se agrupan en una escritura todas las líneas que ya estén en cola
+                while ((line = outbound.poll()) != null) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                writer.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        outbound.clear();
+        // Despierta al hilo de escritura si está esperando
+        outbound.offer("");
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+}
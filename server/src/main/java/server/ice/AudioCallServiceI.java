@@ -2,124 +2,162 @@ package server.ice;
 
 import com.zeroc.Ice.Current;
 import Chat.*;
-import java.util.*;
+import server.ChatServer;
+import server.ConcurrentIntMap;
+import server.PresenceService;
+import server.log.Log;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
 
 /**
  * Implementación de AudioCallService usando ZeroC ICE
  * Maneja llamadas en tiempo real y streaming de audio entre usuarios
  */
 public class AudioCallServiceI implements AudioCallService {
-    private final Object legacyServer;
+    private final PresenceService presence;
     
-    // Registro de llamadas activas: "fromUser->toUser" -> ChatCallbackPrx[]
-    private final Map<String, ChatCallbackPrx[]> activeCalls = new ConcurrentHashMap<>();
+    // Llamadas activas indexadas por participante: userId -> sesión (ambos usuarios apuntan a la misma).
+    // Clave int: cada bloque de audio se enruta sin crear objetos
+    private final ConcurrentIntMap<CallSession> sessionsByUser = new ConcurrentIntMap<>();
+
+    // Compartido por todos los bloques de audio para no crear una lambda por paquete;
+    // muestreado porque un receptor caído fallaría en cada uno
+    private static final Log.Sampled AUDIO_ERRORS = Log.sampled(Log.Level.WARN, "Ice Audio", 1000);
+    private static final BiConsumer<Void, Throwable> AUDIO_ERROR_LOGGER = (r, ex) -> {
+        if (ex != null) {
+            AUDIO_ERRORS.log("Error reenviando audio: {}", ex.getMessage());
+        }
+    };
     
     // Mapeo de callbacks registrados: userId -> ChatCallbackPrx
-    private final Map<String, ChatCallbackPrx> userCallbacks = new ConcurrentHashMap<>();
+    private final ConcurrentIntMap<ChatCallbackPrx> userCallbacks = new ConcurrentIntMap<>();
 
-    public AudioCallServiceI(Object legacyServer) {
-        this.legacyServer = legacyServer;
+    public AudioCallServiceI(ChatServer server) {
+        this.presence = server.getPresence();
     }
     @Override
-    public void startCall(String fromUser, String toUser, Current current) throws UserNotFound {
-        System.out.println("[Ice Audio] Llamada iniciada de " + fromUser + " a " + toUser);
+    public CompletionStage<Void> startCallAsync(String fromUser, String toUser, Current current) {
+        Log.info("Ice Audio", "Llamada iniciada de {} a {}", fromUser, toUser);
         
         // Verificar que ambos usuarios existan (en un sistema real)
-        if (fromUser == null || fromUser.isEmpty() || toUser == null || toUser.isEmpty()) {
-            throw new UserNotFound("Usuario inválido");
+        int from = userKey(fromUser);
+        int to = userKey(toUser);
+        if (from < 0 || to < 0) {
+            return CompletableFuture.failedFuture(new UserNotFound("Usuario inválido"));
         }
         
-        // Registrar la llamada activa
-        String callKey = fromUser + "->" + toUser;
-        ChatCallbackPrx[] participants = new ChatCallbackPrx[2];
-        participants[0] = userCallbacks.get(fromUser);
-        participants[1] = userCallbacks.get(toUser);
-        
-        activeCalls.put(callKey, participants);
-        System.out.println("[Ice Audio] Llamada registrada: " + callKey);
+        // Registrar la llamada activa para ambos participantes
+        ChatCallbackPrx receptor = userCallbacks.get(to);
+        CallSession session = new CallSession(from, to, userCallbacks.get(from), receptor);
+        endSession(sessionsByUser.put(from, session));
+        endSession(sessionsByUser.put(to, session));
+        presence.setInCall(from, true);
+        presence.setInCall(to, true);
+        Log.info("Ice Audio", "Llamada registrada: {} ({} <-> {})", session.id, fromUser, toUser);
         
         // Notificar al usuario receptor (si tiene callback)
-        if (participants[1] != null) {
-            try {
-                // Enviar notificación de entrada de llamada (como un mensaje especial)
-                Message callMsg = new Message();
-                callMsg.id = UUID.randomUUID().toString();
-                callMsg.sender = fromUser;
-                callMsg.content = "[CALL_INCOMING]";
-                callMsg.timestamp = System.currentTimeMillis();
-                callMsg.type = "call";
-                participants[1].onMessage(callMsg);
-            } catch (Exception e) {
-                System.err.println("[Ice Audio] Error notificando al usuario " + toUser + ": " + e.getMessage());
-            }
+        if (receptor != null) {
+            // Enviar notificación de entrada de llamada (como un mensaje especial)
+            Message callMsg = new Message();
+            callMsg.id = UUID.randomUUID().toString();
+            callMsg.sender = fromUser;
+            callMsg.content = "[CALL_INCOMING]";
+            callMsg.timestamp = System.currentTimeMillis();
+            callMsg.type = "call";
+            receptor.onMessageAsync(callMsg).whenComplete((r, ex) -> {
+                if (ex != null) {
+                    Log.error("Ice Audio", "Error notificando al usuario {}: {}", toUser, ex.getMessage());
+                }
+            });
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    public void streamCallAudio(String fromUser, byte[] audioData, Current current) {
-        if (audioData == null || audioData.length == 0) return;
+    public CompletionStage<Void> streamCallAudioAsync(String fromUser, byte[] audioData, Current current) {
+        if (audioData == null || audioData.length == 0) return CompletableFuture.completedFuture(null);
         
-        System.out.println("[Ice Audio] Audio recibido de " + fromUser + " (" + audioData.length + " bytes)");
-        
-        // Buscar todas las llamadas activas de este usuario y reenviar audio a los receptores
-        for (Map.Entry<String, ChatCallbackPrx[]> entry : activeCalls.entrySet()) {
-            String callKey = entry.getKey();
-            ChatCallbackPrx[] participants = entry.getValue();
-            
-            if (callKey.startsWith(fromUser + "->")) {
-                // Es la llamada de este usuario, reenviar audio al receptor
-                ChatCallbackPrx receptor = participants[1];
-                if (receptor != null) {
-                    try {
-                        // Enviar audio como una "nota de voz" especial
-                        receptor.onVoiceNote(fromUser, "call_audio_" + System.currentTimeMillis() + ".wav", audioData);
-                    } catch (Exception e) {
-                        System.err.println("[Ice Audio] Error reenviando audio: " + e.getMessage());
-                    }
-                }
+        // Ruta caliente: una búsqueda por int, sin logs ni construcción de strings por bloque
+        int from = userKey(fromUser);
+        CallSession session = from >= 0 ? sessionsByUser.get(from) : null;
+        if (session != null) {
+            ChatCallbackPrx receptor = session.peerOf(from);
+            if (receptor != null) {
+                receptor.onCallAudioAsync(session.id, session.nextSeq(from), audioData)
+                        .whenComplete(AUDIO_ERROR_LOGGER);
             }
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    public void endCall(String fromUser, String toUser, Current current) {
-        System.out.println("[Ice Audio] Llamada finalizada de " + fromUser + " a " + toUser);
+    public CompletionStage<Void> endCallAsync(String fromUser, String toUser, Current current) {
+        Log.info("Ice Audio", "Llamada finalizada de {} a {}", fromUser, toUser);
         
-        String callKey = fromUser + "->" + toUser;
-        activeCalls.remove(callKey);
+        int from = userKey(fromUser);
+        int to = userKey(toUser);
+        CallSession session = from >= 0 ? sessionsByUser.get(from) : null;
+        if (session != null && session.peerId(from) == to) {
+            endSession(session);
+        }
         
         // Notificar al usuario receptor
-        ChatCallbackPrx receptor = userCallbacks.get(toUser);
+        ChatCallbackPrx receptor = to >= 0 ? userCallbacks.get(to) : null;
         if (receptor != null) {
-            try {
-                Message endMsg = new Message();
-                endMsg.id = UUID.randomUUID().toString();
-                endMsg.sender = fromUser;
-                endMsg.content = "[CALL_ENDED]";
-                endMsg.timestamp = System.currentTimeMillis();
-                endMsg.type = "call";
-                receptor.onMessage(endMsg);
-            } catch (Exception e) {
-                System.err.println("[Ice Audio] Error notificando fin de llamada: " + e.getMessage());
-            }
+            Message endMsg = new Message();
+            endMsg.id = UUID.randomUUID().toString();
+            endMsg.sender = fromUser;
+            endMsg.content = "[CALL_ENDED]";
+            endMsg.timestamp = System.currentTimeMillis();
+            endMsg.type = "call";
+            receptor.onMessageAsync(endMsg).whenComplete((r, ex) -> {
+                if (ex != null) {
+                    Log.error("Ice Audio", "Error notificando fin de llamada: {}", ex.getMessage());
+                }
+            });
         }
+        return CompletableFuture.completedFuture(null);
     }
     
+    // Quita la sesión del índice de ambos participantes (solo si siguen apuntando a ella)
+    private void endSession(CallSession session) {
+        if (session == null) return;
+        if (sessionsByUser.remove(session.caller, session)) presence.setInCall(session.caller, false);
+        if (sessionsByUser.remove(session.callee, session)) presence.setInCall(session.callee, false);
+    }
+
+    // Los userId Ice son ids de ChatServer en texto; -1 si no lo es
+    private static int userKey(String userId) {
+        if (userId == null) return -1;
+        try {
+            int id = Integer.parseInt(userId);
+            return id >= 0 ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Registrar callback para un usuario (usado por ChatServiceI)
      */
     public void registerUserCallback(String userId, ChatCallbackPrx callback) {
-        userCallbacks.put(userId, callback);
-        System.out.println("[Ice Audio] Callback registrado para usuario " + userId);
+        int key = userKey(userId);
+        if (key < 0) return;
+        userCallbacks.put(key, callback.ice_oneway());
+        Log.info("Ice Audio", "Callback registrado para usuario {}", userId);
     }
     
     /**
      * Desregistrar callback
      */
     public void unregisterUserCallback(String userId) {
-        userCallbacks.remove(userId);
-        System.out.println("[Ice Audio] Callback desregistrado para usuario " + userId);
+        int key = userKey(userId);
+        if (key < 0) return;
+        userCallbacks.remove(key);
+        // Una llamada con un participante desconectado ya no puede recibir audio
+        endSession(sessionsByUser.get(key));
+        Log.info("Ice Audio", "Callback desregistrado para usuario {}", userId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package server.ice;
+
+import Chat.ChatCallbackPrx;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Llamada activa entre dos usuarios. Se indexa por cada participante para que
+ * cada bloque de audio se enrute con una sola búsqueda.
+ */
+final class CallSession {
+    final String id = UUID.randomUUID().toString();
+    final int caller;
+    final int callee;
+
+    private final ChatCallbackPrx callerCallback;
+    private final ChatCallbackPrx calleeCallback;
+
+    // Secuencia independiente por sentido para que el receptor detecte pérdidas o desorden
+    private final AtomicLong callerSeq = new AtomicLong();
+    private final AtomicLong calleeSeq = new AtomicLong();
+
+    CallSession(int caller, int callee, ChatCallbackPrx callerCallback, ChatCallbackPrx calleeCallback) {
+        this.caller = caller;
+        this.callee = callee;
+        this.callerCallback = callerCallback;
+        this.calleeCallback = calleeCallback;
+    }
+
+    /** Callback del otro participante, o null si no tiene uno registrado. */
+    ChatCallbackPrx peerOf(int user) {
+        return caller == user ? calleeCallback : callerCallback;
+    }
+
+    /** Siguiente número de secuencia para el audio enviado por {@code user}. */
+    long nextSeq(int user) {
+        return caller == user ? callerSeq.incrementAndGet() : calleeSeq.incrementAndGet();
+    }
+
+    int peerId(int user) {
+        return caller == user ? callee : caller;
+    }
+}
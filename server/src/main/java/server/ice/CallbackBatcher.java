@@ -0,0 +1,83 @@
+package server.ice;
+
+import Chat.ChatCallbackPrx;
+import Chat.Message;
+import server.log.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agrupa las notificaciones de grupo hacia callbacks Ice usando proxies batch-oneway.
+ * Las invocaciones se encolan localmente y se envían juntas cuando pasa el intervalo
+ * de vaciado o cuando un destino acumula {@code maxQueued} mensajes; así un grupo
+ * con mucho tráfico genera pocas tramas WebSocket por cliente.
+ * Ice además vacía el lote por tamaño según Ice.BatchAutoFlushSize.
+ */
+final class CallbackBatcher implements AutoCloseable {
+
+    private static final Log.Sampled FLUSH_ERRORS = Log.sampled(Log.Level.WARN, "Ice", 1000);
+
+    private final int maxQueued;
+    private final ScheduledExecutorService flusher;
+    // Proxy batch-oneway -> mensajes encolados desde el último vaciado
+    private final Map<ChatCallbackPrx, AtomicInteger> pending = new ConcurrentHashMap<>();
+
+    CallbackBatcher(long flushIntervalMs, int maxQueued) {
+        this.maxQueued = maxQueued;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ice-batch-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleAtFixedRate(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Encola el mensaje en el proxy (debe venir de {@code ice_batchOneway()} y
+     * reutilizarse, porque la cola de lotes pertenece al proxy o a su conexión).
+     */
+    void enqueue(ChatCallbackPrx batchPrx, Message msg) {
+        try {
+            batchPrx.onMessage(msg);
+        } catch (Exception e) {
+            Log.error("Ice", "Error encolando callback: {}", e.getMessage());
+            pending.remove(batchPrx);
+            return;
+        }
+        AtomicInteger queued = pending.computeIfAbsent(batchPrx, k -> new AtomicInteger());
+        if (queued.incrementAndGet() >= maxQueued) {
+            flush(batchPrx);
+        }
+    }
+
+    /** Descarta el estado de un proxy cuyo usuario se desconectó. */
+    void forget(ChatCallbackPrx batchPrx) {
+        if (batchPrx != null) pending.remove(batchPrx);
+    }
+
+    private void flushAll() {
+        for (ChatCallbackPrx prx : pending.keySet()) {
+            flush(prx);
+        }
+    }
+
+    private void flush(ChatCallbackPrx batchPrx) {
+        if (pending.remove(batchPrx) == null) return;
+        batchPrx.ice_flushBatchRequestsAsync().whenComplete((r, ex) -> {
+            if (ex != null) {
+                FLUSH_ERRORS.log("Error enviando lote de callbacks: {}", ex.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        flushAll();
+    }
+}
@@ -1,273 +1,442 @@
 package server.ice;
 
+import com.zeroc.Ice.Connection;
 import com.zeroc.Ice.Current;
 import Chat.*;
 import server.ChatServer;
+import server.PresenceService;
+import server.VoiceUploadStore;
+import server.log.Log;
+import server.trace.MessageReceivedEvent;
+import server.trace.MessageTrace;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
+/**
+ * Frente Ice del chat. No reparte nada por su cuenta: cada usuario Ice es una
+ * {@link IceSession} registrada en el directorio de ChatServer con un id del mismo
+ * espacio que los clientes TCP y WebSocket, y los mensajes entran por los mismos
+ * métodos de ChatServer. Así cada mensaje se enruta, se guarda y se reparte una
+ * sola vez, y un usuario Ice puede escribir a uno TCP (y al revés) por su id.
+ */
 public class ChatServiceI implements ChatService {
-    private final ChatServer legacyServer;
-    private final Map<String, ChatCallbackPrx> callbacks; // Para el método con ChatCallbackPrx
-    private final Map<String, ChatCallback> directCallbacks; // Para el método con ChatCallback (si es necesario)
-    private final Map<String, String> userSessions;
-
-    public ChatServiceI(ChatServer legacyServer) {
-        this.legacyServer = legacyServer;
-        this.callbacks = new ConcurrentHashMap<>();
-        this.directCallbacks = new ConcurrentHashMap<>(); // Nuevo mapa para callbacks directos
-        this.userSessions = new ConcurrentHashMap<>();
+
+    private final ChatServer server;
+    // userId (el id de ChatServer en texto) -> sesión
+    private final Map<String, IceSession> sessions;
+    private final CallbackBatcher batcher;
+    // Usuarios cuyos callbacks viajan por cada conexión entrante (para limpiar al perderla)
+    private final Map<Connection, Set<String>> usersByConnection;
+    private final AudioCallServiceI audioService;
+    // Ejecuta la entrega (métodos synchronized + escritura en sockets TCP) fuera de los hilos de Ice
+    private final Executor deliveryExecutor;
+
+    public ChatServiceI(ChatServer server, Executor deliveryExecutor, CallbackBatcher batcher,
+                        AudioCallServiceI audioService) {
+        this.server = server;
+        this.audioService = audioService;
+        this.usersByConnection = new ConcurrentHashMap<>();
+        this.deliveryExecutor = deliveryExecutor;
+        this.batcher = batcher;
+        this.sessions = new ConcurrentHashMap<>();
     }
 
     // === IMPLEMENTACIÓN DE TODOS LOS MÉTODOS DE ChatService ===
 
     @Override
     public User login(String username, Current current) {
-        try {
-            String userId = "user_" + System.currentTimeMillis();
-            User user = new User();
-            user.id = userId;
-            user.username = username;
-            user.online = true;
-
-            userSessions.put(userId, username);
-            System.out.println("[Ice] Usuario logueado: " + username + " (" + userId + ")");
-            return user;
-        } catch (Exception e) {
-            System.err.println("Error en login: " + e.getMessage());
-            User fallback = new User();
-            fallback.id = "error";
-            fallback.username = username;
-            fallback.online = false;
-            return fallback;
-        }
+        IceSession session = new IceSession(server.nextClientId(), username, batcher,
+                server.getHistory().getVoiceCache());
+        sessions.put(session.getUserId(), session);
+        // La conexión del login identifica al usuario en las llamadas que solo llevan un id de subida
+        if (current != null && current.con != null) trackConnection(current.con, session.getUserId());
+        server.register(session);
+        Log.info("Ice", "Usuario logueado: {} ({})", username, session.getUserId());
+
+        User user = new User();
+        user.id = session.getUserId();
+        user.username = username;
+        user.online = true;
+        return user;
     }
 
     @Override
     public void logout(String userId, Current current) {
-        callbacks.remove(userId);
-        directCallbacks.remove(userId);
-        userSessions.remove(userId);
-        System.out.println("[Ice] Usuario desconectado: " + userId);
+        IceSession session = sessions.remove(userId);
+        if (session == null) return;
+        closeSession(session);
+        Log.info("Ice", "Usuario desconectado: {}", userId);
     }
 
     @Override
-    public void sendPrivateMessage(String fromUser, String toUser, String message, Current current) {
-        try {
-            System.out.println("[Ice] Mensaje privado de " + fromUser + " a " + toUser + ": " + message);
-
-            int fromId = extractNumericId(fromUser);
-            int toId = extractNumericId(toUser);
-            legacyServer.sendPrivateMessage(fromId, toId, message);
-
-            // Notificar al receptor via callback (usando ChatCallbackPrx - el principal)
-            ChatCallbackPrx targetCallback = callbacks.get(toUser);
-            if (targetCallback != null) {
-                Message msg = new Message();
-                msg.id = String.valueOf(System.currentTimeMillis());
-                msg.sender = fromUser;
-                msg.content = message;
-                msg.timestamp = System.currentTimeMillis();
-                msg.type = "text";
-                targetCallback.onMessage(msg);
-            }
-        } catch (Exception e) {
-            System.err.println("Error enviando mensaje privado: " + e.getMessage());
+    public CompletionStage<Void> sendPrivateMessageAsync(String fromUser, String toUser, String message, Current current) {
+        MessageReceivedEvent received = new MessageReceivedEvent();
+        received.begin();
+        Log.debug("Ice", "Mensaje privado de {} a {}: {}", fromUser, toUser, message);
+        received.finish("ice", "sendPrivateMessage", fromUser, toUser, message.length());
+        long traceId = MessageTrace.current();
+        MessageTrace.end();
+
+        IceSession from = sessions.get(fromUser);
+        int toId = parseId(toUser);
+        if (from == null || toId < 0) {
+            return failed(new UserNotFound("Usuario no encontrado: " + (from == null ? fromUser : toUser)));
         }
+        server.getPresence().touch(from.getId());
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deliveryExecutor.execute(() -> {
+            MessageTrace.resume(traceId);
+            try {
+                if (server.sendPrivateMessage(from.getId(), toId, message)) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(new UserNotFound("Usuario no encontrado: " + toUser));
+                }
+            } catch (RuntimeException e) {
+                Log.error("Ice", "Error enviando mensaje privado: {}", e.getMessage());
+                result.completeExceptionally(e);
+            } finally {
+                MessageTrace.end();
+            }
+        });
+        return result;
     }
 
     @Override
-    public void sendGroupMessage(String fromUser, String groupName, String message, Current current) {
-        try {
-            System.out.println("[Ice] Mensaje grupal de " + fromUser + " en " + groupName + ": " + message);
-            int fromId = extractNumericId(fromUser);
-            legacyServer.sendGroupMessage(groupName, fromId, message);
-        } catch (Exception e) {
-            System.err.println("Error enviando mensaje grupal: " + e.getMessage());
+    public CompletionStage<Void> sendGroupMessageAsync(String fromUser, String groupName, String message, Current current) {
+        MessageReceivedEvent received = new MessageReceivedEvent();
+        received.begin();
+        Log.debug("Ice", "Mensaje grupal de {} en {}: {}", fromUser, groupName, message);
+        received.finish("ice", "sendGroupMessage", fromUser, groupName, message.length());
+        long traceId = MessageTrace.current();
+        MessageTrace.end();
+
+        IceSession from = sessions.get(fromUser);
+        if (from == null) {
+            return failed(new GroupNotFound("Sesión no iniciada: " + fromUser));
         }
+        server.getPresence().touch(from.getId());
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deliveryExecutor.execute(() -> {
+            MessageTrace.resume(traceId);
+            try {
+                if (server.sendGroupMessage(groupName, from.getId(), message)) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(new GroupNotFound("Grupo no encontrado o vacío: " + groupName));
+                }
+            } catch (RuntimeException e) {
+                Log.error("Ice", "Error enviando mensaje grupal: {}", e.getMessage());
+                result.completeExceptionally(e);
+            } finally {
+                MessageTrace.end();
+            }
+        });
+        return result;
     }
 
     @Override
     public String createGroup(String groupName, String creator, Current current) {
-        try {
-            String groupId = "group_" + System.currentTimeMillis();
-            System.out.println("[Ice] Grupo creado: " + groupName + " por " + creator);
-            return groupId;
-        } catch (Exception e) {
-            System.err.println("Error creando grupo: " + e.getMessage());
+        IceSession session = sessions.get(creator);
+        if (session == null) {
+            Log.warn("Ice", "createGroup de un usuario sin sesión: {}", creator);
             return "error";
         }
+        server.createGroup(groupName, session);
+        return groupName;
     }
 
     @Override
-    public void joinGroup(String groupName, String user, Current current) {
-        try {
-            System.out.println("[Ice] Usuario " + user + " se unió a " + groupName);
-        } catch (Exception e) {
-            System.err.println("Error uniéndose al grupo: " + e.getMessage());
+    public void joinGroup(String groupName, String user, Current current) throws GroupNotFound {
+        IceSession session = sessions.get(user);
+        if (session == null || !server.addUserToGroup(groupName, session)) {
+            throw new GroupNotFound("Grupo no encontrado: " + groupName);
         }
     }
 
     @Override
-    public void leaveGroup(String groupName, String user, Current current) {
-        try {
-            System.out.println("[Ice] Usuario " + user + " dejó " + groupName);
-        } catch (Exception e) {
-            System.err.println("Error dejando grupo: " + e.getMessage());
+    public void leaveGroup(String groupName, String user, Current current) throws GroupNotFound {
+        IceSession session = sessions.get(user);
+        if (session == null || !server.removeUserFromGroup(groupName, session)) {
+            throw new GroupNotFound("Grupo no encontrado: " + groupName);
         }
     }
 
     @Override
-    public Group getGroupDetails(String groupName, Current current) {
-        try {
-            Group group = new Group();
-            group.id = groupName;
-            group.name = groupName;
-            group.members = new String[0];
-            return group;
-        } catch (Exception e) {
-            System.err.println("Error obteniendo detalles del grupo: " + e.getMessage());
-            Group fallback = new Group();
-            fallback.id = "error";
-            fallback.name = groupName;
-            fallback.members = new String[0];
-            return fallback;
-        }
+    public Group getGroupDetails(String groupName, Current current) throws GroupNotFound {
+        Group group = group(groupName);
+        if (group == null) throw new GroupNotFound("Grupo no encontrado: " + groupName);
+        return group;
     }
 
     @Override
     public Group[] listGroups(String userId, Current current) {
-        try {
-            System.out.println("[Ice] Listando grupos para: " + userId);
-            return new Group[0];
-        } catch (Exception e) {
-            System.err.println("Error listando grupos: " + e.getMessage());
-            return new Group[0];
+        Log.debug("Ice", "Listando grupos para: {}", userId);
+        List<Group> result = new ArrayList<>();
+        for (String groupName : server.groupNames()) {
+            Group group = group(groupName);
+            if (group != null) result.add(group);
         }
+        return result.toArray(new Group[0]);
+    }
+
+    // Miembros conectados a este nodo, de cualquier transporte; null si el grupo no existe
+    private Group group(String groupName) {
+        int[] ids = server.localGroupMembers(groupName);
+        if (ids == null) return null;
+        Group group = new Group();
+        group.id = groupName;
+        group.name = groupName;
+        group.members = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) group.members[i] = String.valueOf(ids[i]);
+        return group;
     }
 
     @Override
-    public void sendVoiceNoteToUser(String fromUser, String toUser, String filename, byte[] data, Current current) {
-        try {
-            System.out.println("[Ice] Nota de voz de " + fromUser + " a " + toUser + ", tamaño: " + data.length);
-            int fromId = extractNumericId(fromUser);
-            int toId = extractNumericId(toUser);
-            legacyServer.sendVoiceNoteToUser(String.valueOf(toId), data, filename, String.valueOf(fromId));
-        } catch (Exception e) {
-            System.err.println("Error enviando nota de voz: " + e.getMessage());
+    public CompletionStage<Void> sendVoiceNoteToUserAsync(String fromUser, String toUser, String filename, byte[] data, Current current) {
+        Log.debug("Ice", "Nota de voz de {} a {}, tamaño: {}", fromUser, toUser, data.length);
+        IceSession from = sessions.get(fromUser);
+        if (from == null || parseId(toUser) < 0) {
+            return failed(new UserNotFound("Usuario no encontrado: " + (from == null ? fromUser : toUser)));
         }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deliveryExecutor.execute(() -> {
+            try {
+                if (server.sendVoiceNoteToUser(toUser, data, filename, from.getUserId())) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(new UserNotFound("Usuario no encontrado: " + toUser));
+                }
+            } catch (RuntimeException e) {
+                Log.error("Ice", "Error enviando nota de voz: {}", e.getMessage());
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
     }
 
     @Override
-    public void sendVoiceNoteToGroup(String fromUser, String groupName, String filename, byte[] data, Current current) {
-        try {
-            System.out.println("[Ice] Nota de voz grupal de " + fromUser + " en " + groupName + ", tamaño: " + data.length);
-            int fromId = extractNumericId(fromUser);
-            legacyServer.sendVoiceNoteToGroup(fromId, groupName, filename, data);
-        } catch (Exception e) {
-            System.err.println("Error enviando nota de voz grupal: " + e.getMessage());
+    public CompletionStage<Void> sendVoiceNoteToGroupAsync(String fromUser, String groupName, String filename, byte[] data, Current current) {
+        Log.debug("Ice", "Nota de voz grupal de {} en {}, tamaño: {}", fromUser, groupName, data.length);
+        IceSession from = sessions.get(fromUser);
+        if (from == null) {
+            return failed(new GroupNotFound("Sesión no iniciada: " + fromUser));
         }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deliveryExecutor.execute(() -> {
+            try {
+                if (server.sendVoiceNoteToGroup(from.getId(), groupName, filename, data)) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(new GroupNotFound("Grupo no encontrado o vacío: " + groupName));
+                }
+            } catch (RuntimeException e) {
+                Log.error("Ice", "Error enviando nota de voz grupal: {}", e.getMessage());
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
     }
 
     @Override
-    public Message[] getMessageHistory(String userId, String targetId, String targetType, Current current) {
+    public String beginVoiceUpload(String fromUser, String targetType, String target, String filename, long totalSize,
+                                   Current current) throws UploadFailed {
+        if (!isCaller(fromUser, current)) {
+            throw new UploadFailed("Sesión no iniciada: " + fromUser);
+        }
         try {
-            System.out.println("[Ice] Historial solicitado para: " + userId);
-            return new Message[0];
-        } catch (Exception e) {
-            System.err.println("Error obteniendo historial: " + e.getMessage());
-            return new Message[0];
+            VoiceUploadStore.Upload upload = server.getVoiceUploads()
+                    .begin(fromUser, targetType, target, filename, totalSize);
+            Log.debug("Ice", "Subida de voz {} de {} a {}", upload.id, fromUser, targetType + " " + target);
+            return upload.id;
+        } catch (IOException | RuntimeException e) {
+            throw new UploadFailed(e.getMessage());
         }
     }
 
-    // === PRIMER registerCallback - CON ChatCallbackPrx (PRINCIPAL) ===
     @Override
-    public void registerCallback(String userId, ChatCallbackPrx cb, Current current) {
-        try {
-            callbacks.put(userId, cb);
-            System.out.println("[Ice] Callback registrado para: " + userId + " (ChatCallbackPrx)");
-        } catch (Exception e) {
-            System.err.println("Error registrando callback (Prx): " + e.getMessage());
-        }
+    public CompletionStage<Long> appendVoiceChunkAsync(String uploadId, long offset, byte[] chunk, Current current) {
+        String denied = checkUploadOwner(uploadId, current);
+        if (denied != null) return failed(new UploadFailed(denied));
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        deliveryExecutor.execute(() -> {
+            try {
+                result.complete(server.getVoiceUploads().append(uploadId, offset, chunk));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(new UploadFailed(e.getMessage()));
+            }
+        });
+        return result;
     }
 
-    // === SEGUNDO registerCallback - CON ChatCallback (SECUNDARIO) ===
-    public void registerCallback(String userId, ChatCallback cb, Current current) {
+    @Override
+    public long getVoiceUploadOffset(String uploadId, Current current) throws UploadFailed {
+        String denied = checkUploadOwner(uploadId, current);
+        if (denied != null) throw new UploadFailed(denied);
         try {
-            directCallbacks.put(userId, cb);
-            System.out.println("[Ice] Callback registrado para: " + userId + " (ChatCallback directo)");
-            System.out.println("⚠️  Nota: ChatCallback directo puede no funcionar correctamente en todas las configuraciones");
-        } catch (Exception e) {
-            System.err.println("Error registrando callback (directo): " + e.getMessage());
+            return server.getVoiceUploads().offset(uploadId);
+        } catch (RuntimeException e) {
+            throw new UploadFailed(e.getMessage());
         }
     }
 
     @Override
-    public void unregisterCallback(String userId, Current current) {
-        try {
-            callbacks.remove(userId);
-            directCallbacks.remove(userId);
-            System.out.println("[Ice] Callback removido para: " + userId);
-        } catch (Exception e) {
-            System.err.println("Error removiendo callback: " + e.getMessage());
+    public CompletionStage<Void> commitVoiceUploadAsync(String uploadId, Current current) {
+        String denied = checkUploadOwner(uploadId, current);
+        if (denied != null) return failed(new UploadFailed(denied));
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deliveryExecutor.execute(() -> {
+            try {
+                VoiceUploadStore.Upload upload = server.getVoiceUploads().complete(uploadId);
+                int fromId = parseId(upload.from);
+                if ("group".equals(upload.targetType)) {
+                    if (!server.sendVoiceFileToGroup(fromId, upload.target, upload.filename, upload.file())) {
+                        Files.deleteIfExists(upload.file());
+                        result.completeExceptionally(new GroupNotFound("Grupo no encontrado: " + upload.target));
+                        return;
+                    }
+                } else {
+                    int toId = parseId(upload.target);
+                    if (toId < 0 || !server.sendVoiceFileToUser(fromId, toId, upload.filename, upload.file())) {
+                        Files.deleteIfExists(upload.file());
+                        result.completeExceptionally(new UserNotFound("Usuario no encontrado: " + upload.target));
+                        return;
+                    }
+                }
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(new UploadFailed(e.getMessage()));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void abortVoiceUpload(String uploadId, Current current) {
+        String denied = checkUploadOwner(uploadId, current);
+        if (denied != null) {
+            Log.warn("Ice", "abortVoiceUpload rechazado: {}", denied);
+            return;
         }
+        server.getVoiceUploads().abort(uploadId);
     }
 
-    // === MÉTODOS ADICIONALES QUE FALTAN ===
+    @Override
+    public Message[] getMessageHistory(String userId, String targetId, String targetType, Current current) {
+        Log.debug("Ice", "Historial solicitado para: {}", userId);
+        return new Message[0];
+    }
 
-    public String[] getGroupMembers(String groupId, Current current) {
-        try {
-            System.out.println("[Ice] Obteniendo miembros del grupo: " + groupId);
-            return new String[0];
-        } catch (Exception e) {
-            System.err.println("Error obteniendo miembros del grupo: " + e.getMessage());
-            return new String[0];
+    @Override
+    public void registerCallback(String userId, ChatCallbackPrx cb, Current current) {
+        IceSession session = sessions.get(userId);
+        if (session == null) {
+            Log.warn("Ice", "Callback de un usuario sin sesión: {}", userId);
+            return;
+        }
+        // Conexión bidireccional: el callback se invoca por la misma conexión que abrió
+        // el cliente, sin conexiones salientes hacia el navegador (NAT / proxies WebSocket)
+        Connection con = current.con;
+        if (con != null) {
+            cb = cb.ice_fixed(con);
+            trackConnection(con, userId);
         }
+        session.attach(cb);
+        audioService.registerUserCallback(userId, cb);
+        // Los clientes Ice reciben la presencia de todos como mensajes de tipo "presence"
+        server.getPresence().subscribe(session, null);
+        Log.info("Ice", "Callback registrado para: {}", userId);
     }
 
+    @Override
+    public void unregisterCallback(String userId, Current current) {
+        IceSession session = sessions.get(userId);
+        if (session != null) {
+            session.detach();
+            server.getPresence().unsubscribe(session.getId());
+        }
+        audioService.unregisterUserCallback(userId);
+        Log.info("Ice", "Callback removido para: {}", userId);
+    }
+
+    public User getUserInfo(String userId, Current current) {
+        IceSession session = sessions.get(userId);
+        User user = new User();
+        user.id = userId;
+        user.username = session != null ? session.getUsername() : "Unknown";
+        user.online = session != null && server.getPresence().state(session.getId()) != PresenceService.State.OFFLINE;
+        return user;
+    }
 
-    public void removeFromGroup(String groupName, String user, Current current) {
+    /**
+     * Comprueba que quien llama es el usuario que empezó la subida.
+     * @return el motivo del rechazo, o null si puede seguir
+     */
+    private String checkUploadOwner(String uploadId, Current current) {
+        String owner;
         try {
-            System.out.println("[Ice] Usuario " + user + " removido de " + groupName);
-        } catch (Exception e) {
-            System.err.println("Error removiendo usuario del grupo: " + e.getMessage());
+            owner = server.getVoiceUploads().owner(uploadId);
+        } catch (RuntimeException e) {
+            return e.getMessage();
         }
+        return isCaller(owner, current) ? null : "La subida " + uploadId + " no pertenece a esta sesión";
     }
 
+    // El usuario tiene sesión y, si la llamada llega por una conexión, la abrió por ella
+    private boolean isCaller(String userId, Current current) {
+        if (!sessions.containsKey(userId)) return false;
+        if (current == null || current.con == null) return true; // llamada colocada, sin conexión
+        Set<String> users = usersByConnection.get(current.con);
+        return users != null && users.contains(userId);
+    }
 
-    public User getUserInfo(String userId, Current current) {
-        try {
-            System.out.println("[Ice] Obteniendo información de usuario: " + userId);
-            User user = new User();
-            user.id = userId;
-            user.username = userSessions.getOrDefault(userId, "Unknown");
-            user.online = callbacks.containsKey(userId) || directCallbacks.containsKey(userId);
-            return user;
-        } catch (Exception e) {
-            System.err.println("Error obteniendo información de usuario: " + e.getMessage());
-            User fallback = new User();
-            fallback.id = userId;
-            fallback.username = "Error";
-            fallback.online = false;
-            return fallback;
+    private void trackConnection(Connection con, String userId) {
+        Set<String> users = usersByConnection.computeIfAbsent(con, c -> {
+            // Al cerrarse (cliente cerrado, ACM sin heartbeats, red caída) se cierran sus sesiones
+            c.setCloseCallback(this::connectionLost);
+            return ConcurrentHashMap.newKeySet();
+        });
+        users.add(userId);
+    }
+
+    private void connectionLost(Connection con) {
+        Set<String> users = usersByConnection.remove(con);
+        if (users == null) return;
+        for (String userId : users) {
+            IceSession session = sessions.remove(userId);
+            if (session != null) closeSession(session);
+            Log.info("Ice", "Conexión perdida, sesión cerrada para: {}", userId);
         }
     }
 
-    // Helper para convertir IDs
-    private int extractNumericId(String iceUserId) {
+    private void closeSession(IceSession session) {
+        session.detach();
+        audioService.unregisterUserCallback(session.getUserId());
+        server.onClientClose(session.getId());
+    }
+
+    // Los ids Ice son los de ChatServer en texto; -1 si no es un id
+    private static int parseId(String userId) {
         try {
-            return Integer.parseInt(iceUserId);
+            int id = Integer.parseInt(userId);
+            return id > 0 ? id : -1;
         } catch (NumberFormatException e) {
-            if (iceUserId.startsWith("user_")) {
-                String numericPart = iceUserId.substring(5);
-                try {
-                    return Integer.parseInt(numericPart) % 1000;
-                } catch (NumberFormatException e2) {
-                    return 1;
-                }
-            }
-            return 1;
+            return -1;
         }
     }
-}
\ No newline at end of file
+
+    private static <T> CompletionStage<T> failed(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+}
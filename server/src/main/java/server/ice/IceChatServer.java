@@ -1,66 +1,117 @@
 package server.ice;
 
 import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.InitializationData;
 import com.zeroc.Ice.ObjectAdapter;
+import com.zeroc.Ice.Properties;
 import com.zeroc.Ice.Util;
 import server.ChatServer;
+import server.log.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class IceChatServer implements AutoCloseable {
     private Communicator communicator;
+    private ExecutorService deliveryExecutor;
+    private CallbackBatcher batcher;
     private final ChatServer legacyServer;
+    private final String[] args;
 
     public IceChatServer(ChatServer legacyServer) {
+        this(legacyServer, new String[0]);
+    }
+
+    /**
+     * @param args propiedades de Ice en formato --Ice.X=valor (p. ej. --Ice.ThreadPool.Server.SizeMax=32)
+     *             y propias en formato --Chat.X=valor (p. ej. --Chat.Delivery.Threads=8)
+     */
+    public IceChatServer(ChatServer legacyServer, String[] args) {
         this.legacyServer = legacyServer;
+        this.args = args;
     }
 
     public void start() {
         try {
-            System.out.println("Iniciando servidor Ice...");
+            Log.info("Ice", "Iniciando servidor Ice...");
 
-            // Configuración para WebSockets
-            String[] args = new String[] {
-                    "--Ice.MessageSizeMax=102400" // 100KB para audio
-            };
+            // Configuración para WebSockets; los valores pasados por línea de comandos tienen prioridad
+            InitializationData initData = new InitializationData();
+            initData.properties = Util.createProperties(args);
+            // Las propiedades propias (--Chat.X=valor) también se aceptan por línea de comandos
+            initData.properties.parseCommandLineOptions("Chat", args);
+            setDefault(initData.properties, "Ice.MessageSizeMax", "102400");
+            // Con AMD los hilos de despacho solo reciben la petición; el pool puede ser pequeño
+            setDefault(initData.properties, "Ice.ThreadPool.Server.Size", "4");
+            setDefault(initData.properties, "Ice.ThreadPool.Server.SizeMax", "16");
+            // Hilos que completan las invocaciones asíncronas a los callbacks
+            setDefault(initData.properties, "Ice.ThreadPool.Client.Size", "2");
+            setDefault(initData.properties, "Ice.ThreadPool.Client.SizeMax", "8");
+            // Los lotes de callbacks se envían solos al superar este tamaño (en KB)
+            setDefault(initData.properties, "Ice.BatchAutoFlushSize", "64");
+            // Los callbacks usan la conexión del cliente: no se cierra por inactividad mientras
+            // lleguen heartbeats, y una conexión muerta se detecta y limpia tras el timeout
+            setDefault(initData.properties, "Ice.ACM.Server.Timeout", "30");
+            setDefault(initData.properties, "Ice.ACM.Server.Close", "4");     // CloseOnIdleForceful
+            setDefault(initData.properties, "Ice.ACM.Server.Heartbeat", "3"); // HeartbeatAlways
 
-            communicator = Util.initialize(args);
+            communicator = Util.initialize(initData);
+            deliveryExecutor = Executors.newFixedThreadPool(
+                    communicator.getProperties().getPropertyAsIntWithDefault("Chat.Delivery.Threads", 4));
+            batcher = new CallbackBatcher(
+                    communicator.getProperties().getPropertyAsIntWithDefault("Chat.Batch.FlushIntervalMs", 10),
+                    communicator.getProperties().getPropertyAsIntWithDefault("Chat.Batch.MaxMessages", 32));
             
             // Crear adapter con WebSocket
-            ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints(
-                    "ChatAdapter",
-                    "ws -h localhost -p 10000"
-            );
-
-            // Registrar servantes (ChatService)
-            ChatServiceI chatService = new ChatServiceI(legacyServer);
-            adapter.add(chatService, Util.stringToIdentity("ChatService"));
+            // Chat.Endpoints permite otro puerto, p. ej. para varios nodos del clúster en una máquina
+            String endpoints = communicator.getProperties()
+                    .getPropertyWithDefault("Chat.Endpoints", "ws -h localhost -p 10000");
+            ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints("ChatAdapter", endpoints);
 
             // Registrar servantes (AudioCallService)
             AudioCallServiceI audioService = new AudioCallServiceI(legacyServer);
-            adapter.add(audioService, Util.stringToIdentity("AudioCallService"));
+            // Los servantes se registran envueltos para medir el tiempo de cada operación
+            adapter.add(new TimedDispatcher(audioService), Util.stringToIdentity("AudioCallService"));
+
+            // Registrar servantes (ChatService); comparte los callbacks con AudioCallService
+            ChatServiceI chatService = new ChatServiceI(legacyServer, deliveryExecutor, batcher, audioService);
+            adapter.add(new TimedDispatcher(chatService), Util.stringToIdentity("ChatService"));
 
             // Activar adapter
             adapter.activate();
 
-            System.out.println("Servidor Ice iniciado exitosamente");
-            System.out.println("WebSocket endpoint: ws://localhost:10000");
-            System.out.println("Servicios disponibles:");
-            System.out.println("- ChatService");
-            System.out.println("- AudioCallService");
+            Log.info("Ice", "Servidor Ice iniciado exitosamente");
+            Log.info("Ice", "Endpoints Ice: {}", endpoints);
+            Log.info("Ice", "Servicios disponibles:");
+            Log.info("Ice", "- ChatService");
+            Log.info("Ice", "- AudioCallService");
+            Log.info("Ice", "Pool de despacho Ice: {}-{} hilos", communicator.getProperties().getProperty("Ice.ThreadPool.Server.Size"), communicator.getProperties().getProperty("Ice.ThreadPool.Server.SizeMax"));
 
         } catch (Exception e) {
-            System.err.println("Error iniciando servidor Ice: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Ice", "Error iniciando servidor Ice: {}", e.getMessage(), e);
+        }
+    }
+
+    private static void setDefault(Properties props, String key, String value) {
+        if (props.getProperty(key).isEmpty()) {
+            props.setProperty(key, value);
         }
     }
 
     @Override
     public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdownNow();
+        }
         if (communicator != null) {
             try {
                 communicator.destroy();
-                System.out.println("Servidor Ice cerrado");
+                Log.info("Ice", "Servidor Ice cerrado");
             } catch (Exception e) {
-                System.err.println("Error cerrando servidor Ice: " + e.getMessage());
+                Log.error("Ice", "Error cerrando servidor Ice: {}", e.getMessage());
             }
         }
     }
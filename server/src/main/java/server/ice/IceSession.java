@@ -0,0 +1,197 @@
+package server.ice;
+
+import Chat.ChatCallbackPrx;
+import Chat.Message;
+import server.ChatSession;
+import server.VoiceCache;
+import server.log.Log;
+import server.trace.IceCallbackEvent;
+import server.trace.MessageTrace;
+import server.trace.MessageWrittenEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Usuario Ice dentro del directorio de sesiones de ChatServer. ChatServer le entrega
+ * los mensajes igual que a un cliente TCP y esta clase los convierte en callbacks:
+ * los privados y los avisos van por el proxy oneway, los de grupo se encolan en el
+ * {@link CallbackBatcher}. Ninguna entrega espera al cliente, así que el monitor de
+ * ChatServer no se retiene por la red de un navegador.
+ *
+ * <p>El id lo asigna ChatServer al hacer login; el callback se engancha después con
+ * registerCallback y, mientras no hay callback, lo que llega se descarta.
+ */
+final class IceSession implements ChatSession {
+
+    // Un fallo por mensaje entregado: con un cliente caído se repetiría en cada envío
+    private static final Log.Sampled NOTIFY_ERRORS = Log.sampled(Log.Level.WARN, "Ice", 1000);
+
+    private static final class Callbacks {
+        final ChatCallbackPrx oneway;
+        // Proxy batch-oneway reutilizado para la difusión en grupos (la cola de lotes vive en el proxy)
+        final ChatCallbackPrx batch;
+
+        Callbacks(ChatCallbackPrx cb) {
+            this.oneway = cb.ice_oneway();
+            this.batch = cb.ice_batchOneway();
+        }
+    }
+
+    private final int id;
+    private final String userId;
+    private final String username;
+    private final CallbackBatcher batcher;
+    private final VoiceCache voiceCache;
+    private volatile Callbacks callbacks;
+
+    IceSession(int id, String username, CallbackBatcher batcher, VoiceCache voiceCache) {
+        this.id = id;
+        this.userId = String.valueOf(id);
+        this.username = username;
+        this.batcher = batcher;
+        this.voiceCache = voiceCache;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    /** Los grupos siguen al nombre de usuario de un login al siguiente. */
+    @Override
+    public String memberKey() {
+        return "u:" + username;
+    }
+
+    void attach(ChatCallbackPrx cb) {
+        Callbacks previous = callbacks;
+        callbacks = new Callbacks(cb);
+        if (previous != null) batcher.forget(previous.batch);
+    }
+
+    void detach() {
+        Callbacks previous = callbacks;
+        callbacks = null;
+        if (previous != null) batcher.forget(previous.batch);
+    }
+
+    @Override
+    public void send(String msg) {
+        Callbacks cb = callbacks;
+        if (cb != null) notifyMessage(cb.oneway, message("servidor", msg, "system"));
+    }
+
+    @Override
+    public void deliverPrivate(int fromId, String message) {
+        Callbacks cb = callbacks;
+        if (cb != null) notifyMessage(cb.oneway, message(String.valueOf(fromId), message, "text"));
+    }
+
+    @Override
+    public void deliverGroup(String groupName, int fromId, String message) {
+        Callbacks cb = callbacks;
+        if (cb == null) return;
+        // En lote no hay respuesta por mensaje: se traza el encolado
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        batcher.enqueue(cb.batch, message(String.valueOf(fromId), message, "group:" + groupName));
+        written.finish(id, "ice", message.length());
+    }
+
+    @Override
+    public void userJoined(int userId, String groupName) {
+        Callbacks cb = callbacks;
+        if (cb == null) return;
+        String user = String.valueOf(userId);
+        cb.oneway.onUserJoinedAsync(user, groupName).whenComplete((r, ex) -> {
+            if (ex != null) {
+                NOTIFY_ERRORS.log("Error notificando a {}: {}", this.userId, ex.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void sendPresence(String delta) {
+        Callbacks cb = callbacks;
+        if (cb != null) notifyMessage(cb.oneway, message("servidor", delta, "presence"));
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, byte[] data, String fromId) {
+        Callbacks cb = callbacks;
+        if (cb == null) return;
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        cb.oneway.onVoiceNoteAsync(fromId, filename, data).whenComplete((r, ex) -> {
+            if (ex != null) {
+                NOTIFY_ERRORS.log("Error enviando nota de voz a {}: {}", userId, ex.getMessage());
+            }
+        });
+        written.finish(id, "ice", data.length);
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, Path file, String fromId) {
+        if (callbacks == null) return;
+        // ByteSeq viaja entero en una invocación: hace falta el byte[], pero sale de la caché
+        try {
+            byte[] data;
+            try (VoiceCache.Lease cached = voiceCache.load(file)) {
+                data = cached != null ? new byte[cached.buffer().remaining()] : null;
+                if (cached != null) cached.buffer().get(data);
+            }
+            if (data == null) {
+                data = Files.readAllBytes(file);
+            }
+            sendVoiceNote(filename, data, fromId);
+        } catch (IOException e) {
+            Log.error("Ice", "Error leyendo nota de voz {} para {}: {}", file, userId, e.getMessage());
+        }
+    }
+
+    private static Message message(String sender, String content, String type) {
+        Message msg = new Message();
+        msg.timestamp = System.currentTimeMillis();
+        msg.id = String.valueOf(msg.timestamp);
+        msg.sender = sender;
+        msg.content = content;
+        msg.type = type;
+        return msg;
+    }
+
+    // Envía el mensaje sin bloquear el hilo actual; los fallos solo se registran
+    private void notifyMessage(ChatCallbackPrx cb, Message msg) {
+        if (IceCallbackEvent.enabled()) {
+            notifyTraced(cb, msg);
+            return;
+        }
+        cb.onMessageAsync(msg).whenComplete((r, ex) -> {
+            if (ex != null) {
+                NOTIFY_ERRORS.log("Error notificando a {}: {}", userId, ex.getMessage());
+            }
+        });
+    }
+
+    // Solo con el evento JFR activo: el evento viaja en la lambda hasta que responde el cliente
+    private void notifyTraced(ChatCallbackPrx cb, Message msg) {
+        IceCallbackEvent event = new IceCallbackEvent();
+        long traceId = MessageTrace.current();
+        event.begin();
+        cb.onMessageAsync(msg).whenComplete((r, ex) -> {
+            event.finish(traceId, userId, ex != null);
+            if (ex != null) {
+                NOTIFY_ERRORS.log("Error notificando a {}: {}", userId, ex.getMessage());
+            }
+        });
+    }
+}
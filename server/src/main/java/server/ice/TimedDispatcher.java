@@ -0,0 +1,53 @@
+package server.ice;
+
+import com.zeroc.Ice.DispatchInterceptor;
+import com.zeroc.Ice.Object;
+import com.zeroc.Ice.OutputStream;
+import com.zeroc.Ice.Request;
+import com.zeroc.Ice.UserException;
+import server.metrics.ChatMetrics;
+import server.metrics.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Envuelve un servant y mide cada despacho por operación. En las operaciones AMD
+ * el tiempo va hasta que se completa la respuesta, no hasta que vuelve el hilo.
+ */
+final class TimedDispatcher extends DispatchInterceptor {
+
+    private final Object servant;
+    // Un histograma por operación; el primero de cada una se crea al vuelo
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+    TimedDispatcher(Object servant) {
+        this.servant = servant;
+    }
+
+    @Override
+    public CompletionStage<OutputStream> dispatch(Request request) throws UserException {
+        long start = System.nanoTime();
+        Histogram timer = timer(request.getCurrent().operation);
+        CompletionStage<OutputStream> result;
+        try {
+            result = servant.ice_dispatch(request);
+        } catch (UserException | RuntimeException e) {
+            timer.recordSince(start);
+            throw e;
+        }
+        if (result == null) {
+            // Completado en este mismo hilo
+            timer.recordSince(start);
+        } else {
+            result.whenComplete((out, error) -> timer.recordSince(start));
+        }
+        return result;
+    }
+
+    private Histogram timer(String operation) {
+        Histogram timer = timers.get(operation);
+        return timer != null ? timer : timers.computeIfAbsent(operation, ChatMetrics::iceDispatch);
+    }
+}
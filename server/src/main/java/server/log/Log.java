@@ -0,0 +1,219 @@
+package server.log;
+
+import server.metrics.ChatMetrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log asíncrono del servidor. Quien registra deja la plantilla y sus argumentos en
+ * un buffer circular creado al arrancar y sigue; un hilo aparte da formato y
+ * escribe en la consola por lotes. Si el buffer se llena la entrada se descarta
+ * (y se cuenta) en vez de bloquear al que la registra.
+ *
+ * <p>Las plantillas usan {@code {}} por argumento: así los mensajes de un nivel
+ * desactivado no construyen ningún string. Un {@link Throwable} sobrante al final
+ * imprime su traza. Para eventos por paquete está {@link #sampled}.
+ *
+ * <p>{@code -Dchat.log.level=DEBUG|INFO|WARN|ERROR} (INFO por defecto) y
+ * {@code -Dchat.log.bufferSize} (8192 entradas).
+ */
+public final class Log {
+
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final int BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static volatile Level threshold = parseLevel(System.getProperty("chat.log.level", "INFO"));
+    private static final LogRing RING = new LogRing(Integer.getInteger("chat.log.bufferSize", 8192));
+    private static final AtomicLong dropped = new AtomicLong();
+    // Vueltas completas del hilo que escribe; flush() espera a la siguiente
+    private static volatile long rounds;
+    private static final Thread APPENDER;
+
+    static {
+        APPENDER = new Thread(Log::appendLoop, "log-appender");
+        APPENDER.setDaemon(true);
+        APPENDER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {}
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[Log] Nivel desconocido '" + value + "', se usa INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() <= threshold.ordinal();
+    }
+
+    // === Registro ===
+
+    public static void error(String tag, String message) { log(Level.ERROR, tag, message, 0, null, null, null); }
+    public static void error(String tag, String message, Object a) { log(Level.ERROR, tag, message, 1, a, null, null); }
+    public static void error(String tag, String message, Object a, Object b) { log(Level.ERROR, tag, message, 2, a, b, null); }
+    public static void error(String tag, String message, Object a, Object b, Object c) { log(Level.ERROR, tag, message, 3, a, b, c); }
+
+    public static void warn(String tag, String message) { log(Level.WARN, tag, message, 0, null, null, null); }
+    public static void warn(String tag, String message, Object a) { log(Level.WARN, tag, message, 1, a, null, null); }
+    public static void warn(String tag, String message, Object a, Object b) { log(Level.WARN, tag, message, 2, a, b, null); }
+    public static void warn(String tag, String message, Object a, Object b, Object c) { log(Level.WARN, tag, message, 3, a, b, c); }
+
+    public static void info(String tag, String message) { log(Level.INFO, tag, message, 0, null, null, null); }
+    public static void info(String tag, String message, Object a) { log(Level.INFO, tag, message, 1, a, null, null); }
+    public static void info(String tag, String message, Object a, Object b) { log(Level.INFO, tag, message, 2, a, b, null); }
+    public static void info(String tag, String message, Object a, Object b, Object c) { log(Level.INFO, tag, message, 3, a, b, c); }
+
+    public static void debug(String tag, String message) { log(Level.DEBUG, tag, message, 0, null, null, null); }
+    public static void debug(String tag, String message, Object a) { log(Level.DEBUG, tag, message, 1, a, null, null); }
+    public static void debug(String tag, String message, Object a, Object b) { log(Level.DEBUG, tag, message, 2, a, b, null); }
+    public static void debug(String tag, String message, Object a, Object b, Object c) { log(Level.DEBUG, tag, message, 3, a, b, c); }
+
+    private static void log(Level level, String tag, String message, int argCount, Object a, Object b, Object c) {
+        if (level.ordinal() > threshold.ordinal()) return;
+        enqueue(level, tag, message, argCount, a, b, c, 0);
+    }
+
+    private static void enqueue(Level level, String tag, String message, int argCount, Object a, Object b, Object c, long skipped) {
+        if (!RING.offer(level, tag, message, argCount, a, b, c, skipped)) {
+            dropped.incrementAndGet();
+            ChatMetrics.LOG_DROPS.increment();
+        }
+    }
+
+    /**
+     * Registro muestreado: como mucho una entrada cada {@code intervalMs}; las
+     * demás solo se cuentan y la siguiente que pasa dice cuántas se omitieron.
+     */
+    public static Sampled sampled(Level level, String tag, long intervalMs) {
+        return new Sampled(level, tag, TimeUnit.MILLISECONDS.toNanos(intervalMs));
+    }
+
+    public static final class Sampled {
+        private final Level level;
+        private final String tag;
+        private final long intervalNanos;
+        private final AtomicLong nextAllowed = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong skipped = new AtomicLong();
+
+        private Sampled(Level level, String tag, long intervalNanos) {
+            this.level = level;
+            this.tag = tag;
+            this.intervalNanos = intervalNanos;
+        }
+
+        public void log(String message) { log(message, 0, null, null); }
+        public void log(String message, Object a) { log(message, 1, a, null); }
+        public void log(String message, Object a, Object b) { log(message, 2, a, b); }
+
+        private void log(String message, int argCount, Object a, Object b) {
+            if (!isEnabled(level)) return;
+            long now = System.nanoTime();
+            long next = nextAllowed.get();
+            if (next != Long.MIN_VALUE && now - next < 0 || !nextAllowed.compareAndSet(next, now + intervalNanos)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            enqueue(level, tag, message, argCount, a, b, null, skipped.getAndSet(0));
+        }
+    }
+
+    /** Espera (como mucho 2 s) a que se escriba lo que ya está en el buffer. */
+    public static void flush() {
+        if (Thread.currentThread() == APPENDER) return;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!RING.isEmpty() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        // La última entrada ya salió del buffer, pero puede que aún no se haya impreso
+        long round = rounds;
+        while (rounds == round && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+
+    // === Escritura ===
+
+    private static void appendLoop() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        StringBuilder err = new StringBuilder(4 * 1024);
+        while (true) {
+            int written = 0;
+            LogRing.Entry entry;
+            while (written < BATCH && (entry = RING.peek()) != null) {
+                try {
+                    format(entry, entry.level.ordinal() <= Level.WARN.ordinal() ? err : out);
+                } catch (RuntimeException e) {
+                    // Un toString() que falla no puede detener el log
+                    err.append("[Log] Error formateando una entrada: ").append(e).append('\n');
+                } finally {
+                    RING.release(entry);
+                }
+                written++;
+            }
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                err.append("[Log] ").append(lost).append(" mensajes descartados: el buffer estaba lleno\n");
+            }
+            if (err.length() > 0) {
+                System.err.print(err);
+                err.setLength(0);
+            }
+            if (out.length() > 0) {
+                System.out.print(out);
+                out.setLength(0);
+            }
+            rounds++;
+            if (written == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private static void format(LogRing.Entry entry, StringBuilder sb) {
+        sb.append('[').append(entry.tag).append("] ");
+        String message = entry.message;
+        int used = 0;
+        int from = 0;
+        int at;
+        while (used < entry.argCount && (at = message.indexOf("{}", from)) >= 0) {
+            sb.append(message, from, at).append(arg(entry, used++));
+            from = at + 2;
+        }
+        sb.append(message, from, message.length());
+        if (entry.skipped > 0) {
+            sb.append(" (").append(entry.skipped).append(" similares omitidos)");
+        }
+        sb.append('\n');
+        for (int i = used; i < entry.argCount; i++) {
+            Object extra = arg(entry, i);
+            if (extra instanceof Throwable) {
+                StringWriter trace = new StringWriter();
+                ((Throwable) extra).printStackTrace(new PrintWriter(trace));
+                sb.append(trace);
+            }
+        }
+    }
+
+    private static Object arg(LogRing.Entry entry, int index) {
+        switch (index) {
+            case 0: return entry.a;
+            case 1: return entry.b;
+            default: return entry.c;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package server.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola acotada de varios productores y un consumidor sobre un array de entradas
+ * creadas de antemano (el esquema de Vyukov): cada hueco lleva un número de
+ * secuencia que indica si está libre para el productor o listo para el consumidor.
+ * Encolar es un CAS y unas escrituras de campos; si está llena se rechaza en vez
+ * de esperar.
+ */
+final class LogRing {
+
+    static final class Entry {
+        volatile long sequence;
+        Log.Level level;
+        String tag;
+        String message;
+        Object a;
+        Object b;
+        Object c;
+        int argCount;
+        long skipped;
+
+        void clear() {
+            tag = null;
+            message = null;
+            a = b = c = null;
+        }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Solo lo avanza el hilo que escribe; volatile para que flush() lo vea
+    private volatile long head;
+
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        entries = new Entry[size];
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            entries[i].sequence = i;
+        }
+    }
+
+    /** @return false si no queda sitio */
+    boolean offer(Log.Level level, String tag, String message, int argCount, Object a, Object b, Object c, long skipped) {
+        Entry entry;
+        long position;
+        while (true) {
+            position = tail.get();
+            entry = entries[(int) position & mask];
+            long diff = entry.sequence - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (diff < 0) {
+                return false;
+            }
+            // Otro productor se llevó el hueco: se reintenta con el siguiente
+        }
+        entry.level = level;
+        entry.tag = tag;
+        entry.message = message;
+        entry.argCount = argCount;
+        entry.a = a;
+        entry.b = b;
+        entry.c = c;
+        entry.skipped = skipped;
+        entry.sequence = position + 1; // publica la entrada al consumidor
+        return true;
+    }
+
+    /** @return la siguiente entrada publicada o null; hay que devolverla con {@link #release} */
+    Entry peek() {
+        Entry entry = entries[(int) head & mask];
+        return entry.sequence == head + 1 ? entry : null;
+    }
+
+    void release(Entry entry) {
+        entry.clear();
+        entry.sequence = head + entries.length;
+        head++;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+}
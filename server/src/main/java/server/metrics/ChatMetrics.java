@@ -0,0 +1,129 @@
+package server.metrics;
+
+import server.log.Log;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+/**
+ * Métricas del servidor. Los puntos de medida usan directamente estos campos, así
+ * que registrar una muestra cuesta unos nanosegundos y no crea objetos. Se publican
+ * por JMX ({@code server:type=ChatMetrics}) y en {@code GET /metrics} del
+ * WebGateway en formato de Prometheus.
+ */
+public final class ChatMetrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    // --- Comandos (TCP y WebSocket) ---
+    private static final String COMMAND = "chat_command_seconds";
+    private static final String COMMAND_HELP = "Tiempo de atención de un comando del cliente";
+    public static final Histogram CMD_MSG = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"msg\"");
+    public static final Histogram CMD_MSG_GROUP = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"msgGroup\"");
+    public static final Histogram CMD_CREATE_GROUP = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"createGroup\"");
+    public static final Histogram CMD_JOIN_GROUP = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"joinGroup\"");
+    public static final Histogram CMD_LIST_GROUPS = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"listGroups\"");
+    public static final Histogram CMD_VOICENOTE = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"voicenote\"");
+    public static final Histogram CMD_VOICE_STREAM = REGISTRY.timer(COMMAND, COMMAND_HELP, "command=\"voiceStream\"");
+
+    // --- Reparto a grupos ---
+    public static final Histogram FANOUT_RECIPIENTS = REGISTRY.histogram("chat_fanout_recipients",
+            "Destinatarios locales por mensaje de grupo");
+    public static final Histogram FANOUT = REGISTRY.timer("chat_fanout_seconds",
+            "Tiempo en repartir un mensaje de grupo a los miembros locales");
+
+    // --- Bytes de salida ---
+    private static final String OUTBOUND = "chat_outbound_bytes_total";
+    private static final String OUTBOUND_HELP = "Bytes escritos hacia los clientes";
+    public static final Counter OUTBOUND_TCP = REGISTRY.counter(OUTBOUND, OUTBOUND_HELP, "transport=\"tcp\"");
+    public static final Counter OUTBOUND_WS = REGISTRY.counter(OUTBOUND, OUTBOUND_HELP, "transport=\"ws\"");
+
+    // --- Historial ---
+    public static final Histogram HISTORY_WRITE = REGISTRY.timer("chat_history_write_seconds",
+            "Tiempo en añadir una línea al historial en disco");
+
+    // --- Relay UDP ---
+    public static final Counter UDP_IN = REGISTRY.counter("chat_udp_packets_in_total",
+            "Datagramas recibidos por el relay");
+    public static final Counter UDP_OUT = REGISTRY.counter("chat_udp_packets_out_total",
+            "Datagramas reenviados por el relay");
+    public static final Counter UDP_DROPS = REGISTRY.counter("chat_udp_drops_total",
+            "Datagramas que no se pudieron reenviar");
+
+    // --- Caché de notas de voz ---
+    public static final Counter VOICE_CACHE_HITS = REGISTRY.counter("chat_voice_cache_hits_total",
+            "Notas de voz servidas desde la caché");
+    public static final Counter VOICE_CACHE_MISSES = REGISTRY.counter("chat_voice_cache_misses_total",
+            "Notas de voz que hubo que leer de disco");
+    public static final Counter VOICE_CACHE_EVICTIONS = REGISTRY.counter("chat_voice_cache_evictions_total",
+            "Notas de voz expulsadas de la caché por tamaño");
+
+    // --- Presencia ---
+    public static final Counter PRESENCE_CHANGES = REGISTRY.counter("chat_presence_changes_total",
+            "Cambios de presencia registrados, antes de agruparlos");
+    public static final Counter PRESENCE_PUBLISHED = REGISTRY.counter("chat_presence_published_total",
+            "Cambios de presencia enviados a los suscriptores tras agruparlos por intervalo");
+
+    // --- Compresión por conexión ---
+    private static final String COMPRESS_RAW = "chat_compress_raw_bytes_total";
+    private static final String COMPRESS_RAW_HELP = "Bytes antes de comprimir en conexiones con compresión";
+    private static final String COMPRESS_WIRE = "chat_compress_wire_bytes_total";
+    private static final String COMPRESS_WIRE_HELP = "Bytes enviados tras comprimir en conexiones con compresión";
+    private static final String COMPRESS_TIME = "chat_compress_seconds";
+    private static final String COMPRESS_TIME_HELP = "Tiempo en comprimir una trama o nota de voz";
+    public static final Counter COMPRESS_TEXT_RAW = REGISTRY.counter(COMPRESS_RAW, COMPRESS_RAW_HELP, "kind=\"text\"");
+    public static final Counter COMPRESS_TEXT_WIRE = REGISTRY.counter(COMPRESS_WIRE, COMPRESS_WIRE_HELP, "kind=\"text\"");
+    public static final Counter COMPRESS_VOICE_RAW = REGISTRY.counter(COMPRESS_RAW, COMPRESS_RAW_HELP, "kind=\"voice\"");
+    public static final Counter COMPRESS_VOICE_WIRE = REGISTRY.counter(COMPRESS_WIRE, COMPRESS_WIRE_HELP, "kind=\"voice\"");
+    public static final Counter COMPRESS_PASSTHROUGH = REGISTRY.counter("chat_compress_passthrough_total",
+            "Notas de voz enviadas sin comprimir por no compensar (formato ya comprimido o poca ganancia)");
+    public static final Histogram COMPRESS_TEXT = REGISTRY.timer(COMPRESS_TIME, COMPRESS_TIME_HELP, "kind=\"text\"");
+    public static final Histogram COMPRESS_VOICE = REGISTRY.timer(COMPRESS_TIME, COMPRESS_TIME_HELP, "kind=\"voice\"");
+    public static final Histogram INFLATE = REGISTRY.timer("chat_inflate_seconds",
+            "Tiempo en descomprimir una trama o nota de voz recibida");
+
+    // --- Log ---
+    public static final Counter LOG_DROPS = REGISTRY.counter("chat_log_dropped_total",
+            "Entradas de log descartadas por tener el buffer lleno");
+
+    // --- Ice ---
+    private static final String ICE = "chat_ice_dispatch_seconds";
+    private static final String ICE_HELP = "Tiempo de atención de una llamada Ice, hasta completar la respuesta";
+
+    private static volatile boolean jmxRegistered;
+
+    private ChatMetrics() {}
+
+    /** Histograma de despacho de una operación Ice; se llama al montar el interceptor, no por llamada. */
+    public static Histogram iceDispatch(String operation) {
+        return REGISTRY.timer(ICE, ICE_HELP, "operation=\"" + operation + "\"");
+    }
+
+    public static void gauge(String name, String help, LongSupplier value) {
+        REGISTRY.gauge(name, help, value);
+    }
+
+    /** Publica el registro por JMX; basta con una vez por proceso. */
+    public static synchronized void registerJmx() {
+        if (jmxRegistered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(REGISTRY, new ObjectName("server:type=ChatMetrics"));
+        } catch (InstanceAlreadyExistsException ignored) {
+            // Otro cargador de clases del mismo proceso ya lo publicó
+        } catch (JMException e) {
+            Log.warn("Métricas", "No se pudo publicar por JMX: {}", e.getMessage());
+        }
+        jmxRegistered = true;
+    }
+
+    /** Texto para {@code GET /metrics}. */
+    public static String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        REGISTRY.writePrometheus(out);
+        return out.toString();
+    }
+}
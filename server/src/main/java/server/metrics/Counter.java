@@ -0,0 +1,23 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Contador monótono. Con LongAdder varios hilos incrementan sin pelear por la misma línea de caché. */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {}
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,29 @@
+package server.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Deja pasar las escrituras y suma los bytes en un {@link Counter}. */
+public final class CountingOutputStream extends FilterOutputStream {
+
+    private final Counter bytes;
+
+    public CountingOutputStream(OutputStream out, Counter bytes) {
+        super(out);
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytes.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream escribiría byte a byte
+        out.write(b, off, len);
+        bytes.add(len);
+    }
+}
@@ -0,0 +1,210 @@
+package server.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Conjunto de métricas con nombre. Registrar es lento (sincronizado) y se hace una
+ * vez al arrancar; quien mide guarda la referencia al {@link Counter} o
+ * {@link Histogram} y a partir de ahí no vuelve a pasar por aquí.
+ *
+ * <p>Se lee de dos formas: como texto de Prometheus ({@link #writePrometheus}) y
+ * como MBean de JMX, con un atributo por serie (los histogramas se aplanan en
+ * count, p50, p99, p999 y max).
+ */
+public final class MetricsRegistry implements DynamicMBean {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null);
+    }
+
+    /** @param label par {@code clave="valor"} o null si la serie no lleva etiqueta */
+    public synchronized Counter counter(String name, String help, String label) {
+        return (Counter) register(name, help, "counter", label, new Counter());
+    }
+
+    public Histogram timer(String name, String help) {
+        return timer(name, help, null);
+    }
+
+    /** Histograma de duraciones en nanosegundos; se exporta en segundos. */
+    public synchronized Histogram timer(String name, String help, String label) {
+        return (Histogram) register(name, help, "summary", label, new Histogram(true));
+    }
+
+    /** Histograma de magnitudes sin unidad (p. ej. destinatarios de un envío). */
+    public synchronized Histogram histogram(String name, String help) {
+        return (Histogram) register(name, help, "summary", null, new Histogram(false));
+    }
+
+    public synchronized void gauge(String name, String help, LongSupplier value) {
+        register(name, help, "gauge", null, value);
+    }
+
+    private Object register(String name, String help, String type, String label, Object metric) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("La métrica " + name + " ya existe como " + family.type);
+        }
+        // Registrar dos veces la misma serie devuelve la existente
+        return family.series.computeIfAbsent(label == null ? "" : label, l -> metric);
+    }
+
+    // === Prometheus ===
+
+    /** Formato de exposición de texto 0.0.4. */
+    public void writePrometheus(StringBuilder out) {
+        for (Family family : snapshot()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String label = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    sample(out, family.name, label, null, ((Counter) metric).get());
+                } else if (metric instanceof LongSupplier) {
+                    sample(out, family.name, label, null, ((LongSupplier) metric).getAsLong());
+                } else {
+                    Histogram h = (Histogram) metric;
+                    for (double q : QUANTILES) {
+                        sample(out, family.name, label, "quantile=\"" + q + "\"", h.export(h.percentile(q)));
+                    }
+                    sample(out, family.name + "_sum", label, null, h.export(h.sum()));
+                    sample(out, family.name + "_count", label, null, h.count());
+                }
+            }
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String extra, double value) {
+        out.append(name);
+        boolean hasLabel = !label.isEmpty();
+        if (hasLabel || extra != null) {
+            out.append('{');
+            if (hasLabel) out.append(label);
+            if (extra != null) out.append(hasLabel ? "," : "").append(extra);
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private synchronized List<Family> snapshot() {
+        List<Family> copy = new ArrayList<>(families.size());
+        for (Family family : families.values()) {
+            Family f = new Family(family.name, family.help, family.type);
+            f.series.putAll(family.series);
+            copy.add(f);
+        }
+        return copy;
+    }
+
+    // === JMX ===
+
+    /** Atributos aplanados: nombre de atributo → valor actual. */
+    private Map<String, Object> attributes() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Family family : snapshot()) {
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String base = family.name + attributeSuffix(series.getKey());
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    values.put(base, ((Counter) metric).get());
+                } else if (metric instanceof LongSupplier) {
+                    values.put(base, ((LongSupplier) metric).getAsLong());
+                } else {
+                    Histogram h = (Histogram) metric;
+                    values.put(base + "_count", h.count());
+                    values.put(base + "_p50", h.export(h.percentile(0.5)));
+                    values.put(base + "_p99", h.export(h.percentile(0.99)));
+                    values.put(base + "_p999", h.export(h.percentile(0.999)));
+                    values.put(base + "_max", h.export(h.max()));
+                }
+            }
+        }
+        return values;
+    }
+
+    /** {@code command="msg"} → {@code _msg}: JMX no admite comillas en los nombres de atributo. */
+    private static String attributeSuffix(String label) {
+        if (label.isEmpty()) return "";
+        int eq = label.indexOf('=');
+        return "_" + label.substring(eq + 1).replace("\"", "");
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = attributes().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Las métricas son de solo lectura");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Object> values = attributes();
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Object value = values.get(name);
+            if (value != null) list.add(new Attribute(name, value));
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+            infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Métricas del servidor de chat",
+                infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,42 @@
+package server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Callback Ice a un cliente, desde la invocación hasta que se completa. */
+@Name("chat.IceCallbackCompleted")
+@Label("Callback Ice completado")
+@Category({"Chat", "Mensajes"})
+@StackTrace(false)
+public final class IceCallbackEvent extends Event {
+
+    // Solo para preguntar si el evento está activo sin crear uno por llamada
+    private static final IceCallbackEvent PROBE = new IceCallbackEvent();
+
+    @Label("Id de mensaje")
+    public long messageId;
+
+    @Label("Usuario")
+    public String user;
+
+    @Label("Fallido")
+    public boolean failed;
+
+    public static boolean enabled() {
+        return PROBE.isEnabled();
+    }
+
+    /** Se llama al completarse la invocación, normalmente en otro hilo. */
+    public void finish(long messageId, String user, boolean failed) {
+        end();
+        if (shouldCommit()) {
+            this.messageId = messageId;
+            this.user = user;
+            this.failed = failed;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.File;
+
+/** Línea del mensaje añadida al historial en disco. */
+@Name("chat.MessagePersisted")
+@Label("Mensaje guardado")
+@Category({"Chat", "Mensajes"})
+@StackTrace(false)
+public final class MessagePersistedEvent extends Event {
+
+    @Label("Id de mensaje")
+    public long messageId;
+
+    @Label("Archivo")
+    public String file;
+
+    @Label("Longitud")
+    public int length;
+
+    public void finish(File file, int length) {
+        end();
+        if (shouldCommit()) {
+            this.messageId = MessageTrace.current();
+            this.file = file.getName();
+            this.length = length;
+            commit();
+        }
+    }
+}
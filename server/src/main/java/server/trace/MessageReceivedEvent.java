@@ -0,0 +1,62 @@
+package server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Llega un mensaje de un cliente; la duración es la decodificación del comando. */
+@Name("chat.MessageReceived")
+@Label("Mensaje recibido")
+@Category({"Chat", "Mensajes"})
+@StackTrace(false)
+public final class MessageReceivedEvent extends Event {
+
+    @Label("Id de mensaje")
+    public long messageId;
+
+    @Label("Transporte")
+    @Description("tcp, ws o ice")
+    public String transport;
+
+    @Label("Comando")
+    public String command;
+
+    @Label("Remitente")
+    public String sender;
+
+    @Label("Destino")
+    @Description("Usuario o grupo")
+    public String target;
+
+    @Label("Longitud")
+    public int length;
+
+    /**
+     * Cierra la etapa de recepción y asigna al mensaje el id que siguen las demás
+     * ({@link MessageTrace#begin()}); quien llama debe terminar con {@link MessageTrace#end()}.
+     */
+    public void finish(String transport, String command, int sender, String target, int length) {
+        long id = MessageTrace.begin();
+        end();
+        if (shouldCommit()) commit(id, transport, command, String.valueOf(sender), target, length);
+    }
+
+    public void finish(String transport, String command, String sender, String target, int length) {
+        long id = MessageTrace.begin();
+        end();
+        if (shouldCommit()) commit(id, transport, command, sender, target, length);
+    }
+
+    private void commit(long id, String transport, String command, String sender, String target, int length) {
+        this.messageId = id;
+        this.transport = transport;
+        this.command = command;
+        this.sender = sender;
+        this.target = target;
+        this.length = length;
+        commit();
+    }
+}
@@ -0,0 +1,58 @@
+package server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * ChatServer decide a quién va el mensaje y lo entrega. La duración cubre el
+ * historial y el reparto a los miembros locales; la espera por el monitor de
+ * ChatServer, que ocurre antes, va aparte en {@code monitorWait}.
+ */
+@Name("chat.MessageRouted")
+@Label("Mensaje enrutado")
+@Category({"Chat", "Mensajes"})
+@StackTrace(false)
+public final class MessageRoutedEvent extends Event {
+
+    @Label("Id de mensaje")
+    public long messageId;
+
+    @Label("Destino")
+    public String target;
+
+    @Label("Destinatarios locales")
+    public int recipients;
+
+    @Label("Reenviado al clúster")
+    public boolean forwarded;
+
+    @Label("Espera del monitor")
+    @Description("Desde que el mensaje se entregó a ChatServer hasta obtener su monitor")
+    @Timespan(Timespan.NANOSECONDS)
+    public long monitorWait;
+
+    /** @param monitorWait {@link MessageTrace#sinceHandoff()} tomado al entrar en el monitor */
+    public void finish(String target, int recipients, boolean forwarded, long monitorWait) {
+        end();
+        if (shouldCommit()) commit(target, recipients, forwarded, monitorWait);
+    }
+
+    public void finish(int userId, int recipients, boolean forwarded, long monitorWait) {
+        end();
+        if (shouldCommit()) commit(String.valueOf(userId), recipients, forwarded, monitorWait);
+    }
+
+    private void commit(String target, int recipients, boolean forwarded, long monitorWait) {
+        this.messageId = MessageTrace.current();
+        this.target = target;
+        this.recipients = recipients;
+        this.forwarded = forwarded;
+        this.monitorWait = monitorWait;
+        commit();
+    }
+}
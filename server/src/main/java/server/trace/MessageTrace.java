@@ -0,0 +1,85 @@
+package server.trace;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identificador de mensaje que une los eventos JFR de sus etapas. Quien recibe el
+ * mensaje (CommandDispatcher, ChatServiceI) llama a {@link #begin()} y el resto de
+ * etapas, que corren en el mismo hilo, lo leen con {@link #current()}. Si la
+ * entrega salta a otro hilo, ese hilo lo retoma con {@link #resume(long)}.
+ *
+ * <p>Sin ninguna grabación en marcha todo se queda en leer un volatile: no se
+ * generan ids ni se toca el ThreadLocal.
+ */
+public final class MessageTrace {
+
+    private static final class Context {
+        long id;
+        // Momento en que el mensaje se entregó a ChatServer, para medir la espera del monitor
+        long handoffNanos;
+    }
+
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final ThreadLocal<Context> CONTEXT = ThreadLocal.withInitial(Context::new);
+    private static volatile boolean recording;
+
+    static {
+        if (FlightRecorder.isAvailable()) {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recordingStateChanged(Recording changed) {
+                    updateRecording();
+                }
+            });
+            // Una grabación iniciada con -XX:StartFlightRecording no avisa al listener
+            if (FlightRecorder.isInitialized()) updateRecording();
+        }
+    }
+
+    private static void updateRecording() {
+        boolean running = false;
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (r.getState() == RecordingState.RUNNING) running = true;
+        }
+        recording = running;
+    }
+
+    private MessageTrace() {}
+
+    /** Asigna un id al mensaje que el hilo actual empieza a procesar; 0 si no se graba. */
+    public static long begin() {
+        if (!recording) return 0;
+        long id = IDS.incrementAndGet();
+        resume(id);
+        return id;
+    }
+
+    /** Continúa en este hilo el mensaje {@code id} (0 no hace nada). */
+    public static void resume(long id) {
+        if (id == 0 || !recording) return;
+        Context context = CONTEXT.get();
+        context.id = id;
+        context.handoffNanos = System.nanoTime();
+    }
+
+    public static long current() {
+        return recording ? CONTEXT.get().id : 0;
+    }
+
+    /** Nanosegundos desde que el mensaje actual se entregó a ChatServer; 0 si no se graba. */
+    public static long sinceHandoff() {
+        if (!recording) return 0;
+        Context context = CONTEXT.get();
+        return context.id == 0 ? 0 : System.nanoTime() - context.handoffNanos;
+    }
+
+    public static void end() {
+        if (!recording) return;
+        CONTEXT.get().id = 0;
+    }
+}
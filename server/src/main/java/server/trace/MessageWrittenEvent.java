@@ -0,0 +1,51 @@
+package server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Mensaje escrito en la conexión de un destinatario. La duración incluye esperar
+ * a que termine otra escritura a la misma conexión, así un socket lento se nota.
+ */
+@Name("chat.MessageWritten")
+@Label("Mensaje escrito")
+@Category({"Chat", "Mensajes"})
+@StackTrace(false)
+public final class MessageWrittenEvent extends Event {
+
+    @Label("Id de mensaje")
+    public long messageId;
+
+    @Label("Destinatario")
+    public String recipient;
+
+    @Label("Transporte")
+    public String transport;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    /** Cierra el evento con el mensaje que se está procesando en este hilo. */
+    public void finish(int recipient, String transport, long bytes) {
+        end();
+        if (shouldCommit()) commit(String.valueOf(recipient), transport, bytes);
+    }
+
+    public void finish(String recipient, String transport, long bytes) {
+        end();
+        if (shouldCommit()) commit(recipient, transport, bytes);
+    }
+
+    private void commit(String recipient, String transport, long bytes) {
+        this.messageId = MessageTrace.current();
+        this.recipient = recipient;
+        this.transport = transport;
+        this.bytes = bytes;
+        commit();
+    }
+}
@@ -0,0 +1,72 @@
+package server.web;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lectura con buffer sobre un SocketChannel bloqueante. No usa
+ * {@code Channels.newInputStream}: ese stream retiene el blockingLock del canal
+ * mientras espera datos, lo que bloquearía los {@code FileChannel.transferTo}
+ * que otro hilo hace sobre el mismo socket.
+ */
+final class ChannelReader {
+
+    private static final int MAX_LINE = 8192;
+
+    private final SocketChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocate(16 * 1024);
+
+    ChannelReader(SocketChannel channel) {
+        this.channel = channel;
+        buf.flip(); // vacío y listo para leer
+    }
+
+    /** Línea terminada en CRLF o LF (cabeceras HTTP, ISO-8859-1); null al final del stream. */
+    String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (!buf.hasRemaining() && !fill()) {
+                return sb.length() == 0 ? null : sb.toString();
+            }
+            byte b = buf.get();
+            if (b == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') sb.setLength(len - 1);
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE) throw new IOException("Línea demasiado larga");
+            sb.append((char) (b & 0xFF));
+        }
+    }
+
+    int readByte() throws IOException {
+        if (!buf.hasRemaining() && !fill()) throw new EOFException();
+        return buf.get() & 0xFF;
+    }
+
+    void readFully(byte[] dst, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining() && !fill()) throw new EOFException();
+            int n = Math.min(len, buf.remaining());
+            buf.get(dst, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    String readUtf8(int len) throws IOException {
+        byte[] bytes = new byte[len];
+        readFully(bytes, 0, len);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean fill() throws IOException {
+        buf.clear();
+        int n = channel.read(buf);
+        buf.flip();
+        return n > 0;
+    }
+}
@@ -0,0 +1,240 @@
+package server.web;
+
+import server.VoiceCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Sirve notas de voz e historiales desde disco con {@code FileChannel.transferTo}
+ * (sendfile): el contenido no pasa por el heap, da igual el tamaño del archivo.
+ * Las notas de voz recientes salen de la {@link VoiceCache} sin tocar el disco.
+ * Soporta peticiones {@code Range} de un solo rango para buscar dentro de una nota
+ * o reanudar descargas, y GET condicional con ETag / Last-Modified.
+ *
+ * <ul>
+ *   <li>{@code GET /api/voice/<conversación>/<archivo>} - nota de voz del historial</li>
+ *   <li>{@code GET /api/export/<conversación>} - archivo .log completo de la conversación</li>
+ * </ul>
+ */
+final class FileRangeHandler {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private final File historyDir;
+    private final VoiceCache voiceCache;
+
+    FileRangeHandler(File historyDir, VoiceCache voiceCache) {
+        this.historyDir = historyDir;
+        this.voiceCache = voiceCache;
+    }
+
+    /** @return false si la ruta no corresponde a este handler */
+    boolean handle(SocketChannel channel, HttpRequest request) throws IOException {
+        boolean head = "HEAD".equals(request.method);
+        if (!head && !"GET".equals(request.method)) return false;
+
+        String path = request.path;
+        int query = path.indexOf('?');
+        if (query >= 0) path = path.substring(0, query);
+
+        File file;
+        boolean voice = path.startsWith("/api/voice/");
+        if (voice) {
+            String[] parts = path.substring("/api/voice/".length()).split("/");
+            if (parts.length != 2) return false;
+            String conv = decode(parts[0]);
+            String filename = decode(parts[1]);
+            if (conv == null || filename == null) {
+                sendError(channel, 400, "Bad Request");
+                return true;
+            }
+            if (!conv.endsWith("_voice")) conv = conv + "_voice";
+            file = new File(new File(historyDir, conv), filename);
+        } else if (path.startsWith("/api/export/")) {
+            String conv = decode(path.substring("/api/export/".length()));
+            if (conv == null) {
+                sendError(channel, 400, "Bad Request");
+                return true;
+            }
+            file = new File(historyDir, conv + ".log");
+        } else {
+            return false;
+        }
+
+        if (!file.isFile()) {
+            sendError(channel, 404, "Not Found");
+            return true;
+        }
+        serve(channel, request, file.toPath(), contentType(file.getName()), head, voice);
+        return true;
+    }
+
+    private void serve(SocketChannel channel, HttpRequest request, Path file, String contentType, boolean head,
+                       boolean voice) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = fc.size();
+            long modified = file.toFile().lastModified();
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+            String lastModified = HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneOffset.UTC));
+
+            if (notModified(request, etag, modified)) {
+                writeHead(channel, "304 Not Modified", etag, lastModified, null, -1, null);
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            String status = "200 OK";
+            String contentRange = null;
+
+            String range = request.header("Range");
+            String ifRange = request.header("If-Range");
+            // Con If-Range el rango solo vale si el archivo no cambió desde la primera descarga
+            if (range != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(lastModified))) {
+                long[] bounds = parseRange(range, size);
+                if (bounds == null) {
+                    writeHead(channel, "416 Range Not Satisfiable", etag, lastModified, null, 0, "bytes */" + size);
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                status = "206 Partial Content";
+                contentRange = "bytes " + start + "-" + end + "/" + size;
+            }
+
+            long length = size == 0 ? 0 : end - start + 1;
+            writeHead(channel, status, etag, lastModified, contentType, length, contentRange);
+            if (head) return;
+
+            if (voice) {
+                try (VoiceCache.Lease cached = voiceCache.load(file)) {
+                    if (cached != null && cached.buffer().remaining() == size) {
+                        ByteBuffer slice = cached.buffer().duplicate();
+                        slice.position((int) start).limit((int) (start + length));
+                        while (slice.hasRemaining()) channel.write(slice);
+                        return;
+                    }
+                    // Reemplazada en disco por fuera del servidor
+                    if (cached != null) voiceCache.invalidate(file);
+                }
+            }
+            long sent = 0;
+            while (sent < length) {
+                long n = fc.transferTo(start + sent, length - sent, channel);
+                if (n <= 0 && fc.size() < start + length) break; // archivo truncado mientras se enviaba
+                sent += n;
+            }
+        }
+    }
+
+    private static boolean notModified(HttpRequest request, String etag, long modified) {
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (ifNoneMatch.trim().equals("*")) return true;
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals(etag)) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = request.header("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().toEpochMilli();
+                return modified / 1000 <= since / 1000;
+            } catch (DateTimeParseException ignored) {}
+        }
+        return false;
+    }
+
+    /**
+     * Interpreta {@code bytes=a-b}, {@code bytes=a-} y {@code bytes=-n}. Con varios
+     * rangos solo se atiende el primero.
+     * @return {inicio, fin} inclusivos, o null si el rango no es satisfacible
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=")) return null;
+        String spec = header.substring(6);
+        int comma = spec.indexOf(',');
+        if (comma >= 0) spec = spec.substring(0, comma);
+        spec = spec.trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || start > end) return null;
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeHead(SocketChannel channel, String status, String etag, String lastModified,
+                                  String contentType, long length, String contentRange) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(status).append("\r\n");
+        sb.append("Accept-Ranges: bytes\r\n");
+        sb.append("ETag: ").append(etag).append("\r\n");
+        sb.append("Last-Modified: ").append(lastModified).append("\r\n");
+        sb.append("Cache-Control: no-cache\r\n");
+        // La página puede venir del proxy (otro puerto): permitir fetch desde el navegador
+        sb.append("Access-Control-Allow-Origin: *\r\n");
+        sb.append("Access-Control-Expose-Headers: Content-Range, ETag\r\n");
+        if (contentType != null) sb.append("Content-Type: ").append(contentType).append("\r\n");
+        if (contentRange != null) sb.append("Content-Range: ").append(contentRange).append("\r\n");
+        if (length >= 0) sb.append("Content-Length: ").append(length).append("\r\n");
+        sb.append("\r\n");
+        WebGateway.write(channel, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void sendError(SocketChannel channel, int status, String reason) throws IOException {
+        WebGateway.writeResponse(channel, status, reason, "text/plain; charset=utf-8", reason);
+    }
+
+    /** Decodifica un segmento de la URL; null si intenta salir del directorio de historial. */
+    private static String decode(String segment) {
+        String value;
+        try {
+            value = URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (value.isEmpty() || value.contains("/") || value.contains("\\") || value.contains("..")) return null;
+        return value;
+    }
+
+    private static String contentType(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".wav")) return "audio/wav";
+        if (lower.endsWith(".webm")) return "audio/webm";
+        if (lower.endsWith(".ogg")) return "audio/ogg";
+        if (lower.endsWith(".log")) return "text/plain; charset=utf-8";
+        return "application/octet-stream";
+    }
+}
@@ -0,0 +1,57 @@
+package server.web;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** Línea de petición y cabeceras de una petición HTTP/1.1 (sin cuerpo). */
+final class HttpRequest {
+
+    private static final int MAX_HEADERS = 100;
+
+    final String method;
+    final String path;
+    final String version;
+    private final Map<String, String> headers;
+
+    private HttpRequest(String method, String path, String version, Map<String, String> headers) {
+        this.method = method;
+        this.path = path;
+        this.version = version;
+        this.headers = headers;
+    }
+
+    /** @return null si el cliente cerró la conexión antes de enviar otra petición */
+    static HttpRequest read(ChannelReader reader) throws IOException {
+        String requestLine = reader.readLine();
+        if (requestLine == null) return null;
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) throw new IOException("Petición HTTP inválida: " + requestLine);
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            if (headers.size() >= MAX_HEADERS) throw new IOException("Demasiadas cabeceras");
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return new HttpRequest(parts[0], parts[1], parts[2], headers);
+    }
+
+    /** Valor de la cabecera (nombre sin distinguir mayúsculas) o null. */
+    String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    boolean headerContains(String name, String token) {
+        String value = header(name);
+        return value != null && value.toLowerCase(Locale.ROOT).contains(token.toLowerCase(Locale.ROOT));
+    }
+
+    boolean keepAlive() {
+        if (headerContains("Connection", "close")) return false;
+        return "HTTP/1.1".equals(version) || headerContains("Connection", "keep-alive");
+    }
+}
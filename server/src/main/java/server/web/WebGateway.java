@@ -0,0 +1,172 @@
+package server.web;
+
+import server.ChatServer;
+import server.log.Log;
+import server.metrics.ChatMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gateway HTTP/WebSocket embebido en el servidor. Los navegadores se conectan a
+ * {@code ws://host:puerto/chat} y quedan registrados en ChatServer como cualquier
+ * cliente TCP, sin pasar por el proxy Node.js (que abría una conexión TCP por
+ * navegador y convertía cada mensaje a JSON y base64). Por HTTP sirve además las
+ * notas de voz y los historiales (ver {@link FileRangeHandler}) y las métricas
+ * en {@code /metrics}.
+ */
+public class WebGateway implements Closeable {
+
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ChatServer server;
+    private final int port;
+    private final FileRangeHandler files;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "web-gateway-" + connectionCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private ServerSocketChannel serverChannel;
+
+    public WebGateway(ChatServer server, int port) {
+        this.server = server;
+        this.port = port;
+        this.files = new FileRangeHandler(server.getHistory().getBaseDir(), server.getHistory().getVoiceCache());
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        pool.submit(this::acceptLoop);
+        Log.info("Gateway", "HTTP/WebSocket escuchando en el puerto {} (ws://<host>:{}/chat)", port, port);
+    }
+
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                pool.submit(() -> handleConnection(channel));
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) {
+                    Log.error("Gateway", "Error aceptando conexión: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handleConnection(SocketChannel channel) {
+        try (channel) {
+            ChannelReader reader = new ChannelReader(channel);
+            HttpRequest request;
+            while ((request = HttpRequest.read(reader)) != null) {
+                if (request.headerContains("Upgrade", "websocket")) {
+                    upgrade(channel, reader, request);
+                    return;
+                }
+                if (!handleHttp(channel, request) || !request.keepAlive()) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Conexión cerrada por el cliente
+        }
+    }
+
+    private void upgrade(SocketChannel channel, ChannelReader reader, HttpRequest request) throws IOException {
+        String key = request.header("Sec-WebSocket-Key");
+        if (!"/chat".equals(request.path) || key == null) {
+            writeResponse(channel, 400, "Bad Request", "text/plain; charset=utf-8", "WebSocket solo en /chat");
+            return;
+        }
+        InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+        if (!server.getAdmission().tryAdmit(address)) {
+            writeResponse(channel, 503, "Service Unavailable", "text/plain; charset=utf-8", "Servidor lleno, intenta más tarde.");
+            return;
+        }
+        try {
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+            write(channel, response.getBytes(StandardCharsets.ISO_8859_1));
+
+            WebSocketSession session = new WebSocketSession(server.nextClientId(), channel, reader, server);
+            Log.info("Gateway", "Navegador {} conectado: {}", session.getId(), channel.getRemoteAddress());
+            session.run();
+        } finally {
+            server.getAdmission().release(address);
+        }
+    }
+
+    /**
+     * @return false si la conexión debe cerrarse tras la respuesta
+     */
+    private boolean handleHttp(SocketChannel channel, HttpRequest request) throws IOException {
+        if ("GET".equals(request.method) && "/health".equals(request.path)) {
+            writeResponse(channel, 200, "OK", "text/plain; charset=utf-8", "ok");
+            return true;
+        }
+        if ("GET".equals(request.method) && "/metrics".equals(request.path)) {
+            writeResponse(channel, 200, "OK", "text/plain; version=0.0.4; charset=utf-8", ChatMetrics.prometheus());
+            return true;
+        }
+        if (files.handle(channel, request)) {
+            return true;
+        }
+        writeResponse(channel, 404, "Not Found", "text/plain; charset=utf-8", "No encontrado");
+        return true;
+    }
+
+    static void writeResponse(SocketChannel channel, int status, String reason, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + bytes.length + "\r\n\r\n";
+        write(channel, head.getBytes(StandardCharsets.ISO_8859_1));
+        write(channel, bytes);
+    }
+
+    static void write(SocketChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WS_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 no disponible", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
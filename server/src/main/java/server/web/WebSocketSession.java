@@ -0,0 +1,337 @@
+package server.web;
+
+import server.ChatServer;
+import server.ChatSession;
+import server.CommandDispatcher;
+import server.RateLimiter;
+import server.TimerWheel;
+import server.VoiceCache;
+import server.log.Log;
+import server.metrics.ChatMetrics;
+import server.trace.MessageWrittenEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sesión de un navegador conectado por WebSocket directamente al núcleo de ChatServer.
+ * Usa el mismo protocolo de líneas que el cliente TCP: cada trama de texto es un
+ * comando o mensaje. Las notas de voz viajan como una trama de texto
+ * ({@code voicenoteUser:<id>:<archivo>} / {@code INCOMING_VOICENOTE:<de>:<archivo>})
+ * seguida de una trama binaria con el audio, sin base64 ni JSON.
+ */
+final class WebSocketSession implements ChatSession {
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+    private static final int CLOSE_PROTOCOL_ERROR = 1002;
+    // Ping de WebSocket tras este tiempo sin recibir nada, y corte tras tres sin respuesta
+    private static final long HEARTBEAT_MS = Long.getLong("chat.heartbeatMs", 30_000);
+
+    private final int id;
+    private final SocketChannel channel;
+    private final ChannelReader reader;
+    private final ChatServer server;
+    private final CommandDispatcher dispatcher;
+    private final ByteBuffer header = ByteBuffer.allocate(10);
+    private final RateLimiter limiter;
+
+    // Cabecera de nota de voz a la espera de su trama binaria
+    private String pendingVoice;
+    private volatile boolean open = true;
+    private volatile long lastRead = System.currentTimeMillis();
+    private volatile TimerWheel.Timeout idleTimer;
+
+    WebSocketSession(int id, SocketChannel channel, ChannelReader reader, ChatServer server) {
+        this.id = id;
+        this.channel = channel;
+        this.reader = reader;
+        this.server = server;
+        this.dispatcher = new CommandDispatcher(server, "ws");
+        this.limiter = server.getAdmission().newRateLimiter();
+    }
+
+    /** Atiende la sesión hasta que el navegador cierra o se pierde la conexión. */
+    void run() {
+        server.register(this);
+        scheduleIdleCheck(HEARTBEAT_MS);
+        try {
+            send("Conectado al servidor. Tu id es " + id + ".");
+            send("Audio UDP puerto servidor: " + server.getUdpRelay().getPort());
+            readLoop();
+        } catch (IOException e) {
+            // Navegador desconectado
+        } finally {
+            open = false;
+            TimerWheel.Timeout timer = idleTimer;
+            if (timer != null) timer.cancel();
+            server.onClientClose(id);
+        }
+    }
+
+    private void readLoop() throws IOException {
+        byte[] message = null;
+        int messageLength = 0;
+        int messageOpcode = 0;
+
+        while (open) {
+            int b0 = reader.readByte();
+            int b1 = reader.readByte();
+            lastRead = System.currentTimeMillis();
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            boolean masked = (b1 & 0x80) != 0;
+            long len = b1 & 0x7F;
+            if (len == 126) {
+                len = (reader.readByte() << 8) | reader.readByte();
+            } else if (len == 127) {
+                len = 0;
+                for (int i = 0; i < 8; i++) len = (len << 8) | reader.readByte();
+            }
+            if (!masked) throw new IOException("Trama del cliente sin máscara");
+            // RFC 6455 §5.5: las de control caben en 125 bytes y no se fragmentan
+            if (opcode >= OP_CLOSE && (len > MAX_CONTROL_PAYLOAD || !fin)) {
+                failConnection(CLOSE_PROTOCOL_ERROR);
+                throw new IOException("Trama de control inválida");
+            }
+            // Con 127 el bit alto de la longitud de 64 bits la deja negativa
+            if (len < 0 || len > MAX_MESSAGE_SIZE || messageLength + len > MAX_MESSAGE_SIZE) {
+                throw new IOException("Mensaje WebSocket demasiado grande");
+            }
+            byte[] mask = new byte[4];
+            reader.readFully(mask, 0, 4);
+            limiter.throttleBytes(len);
+
+            if (opcode >= OP_CLOSE) {
+                // Las tramas de control pueden llegar entre fragmentos de un mensaje
+                byte[] payload = new byte[(int) len];
+                reader.readFully(payload, 0, payload.length);
+                unmask(payload, 0, payload.length, mask, 0);
+                if (opcode == OP_PING) {
+                    writeFrame(OP_PONG, ByteBuffer.wrap(payload));
+                } else if (opcode == OP_CLOSE) {
+                    writeFrame(OP_CLOSE, ByteBuffer.wrap(payload));
+                    return;
+                }
+                continue;
+            }
+
+            if (opcode != OP_CONTINUATION) {
+                messageOpcode = opcode;
+                messageLength = 0;
+            }
+            if (message == null || message.length < messageLength + len) {
+                byte[] bigger = new byte[Math.max(messageLength + (int) len, 4096)];
+                if (message != null) System.arraycopy(message, 0, bigger, 0, messageLength);
+                message = bigger;
+            }
+            reader.readFully(message, messageLength, (int) len);
+            unmask(message, messageLength, (int) len, mask, 0);
+            messageLength += (int) len;
+
+            if (fin) {
+                // La trama binaria de una nota cuenta junto con su cabecera; ya se dosificó por bytes
+                boolean voicePayload = messageOpcode == OP_BINARY && pendingVoice != null;
+                if (!voicePayload && !limiter.admitMessage()) {
+                    if (limiter.shouldNotify()) send(RateLimiter.REJECTED_NOTICE);
+                    messageOpcode = 0;
+                }
+                if (messageOpcode == OP_TEXT) {
+                    onText(new String(message, 0, messageLength, StandardCharsets.UTF_8));
+                } else if (messageOpcode == OP_BINARY) {
+                    byte[] data = new byte[messageLength];
+                    System.arraycopy(message, 0, data, 0, messageLength);
+                    onBinary(data);
+                }
+                messageLength = 0;
+                // No retener buffers grandes (notas de voz) entre mensajes
+                if (message.length > 64 * 1024) message = null;
+            }
+        }
+    }
+
+    private void scheduleIdleCheck(long delayMs) {
+        idleTimer = server.getTimers().schedule(this::checkIdle, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Detecta conexiones medio abiertas, que si no dejarían bloqueado para siempre el
+     * hilo del gateway en la lectura: sin tráfico se envía un ping (el navegador responde
+     * solo con un pong) y se corta si en tres intervalos no llega nada.
+     */
+    private void checkIdle() {
+        if (!open) return;
+        long idle = System.currentTimeMillis() - lastRead;
+        if (idle >= 3 * HEARTBEAT_MS) {
+            Log.info("Gateway", "Navegador {} no responde al ping, cerrando conexión.", id);
+            close();
+            return;
+        }
+        if (idle >= HEARTBEAT_MS) {
+            try {
+                writeFrame(OP_PING, ByteBuffer.allocate(0));
+            } catch (IOException e) {
+                close();
+                return;
+            }
+        }
+        scheduleIdleCheck(HEARTBEAT_MS);
+    }
+
+    private static void unmask(byte[] data, int off, int len, byte[] mask, int maskOffset) {
+        for (int i = 0; i < len; i++) {
+            data[off + i] ^= mask[(maskOffset + i) & 3];
+        }
+    }
+
+    private void onText(String line) {
+        if (line.trim().isEmpty()) return;
+        if (dispatcher.dispatch(this, line)) return;
+
+        if (line.startsWith("voicenoteUser:") || line.startsWith("voicenoteGroup:")) {
+            if (line.split(":", 3).length < 3) {
+                send("Formato inválido. Usa: voicenoteUser:<userId>:<filename> o voicenoteGroup:<groupName>:<filename>");
+                return;
+            }
+            pendingVoice = line;
+        }
+    }
+
+    private void onBinary(byte[] data) {
+        String voiceHeader = pendingVoice;
+        pendingVoice = null;
+        if (voiceHeader == null) {
+            send("Trama binaria inesperada: envía antes voicenoteUser:/voicenoteGroup:");
+            return;
+        }
+        String[] parts = voiceHeader.split(":", 3);
+        if (voiceHeader.startsWith("voicenoteUser:")) {
+            server.sendVoiceNoteToUser(parts[1], data, parts[2], String.valueOf(id));
+        } else {
+            server.sendVoiceNoteToGroup(id, parts[1], parts[2], data);
+        }
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public void send(String msg) {
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        try {
+            writeFrame(OP_TEXT, ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            close();
+        }
+        written.finish(id, "ws", bytes.length);
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, byte[] data, String fromId) {
+        // Los eventos empiezan antes del monitor: la espera por otra escritura cuenta
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        synchronized (this) {
+            send("INCOMING_VOICENOTE:" + fromId + ":" + filename);
+            try {
+                writeFrame(OP_BINARY, ByteBuffer.wrap(data));
+            } catch (IOException e) {
+                close();
+            }
+        }
+        written.finish(id, "ws", data.length);
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, Path file, String fromId) {
+        MessageWrittenEvent written = new MessageWrittenEvent();
+        written.begin();
+        long size = 0;
+        synchronized (this) {
+            send("INCOMING_VOICENOTE:" + fromId + ":" + filename);
+            try (VoiceCache.Lease cached = server.getHistory().getVoiceCache().load(file)) {
+                if (cached != null) {
+                    size = cached.buffer().remaining();
+                    writeFrame(OP_BINARY, cached.buffer());
+                } else {
+                    size = transferFile(file);
+                }
+            } catch (IOException e) {
+                Log.error("Gateway", "Error sending voice note to web client {}: {}", id, e.getMessage());
+                close();
+            }
+        }
+        written.finish(id, "ws", size);
+    }
+
+    // Notas que no caben en la caché: transferTo usa sendfile, del disco al socket sin pasar por el heap
+    private long transferFile(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = fc.size();
+            writeHeader(OP_BINARY, size);
+            long sent = 0;
+            while (sent < size) {
+                sent += fc.transferTo(sent, size - sent, channel);
+            }
+            ChatMetrics.OUTBOUND_WS.add(size);
+            return size;
+        }
+    }
+
+    private synchronized void writeFrame(int opcode, ByteBuffer payload) throws IOException {
+        if (!open) throw new IOException("Sesión cerrada");
+        writeHeader(opcode, payload.remaining());
+        int length = payload.remaining();
+        while (payload.hasRemaining()) channel.write(payload);
+        ChatMetrics.OUTBOUND_WS.add(length);
+    }
+
+    // Las tramas del servidor nunca llevan máscara
+    private synchronized void writeHeader(int opcode, long length) throws IOException {
+        header.clear();
+        header.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            header.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            header.put((byte) 126);
+            header.putShort((short) length);
+        } else {
+            header.put((byte) 127);
+            header.putLong(length);
+        }
+        header.flip();
+        ChatMetrics.OUTBOUND_WS.add(header.remaining());
+        while (header.hasRemaining()) channel.write(header);
+    }
+
+    // Trama de cierre con el código de error; si ya no se puede escribir, da igual
+    private void failConnection(int code) {
+        try {
+            writeFrame(OP_CLOSE, ByteBuffer.wrap(new byte[] {(byte) (code >> 8), (byte) code}));
+        } catch (IOException ignored) {}
+    }
+
+    private void close() {
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
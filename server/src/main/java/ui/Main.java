@@ -1,20 +1,27 @@
 package ui;
 
 import server.ChatServer;
+import server.cluster.ClusterNode;
 import server.ice.IceChatServer;
+import server.web.WebGateway;
 
 public class Main {
     public static void main(String[] args) {
-        int tcpPort = 5000;
-        int udpPort = 6000;
-        int poolSize = 8;
+        // Configurables para levantar varios nodos del clúster en la misma máquina
+        int tcpPort = Integer.getInteger("chat.tcpPort", 5000);
+        int udpPort = Integer.getInteger("chat.udpPort", 6000);
+        // Un hilo por conexión TCP: es el máximo de clientes TCP simultáneos
+        int poolSize = Integer.getInteger("chat.poolSize", 8);
+        int webPort = Integer.getInteger("chat.webPort", 8080);
+        int clusterPort = Integer.getInteger("chat.cluster.port", 0);
 
         System.out.println("Iniciando servidores...");
-        System.out.println("TCP: " + tcpPort + ", UDP: " + udpPort + ", Ice WebSocket: 10000");
+        System.out.println("TCP: " + tcpPort + ", UDP: " + udpPort + ", Ice WebSocket: 10000, Gateway web: " + webPort);
 
         try (
                 ChatServer server = new ChatServer(tcpPort, udpPort, poolSize);
-                IceChatServer iceServer = new IceChatServer(server)
+                IceChatServer iceServer = new IceChatServer(server, args);
+                WebGateway gateway = new WebGateway(server, webPort)
         ) {
             // Iniciar servidor Ice en segundo plano
             Thread iceThread = new Thread(() -> {
@@ -26,6 +33,16 @@ public class Main {
             // Pequeña pausa para que Ice se inicie
             Thread.sleep(2000);
 
+            // Federación opcional: -Dchat.cluster.port=7001 -Dchat.cluster.nodeId=1 -Dchat.cluster.peers=2@host:7002
+            if (clusterPort > 0) {
+                ClusterNode cluster = new ClusterNode(Integer.getInteger("chat.cluster.nodeId", 0), clusterPort,
+                        ClusterNode.parsePeers(System.getProperty("chat.cluster.peers")), server);
+                cluster.start();
+            }
+
+            // Gateway HTTP/WebSocket para navegadores (sin proxy Node.js)
+            gateway.start();
+
             // Iniciar servidor TCP legacy
             System.out.println("Todos los servidores inicializados - Listo para conexiones");
             server.start();
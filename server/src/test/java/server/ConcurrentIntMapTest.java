@@ -0,0 +1,106 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentIntMapTest {
+
+    @Test
+    void putGetRemove() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        assertNull(map.get(7));
+        assertNull(map.put(7, "a"));
+        assertEquals("a", map.put(7, "b"));
+        assertEquals("b", map.get(7));
+        assertEquals(1, map.size());
+        assertEquals("b", map.remove(7));
+        assertNull(map.get(7));
+        assertNull(map.remove(7));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void removeOnlyMatchingValue() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        map.put(1, "nueva");
+        assertFalse(map.remove(1, "vieja"));
+        assertEquals("nueva", map.get(1));
+        assertTrue(map.remove(1, "nueva"));
+        assertNull(map.get(1));
+    }
+
+    @Test
+    void reusesRemovedSlot() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        map.put(3, "a");
+        map.remove(3);
+        assertNull(map.put(3, "b"));
+        assertEquals("b", map.get(3));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void rejectsReservedKeyAndNullValue() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        assertThrows(IllegalArgumentException.class, () -> map.put(Integer.MIN_VALUE, "x"));
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+        assertNull(map.get(Integer.MIN_VALUE));
+    }
+
+    /** Altas y bajas aleatorias contra un HashMap, con varios redimensionados por el camino. */
+    @Test
+    void matchesHashMapAcrossResizes() {
+        ConcurrentIntMap<Integer> map = new ConcurrentIntMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(4096) - 2048;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int key = -2048; key < 2048; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    /** Un lector sin cerrojos nunca deja de ver una clave que nadie borra mientras otro hilo redimensiona. */
+    @Test
+    void readersSeeStableKeysDuringWrites() throws Exception {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        map.put(-1, "fija");
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean missed = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            started.countDown();
+            while (!done.get()) {
+                if (!"fija".equals(map.get(-1))) missed.set(true);
+            }
+        });
+        reader.start();
+        started.await();
+        for (int i = 0; i < 100_000; i++) {
+            map.put(i, "v");
+            if (i % 2 == 0) map.remove(i);
+        }
+        done.set(true);
+        reader.join();
+        assertFalse(missed.get());
+        assertEquals(50_001, map.size());
+    }
+}
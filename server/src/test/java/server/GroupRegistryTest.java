@@ -0,0 +1,156 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupRegistryTest {
+
+    @TempDir
+    Path dir;
+
+    // Sin temporizador: las instantáneas solo se hacen a mano
+    private GroupRegistry open() {
+        return new GroupRegistry(dir.toFile(), null, 1_000_000, 0);
+    }
+
+    private File wal(long gen) {
+        return dir.resolve("groups-" + gen + ".wal").toFile();
+    }
+
+    @Test
+    void membershipsSurviveRestartByIdentity() {
+        try (GroupRegistry registry = open()) {
+            assertTrue(registry.create("amigos", "s:tokenA"));
+            assertTrue(registry.join("amigos", "u:bea"));
+            assertFalse(registry.join("amigos", "u:bea"));
+            assertTrue(registry.create("trabajo", null));
+            assertTrue(registry.join("trabajo", "s:tokenA"));
+            assertTrue(registry.leave("amigos", "s:tokenA"));
+            assertFalse(registry.leave("amigos", "s:tokenA"));
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("u:bea"), registry.getGroups().get("amigos"));
+            assertEquals(List.of("trabajo"), registry.groupsOf("s:tokenA"));
+            assertEquals(List.of("amigos"), registry.groupsOf("u:bea"));
+            assertTrue(registry.hasMember("s:tokenA"));
+            assertFalse(registry.hasMember("s:otro"));
+            assertEquals(2, registry.memberships());
+        }
+    }
+
+    /** Una caída a mitad de un registro deja el final cortado: se descarta y el log se trunca. */
+    @Test
+    void discardsTornTail() throws Exception {
+        try (GroupRegistry registry = open()) {
+            registry.create("amigos", "s:a");
+            registry.join("amigos", "s:b");
+        }
+        long full = wal(0).length();
+        try (RandomAccessFile file = new RandomAccessFile(wal(0), "rw")) {
+            file.setLength(full - 3);
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("s:a"), registry.getGroups().get("amigos"));
+            assertTrue(wal(0).length() < full - 3);
+            // Lo que se anexa después del corte se lee bien en el siguiente arranque
+            registry.join("amigos", "s:c");
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("s:a", "s:c"), registry.getGroups().get("amigos"));
+        }
+    }
+
+    @Test
+    void discardsTailWithBadCrc() throws Exception {
+        try (GroupRegistry registry = open()) {
+            registry.create("amigos", "s:a");
+            registry.join("amigos", "s:b");
+        }
+        long full = wal(0).length();
+        try (RandomAccessFile file = new RandomAccessFile(wal(0), "rw")) {
+            file.seek(full - 1); // último byte del último registro
+            int last = file.read();
+            file.seek(full - 1);
+            file.write(last ^ 0xFF);
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("s:a"), registry.getGroups().get("amigos"));
+            assertFalse(registry.hasMember("s:b"));
+        }
+        assertTrue(wal(0).length() < full);
+    }
+
+    /** Tras la instantánea los logs anteriores se borran y el arranque combina instantánea y log nuevo. */
+    @Test
+    void snapshotTruncatesOlderLogs() {
+        try (GroupRegistry registry = open()) {
+            registry.create("amigos", "s:a");
+            registry.join("amigos", "s:b");
+            registry.create("trabajo", "u:carla");
+            registry.snapshotNow();
+            assertFalse(wal(0).exists());
+            assertTrue(wal(1).exists());
+            assertTrue(dir.resolve("groups.snap").toFile().exists());
+
+            registry.leave("amigos", "s:a");
+            registry.join("trabajo", "s:b");
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("s:b"), registry.getGroups().get("amigos"));
+            assertEquals(Set.of("u:carla", "s:b"), registry.getGroups().get("trabajo"));
+            assertFalse(registry.hasMember("s:a"));
+            // Otra instantánea con la salida ya incluida
+            registry.snapshotNow();
+            assertFalse(wal(1).exists());
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("s:b"), registry.getGroups().get("amigos"));
+            assertEquals(3, registry.memberships());
+        }
+    }
+
+    /** Un log de la versión anterior (ids de conexión) conserva los grupos pero no sus miembros. */
+    @Test
+    void loadsVersionOneLogWithoutMembers() throws Exception {
+        Files.createDirectories(dir);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(wal(0).toPath()))) {
+            writeV1(out, 1, "amigos", 7);
+            writeV1(out, 2, "amigos", 9);
+        }
+        try (GroupRegistry registry = open()) {
+            assertTrue(registry.exists("amigos"));
+            assertEquals(0, registry.memberCount("amigos"));
+            assertTrue(registry.join("amigos", "s:a"));
+        }
+        try (GroupRegistry registry = open()) {
+            assertEquals(Set.of("s:a"), registry.getGroups().get("amigos"));
+        }
+    }
+
+    private static void writeV1(DataOutputStream out, int op, String group, int userId) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(op);
+        record.writeUTF(group);
+        record.writeInt(userId);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+}
@@ -0,0 +1,132 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OfflineMailboxTest {
+
+    @TempDir
+    Path dir;
+
+    private OfflineMailbox mailbox(long perUserBytes) {
+        return new OfflineMailbox(dir.toFile(), perUserBytes, 1024 * 1024, null, 0);
+    }
+
+    private static long files(Path dir) throws Exception {
+        try (Stream<Path> s = Files.walk(dir)) {
+            return s.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    void drainsTextInOrderFromMemory() {
+        OfflineMailbox mailbox = mailbox(OfflineMailbox.DEFAULT_PER_USER_BYTES);
+        mailbox.storeText("5", "uno");
+        mailbox.storeText("5", "dos\tcon\\escapes\n");
+        assertTrue(mailbox.hasMail("5"));
+        assertTrue(mailbox.memoryBytes() > 0);
+
+        RecordingSession session = new RecordingSession(5);
+        assertEquals(2, mailbox.drain("5", session));
+        assertEquals(List.of("uno", "dos\tcon\\escapes\n"), session.received);
+        // Todo el texto sale en un solo lote
+        assertEquals(List.of(2), session.batches);
+        assertFalse(mailbox.hasMail("5"));
+        assertEquals(0, mailbox.memoryBytes());
+        assertEquals(0, mailbox.drain("5", session));
+    }
+
+    /** Pasado el límite por usuario los mensajes van a disco, y los siguientes también para no desordenarse. */
+    @Test
+    void spillsToDiskAndKeepsOrder() throws Exception {
+        OfflineMailbox mailbox = mailbox(200);
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String text = "mensaje " + i;
+            sent.add(text);
+            mailbox.storeText("7", text);
+        }
+        Path spill = dir.resolve("7.mbox");
+        assertTrue(Files.exists(spill));
+        assertTrue(mailbox.memoryBytes() <= 200);
+
+        RecordingSession session = new RecordingSession(7);
+        assertEquals(20, mailbox.drain("7", session));
+        assertEquals(sent, session.received);
+        assertFalse(Files.exists(spill));
+        assertEquals(0, mailbox.memoryBytes());
+    }
+
+    @Test
+    void voiceCopyIsDeliveredInOrderAndDeleted() throws Exception {
+        OfflineMailbox mailbox = mailbox(OfflineMailbox.DEFAULT_PER_USER_BYTES);
+        byte[] note = "RIFF-datos-de-audio".getBytes(StandardCharsets.US_ASCII);
+        mailbox.storeText("9", "antes");
+        mailbox.storeVoice("9", "nota.wav", note, "3");
+        mailbox.storeText("9", "después");
+        assertEquals(1, files(dir.resolve("9_voice")));
+
+        RecordingSession session = new RecordingSession(9);
+        assertEquals(3, mailbox.drain("9", session));
+        assertEquals(List.of("antes", "VOZ nota.wav de 3", "después"), session.received);
+        assertArrayEquals(note, session.voiceData.get(0));
+        assertEquals(0, files(dir.resolve("9_voice")));
+    }
+
+    /** Una nota del historial se entrega por ruta y el buzón no la borra: no es suya. */
+    @Test
+    void historyVoiceIsNotDeleted() throws Exception {
+        OfflineMailbox mailbox = mailbox(OfflineMailbox.DEFAULT_PER_USER_BYTES);
+        Path history = Files.createDirectories(dir.resolve("history"));
+        Path note = Files.write(history.resolve("nota.wav"), new byte[] {1, 2, 3});
+        mailbox.storeVoice("4", "nota.wav", note, "2");
+
+        RecordingSession session = new RecordingSession(4);
+        assertEquals(1, mailbox.drain("4", session));
+        assertArrayEquals(new byte[] {1, 2, 3}, session.voiceData.get(0));
+        assertTrue(Files.exists(note));
+    }
+
+    @Test
+    void discardRemovesSpillAndVoiceCopies() throws Exception {
+        OfflineMailbox mailbox = mailbox(100);
+        for (int i = 0; i < 10; i++) mailbox.storeText("u/1", "texto " + i);
+        mailbox.storeVoice("u/1", "nota.wav", new byte[] {9}, "8");
+        // El nombre del usuario se sanea antes de usarlo como archivo
+        assertTrue(Files.exists(dir.resolve("u_1.mbox")));
+        assertTrue(new File(dir.toFile(), "u_1_voice").isDirectory());
+
+        mailbox.discard("u/1");
+        assertFalse(mailbox.hasMail("u/1"));
+        assertEquals(0, mailbox.memoryBytes());
+        assertEquals(0, files(dir));
+        assertEquals(0, mailbox.drain("u/1", new RecordingSession(1)));
+    }
+
+    @Test
+    void globalLimitSpillsOtherUsers() {
+        OfflineMailbox mailbox = new OfflineMailbox(dir.toFile(), 10_000, 300, null, 0);
+        for (int i = 0; i < 5; i++) mailbox.storeText("a", "mensaje de a " + i);
+        for (int i = 0; i < 5; i++) mailbox.storeText("b", "mensaje de b " + i);
+        assertTrue(mailbox.memoryBytes() <= 300);
+        assertTrue(Files.exists(dir.resolve("b.mbox")));
+
+        RecordingSession b = new RecordingSession(2);
+        assertEquals(5, mailbox.drain("b", b));
+        assertEquals("mensaje de b 0", b.received.get(0));
+        assertEquals("mensaje de b 4", b.received.get(4));
+    }
+}
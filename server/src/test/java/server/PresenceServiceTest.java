@@ -0,0 +1,70 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceServiceTest {
+
+    private final TimerWheel timers = new TimerWheel("test-presence", 10, 8, Runnable::run);
+    private final PresenceService presence = new PresenceService(timers);
+
+    @AfterEach
+    void close() {
+        presence.close();
+        timers.close();
+    }
+
+    // La foto sale por el pool de envío: se espera a que llegue
+    private static void awaitLines(List<String> received, int lines) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (received.size() < lines && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(lines, received.size());
+    }
+
+    @Test
+    void subscribeSendsCurrentStateOfInterest() throws InterruptedException {
+        presence.online(3);
+        RecordingSession watcher = new RecordingSession(1);
+        presence.subscribe(watcher, Set.of(3, 4));
+        awaitLines(watcher.received, 1);
+        String line = watcher.received.get(0);
+        assertTrue(line.startsWith("PRESENCE "));
+        assertTrue(line.contains("3:online"));
+        assertTrue(line.contains("4:offline"));
+    }
+
+    /** Una sesión reanudada recibe el estado actual, no los deltas que se perdió. */
+    @Test
+    void resyncResendsCurrentState() throws InterruptedException {
+        presence.online(3);
+        RecordingSession watcher = new RecordingSession(1);
+        presence.subscribe(watcher, null);
+        awaitLines(watcher.received, 1);
+
+        presence.setInCall(3, true);
+        presence.online(5);
+        presence.resync(1);
+        awaitLines(watcher.received, 2);
+        String line = watcher.received.get(1);
+        assertTrue(line.contains("3:in_call"));
+        assertTrue(line.contains("5:online"));
+    }
+
+    @Test
+    void resyncIgnoresSessionsThatAreNotSubscribed() throws InterruptedException {
+        presence.online(3);
+        RecordingSession watcher = new RecordingSession(1);
+        presence.subscribe(watcher, null);
+        awaitLines(watcher.received, 1);
+        presence.unsubscribe(1);
+        presence.resync(1);
+        Thread.sleep(50);
+        assertEquals(1, watcher.received.size());
+    }
+}
@@ -0,0 +1,50 @@
+package server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Sesión de prueba que guarda lo que recibe, en orden; las notas de voz como {@code VOZ <archivo> de <id>}. */
+class RecordingSession implements ChatSession {
+
+    final int id;
+    final List<String> received = new CopyOnWriteArrayList<>();
+    final List<byte[]> voiceData = new CopyOnWriteArrayList<>();
+    final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+    RecordingSession(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public void send(String msg) {
+        received.add(msg);
+    }
+
+    @Override
+    public void sendAll(List<String> msgs) {
+        batches.add(msgs.size());
+        received.addAll(msgs);
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, byte[] data, String fromId) {
+        received.add("VOZ " + filename + " de " + fromId);
+        voiceData.add(data);
+    }
+
+    @Override
+    public void sendVoiceNote(String filename, Path file, String fromId) {
+        try {
+            sendVoiceNote(filename, Files.readAllBytes(file), fromId);
+        } catch (java.io.IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
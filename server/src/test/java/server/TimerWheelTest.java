@@ -0,0 +1,78 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+
+    // Las tareas corren en el hilo de la rueda: basta para las pruebas
+    private final TimerWheel wheel = new TimerWheel("test-timers", 10, 8, Runnable::run);
+
+    @AfterEach
+    void close() {
+        wheel.close();
+    }
+
+    @Test
+    void runsTaskAfterDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        TimerWheel.Timeout t = wheel.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(t.isExpired());
+        assertEquals(0, wheel.pending());
+    }
+
+    /** Con 8 buckets de 10 ms, 200 ms son varias vueltas de la rueda: no debe vencer en la primera. */
+    @Test
+    void delaysLongerThanOneRotationWaitForTheirRound() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(fired::countDown, 200, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    void expiresInDeadlineOrder() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        wheel.schedule(() -> { order.add(3); done.countDown(); }, 150, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> { order.add(1); done.countDown(); }, 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> { order.add(2); done.countDown(); }, 90, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test
+    void cancelledTaskNeverRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        TimerWheel.Timeout t = wheel.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, wheel.pending());
+        assertTrue(t.cancel());
+        assertTrue(t.isCancelled());
+        assertFalse(t.cancel());
+        Thread.sleep(150);
+        assertEquals(0, runs.get());
+        assertFalse(t.isExpired());
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void rejectsScheduleAfterClose() {
+        wheel.close();
+        assertThrows(IllegalStateException.class, () -> wheel.schedule(() -> { }, 1, TimeUnit.MILLISECONDS));
+    }
+}
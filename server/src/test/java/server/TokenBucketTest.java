@@ -0,0 +1,52 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void startsFullAndRejectsBeyondCapacity() {
+        // Tasa baja: durante la prueba no se recupera ni un token
+        TokenBucket bucket = new TokenBucket(1, 10);
+        assertTrue(bucket.tryAcquire(6));
+        assertTrue(bucket.tryAcquire(4));
+        assertFalse(bucket.tryAcquire(1));
+        assertFalse(new TokenBucket(1, 10).tryAcquire(11));
+    }
+
+    @Test
+    void nanosUntilReflectsRate() {
+        TokenBucket bucket = new TokenBucket(1, 10);
+        assertEquals(0, bucket.nanosUntil(10));
+        assertTrue(bucket.tryAcquire(10));
+        long wait = bucket.nanosUntil(2);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(1900) && wait <= TimeUnit.SECONDS.toNanos(2), "espera " + wait);
+    }
+
+    @Test
+    void refillsOverTimeUpToCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 5);
+        assertTrue(bucket.tryAcquire(5));
+        assertFalse(bucket.tryAcquire(5));
+        Thread.sleep(50);
+        // Se recuperaron unos 50, pero la cubeta no pasa de 5
+        assertTrue(bucket.tryAcquire(5));
+        assertFalse(bucket.tryAcquire(5));
+    }
+
+    @Test
+    void debtIsPaidBeforeNextAcquire() {
+        TokenBucket bucket = new TokenBucket(100, 10);
+        assertEquals(0, bucket.acquireWithDebt(10));
+        long wait = bucket.acquireWithDebt(50);
+        // 50 tokens de deuda a 100/s: medio segundo
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(450) && wait <= TimeUnit.MILLISECONDS.toNanos(500), "espera " + wait);
+        assertFalse(bucket.tryAcquire(1));
+    }
+}
@@ -0,0 +1,141 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VoiceCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(VoiceCache.Lease lease) {
+        try (lease) {
+            ByteBuffer buffer = lease.buffer();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            return data;
+        }
+    }
+
+    private static void assertCached(VoiceCache cache, Path file) {
+        VoiceCache.Lease lease = cache.get(file);
+        assertNotNull(lease);
+        lease.close();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        VoiceCache cache = new VoiceCache(300);
+        Path a = dir.resolve("a.wav");
+        Path b = dir.resolve("b.wav");
+        Path c = dir.resolve("c.wav");
+        cache.put(a, new byte[100]);
+        cache.put(b, new byte[100]);
+        cache.put(c, new byte[100]);
+        // Leer a la convierte en la más reciente: la siguiente en salir es b
+        assertCached(cache, a);
+        cache.put(dir.resolve("d.wav"), new byte[100]);
+        assertNull(cache.get(b));
+        assertCached(cache, a);
+        assertCached(cache, c);
+        assertEquals(300, cache.bytes());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void replacingAnEntryKeepsTheByteCount() {
+        VoiceCache cache = new VoiceCache(1000);
+        Path a = dir.resolve("a.wav");
+        cache.put(a, new byte[100]);
+        cache.put(a, new byte[] {1, 2, 3});
+        assertEquals(3, cache.bytes());
+        assertArrayEquals(new byte[] {1, 2, 3}, bytes(cache.get(a)));
+        // La ruta se normaliza: la misma nota por otro camino es la misma entrada
+        assertCached(cache, dir.resolve("x").resolve("..").resolve("a.wav"));
+        cache.invalidate(a);
+        assertEquals(0, cache.bytes());
+        assertNull(cache.get(a));
+    }
+
+    @Test
+    void oversizedNoteIsNotCached() throws Exception {
+        VoiceCache cache = new VoiceCache(100);
+        Path a = dir.resolve("a.wav");
+        cache.put(a, new byte[50]);
+        // Una nota mayor que la caché la invalida en vez de vaciarla
+        cache.put(a, new byte[101]);
+        assertNull(cache.get(a));
+        assertEquals(0, cache.bytes());
+
+        Path big = Files.write(dir.resolve("grande.wav"), new byte[101]);
+        assertNull(cache.load(big));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void loadReadsFromDiskOnce() throws Exception {
+        VoiceCache cache = new VoiceCache(1000);
+        Path file = Files.write(dir.resolve("nota.wav"), new byte[] {4, 5, 6});
+        assertArrayEquals(new byte[] {4, 5, 6}, bytes(cache.load(file)));
+        Files.delete(file);
+        // Ya está en la caché: no vuelve a leer el disco
+        assertArrayEquals(new byte[] {4, 5, 6}, bytes(cache.load(file)));
+        try (VoiceCache.Lease lease = cache.get(file)) {
+            assertTrue(lease.buffer().isReadOnly());
+        }
+        assertThrows(NoSuchFileException.class, () -> cache.load(dir.resolve("no-existe.wav")));
+    }
+
+    /** Las notas comparten un único arena: entren las que entren, nunca se pasa de la capacidad. */
+    @Test
+    void reusesTheArenaForEvictedNotes() {
+        VoiceCache cache = new VoiceCache(1000);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[37 + (i * 53) % 400];
+            data[0] = (byte) i;
+            Path file = dir.resolve("n" + i + ".wav");
+            cache.put(file, data);
+            assertTrue(cache.bytes() <= 1000);
+            assertEquals((byte) i, bytes(cache.get(file))[0]);
+        }
+    }
+
+    /** Una nota prestada se puede expulsar, pero su zona no se reutiliza hasta cerrarla. */
+    @Test
+    void leasedNoteSurvivesEviction() {
+        VoiceCache cache = new VoiceCache(200);
+        Path a = dir.resolve("a.wav");
+        byte[] first = new byte[150];
+        Arrays.fill(first, (byte) 7);
+        cache.put(a, first);
+        VoiceCache.Lease lease = cache.get(a);
+
+        // No hay hueco mientras a está prestada: b no se guarda, pero a sí sale de la caché
+        cache.put(dir.resolve("b.wav"), new byte[150]);
+        assertNull(cache.get(dir.resolve("b.wav")));
+        assertNull(cache.get(a));
+        assertArrayEquals(first, bytes(lease));
+
+        // Cerrada la lectura, la zona vuelve a estar libre
+        cache.put(dir.resolve("b.wav"), new byte[150]);
+        assertCached(cache, dir.resolve("b.wav"));
+        lease.close(); // cerrar dos veces no libera dos veces
+        cache.put(dir.resolve("c.wav"), new byte[40]);
+        assertCached(cache, dir.resolve("b.wav"));
+        assertCached(cache, dir.resolve("c.wav"));
+        assertEquals(190, cache.bytes());
+    }
+}
@@ -0,0 +1,58 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VoiceUploadStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final TimerWheel timers = new TimerWheel("test-timers", 10, 64, Runnable::run);
+
+    @AfterEach
+    void close() {
+        timers.close();
+    }
+
+    @Test
+    void appendsResumesAndCompletes() throws Exception {
+        VoiceUploadStore store = new VoiceUploadStore(dir.toFile());
+        VoiceUploadStore.Upload upload = store.begin("5", "user", "7", "../../nota.wav", 6);
+        assertEquals("nota.wav", upload.filename);
+        assertEquals("5", store.owner(upload.id));
+        assertEquals(3, store.append(upload.id, 0, new byte[] {1, 2, 3}));
+        // Reintento que solapa lo ya confirmado
+        assertEquals(6, store.append(upload.id, 1, new byte[] {2, 3, 4, 5, 6}));
+        assertThrows(IllegalArgumentException.class, () -> store.append(upload.id, 9, new byte[] {7}));
+        assertEquals(6, store.offset(upload.id));
+        store.complete(upload.id);
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, Files.readAllBytes(upload.file()));
+        assertThrows(IllegalArgumentException.class, () -> store.owner(upload.id));
+    }
+
+    /** En un servidor sin actividad nadie llama a begin: la purga tiene que llegar por el temporizador. */
+    @Test
+    void abandonedUploadIsPurgedByTimer() throws Exception {
+        VoiceUploadStore store = new VoiceUploadStore(dir.toFile(), timers, 50);
+        VoiceUploadStore.Upload upload = store.begin("5", "user", "7", "nota.wav", 0);
+        store.append(upload.id, 0, new byte[] {1});
+        assertTrue(Files.exists(upload.file()));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.size() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, store.size());
+        assertFalse(Files.exists(upload.file()));
+        assertThrows(IllegalArgumentException.class, () -> store.offset(upload.id));
+    }
+}
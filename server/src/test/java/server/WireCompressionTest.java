@@ -0,0 +1,91 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WireCompressionTest {
+
+    // Un extremo de la conexión comprime y el otro descomprime, como servidor y cliente
+    private final WireCompression sender = new WireCompression();
+    private final WireCompression receiver = new WireCompression();
+
+    @AfterEach
+    void close() {
+        sender.close();
+        receiver.close();
+    }
+
+    /** El diccionario se comparte entre mensajes: los repetidos deben salir mucho más pequeños. */
+    @Test
+    void textRoundTripAcrossMessages() throws IOException {
+        int firstWire = 0;
+        int lastWire = 0;
+        for (int i = 0; i < 50; i++) {
+            String lines = "#" + (100 + i) + " [Grupo equipo] 5: mañana reunión del proyecto a las diez\n"
+                    + "#" + (200 + i) + " [Privado] de 3: vale, gracias\n";
+            byte[] raw = lines.getBytes(StandardCharsets.UTF_8);
+            byte[] wire = sender.deflateText(raw);
+            assertEquals(lines, receiver.inflateText(wire, raw.length));
+            if (i == 0) firstWire = wire.length;
+            lastWire = wire.length;
+        }
+        assertTrue(lastWire < firstWire / 2, "primero " + firstWire + ", último " + lastWire);
+    }
+
+    @Test
+    void voiceRoundTrip() throws IOException {
+        byte[] pcm = new byte[64 * 1024];
+        for (int i = 0; i < pcm.length; i += 2) {
+            short v = (short) (Math.sin(i / 40.0) * 3000);
+            pcm[i] = (byte) v;
+            pcm[i + 1] = (byte) (v >> 8);
+        }
+        byte[] wire = sender.deflateVoice("nota.wav", ByteBuffer.wrap(pcm));
+        assertNotNull(wire);
+        assertTrue(wire.length < pcm.length);
+        assertArrayEquals(pcm, receiver.inflateVoice(wire, pcm.length));
+        // El Inflater de voz se reinicia por nota
+        assertArrayEquals(pcm, receiver.inflateVoice(sender.deflateVoice("otra.wav", ByteBuffer.wrap(pcm)), pcm.length));
+    }
+
+    @Test
+    void voicePassThrough() {
+        byte[] noise = new byte[64 * 1024];
+        new Random(42).nextBytes(noise);
+        assertNull(sender.deflateVoice("ruido.wav", ByteBuffer.wrap(noise)));
+        assertNull(sender.deflateVoice("nota.webm", ByteBuffer.wrap(new byte[64 * 1024])));
+        assertNull(sender.deflateVoice("corta.wav", ByteBuffer.wrap(new byte[WireCompression.MIN_BYTES - 1])));
+    }
+
+    @Test
+    void corruptOrMismatchedFramesThrow() {
+        byte[] raw = "hola hola hola hola hola hola\n".getBytes(StandardCharsets.UTF_8);
+        byte[] wire = sender.deflateText(raw);
+        assertThrows(IOException.class, () -> receiver.inflateText(wire, raw.length + 5));
+        assertThrows(IOException.class, () -> new WireCompression().inflateText(new byte[] {(byte) 0xFF, 0x00, 0x12}, 10));
+        assertThrows(IOException.class, () -> receiver.inflateText(wire, -1));
+        assertThrows(IOException.class, () -> receiver.inflateText(wire, WireCompression.MAX_TEXT_FRAME + 1));
+    }
+
+    @Test
+    void parsesHeaders() throws IOException {
+        assertEquals(WireCompression.TEXT_FRAME + "300:120", WireCompression.textHeader(300, 120));
+        assertArrayEquals(new int[] {300, 120}, WireCompression.parseLengths(WireCompression.textHeader(300, 120), 2));
+        assertArrayEquals(new int[] {5000, 42}, WireCompression.parseLengths(WireCompression.voiceHeader(5000, 42), 1));
+        assertThrows(IOException.class, () -> WireCompression.parseLengths("#Z300", 2));
+        assertThrows(IOException.class, () -> WireCompression.parseLengths("#Z-1:5", 2));
+        assertThrows(IOException.class, () -> WireCompression.parseLengths("#Zabc:5", 2));
+    }
+}
@@ -0,0 +1,122 @@
+package server.ice;
+
+import Chat.GroupNotFound;
+import Chat.UploadFailed;
+import Chat.User;
+import Chat.UserNotFound;
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.Current;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.ChatServer;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatServiceITest {
+
+    @TempDir
+    Path dir;
+
+    private ChatServer server;
+    private ChatServiceI service;
+
+    @BeforeEach
+    void start() {
+        server = new ChatServer(0, 0, 1, dir.toFile());
+        // La entrega corre en el hilo que llama: los futuros ya están completos al volver
+        service = new ChatServiceI(server, Runnable::run, null, new AudioCallServiceI(server));
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.close();
+    }
+
+    private static Throwable failure(CompletionStage<?> stage) {
+        CompletionException e = assertThrows(CompletionException.class, () -> stage.toCompletableFuture().join());
+        return e.getCause();
+    }
+
+    @Test
+    void privateMessageToUnknownUserFailsWithUserNotFound() {
+        User ana = service.login("ana", null);
+        assertTrue(failure(service.sendPrivateMessageAsync(ana.id, "999", "hola", null)) instanceof UserNotFound);
+        assertTrue(failure(service.sendPrivateMessageAsync(ana.id, "no-es-un-id", "hola", null)) instanceof UserNotFound);
+        // Sin sesión no se entrega nada aunque el destino exista
+        assertTrue(failure(service.sendPrivateMessageAsync("12345", ana.id, "hola", null)) instanceof UserNotFound);
+    }
+
+    @Test
+    void voiceNoteToUnknownTargetsFails() {
+        User ana = service.login("ana", null);
+        byte[] note = {1, 2, 3};
+        assertTrue(failure(service.sendVoiceNoteToUserAsync(ana.id, "999", "nota.wav", note, null)) instanceof UserNotFound);
+        assertTrue(failure(service.sendVoiceNoteToGroupAsync(ana.id, "nadie", "nota.wav", note, null)) instanceof GroupNotFound);
+        assertTrue(failure(service.sendVoiceNoteToGroupAsync("12345", "nadie", "nota.wav", note, null)) instanceof GroupNotFound);
+    }
+
+    @Test
+    void groupMessageToUnknownGroupFailsWithGroupNotFound() {
+        User ana = service.login("ana", null);
+        assertTrue(failure(service.sendGroupMessageAsync(ana.id, "nadie", "hola", null)) instanceof GroupNotFound);
+    }
+
+    @Test
+    void deliveredMessagesComplete() {
+        User ana = service.login("ana", null);
+        User luis = service.login("luis", null);
+        assertNull(service.sendPrivateMessageAsync(ana.id, luis.id, "hola", null).toCompletableFuture().join());
+        service.createGroup("equipo", ana.id, null);
+        assertNull(service.sendGroupMessageAsync(ana.id, "equipo", "hola", null).toCompletableFuture().join());
+    }
+
+    /** Una llamada que llega por su propia conexión Ice, como la de otro navegador. */
+    private static Current over(Connection con) {
+        Current current = new Current();
+        current.con = con;
+        return current;
+    }
+
+    private static Connection connection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode": return System.identityHashCode(proxy);
+                        case "equals": return proxy == args[0];
+                        case "toString": return "conexión de prueba";
+                        default: return null;
+                    }
+                });
+    }
+
+    @Test
+    void uploadsOnlyAcceptTheirOwner() throws Exception {
+        Current anaCon = over(connection());
+        Current luisCon = over(connection());
+        User ana = service.login("ana", anaCon);
+        User luis = service.login("luis", luisCon);
+        // Nadie empieza una subida en nombre de otro
+        assertThrows(UploadFailed.class, () -> service.beginVoiceUpload(ana.id, "user", luis.id, "nota.wav", 3, luisCon));
+
+        String id = service.beginVoiceUpload(ana.id, "user", luis.id, "nota.wav", 3, anaCon);
+        assertTrue(failure(service.appendVoiceChunkAsync(id, 0, new byte[] {9, 9, 9}, luisCon)) instanceof UploadFailed);
+        assertThrows(UploadFailed.class, () -> service.getVoiceUploadOffset(id, luisCon));
+        assertTrue(failure(service.commitVoiceUploadAsync(id, luisCon)) instanceof UploadFailed);
+        service.abortVoiceUpload(id, luisCon);
+
+        // La subida sigue intacta para su dueño
+        assertEquals(0, service.getVoiceUploadOffset(id, anaCon));
+        assertEquals(3, (long) service.appendVoiceChunkAsync(id, 0, new byte[] {1, 2, 3}, anaCon).toCompletableFuture().join());
+        assertNull(service.commitVoiceUploadAsync(id, anaCon).toCompletableFuture().join());
+    }
+}
@@ -0,0 +1,131 @@
+package server.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.VoiceCache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileRangeHandlerTest {
+
+    @TempDir
+    Path dir;
+
+    private byte[] note;
+    private FileRangeHandler handler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        note = new byte[1000];
+        for (int i = 0; i < note.length; i++) note[i] = (byte) i;
+        Files.write(Files.createDirectories(dir.resolve("1_2_voice")).resolve("nota.wav"), note);
+        handler = new FileRangeHandler(dir.toFile(), new VoiceCache(1024 * 1024));
+    }
+
+    @Test
+    void parsesRanges() {
+        assertArrayEquals(new long[] {0, 99}, FileRangeHandler.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] {500, 999}, FileRangeHandler.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] {900, 999}, FileRangeHandler.parseRange("bytes=-100", 1000));
+        // Sufijo mayor que el archivo: el archivo entero
+        assertArrayEquals(new long[] {0, 999}, FileRangeHandler.parseRange("bytes=-5000", 1000));
+        // El final se recorta al tamaño
+        assertArrayEquals(new long[] {990, 999}, FileRangeHandler.parseRange("bytes=990-5000", 1000));
+        // Con varios rangos solo se atiende el primero
+        assertArrayEquals(new long[] {10, 19}, FileRangeHandler.parseRange("bytes=10-19, 30-39", 1000));
+    }
+
+    @Test
+    void rejectsUnsatisfiableRanges() {
+        assertNull(FileRangeHandler.parseRange("bytes=1000-", 1000));
+        assertNull(FileRangeHandler.parseRange("bytes=50-10", 1000));
+        assertNull(FileRangeHandler.parseRange("bytes=-0", 1000));
+        assertNull(FileRangeHandler.parseRange("bytes=abc-", 1000));
+        assertNull(FileRangeHandler.parseRange("bytes=10", 1000));
+        assertNull(FileRangeHandler.parseRange("items=0-10", 1000));
+        assertNull(FileRangeHandler.parseRange("bytes=0-", 0));
+    }
+
+    /** Envía la petición por un socket, la atiende el handler y devuelve la respuesta completa. */
+    private String[] exchange(String request) throws IOException {
+        try (Loopback socket = new Loopback()) {
+            socket.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            HttpRequest parsed = HttpRequest.read(new ChannelReader(socket.server));
+            assertTrue(handler.handle(socket.server, parsed));
+            socket.server.shutdownOutput();
+            byte[] response = socket.readToEnd();
+            String raw = new String(response, StandardCharsets.ISO_8859_1);
+            int end = raw.indexOf("\r\n\r\n");
+            return new String[] {raw.substring(0, end), raw.substring(end + 4)};
+        }
+    }
+
+    private static byte[] body(String[] response) {
+        return response[1].getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void servesWholeFile() throws IOException {
+        String[] response = exchange("GET /api/voice/1_2/nota.wav HTTP/1.1\r\nHost: x\r\n\r\n");
+        assertTrue(response[0].startsWith("HTTP/1.1 200 OK"), response[0]);
+        assertTrue(response[0].contains("Content-Length: 1000"), response[0]);
+        assertTrue(response[0].contains("Content-Type: audio/wav"), response[0]);
+        assertArrayEquals(note, body(response));
+    }
+
+    @Test
+    void servesPartialContent() throws IOException {
+        String[] response = exchange("GET /api/voice/1_2_voice/nota.wav HTTP/1.1\r\nRange: bytes=100-199\r\n\r\n");
+        assertTrue(response[0].startsWith("HTTP/1.1 206 Partial Content"), response[0]);
+        assertTrue(response[0].contains("Content-Range: bytes 100-199/1000"), response[0]);
+        assertTrue(response[0].contains("Content-Length: 100"), response[0]);
+        assertArrayEquals(Arrays.copyOfRange(note, 100, 200), body(response));
+
+        // La segunda vez sale de la caché: mismo resultado
+        response = exchange("GET /api/voice/1_2_voice/nota.wav HTTP/1.1\r\nRange: bytes=-10\r\n\r\n");
+        assertTrue(response[0].contains("Content-Range: bytes 990-999/1000"), response[0]);
+        assertArrayEquals(Arrays.copyOfRange(note, 990, 1000), body(response));
+    }
+
+    @Test
+    void unsatisfiableRangeIs416() throws IOException {
+        String[] response = exchange("GET /api/voice/1_2/nota.wav HTTP/1.1\r\nRange: bytes=5000-\r\n\r\n");
+        assertTrue(response[0].startsWith("HTTP/1.1 416"), response[0]);
+        assertTrue(response[0].contains("Content-Range: bytes */1000"), response[0]);
+        assertEquals("", response[1]);
+    }
+
+    /** Con If-Range de otra versión del archivo se ignora el rango y va entero. */
+    @Test
+    void staleIfRangeServesWholeFile() throws IOException {
+        String[] response = exchange("GET /api/voice/1_2/nota.wav HTTP/1.1\r\nRange: bytes=0-9\r\nIf-Range: \"otra\"\r\n\r\n");
+        assertTrue(response[0].startsWith("HTTP/1.1 200 OK"), response[0]);
+        assertArrayEquals(note, body(response));
+    }
+
+    @Test
+    void matchingEtagIs304() throws IOException {
+        String[] first = exchange("HEAD /api/voice/1_2/nota.wav HTTP/1.1\r\n\r\n");
+        String etag = first[0].lines().filter(l -> l.startsWith("ETag: ")).findFirst().orElseThrow().substring(6);
+        assertEquals("", first[1]);
+        String[] response = exchange("GET /api/voice/1_2/nota.wav HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n");
+        assertTrue(response[0].startsWith("HTTP/1.1 304"), response[0]);
+        assertEquals("", response[1]);
+    }
+
+    @Test
+    void rejectsPathTraversalAndMissingFiles() throws IOException {
+        assertTrue(exchange("GET /api/voice/1_2/..%2F..%2Fsecreto HTTP/1.1\r\n\r\n")[0].startsWith("HTTP/1.1 400"));
+        assertTrue(exchange("GET /api/voice/1_2/no-existe.wav HTTP/1.1\r\n\r\n")[0].startsWith("HTTP/1.1 404"));
+    }
+}
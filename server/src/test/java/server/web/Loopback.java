@@ -0,0 +1,53 @@
+package server.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/** Par de sockets TCP conectados por loopback: el lado del servidor y el del navegador. */
+final class Loopback implements AutoCloseable {
+
+    final SocketChannel server;
+    final SocketChannel client;
+    final InputStream in;
+
+    Loopback() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            client = SocketChannel.open(listener.getLocalAddress());
+            server = listener.accept();
+        }
+        // Una lectura que no llega falla la prueba en vez de colgarla
+        client.socket().setSoTimeout(5000);
+        in = client.socket().getInputStream();
+    }
+
+    void write(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) client.write(buffer);
+    }
+
+    byte[] readFully(int n) throws IOException {
+        byte[] data = in.readNBytes(n);
+        if (data.length != n) throw new IOException("Conexión cerrada tras " + data.length + " de " + n + " bytes");
+        return data;
+    }
+
+    /** Todo lo que llegue hasta que el otro lado cierre. */
+    byte[] readToEnd() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        in.transferTo(out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+        server.close();
+    }
+}
@@ -0,0 +1,200 @@
+package server.web;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.ChatServer;
+import server.ChatSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebSocketSessionTest {
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+    private static final byte[] MASK = {0x12, 0x34, 0x56, 0x78};
+
+    @TempDir
+    Path dir;
+
+    private ChatServer server;
+    private Loopback socket;
+    private Thread reader;
+    // Destinatario de los /msg que envía el navegador
+    private final List<String> peer = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new ChatServer(0, 0, 1, dir.toFile());
+        server.register(new ChatSession() {
+            public int getId() { return 2; }
+            public void send(String msg) { peer.add(msg); }
+            public void sendVoiceNote(String filename, byte[] data, String fromId) { }
+            public void sendVoiceNote(String filename, Path file, String fromId) { }
+        });
+        socket = new Loopback();
+        WebSocketSession session = new WebSocketSession(1, socket.server, new ChannelReader(socket.server), server);
+        reader = new Thread(session::run, "ws-test");
+        reader.start();
+        assertEquals("Conectado al servidor. Tu id es 1.", text(readFrame(OP_TEXT)));
+        assertTrue(text(readFrame(OP_TEXT)).startsWith("Audio UDP puerto servidor: "));
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        socket.close();
+        reader.join(5000);
+        server.close();
+    }
+
+    /** Trama del navegador: siempre enmascarada, con la longitud en 7, 16 o 64 bits. */
+    private void writeFrame(boolean fin, int opcode, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write((fin ? 0x80 : 0) | opcode);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(0x80 | 127);
+            for (int i = 7; i >= 0; i--) frame.write((int) ((long) payload.length >> (8 * i)));
+        }
+        frame.write(MASK);
+        for (int i = 0; i < payload.length; i++) frame.write(payload[i] ^ MASK[i & 3]);
+        socket.write(frame.toByteArray());
+    }
+
+    /** Lee una trama del servidor (sin máscara) y comprueba su opcode. */
+    private byte[] readFrame(int expectedOpcode) throws IOException {
+        byte[] head = socket.readFully(2);
+        assertEquals(0x80 | expectedOpcode, head[0] & 0xFF);
+        long len = head[1] & 0x7F;
+        if (len == 126) {
+            byte[] ext = socket.readFully(2);
+            len = ((ext[0] & 0xFF) << 8) | (ext[1] & 0xFF);
+        } else if (len == 127) {
+            len = 0;
+            for (byte b : socket.readFully(8)) len = (len << 8) | (b & 0xFF);
+        }
+        return socket.readFully((int) len);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    private void awaitPeer(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!peer.contains(expected) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(peer.contains(expected), "recibido: " + peer);
+    }
+
+    private void awaitClosed() throws InterruptedException {
+        reader.join(5000);
+        assertFalse(reader.isAlive(), "la sesión sigue leyendo");
+    }
+
+    @Test
+    void textFrameIsDispatched() throws Exception {
+        writeFrame(true, OP_TEXT, utf8("/msg 2 qué tal"));
+        awaitPeer("[Privado] de 1: qué tal");
+    }
+
+    /** Un ping entre dos fragmentos se contesta en el acto y no corta el mensaje. */
+    @Test
+    void fragmentedMessageWithInterleavedPing() throws Exception {
+        writeFrame(false, OP_TEXT, utf8("/msg 2 ho"));
+        writeFrame(true, OP_PING, utf8("latido"));
+        assertArrayEquals(utf8("latido"), readFrame(OP_PONG));
+        writeFrame(false, OP_CONTINUATION, utf8("l"));
+        writeFrame(true, OP_CONTINUATION, utf8("a"));
+        awaitPeer("[Privado] de 1: hola");
+    }
+
+    @Test
+    void extendedLengths() throws Exception {
+        String medium = "m".repeat(300);
+        String large = "g".repeat(70_000);
+        writeFrame(true, OP_TEXT, utf8("/msg 2 " + medium));
+        writeFrame(true, OP_TEXT, utf8("/msg 2 " + large));
+        awaitPeer("[Privado] de 1: " + medium);
+        awaitPeer("[Privado] de 1: " + large);
+    }
+
+    @Test
+    void closeFrameIsEchoed() throws Exception {
+        byte[] status = {0x03, (byte) 0xE8};
+        writeFrame(true, OP_CLOSE, status);
+        assertArrayEquals(status, readFrame(OP_CLOSE));
+        awaitClosed();
+    }
+
+    @Test
+    void unmaskedFrameEndsSession() throws Exception {
+        byte[] payload = utf8("/msg 2 sin máscara");
+        byte[] frame = new byte[2 + payload.length];
+        frame[0] = (byte) (0x80 | OP_TEXT);
+        frame[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 2, payload.length);
+        socket.write(frame);
+        awaitClosed();
+        assertTrue(peer.isEmpty());
+    }
+
+    /** Longitud de 64 bits con el bit alto puesto: negativa como long, no debe reservar nada. */
+    @Test
+    void negativeLengthEndsSession() throws Exception {
+        byte[] frame = new byte[2 + 8 + 4];
+        frame[0] = (byte) (0x80 | OP_TEXT);
+        frame[1] = (byte) (0x80 | 127);
+        frame[2] = (byte) 0x80;
+        socket.write(frame);
+        awaitClosed();
+    }
+
+    @Test
+    void oversizedLengthEndsSession() throws Exception {
+        byte[] frame = new byte[2 + 8 + 4];
+        frame[0] = (byte) (0x80 | OP_TEXT);
+        frame[1] = (byte) (0x80 | 127);
+        // 1 GB: por encima del máximo de un mensaje
+        frame[6] = 0x40;
+        socket.write(frame);
+        awaitClosed();
+    }
+
+    /** Un ping de más de 125 bytes se rechaza con 1002 en vez de devolver un pong enorme. */
+    @Test
+    void oversizedControlFrameFailsWithProtocolError() throws Exception {
+        writeFrame(true, OP_PING, new byte[126]);
+        assertArrayEquals(new byte[] {0x03, (byte) 0xEA}, readFrame(OP_CLOSE));
+        awaitClosed();
+    }
+
+    @Test
+    void fragmentedControlFrameFailsWithProtocolError() throws Exception {
+        writeFrame(false, OP_PING, utf8("a medias"));
+        assertArrayEquals(new byte[] {0x03, (byte) 0xEA}, readFrame(OP_CLOSE));
+        awaitClosed();
+    }
+}
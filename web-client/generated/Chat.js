@@ -195,6 +195,40 @@
         }
     };
 
+    Chat.UploadFailed = class extends Ice.UserException
+    {
+        constructor(reason = "", _cause = "")
+        {
+            super(_cause);
+            this.reason = reason;
+        }
+
+        static get _parent()
+        {
+            return Ice.UserException;
+        }
+
+        static get _id()
+        {
+            return "::Chat::UploadFailed";
+        }
+
+        _mostDerivedType()
+        {
+            return Chat.UploadFailed;
+        }
+
+        _writeMemberImpl(ostr)
+        {
+            ostr.writeString(this.reason);
+        }
+
+        _readMemberImpl(istr)
+        {
+            this.reason = istr.readString();
+        }
+    };
+
     Slice.defineSequence(Chat, "GroupSeqHelper", "Chat.Group", false);
 
     Slice.defineSequence(Chat, "MessageSeqHelper", "Chat.Message", false);
@@ -216,7 +250,8 @@
     {
         "onMessage": [, , , , , [[Chat.Message]], , , , ],
         "onVoiceNote": [, , , , , [[7], [7], ["Chat.ByteSeqHelper"]], , , , ],
-        "onUserJoined": [, , , , , [[7], [7]], , , , ]
+        "onUserJoined": [, , , , , [[7], [7]], , , , ],
+        "onCallAudio": [, , , , , [[7], [4], ["Chat.ByteSeqHelper"]], , , , ]
     });
 
     const iceC_Chat_ChatService_ids = [
@@ -266,6 +301,25 @@
         [
             Chat.GroupNotFound
         ], , ],
+        "beginVoiceUpload": [, , , , [7], [[7], [7], [7], [7], [4]], ,
+        [
+            Chat.UploadFailed
+        ], , ],
+        "appendVoiceChunk": [, , , , [4], [[7], [4], ["Chat.ByteSeqHelper"]], ,
+        [
+            Chat.UploadFailed
+        ], , ],
+        "getVoiceUploadOffset": [, 2, , , [4], [[7]], ,
+        [
+            Chat.UploadFailed
+        ], , ],
+        "commitVoiceUpload": [, , , , , [[7]], ,
+        [
+            Chat.UploadFailed,
+            Chat.UserNotFound,
+            Chat.GroupNotFound
+        ], , ],
+        "abortVoiceUpload": [, , , , , [[7]], , , , ],
         "getMessageHistory": [, , , , ["Chat.MessageSeqHelper"], [[7], [7], [7]], , , , ],
         "registerCallback": [, , , , , [[7], ["Chat.ChatCallbackPrx"]], , , , ],
         "unregisterCallback": [, , , , , [[7]], , , , ]
@@ -0,0 +1,73 @@
+/**
+ * Cliente para el gateway WebSocket embebido en el servidor Java (ws://host:8080/chat).
+ * Habla el mismo protocolo de líneas que el cliente TCP; las notas de voz viajan
+ * como trama de texto con la cabecera + trama binaria con el audio.
+ */
+class GatewayChatClient {
+    constructor(url) {
+        this.url = url;
+        this.ws = null;
+        this.clientId = null;
+        this.pendingVoice = null;
+
+        // Callbacks para la UI
+        this.onLineCallback = null;
+        this.onVoiceNoteCallback = null;
+    }
+
+    connect() {
+        return new Promise((resolve, reject) => {
+            this.ws = new WebSocket(this.url);
+            this.ws.binaryType = 'arraybuffer';
+
+            this.ws.onerror = (error) => reject(error);
+            this.ws.onmessage = (event) => {
+                if (typeof event.data !== 'string') {
+                    // Audio de la nota anunciada en la trama de texto anterior
+                    if (this.pendingVoice && this.onVoiceNoteCallback) {
+                        this.onVoiceNoteCallback(this.pendingVoice.from, this.pendingVoice.filename, event.data);
+                    }
+                    this.pendingVoice = null;
+                    return;
+                }
+                const line = event.data;
+                if (line.startsWith('INCOMING_VOICENOTE:')) {
+                    const parts = line.split(':');
+                    this.pendingVoice = { from: parts[1], filename: parts.slice(2).join(':') };
+                    return;
+                }
+                const match = line.match(/Tu id es (\d+)/);
+                if (match && this.clientId === null) {
+                    this.clientId = Number(match[1]);
+                    resolve(this.clientId);
+                }
+                if (this.onLineCallback) this.onLineCallback(line);
+            };
+        });
+    }
+
+    sendPrivateMessage(toId, message) { this.ws.send(`/msg ${toId} ${message}`); }
+    sendGroupMessage(groupName, message) { this.ws.send(`/msgGroup ${groupName} ${message}`); }
+    createGroup(groupName) { this.ws.send(`/createGroup ${groupName}`); }
+    joinGroup(groupName) { this.ws.send(`/joinGroup ${groupName}`); }
+    listGroups() { this.ws.send('/listGroups'); }
+
+    sendVoiceNoteToUser(toId, filename, audioData) {
+        this.ws.send(`voicenoteUser:${toId}:${filename}`);
+        this.ws.send(audioData);
+    }
+
+    sendVoiceNoteToGroup(groupName, filename, audioData) {
+        this.ws.send(`voicenoteGroup:${groupName}:${filename}`);
+        this.ws.send(audioData);
+    }
+
+    setOnLineCallback(callback) { this.onLineCallback = callback; }
+    setOnVoiceNoteCallback(callback) { this.onVoiceNoteCallback = callback; }
+
+    close() {
+        if (this.ws) this.ws.close();
+    }
+}
+
+export default GatewayChatClient;
@@ -3,6 +3,9 @@ import Ice from 'ice';
 
 import { Chat } from '../../generated/Chat.js'; 
 
+const VOICE_CHUNK_SIZE = 48 * 1024; // por debajo del máximo de 64 KB del servidor
+const MAX_UPLOAD_RETRIES = 5;
+
 class IceChatClient {
     constructor() {
         this.communicator = null;
@@ -16,6 +19,10 @@ class IceChatClient {
         this.onMessageCallback = null;
         this.onVoiceNoteCallback = null;
         this.onUserJoinedCallback = null;
+        this.onCallAudioCallback = null;
+        this.onPresenceCallback = null;
+        // userId -> "online" | "idle" | "in_call" (los desconectados se borran)
+        this.presence = new Map();
     }
 
     async initialize() {
@@ -67,14 +74,25 @@ class IceChatClient {
     // --- CORRECCIÓN 2: Implementación correcta del Callback con Adaptador ---
     async registerCallbacks() {
         try {
-            // 1. Crear un adaptador local en el navegador (necesario para bidireccionalidad)
-            // Usamos "ws -h localhost" sin puerto para que el sistema asigne uno efímero
-            this.adapter = await this.communicator.createObjectAdapterWithEndpoints("ClientAdapter", "ws -h localhost");
+            // 1. Adaptador sin endpoints: los callbacks llegan por la misma conexión WebSocket
+            // que usamos para invocar al servidor (conexión bidireccional), así el servidor
+            // no necesita abrir conexiones hacia el navegador
+            this.adapter = await this.communicator.createObjectAdapter("");
+            const connection = await this.chatService.ice_getConnection();
+            connection.setAdapter(this.adapter);
+            // Heartbeats constantes: mantienen viva la conexión y permiten al servidor
+            // detectar un cliente caído y limpiar sus callbacks
+            connection.setACM(undefined, undefined, Ice.ACMHeartbeat.HeartbeatAlways);
 
             // 2. Definir la clase que implementa la interfaz ChatCallback
             const self = this;
             class ChatCallbackI extends Chat.ChatCallback {
                 onMessage(msg) {
+                    // Deltas de presencia agrupados por el servidor: "<id>:<estado> <id>:<estado> ..."
+                    if (msg.type === "presence") {
+                        self.applyPresence(msg.content);
+                        return;
+                    }
                     console.log("Mensaje recibido:", msg);
                     if (self.onMessageCallback) self.onMessageCallback(msg);
                 }
@@ -85,6 +103,10 @@ class IceChatClient {
                 onUserJoined(user, group) {
                     if (self.onUserJoinedCallback) self.onUserJoinedCallback(user, group);
                 }
+                onCallAudio(sessionId, seq, data) {
+                    // Se invoca por cada bloque de audio: sin logs aquí
+                    if (self.onCallAudioCallback) self.onCallAudioCallback(sessionId, seq, data);
+                }
             }
 
             // 3. Instanciar y añadir al adaptador
@@ -135,30 +157,68 @@ class IceChatClient {
     }
 
     // --- CORRECCIÓN 3: Manejo de Bytes para Audio ---
+    // Las notas de voz se suben por bloques: ningún mensaje Ice supera VOICE_CHUNK_SIZE
+    // y los bloques se intercalan con el resto del tráfico de la conexión.
     async sendVoiceNoteToUser(toUser, filename, audioData) {
         if (!this.connected) throw new Error("No conectado");
-        
-        // Ice necesita Array de JS standard, no Uint8Array (a menos que uses mappings específicos)
-        // audioData llega como ArrayBuffer o Uint8Array desde el recorder
-        const buffer = new Uint8Array(audioData);
-        const iceData = Array.from(buffer); 
-
-        await this.chatService.sendVoiceNoteToUser(this.userId, toUser, filename, iceData);
+        await this.uploadVoiceNote("user", toUser, filename, audioData);
     }
 
     async sendVoiceNoteToGroup(groupName, filename, audioData) {
         if (!this.connected) throw new Error("No conectado");
+        await this.uploadVoiceNote("group", groupName, filename, audioData);
+    }
 
-        const buffer = new Uint8Array(audioData);
-        const iceData = Array.from(buffer);
+    async uploadVoiceNote(targetType, target, filename, audioData) {
+        // audioData llega como ArrayBuffer o Uint8Array desde el recorder
+        const bytes = new Uint8Array(audioData);
+        const uploadId = await this.chatService.beginVoiceUpload(
+            this.userId, targetType, target, filename, new Ice.Long(bytes.length));
 
-        await this.chatService.sendVoiceNoteToGroup(this.userId, groupName, filename, iceData);
+        let offset = 0;
+        let retries = 0;
+        let committed = false;
+        try {
+            while (offset < bytes.length) {
+                const end = Math.min(offset + VOICE_CHUNK_SIZE, bytes.length);
+                try {
+                    // Ice necesita Array de JS standard, no Uint8Array
+                    const chunk = Array.from(bytes.subarray(offset, end));
+                    const confirmed = await this.chatService.appendVoiceChunk(uploadId, new Ice.Long(offset), chunk);
+                    offset = confirmed.toNumber();
+                    retries = 0;
+                } catch (error) {
+                    if (error instanceof Chat.UploadFailed || ++retries > MAX_UPLOAD_RETRIES) throw error;
+                    // Error de red: Ice reconecta en la siguiente invocación y se reanuda
+                    // desde lo que el servidor ya tiene guardado
+                    console.warn("Reanudando subida de nota de voz tras error:", error);
+                    offset = (await this.chatService.getVoiceUploadOffset(uploadId)).toNumber();
+                }
+            }
+            await this.chatService.commitVoiceUpload(uploadId);
+            committed = true;
+        } finally {
+            // Cualquier salida con error (también de getVoiceUploadOffset o del commit)
+            // libera la subida en el servidor en lugar de dejarla abierta
+            if (!committed) this.chatService.abortVoiceUpload(uploadId).catch(() => {});
+        }
     }
 
     // Setters de la UI
     setOnMessageCallback(callback) { this.onMessageCallback = callback; }
     setOnVoiceNoteCallback(callback) { this.onVoiceNoteCallback = callback; }
     setOnUserJoinedCallback(callback) { this.onUserJoinedCallback = callback; }
+    setOnCallAudioCallback(callback) { this.onCallAudioCallback = callback; }
+    setOnPresenceCallback(callback) { this.onPresenceCallback = callback; }
+
+    applyPresence(delta) {
+        for (const entry of delta.split(" ")) {
+            const [user, state] = entry.split(":");
+            if (state === "offline") this.presence.delete(user);
+            else this.presence.set(user, state);
+        }
+        if (this.onPresenceCallback) this.onPresenceCallback(this.presence);
+    }
 
     destroy() {
         if (this.communicator) {